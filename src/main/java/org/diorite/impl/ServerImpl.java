@@ -51,6 +51,8 @@ import org.diorite.impl.pipelines.event.chunk.ChunkUnloadPipelineImpl;
 import org.diorite.impl.pipelines.event.input.CommandPipelineImpl;
 import org.diorite.impl.pipelines.event.input.TabCompletePipelineImpl;
 import org.diorite.impl.pipelines.event.player.ChatPipelineImpl;
+import org.diorite.impl.utils.ZlibPool;
+import org.diorite.impl.world.WorldImpl;
 import org.diorite.impl.world.WorldsManagerImpl;
 import org.diorite.impl.world.generator.FlatWorldGeneratorImpl;
 import org.diorite.impl.world.generator.TestWorldGeneratorImpl;
@@ -408,6 +410,8 @@ public class ServerImpl implements Server
         }
         if (this.worldsManager != null)
         {
+            // pregenerators use chunk manager of world, so they must be stopped before final save
+            this.worldsManager.getWorlds().stream().forEach(WorldImpl::stopPregenerator);
             this.worldsManager.getWorlds().stream().forEach(World::save);
             Main.debug("done?");
         }
@@ -415,6 +419,7 @@ public class ServerImpl implements Server
         {
             this.serverConnection.close();
         }
+        ZlibPool.getInstance().clear();
         System.out.println("Goodbye <3");
     }
 
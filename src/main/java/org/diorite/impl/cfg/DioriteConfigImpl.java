@@ -55,6 +55,10 @@ public class DioriteConfigImpl implements DioriteConfig
     @CfgIntDefault(Server.DEFAULT_PACKET_COMPRESSION_THRESHOLD)
     private int networkCompressionThreshold;
 
+    @CfgComment("Compression level of packets, from 0 (no compression, fastest) to 9 (smallest packets, slowest), -1 means default zlib level.")
+    @CfgIntDefault(- 1)
+    private int networkCompressionLevel;
+
     @CfgComment("Amount of netty event loop threads.")
     @CfgByteDefault(4)
     private int nettyThreads;
@@ -176,6 +180,16 @@ public class DioriteConfigImpl implements DioriteConfig
         this.networkCompressionThreshold = networkCompressionThreshold;
     }
 
+    public int getNetworkCompressionLevel()
+    {
+        return this.networkCompressionLevel;
+    }
+
+    public void setNetworkCompressionLevel(final int networkCompressionLevel)
+    {
+        this.networkCompressionLevel = networkCompressionLevel;
+    }
+
     @Override
     public int getNettyThreads()
     {
@@ -367,6 +381,10 @@ public class DioriteConfigImpl implements DioriteConfig
         {
             return false;
         }
+        if (this.networkCompressionLevel != that.networkCompressionLevel)
+        {
+            return false;
+        }
         if (this.nettyThreads != that.nettyThreads)
         {
             return false;
@@ -440,6 +458,7 @@ public class DioriteConfigImpl implements DioriteConfig
         result = (31 * result) + this.rconPort;
         result = (31 * result) + ((this.rconPassword != null) ? this.rconPassword.hashCode() : 0);
         result = (31 * result) + this.networkCompressionThreshold;
+        result = (31 * result) + this.networkCompressionLevel;
         result = (31 * result) + this.nettyThreads;
         result = (31 * result) + ((this.onlineMode != null) ? this.onlineMode.hashCode() : 0);
         result = (31 * result) + this.maxPlayers;
@@ -468,7 +487,7 @@ public class DioriteConfigImpl implements DioriteConfig
     @Override
     public String toString()
     {
-        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("hostname", this.hostname).append("port", this.port).append("queryPort", this.queryPort).append("rconPort", this.rconPort).append("rconPassword", this.rconPassword).append("networkCompressionThreshold", this.networkCompressionThreshold).append("onlineMode", this.onlineMode).append("maxPlayers", this.maxPlayers).append("playerIdleTimeout", this.playerIdleTimeout).append("resourcePack", this.resourcePack).append("resourcePackHash", this.resourcePackHash).append("useNativeTransport", this.useNativeTransport).append("viewDistance", this.viewDistance).append("inputThreadPoolSize", this.inputThreadPoolSize).append("administratorsFile", this.administratorsFile).append("whiteListEnabled", this.whiteListEnabled).append("whiteListFile", this.whiteListFile).append("motd", this.motd).append("worlds", this.worlds).toString();
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("hostname", this.hostname).append("port", this.port).append("queryPort", this.queryPort).append("rconPort", this.rconPort).append("rconPassword", this.rconPassword).append("networkCompressionThreshold", this.networkCompressionThreshold).append("networkCompressionLevel", this.networkCompressionLevel).append("onlineMode", this.onlineMode).append("maxPlayers", this.maxPlayers).append("playerIdleTimeout", this.playerIdleTimeout).append("resourcePack", this.resourcePack).append("resourcePackHash", this.resourcePackHash).append("useNativeTransport", this.useNativeTransport).append("viewDistance", this.viewDistance).append("inputThreadPoolSize", this.inputThreadPoolSize).append("administratorsFile", this.administratorsFile).append("whiteListEnabled", this.whiteListEnabled).append("whiteListFile", this.whiteListFile).append("motd", this.motd).append("worlds", this.worlds).toString();
     }
 
     private static WorldsConfigImpl defaultWorlds()
@@ -13,6 +13,8 @@ import java.util.Map;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.io.ChunkStorageType;
+import org.diorite.impl.world.io.anvil.RegionSyncPolicy;
 import org.diorite.Difficulty;
 import org.diorite.GameMode;
 import org.diorite.cfg.WorldsConfig;
@@ -102,6 +104,16 @@ public class WorldsConfigImpl implements WorldsConfig
         return Difficulty.NORMAL;
     }
 
+    private static ChunkStorageType defaultChunkStorage()
+    {
+        return ChunkStorageType.ANVIL;
+    }
+
+    private static RegionSyncPolicy defaultRegionSyncPolicy()
+    {
+        return RegionSyncPolicy.PER_CYCLE;
+    }
+
     private static long defaultSeed()
     {
         return DioriteRandomUtils.getRandom().nextLong();
@@ -298,6 +310,38 @@ public class WorldsConfigImpl implements WorldsConfig
         @CfgDelegateDefault("{emptyMap}")
         private Map<String, Object> generatorSettings;
 
+        @CfgComment("Format of chunk storage of this world: ANVIL (region files) or LOG (single append-only file). Chunks aren't converted when it is changed.")
+        @CfgDelegateDefault("org.diorite.impl.cfg.WorldsConfigImpl#defaultChunkStorage")
+        private ChunkStorageType chunkStorage;
+
+        @CfgComment("Amount of threads used to read and write chunks of this world.")
+        @CfgIntDefault(2)
+        private int ioThreads;
+
+        @CfgComment("If true, region files of this world will be accessed using memory mapped files, it may be faster on 64-bit systems with enough memory.")
+        @CfgBooleanDefault(false)
+        private boolean mappedRegionFiles;
+
+        @CfgComment("Amount of ticks between autosaves of this world.")
+        @CfgIntDefault(6000)
+        private int autosaveInterval;
+
+        @CfgComment("Max time in milliseconds that autosave can use in one tick, rest of chunks is saved in next ticks. 0 means no limit.")
+        @CfgIntDefault(2)
+        private int autosaveTickBudget;
+
+        @CfgComment("Compression level of saved chunks, from 0 (no compression, fastest) to 9 (smallest files, slowest), -1 means default zlib level.")
+        @CfgIntDefault(1)
+        private int regionCompressionLevel;
+
+        @CfgComment("Percent of free space in idle region file that triggers its compaction after autosave. 0 disables compaction.")
+        @CfgIntDefault(25)
+        private int regionCompactionThreshold;
+
+        @CfgComment("When region files are synced to disk: NONE (never, fastest, data may be lost on system crash), PER_CYCLE (once per autosave) or PER_CHUNK (after every chunk, slowest).")
+        @CfgDelegateDefault("org.diorite.impl.cfg.WorldsConfigImpl#defaultRegionSyncPolicy")
+        private RegionSyncPolicy regionSyncPolicy;
+
         @Override
         public String getName()
         {
@@ -507,6 +551,86 @@ public class WorldsConfigImpl implements WorldsConfig
             this.spawnPitch = spawnPitch;
         }
 
+        public ChunkStorageType getChunkStorage()
+        {
+            return this.chunkStorage;
+        }
+
+        public void setChunkStorage(final ChunkStorageType chunkStorage)
+        {
+            this.chunkStorage = chunkStorage;
+        }
+
+        public int getIoThreads()
+        {
+            return this.ioThreads;
+        }
+
+        public void setIoThreads(final int ioThreads)
+        {
+            this.ioThreads = ioThreads;
+        }
+
+        public boolean isMappedRegionFiles()
+        {
+            return this.mappedRegionFiles;
+        }
+
+        public void setMappedRegionFiles(final boolean mappedRegionFiles)
+        {
+            this.mappedRegionFiles = mappedRegionFiles;
+        }
+
+        public int getAutosaveInterval()
+        {
+            return this.autosaveInterval;
+        }
+
+        public void setAutosaveInterval(final int autosaveInterval)
+        {
+            this.autosaveInterval = autosaveInterval;
+        }
+
+        public int getAutosaveTickBudget()
+        {
+            return this.autosaveTickBudget;
+        }
+
+        public void setAutosaveTickBudget(final int autosaveTickBudget)
+        {
+            this.autosaveTickBudget = autosaveTickBudget;
+        }
+
+        public int getRegionCompressionLevel()
+        {
+            return this.regionCompressionLevel;
+        }
+
+        public void setRegionCompressionLevel(final int regionCompressionLevel)
+        {
+            this.regionCompressionLevel = regionCompressionLevel;
+        }
+
+        public int getRegionCompactionThreshold()
+        {
+            return this.regionCompactionThreshold;
+        }
+
+        public void setRegionCompactionThreshold(final int regionCompactionThreshold)
+        {
+            this.regionCompactionThreshold = regionCompactionThreshold;
+        }
+
+        public RegionSyncPolicy getRegionSyncPolicy()
+        {
+            return this.regionSyncPolicy;
+        }
+
+        public void setRegionSyncPolicy(final RegionSyncPolicy regionSyncPolicy)
+        {
+            this.regionSyncPolicy = regionSyncPolicy;
+        }
+
         @Override
         public String toString()
         {
@@ -571,6 +695,38 @@ public class WorldsConfigImpl implements WorldsConfig
             {
                 return false;
             }
+            if (this.chunkStorage != that.chunkStorage)
+            {
+                return false;
+            }
+            if (this.ioThreads != that.ioThreads)
+            {
+                return false;
+            }
+            if (this.mappedRegionFiles != that.mappedRegionFiles)
+            {
+                return false;
+            }
+            if (this.autosaveInterval != that.autosaveInterval)
+            {
+                return false;
+            }
+            if (this.autosaveTickBudget != that.autosaveTickBudget)
+            {
+                return false;
+            }
+            if (this.regionCompressionLevel != that.regionCompressionLevel)
+            {
+                return false;
+            }
+            if (this.regionCompactionThreshold != that.regionCompactionThreshold)
+            {
+                return false;
+            }
+            if (this.regionSyncPolicy != that.regionSyncPolicy)
+            {
+                return false;
+            }
             if ((this.name != null) ? ! this.name.equals(that.name) : (that.name != null))
             {
                 return false;
@@ -620,6 +776,14 @@ public class WorldsConfigImpl implements WorldsConfig
             result = (31 * result) + ((this.dimension != null) ? this.dimension.hashCode() : 0);
             result = (31 * result) + ((this.generator != null) ? this.generator.hashCode() : 0);
             result = (31 * result) + ((this.generatorSettings != null) ? this.generatorSettings.hashCode() : 0);
+            result = (31 * result) + ((this.chunkStorage != null) ? this.chunkStorage.hashCode() : 0);
+            result = (31 * result) + this.ioThreads;
+            result = (31 * result) + (this.mappedRegionFiles ? 1 : 0);
+            result = (31 * result) + this.autosaveInterval;
+            result = (31 * result) + this.autosaveTickBudget;
+            result = (31 * result) + this.regionCompressionLevel;
+            result = (31 * result) + this.regionCompactionThreshold;
+            result = (31 * result) + ((this.regionSyncPolicy != null) ? this.regionSyncPolicy.hashCode() : 0);
             return result;
         }
     }
@@ -0,0 +1,79 @@
+package org.diorite.impl.command.defaults;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import org.diorite.impl.command.SystemCommandImpl;
+import org.diorite.impl.world.WorldImpl;
+import org.diorite.impl.world.io.ChunkIoService;
+import org.diorite.impl.world.io.anvil.AnvilChunkIoService;
+import org.diorite.impl.world.io.anvil.RegionCompactionResult;
+import org.diorite.impl.world.io.log.LogChunkIoService;
+import org.diorite.Server;
+import org.diorite.command.CommandPriority;
+import org.diorite.world.World;
+
+public class CompactCmd extends SystemCommandImpl
+{
+    public static final int ONE_KiB = 1024;
+
+    public CompactCmd()
+    {
+        super("compact", (Pattern) null, CommandPriority.LOW);
+        this.setCommandExecutor((sender, command, label, matchedPattern, args) -> {
+            final Collection<? extends World> worlds;
+            if (args.has(0))
+            {
+                final World world = sender.getServer().getWorldsManager().getWorld(args.asString(0));
+                if (world == null)
+                {
+                    sender.sendSimpleColoredMessage("&4Unknown world: &c" + args.asString(0));
+                    return;
+                }
+                worlds = Collections.singleton(world);
+            }
+            else
+            {
+                worlds = sender.getServer().getWorldsManager().getWorlds();
+            }
+            sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7Compacting chunk storage...");
+            ForkJoinPool.commonPool().submit(() -> {
+                for (final World world : worlds)
+                {
+                    final ChunkIoService service = ((WorldImpl) world).getChunkManager().getService();
+                    if (service instanceof LogChunkIoService)
+                    {
+                        try
+                        {
+                            final long reclaimed = ((LogChunkIoService) service).compact();
+                            sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7Compacted chunk log of &3" + world.getName() + "&7, reclaimed &3" + (Math.max(0, reclaimed) / ONE_KiB) + "&7 KiB.");
+                        } catch (final IOException e)
+                        {
+                            sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&4Failed to compact chunk log of &c" + world.getName() + "&4: &c" + e.getMessage());
+                            e.printStackTrace();
+                        }
+                        continue;
+                    }
+                    if (! (service instanceof AnvilChunkIoService))
+                    {
+                        continue;
+                    }
+                    int rewritten = 0;
+                    long reclaimed = 0;
+                    for (final RegionCompactionResult result : ((AnvilChunkIoService) service).compactRegions())
+                    {
+                        if (result.isRewritten())
+                        {
+                            rewritten++;
+                            reclaimed += result.getReclaimed();
+                        }
+                    }
+                    sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7Compacted &3" + rewritten + "&7 region files of &3" + world.getName() + "&7, reclaimed &3" + (reclaimed / ONE_KiB) + "&7 KiB.");
+                }
+            });
+        });
+    }
+}
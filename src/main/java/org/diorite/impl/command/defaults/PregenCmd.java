@@ -0,0 +1,119 @@
+package org.diorite.impl.command.defaults;
+
+import java.util.regex.Pattern;
+
+import org.diorite.impl.command.SystemCommandImpl;
+import org.diorite.impl.world.WorldImpl;
+import org.diorite.impl.world.chunk.ChunkPregenerator;
+import org.diorite.Server;
+import org.diorite.command.CommandPriority;
+import org.diorite.command.sender.CommandSender;
+import org.diorite.world.World;
+
+public class PregenCmd extends SystemCommandImpl
+{
+    public PregenCmd()
+    {
+        super("pregen", (Pattern) null, CommandPriority.LOW);
+        this.setCommandExecutor((sender, command, label, matchedPattern, args) -> {
+            if (! args.has(0))
+            {
+                sendUsage(sender);
+                return;
+            }
+            final String action = args.asString(0).toLowerCase();
+            if ("status".equals(action))
+            {
+                boolean any = false;
+                for (final World w : sender.getServer().getWorldsManager().getWorlds())
+                {
+                    final ChunkPregenerator pregen = ((WorldImpl) w).getPregenerator();
+                    if (pregen != null)
+                    {
+                        any = true;
+                        sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&3" + pregen.getWorld().getName() + "&7: " + pregen.getStatus());
+                    }
+                }
+                if (! any)
+                {
+                    sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7No pregeneration is running.");
+                }
+                return;
+            }
+            if (! args.has(1))
+            {
+                sendUsage(sender);
+                return;
+            }
+            final WorldImpl world = (WorldImpl) sender.getServer().getWorldsManager().getWorld(args.asString(1));
+            if (world == null)
+            {
+                sender.sendSimpleColoredMessage("&4Unknown world: &c" + args.asString(1));
+                return;
+            }
+            if ("stop".equals(action))
+            {
+                final ChunkPregenerator pregen = world.getPregenerator();
+                if (pregen == null)
+                {
+                    sender.sendSimpleColoredMessage("&4Pregeneration of &c" + world.getName() + "&4 isn't running.");
+                    return;
+                }
+                pregen.stop();
+                sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7Stopping pregeneration of &3" + world.getName() + "&7, use &3pregen resume " + world.getName() + "&7 to continue it.");
+                return;
+            }
+            if (world.getPregenerator() != null)
+            {
+                sender.sendSimpleColoredMessage("&4Pregeneration of &c" + world.getName() + "&4 is already running.");
+                return;
+            }
+            final ChunkPregenerator pregen;
+            switch (action)
+            {
+                case "start": // pregen start <world> <center chunk x> <center chunk z> <radius in chunks> [threads]
+                    if (args.length() < 5)
+                    {
+                        sendUsage(sender);
+                        return;
+                    }
+                    pregen = ChunkPregenerator.around(world, args.asInt(2), args.asInt(3), args.asInt(4), args.has(5) ? args.asInt(5) : ChunkPregenerator.DEFAULT_THREADS);
+                    break;
+                case "box": // pregen box <world> <min chunk x> <min chunk z> <max chunk x> <max chunk z> [threads]
+                    if (args.length() < 6)
+                    {
+                        sendUsage(sender);
+                        return;
+                    }
+                    pregen = new ChunkPregenerator(world, args.asInt(2), args.asInt(3), args.asInt(4), args.asInt(5), args.has(6) ? args.asInt(6) : ChunkPregenerator.DEFAULT_THREADS);
+                    break;
+                case "resume": // pregen resume <world> [threads]
+                    pregen = ChunkPregenerator.resume(world, args.has(2) ? args.asInt(2) : ChunkPregenerator.DEFAULT_THREADS);
+                    if (pregen == null)
+                    {
+                        sender.sendSimpleColoredMessage("&4World &c" + world.getName() + "&4 doesn't have unfinished pregeneration.");
+                        return;
+                    }
+                    break;
+                default:
+                    sendUsage(sender);
+                    return;
+            }
+            try
+            {
+                pregen.start();
+            } catch (final IllegalStateException e)
+            {
+                sender.sendSimpleColoredMessage("&4Pregeneration of &c" + world.getName() + "&4 is already running.");
+                return;
+            }
+            sender.sendSimpleColoredMessage(Server.PREFIX_MSG + "&7Pregenerating &3" + pregen.getTotal() + "&7 chunks of &3" + world.getName() + "&7, use &3pregen status&7 to see progress.");
+        });
+    }
+
+    private static void sendUsage(final CommandSender sender)
+    {
+        //noinspection HardcodedFileSeparator
+        sender.sendSimpleColoredMessage("&4Invalid usage, please type /pregen <start <world> <centerChunkX> <centerChunkZ> <radius in chunks> [threads] | box <world> <minChunkX> <minChunkZ> <maxChunkX> <maxChunkZ> [threads] | resume <world> [threads] | stop <world> | status>, all coordinates are chunk coordinates (block coordinate >> 4).");
+    }
+}
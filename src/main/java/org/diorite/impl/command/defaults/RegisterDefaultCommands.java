@@ -16,6 +16,8 @@ public final class RegisterDefaultCommands
         cmds.registerCommand(new TpsCmd());
         cmds.registerCommand(new FlyCmd());
         cmds.registerCommand(new SaveCmd());
+        cmds.registerCommand(new CompactCmd());
+        cmds.registerCommand(new PregenCmd());
         cmds.registerCommand(new StopCmd());
         cmds.registerCommand(new OnlineCmd());
         cmds.registerCommand(new SetTpsCmd());
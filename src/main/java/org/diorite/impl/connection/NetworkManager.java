@@ -368,11 +368,11 @@ public class NetworkManager extends SimpleChannelInboundHandler<Packet<? super P
             }
             if ((this.channel.pipeline().get("compress") instanceof PacketCompressor))
             {
-                ((PacketCompressor) this.channel.pipeline().get("decompress")).a(i);
+                ((PacketCompressor) this.channel.pipeline().get("compress")).a(i);
             }
             else
             {
-                this.channel.pipeline().addBefore("encoder", "compress", new PacketCompressor(i));
+                this.channel.pipeline().addBefore("encoder", "compress", new PacketCompressor(i, this.server.getConfig().getNetworkCompressionLevel()));
             }
         }
         else
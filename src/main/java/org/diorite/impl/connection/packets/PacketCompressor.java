@@ -6,6 +6,8 @@ import java.util.zip.Deflater;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.utils.ZlibPool;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
@@ -14,13 +16,35 @@ public class PacketCompressor extends MessageToByteEncoder<ByteBuf>
 {
     @SuppressWarnings("MagicNumber")
     private final byte[] bytes = new byte[8192];
-    private final Deflater deflater;
+    private       Deflater deflater;
     private       int      threshold;
 
     public PacketCompressor(final int threshold)
+    {
+        this(threshold, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Construct new packet compressor, it uses pooled deflater that is released when handler is removed from pipeline.
+     *
+     * @param threshold min size of packet that will be compressed.
+     * @param level     compression level, from 0 to 9, or -1 for default zlib level.
+     */
+    public PacketCompressor(final int threshold, final int level)
     {
         this.threshold = threshold;
-        this.deflater = new Deflater();
+        this.deflater = ZlibPool.getInstance().acquireDeflater(level);
+    }
+
+    @Override
+    public void handlerRemoved(final ChannelHandlerContext ctx) throws Exception
+    {
+        if (this.deflater != null)
+        {
+            ZlibPool.getInstance().release(this.deflater);
+            this.deflater = null;
+        }
+        super.handlerRemoved(ctx);
     }
 
     @Override
@@ -7,6 +7,8 @@ import java.util.zip.Inflater;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.utils.ZlibPool;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
@@ -16,13 +18,29 @@ import io.netty.handler.codec.DecoderException;
 public class PacketDecompressor extends ByteToMessageDecoder
 {
     public static final int MAX_PACKET_SIZE = 2097152; // 256 KiB
-    private final Inflater inflater;
-    private       int      threshold;
+    private Inflater inflater;
+    private int      threshold;
 
+    /**
+     * Construct new packet decompressor, it uses pooled inflater that is released when handler is removed from pipeline.
+     *
+     * @param threshold min size of compressed packet.
+     */
     public PacketDecompressor(final int threshold)
     {
         this.threshold = threshold;
-        this.inflater = new Inflater();
+        this.inflater = ZlibPool.getInstance().acquireInflater();
+    }
+
+    @Override
+    protected void handlerRemoved0(final ChannelHandlerContext ctx) throws Exception
+    {
+        if (this.inflater != null)
+        {
+            ZlibPool.getInstance().release(this.inflater);
+            this.inflater = null;
+        }
+        super.handlerRemoved0(ctx);
     }
 
     @Override
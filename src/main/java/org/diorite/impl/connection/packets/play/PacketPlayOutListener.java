@@ -29,6 +29,8 @@ public interface PacketPlayOutListener extends PacketListener
 
     void handle(PacketPlayOutBlockChange packet);
 
+    void handle(PacketPlayOutMultiBlockChange packet);
+
     void handle(PacketPlayOutTabComplete packet);
 
     void handle(PacketPlayOutDisconnect packet);
@@ -0,0 +1,115 @@
+package org.diorite.impl.connection.packets.play.out;
+
+import java.io.IOException;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.connection.EnumProtocol;
+import org.diorite.impl.connection.EnumProtocolDirection;
+import org.diorite.impl.connection.packets.PacketClass;
+import org.diorite.impl.connection.packets.PacketDataSerializer;
+import org.diorite.impl.connection.packets.play.PacketPlayOutListener;
+
+@SuppressWarnings("MagicNumber")
+@PacketClass(id = 0x22, protocol = EnumProtocol.PLAY, direction = EnumProtocolDirection.CLIENTBOUND)
+public class PacketPlayOutMultiBlockChange implements PacketPlayOut
+{
+    private int   chunkX;
+    private int   chunkZ;
+    private int[] records; // (x << 12 | z << 8 | y) << 16 | id << 4 | meta
+
+    public PacketPlayOutMultiBlockChange()
+    {
+    }
+
+    public PacketPlayOutMultiBlockChange(final int chunkX, final int chunkZ, final int[] records)
+    {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.records = records;
+    }
+
+    /**
+     * Creates single record of this packet.
+     *
+     * @param x   x coordinate of block in chunk.
+     * @param y   y coordinate of block.
+     * @param z   z coordinate of block in chunk.
+     * @param raw raw type of block (id &lt;&lt; 4 | meta).
+     *
+     * @return packed record.
+     */
+    public static int toRecord(final int x, final int y, final int z, final short raw)
+    {
+        return (((x << 12) | (z << 8) | y) << 16) | (raw & 0xffff);
+    }
+
+    @Override
+    public void readPacket(final PacketDataSerializer data) throws IOException
+    {
+        this.chunkX = data.readInt();
+        this.chunkZ = data.readInt();
+        this.records = new int[data.readVarInt()];
+        for (int i = 0; i < this.records.length; i++)
+        {
+            final int pos = data.readUnsignedShort();
+            this.records[i] = (pos << 16) | (data.readVarInt() & 0xffff);
+        }
+    }
+
+    @Override
+    public void writePacket(final PacketDataSerializer data) throws IOException
+    {
+        data.writeInt(this.chunkX);
+        data.writeInt(this.chunkZ);
+        data.writeVarInt(this.records.length);
+        for (final int record : this.records)
+        {
+            data.writeShort(record >>> 16);
+            data.writeVarInt(record & 0xffff);
+        }
+    }
+
+    public int getChunkX()
+    {
+        return this.chunkX;
+    }
+
+    public void setChunkX(final int chunkX)
+    {
+        this.chunkX = chunkX;
+    }
+
+    public int getChunkZ()
+    {
+        return this.chunkZ;
+    }
+
+    public void setChunkZ(final int chunkZ)
+    {
+        this.chunkZ = chunkZ;
+    }
+
+    public int[] getRecords()
+    {
+        return this.records;
+    }
+
+    public void setRecords(final int[] records)
+    {
+        this.records = records;
+    }
+
+    @Override
+    public void handle(final PacketPlayOutListener listener)
+    {
+        listener.handle(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("chunkX", this.chunkX).append("chunkZ", this.chunkZ).append("records", this.records.length).toString();
+    }
+}
@@ -24,7 +24,7 @@ public class ChunkLoadPipelineImpl extends SimpleEventPipeline<ChunkLoadEvent> i
             final ChunkImpl chunk = impl.getChunkManager().getChunk(x, z);
             try
             {
-                evt.setNeedBeGenerated(! impl.getChunkManager().getService().read(chunk));
+                evt.setNeedBeGenerated(! impl.getChunkManager().read(chunk));
             } catch (IOException e)
             {
                 System.err.println("[ChunkIO] Error while loading chunk (" + x + "," + z + ")");
@@ -34,9 +34,10 @@ public class ChunkUnloadPipelineImpl extends SimpleEventPipeline<ChunkUnloadEven
                 return;
             }
             final ChunkImpl chunk = (ChunkImpl) evt.getChunk();
-            chunk.setChunkParts(null);
+            chunk.releaseChunkParts();
             chunk.setBiomes(null);
             chunk.getTileEntities().clear();
+            chunk.getWorld().getChunkManager().markUnloadCandidate(chunk);
         });
 
     }
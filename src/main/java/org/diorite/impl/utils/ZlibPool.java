@@ -0,0 +1,258 @@
+package org.diorite.impl.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Pool of {@link Deflater} and {@link Inflater} instances shared by region files and network connections.
+ * <br>
+ * Every acquired instance must be released after use, instances that don't fit in pool (or pooled ones on {@link #clear()})
+ * are ended, so native zlib memory is freed directly instead of waiting for finalizers.
+ * Pool is thread-safe, and its default capacity is about amount of threads that may (de)compress data at the same time.
+ */
+public final class ZlibPool
+{
+    /**
+     * Default amount of idle deflaters and inflaters kept by pool.
+     */
+    public static final int DEFAULT_CAPACITY = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final ZlibPool instance = new ZlibPool(DEFAULT_CAPACITY);
+
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+
+    private final AtomicLong createdDeflaters = new AtomicLong();
+    private final AtomicLong createdInflaters = new AtomicLong();
+    private final AtomicLong reused           = new AtomicLong();
+
+    /**
+     * Construct new pool.
+     *
+     * @param capacity max amount of idle deflaters, and separately idle inflaters.
+     */
+    public ZlibPool(final int capacity)
+    {
+        this.deflaters = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.inflaters = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * @return pool shared by whole server.
+     */
+    public static ZlibPool getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Takes deflater from pool, or creates new one if pool is empty.
+     *
+     * @param level compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @return deflater ready to use, it must be released by {@link #release(Deflater)}.
+     *
+     * @throws IllegalArgumentException if level is invalid.
+     */
+    public Deflater acquireDeflater(final int level)
+    {
+        checkLevel(level);
+        final Deflater deflater = this.deflaters.poll();
+        if (deflater == null)
+        {
+            this.createdDeflaters.incrementAndGet();
+            return new Deflater(level);
+        }
+        this.reused.incrementAndGet();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Resets deflater and returns it to pool, or ends it if pool is full.
+     *
+     * @param deflater deflater to release, it must not be used after this call.
+     */
+    public void release(final Deflater deflater)
+    {
+        deflater.reset();
+        if (! this.deflaters.offer(deflater))
+        {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Takes inflater from pool, or creates new one if pool is empty.
+     *
+     * @return inflater ready to use, it must be released by {@link #release(Inflater)}.
+     */
+    public Inflater acquireInflater()
+    {
+        final Inflater inflater = this.inflaters.poll();
+        if (inflater == null)
+        {
+            this.createdInflaters.incrementAndGet();
+            return new Inflater();
+        }
+        this.reused.incrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Resets inflater and returns it to pool, or ends it if pool is full.
+     *
+     * @param inflater inflater to release, it must not be used after this call.
+     */
+    public void release(final Inflater inflater)
+    {
+        inflater.reset();
+        if (! this.inflaters.offer(inflater))
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Creates stream that compresses data using pooled deflater, deflater is released when stream is closed.
+     *
+     * @param out   stream for compressed data.
+     * @param level compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+     *
+     * @return compressing stream.
+     */
+    public DeflaterOutputStream deflate(final OutputStream out, final int level)
+    {
+        return new PooledDeflaterOutputStream(out, this.acquireDeflater(level));
+    }
+
+    /**
+     * Creates stream that decompresses data using pooled inflater, inflater is released when stream is closed.
+     *
+     * @param in stream of compressed data.
+     *
+     * @return decompressing stream.
+     */
+    public InflaterInputStream inflate(final InputStream in)
+    {
+        return new PooledInflaterInputStream(in, this.acquireInflater());
+    }
+
+    /**
+     * Ends all idle instances, used ones are still pooled (or ended) on release.
+     */
+    public void clear()
+    {
+        Deflater deflater;
+        while ((deflater = this.deflaters.poll()) != null)
+        {
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = this.inflaters.poll()) != null)
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return amount of deflaters created by this pool.
+     */
+    public long getCreatedDeflaters()
+    {
+        return this.createdDeflaters.get();
+    }
+
+    /**
+     * @return amount of inflaters created by this pool.
+     */
+    public long getCreatedInflaters()
+    {
+        return this.createdInflaters.get();
+    }
+
+    /**
+     * @return amount of acquires served by idle instances.
+     */
+    public long getReused()
+    {
+        return this.reused.get();
+    }
+
+    private static void checkLevel(final int level)
+    {
+        if ((level < Deflater.DEFAULT_COMPRESSION) || (level > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("idleDeflaters", this.deflaters.size()).append("idleInflaters", this.inflaters.size()).append("createdDeflaters", this.createdDeflaters.get()).append("createdInflaters", this.createdInflaters.get()).append("reused", this.reused.get()).toString();
+    }
+
+    private class PooledDeflaterOutputStream extends DeflaterOutputStream
+    {
+        private boolean released;
+
+        PooledDeflaterOutputStream(final OutputStream out, final Deflater deflater)
+        {
+            super(out, deflater);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            } finally
+            {
+                if (! this.released)
+                {
+                    this.released = true;
+                    ZlibPool.this.release(this.def);
+                }
+            }
+        }
+    }
+
+    private class PooledInflaterInputStream extends InflaterInputStream
+    {
+        private boolean released;
+
+        PooledInflaterInputStream(final InputStream in, final Inflater inflater)
+        {
+            super(in, inflater);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            } finally
+            {
+                if (! this.released)
+                {
+                    this.released = true;
+                    ZlibPool.this.release(this.inf);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.diorite.impl.world;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.BlockLocation;
+import org.diorite.material.BlockMaterialData;
+import org.diorite.world.Block;
+import org.diorite.world.chunk.Chunk;
+
+/**
+ * Reusable, mutable pointer to block in world, used by hot paths instead of {@link BlockImpl}.
+ * <br>
+ * Cursor caches current chunk, so moving across blocks of same chunk and reading/writing block types
+ * don't need any chunk lookups and don't create any objects.
+ * Cursor isn't thread-safe, every thread should use own one.
+ * <br>
+ * By default cursor never loads chunks, blocks of chunks that aren't loaded are read as air and can't be changed.
+ * Cursor created with {@code load} set to true loads chunks when needed (like {@link WorldImpl#getBlock(int, int, int)}).
+ */
+@SuppressWarnings("MagicNumber")
+public class BlockCursor
+{
+    private final boolean   load;
+    private       WorldImpl world;
+    private       int       x;
+    private       int       y;
+    private       int       z;
+    private       ChunkImpl chunk;
+    private       int       chunkX;
+    private       int       chunkZ;
+
+    /**
+     * Construct new cursor that never loads chunks, it must be placed by {@link #moveTo(ChunkImpl)} before use.
+     */
+    public BlockCursor()
+    {
+        this.load = false;
+    }
+
+    public BlockCursor(final WorldImpl world)
+    {
+        this(world, false);
+    }
+
+    /**
+     * Construct new cursor in given world.
+     *
+     * @param world world of cursor.
+     * @param load  if cursor should load chunks that aren't loaded.
+     */
+    public BlockCursor(final WorldImpl world, final boolean load)
+    {
+        this.world = world;
+        this.load = load;
+    }
+
+    public BlockCursor(final ChunkImpl chunk)
+    {
+        this.load = false;
+        this.moveTo(chunk);
+    }
+
+    /**
+     * Moves cursor to first block of given chunk, world of cursor is changed to world of chunk.
+     *
+     * @param chunk chunk to move to.
+     *
+     * @return this same cursor.
+     */
+    public BlockCursor moveTo(final ChunkImpl chunk)
+    {
+        this.world = chunk.getWorld();
+        this.chunk = chunk;
+        this.chunkX = chunk.getX();
+        this.chunkZ = chunk.getZ();
+        this.x = this.chunkX << 4;
+        this.y = 0;
+        this.z = this.chunkZ << 4;
+        return this;
+    }
+
+    /**
+     * Drops references to world and chunk of this cursor, cursor must be placed by {@link #moveTo(ChunkImpl)} before next use.
+     */
+    public void release()
+    {
+        this.world = null;
+        this.chunk = null;
+    }
+
+    /**
+     * Moves cursor to given world coordinates.
+     *
+     * @param x x coordinate of block.
+     * @param y y coordinate of block.
+     * @param z z coordinate of block.
+     *
+     * @return this same cursor.
+     */
+    public BlockCursor moveTo(final int x, final int y, final int z)
+    {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Moves cursor by given offset.
+     *
+     * @param x x offset.
+     * @param y y offset.
+     * @param z z offset.
+     *
+     * @return this same cursor.
+     */
+    public BlockCursor move(final int x, final int y, final int z)
+    {
+        this.x += x;
+        this.y += y;
+        this.z += z;
+        return this;
+    }
+
+    public int getX()
+    {
+        return this.x;
+    }
+
+    public int getY()
+    {
+        return this.y;
+    }
+
+    public int getZ()
+    {
+        return this.z;
+    }
+
+    public WorldImpl getWorld()
+    {
+        return this.world;
+    }
+
+    /**
+     * @return true if this cursor loads chunks that aren't loaded.
+     */
+    public boolean isLoadingChunks()
+    {
+        return this.load;
+    }
+
+    /**
+     * @return true if cursor is between 0 and max height of chunk.
+     */
+    public boolean isInHeightRange()
+    {
+        return (this.y >= 0) && (this.y < Chunk.CHUNK_FULL_HEIGHT);
+    }
+
+    /**
+     * Returns chunk under cursor, chunk is loaded only if this cursor loads chunks, so it might be not loaded.
+     *
+     * @return chunk under cursor.
+     */
+    public ChunkImpl getChunk()
+    {
+        final int cx = this.x >> 4;
+        final int cz = this.z >> 4;
+        ChunkImpl chunk = this.chunk;
+        if ((chunk == null) || (cx != this.chunkX) || (cz != this.chunkZ) || chunk.isEvicted())
+        {
+            chunk = this.world.getChunkAt(cx, cz);
+            this.chunk = chunk;
+            this.chunkX = cx;
+            this.chunkZ = cz;
+        }
+        if (this.load && ! chunk.isLoaded())
+        {
+            chunk.load();
+        }
+        return chunk;
+    }
+
+    /**
+     * @return true if chunk under cursor is loaded (or was loaded by this cursor).
+     */
+    public boolean isChunkLoaded()
+    {
+        return this.getChunk().isLoaded();
+    }
+
+    private ChunkPartImpl getPart()
+    {
+        // parts are read from chunk every time, as they are created, removed and replaced (on reload) by other code too
+        final ChunkPartImpl[] parts = this.getChunk().getChunkParts();
+        return (parts == null) ? null : parts[this.y >> 4]; // unloaded chunk is read as air
+    }
+
+    /**
+     * Returns raw type of block (id &lt;&lt; 4 | meta) under cursor.
+     *
+     * @return raw type of block.
+     */
+    public short getRawType()
+    {
+        if (! this.isInHeightRange())
+        {
+            return 0;
+        }
+        final ChunkPartImpl part = this.getPart();
+        if (part == null)
+        {
+            return 0;
+        }
+        return part.getRawBlock(this.x & 15, this.y, this.z & 15);
+    }
+
+    public int getTypeId()
+    {
+        return (this.getRawType() & 0xffff) >> 4;
+    }
+
+    public int getTypeMeta()
+    {
+        return this.getRawType() & 15;
+    }
+
+    /**
+     * Returns packed properties of block under cursor, see {@link BlockStates#getFlags(short)}.
+     *
+     * @return packed properties of block.
+     */
+    public byte getFlags()
+    {
+        return BlockStates.getFlags(this.getRawType());
+    }
+
+    public boolean isSolid()
+    {
+        return BlockStates.isSolid(this.getRawType());
+    }
+
+    public boolean isAir()
+    {
+        return BlockStates.isAir(this.getRawType());
+    }
+
+    public BlockMaterialData getType()
+    {
+        return BlockStates.getType(this.getRawType());
+    }
+
+    /**
+     * Sets type of block under cursor, heightmap of chunk is updated too.
+     * Blocks above max height of world and blocks of chunks that aren't loaded (if this cursor doesn't load chunks) aren't changed.
+     *
+     * @param type new type of block.
+     *
+     * @return previous type of block, or null if block wasn't changed.
+     */
+    public BlockMaterialData setType(final BlockMaterialData type)
+    {
+        if ((this.y < 0) || (this.y > this.world.getMaxHeight()) || (this.y >= Chunk.CHUNK_FULL_HEIGHT))
+        {
+            return null;
+        }
+        final ChunkImpl chunk = this.getChunk();
+        if (! chunk.isLoaded())
+        {
+            return null;
+        }
+        return chunk.setBlock(this.x & 15, this.y, this.z & 15, type);
+    }
+
+    public BlockMaterialData setType(final int id, final int meta)
+    {
+        return this.setType(BlockMaterialData.getByID(id, meta));
+    }
+
+    /**
+     * @return new location of block under cursor.
+     */
+    public BlockLocation toLocation()
+    {
+        return new BlockLocation(this.x, this.y, this.z, this.world);
+    }
+
+    /**
+     * @return new block object for block under cursor.
+     */
+    public Block toBlock()
+    {
+        return new BlockImpl(this.x & 15, this.y, this.z & 15, this.getChunk());
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("world", this.world).append("x", this.x).append("y", this.y).append("z", this.z).toString();
+    }
+}
@@ -0,0 +1,344 @@
+package org.diorite.impl.world;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.ServerImpl;
+import org.diorite.impl.connection.packets.Packet;
+import org.diorite.impl.connection.packets.play.out.PacketPlayOutMapChunk;
+import org.diorite.impl.connection.packets.play.out.PacketPlayOutMultiBlockChange;
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.material.BlockMaterialData;
+import org.diorite.utils.math.pack.IntsToLong;
+import org.diorite.world.chunk.Chunk;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Collects many block changes and applies them at once.
+ * <br>
+ * Changes are grouped by chunk and chunk part, every chunk part is changed in one pass, heightmap is updated once per changed column,
+ * and every changed chunk is sent to players that can see it using one {@link PacketPlayOutMultiBlockChange},
+ * or whole chunk if it is smaller.
+ * If chunk can't be loaded, its changes are skipped (and reported), and other chunks are still changed.
+ * Session isn't thread-safe, and it can be applied only once.
+ */
+@SuppressWarnings("MagicNumber")
+public class BlockEditSession
+{
+    /**
+     * Approximate size of single record of {@link PacketPlayOutMultiBlockChange} in bytes.
+     */
+    public static final int MULTI_BLOCK_RECORD_SIZE = 5;
+
+    private final WorldImpl                world;
+    private final TLongObjectMap<ChunkEdit> chunks       = new TLongObjectHashMap<>(16);
+    private final TLongList                failedChunks = new TLongArrayList(4);
+    private       ChunkEdit                lastChunk;
+    private       int                      size;
+    private       boolean                  applied;
+
+    public BlockEditSession(final WorldImpl world)
+    {
+        this.world = world;
+    }
+
+    public WorldImpl getWorld()
+    {
+        return this.world;
+    }
+
+    /**
+     * @return amount of block changes in this session.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns packed coordinates of chunks that couldn't be loaded when session was applied, so their changes were skipped.
+     *
+     * @return packed coordinates of skipped chunks, see {@link IntsToLong}.
+     */
+    public long[] getFailedChunks()
+    {
+        return this.failedChunks.toArray();
+    }
+
+    public BlockEditSession setBlock(final int x, final int y, final int z, final BlockMaterialData type)
+    {
+        return this.setBlock(x, y, z, BlockStates.toRaw(type));
+    }
+
+    public BlockEditSession setBlock(final int x, final int y, final int z, final int id, final int meta)
+    {
+        return this.setBlock(x, y, z, (short) ((id << 4) | meta));
+    }
+
+    /**
+     * Adds block change to this session, if block was already changed in this session, it is replaced.
+     *
+     * @param x   x coordinate of block.
+     * @param y   y coordinate of block.
+     * @param z   z coordinate of block.
+     * @param raw raw type of block (id &lt;&lt; 4 | meta).
+     *
+     * @return this same session.
+     */
+    public BlockEditSession setBlock(final int x, final int y, final int z, final short raw)
+    {
+        if (this.applied)
+        {
+            throw new IllegalStateException("Session was already applied.");
+        }
+        if ((y < 0) || (y >= Chunk.CHUNK_FULL_HEIGHT))
+        {
+            return this;
+        }
+        final int cx = x >> 4;
+        final int cz = z >> 4;
+        ChunkEdit edit = this.lastChunk;
+        if ((edit == null) || (edit.x != cx) || (edit.z != cz))
+        {
+            final long key = IntsToLong.pack(cx, cz);
+            edit = this.chunks.get(key);
+            if (edit == null)
+            {
+                edit = new ChunkEdit(cx, cz);
+                this.chunks.put(key, edit);
+            }
+            this.lastChunk = edit;
+        }
+        if (edit.set(x & 15, y, z & 15, raw))
+        {
+            this.size++;
+        }
+        return this;
+    }
+
+    /**
+     * Adds change of every block in given cuboid to this session.
+     *
+     * @param minX min x coordinate.
+     * @param minY min y coordinate.
+     * @param minZ min z coordinate.
+     * @param maxX max x coordinate (inclusive).
+     * @param maxY max y coordinate (inclusive).
+     * @param maxZ max z coordinate (inclusive).
+     * @param type new type of blocks.
+     *
+     * @return this same session.
+     */
+    public BlockEditSession fill(final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ, final BlockMaterialData type)
+    {
+        final short raw = BlockStates.toRaw(type);
+        for (int x = minX; x <= maxX; x++)
+        {
+            for (int z = minZ; z <= maxZ; z++)
+            {
+                for (int y = minY; y <= maxY; y++)
+                {
+                    this.setBlock(x, y, z, raw);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Applies all changes of this session and sends them to players.
+     *
+     * @return amount of blocks that were really changed.
+     */
+    public int apply()
+    {
+        return this.apply(true);
+    }
+
+    /**
+     * Applies all changes of this session.
+     *
+     * @param sendUpdates if changes should be sent to players.
+     *
+     * @return amount of blocks that were really changed, changes of chunks that couldn't be loaded aren't counted.
+     *
+     * @see #getFailedChunks()
+     */
+    public int apply(final boolean sendUpdates)
+    {
+        if (this.applied)
+        {
+            throw new IllegalStateException("Session was already applied.");
+        }
+        this.applied = true;
+        final int[] changed = {0};
+        this.chunks.forEachValue(edit -> {
+            changed[0] += this.apply(edit, sendUpdates);
+            return true;
+        });
+        if (! this.failedChunks.isEmpty())
+        {
+            System.err.println("[BlockEditSession][" + this.world.getName() + "] Skipped changes of " + this.failedChunks.size() + " chunks that couldn't be loaded.");
+        }
+        this.chunks.clear();
+        this.lastChunk = null;
+        return changed[0];
+    }
+
+    private int apply(final ChunkEdit edit, final boolean sendUpdates)
+    {
+        ChunkImpl chunk = this.world.getChunkAt(edit.x, edit.z);
+        if (chunk.load() && ! chunk.isLoaded())
+        {
+            chunk = this.world.getChunkAt(edit.x, edit.z); // object was stale, chunk was loaded to current one
+        }
+        if (! chunk.isLoaded())
+        {
+            this.failedChunks.add(IntsToLong.pack(edit.x, edit.z));
+            return 0;
+        }
+        final long[][] changed = new long[Chunk.CHUNK_PARTS][];
+        int changedCount = 0;
+        for (int partY = 0; partY < Chunk.CHUNK_PARTS; partY++)
+        {
+            final long[] mask = edit.masks[partY];
+            if (mask == null)
+            {
+                continue;
+            }
+            final long[] partChanged = new long[mask.length];
+            chunk.setBlocks(partY, edit.values[partY], mask, partChanged);
+            for (final long bits : partChanged)
+            {
+                changedCount += Long.bitCount(bits);
+            }
+            changed[partY] = partChanged;
+        }
+        if (changedCount == 0)
+        {
+            return 0;
+        }
+        final boolean[] columns = new boolean[Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE];
+        for (int partY = 0; partY < Chunk.CHUNK_PARTS; partY++)
+        {
+            final long[] partChanged = changed[partY];
+            if (partChanged == null)
+            {
+                continue;
+            }
+            for (int word = 0; word < partChanged.length; word++)
+            {
+                for (long bits = partChanged[word]; bits != 0; bits &= bits - 1)
+                {
+                    columns[((word << 6) + Long.numberOfTrailingZeros(bits)) & 0xff] = true; // index & 0xff == z << 4 | x
+                }
+            }
+        }
+        for (int xz = 0; xz < columns.length; xz++)
+        {
+            if (columns[xz])
+            {
+                chunk.recalculateHeight(xz & 15, xz >> 4);
+            }
+        }
+        if (sendUpdates)
+        {
+            this.sendUpdates(chunk, edit, changed, changedCount);
+        }
+        return changedCount;
+    }
+
+    private void sendUpdates(final ChunkImpl chunk, final ChunkEdit edit, final long[][] changed, final int changedCount)
+    {
+        final Packet<?> packet;
+        if ((changedCount * MULTI_BLOCK_RECORD_SIZE) > estimateChunkPacketSize(chunk))
+        {
+            packet = new PacketPlayOutMapChunk(true, chunk);
+        }
+        else
+        {
+            final int[] records = new int[changedCount];
+            int i = 0;
+            for (int partY = 0; partY < Chunk.CHUNK_PARTS; partY++)
+            {
+                final long[] partChanged = changed[partY];
+                if (partChanged == null)
+                {
+                    continue;
+                }
+                final short[] values = edit.values[partY];
+                for (int word = 0; word < partChanged.length; word++)
+                {
+                    for (long bits = partChanged[word]; bits != 0; bits &= bits - 1)
+                    {
+                        final int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                        records[i++] = PacketPlayOutMultiBlockChange.toRecord(index & 15, (partY << 4) | (index >> 8), (index >> 4) & 15, values[index]);
+                    }
+                }
+            }
+            packet = new PacketPlayOutMultiBlockChange(edit.x, edit.z, records);
+        }
+        ServerImpl.getInstance().getPlayersManager().forEach(p -> p.getWorld().equals(this.world) && p.isVisibleChunk(edit.x, edit.z), packet);
+    }
+
+    private static int estimateChunkPacketSize(final ChunkImpl chunk)
+    {
+        final boolean skyLight = chunk.getWorld().hasSkyLight();
+        final int partSize = (ChunkPartImpl.CHUNK_DATA_SIZE << 1) + (ChunkPartImpl.CHUNK_DATA_SIZE >> (skyLight ? 0 : 1));
+        int size = Chunk.CHUNK_BIOMES_SIZE;
+        for (final ChunkPartImpl chunkPart : chunk.getChunkParts())
+        {
+            if (chunkPart != null)
+            {
+                size += partSize;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("world", this.world).append("size", this.size).append("chunks", this.chunks.size()).toString();
+    }
+
+    private static final class ChunkEdit
+    {
+        private final int       x;
+        private final int       z;
+        private final short[][] values = new short[Chunk.CHUNK_PARTS][];
+        private final long[][]  masks  = new long[Chunk.CHUNK_PARTS][];
+
+        private ChunkEdit(final int x, final int z)
+        {
+            this.x = x;
+            this.z = z;
+        }
+
+        private boolean set(final int x, final int y, final int z, final short raw)
+        {
+            final int partY = y >> 4;
+            long[] mask = this.masks[partY];
+            if (mask == null)
+            {
+                mask = new long[ChunkPartImpl.CHUNK_DATA_SIZE >> 6];
+                this.masks[partY] = mask;
+                this.values[partY] = new short[ChunkPartImpl.CHUNK_DATA_SIZE];
+            }
+            final int index = ChunkPartImpl.toArrayIndex(x, y, z);
+            this.values[partY][index] = raw;
+            final long bit = 1L << index;
+            if ((mask[index >> 6] & bit) != 0)
+            {
+                return false;
+            }
+            mask[index >> 6] |= bit;
+            return true;
+        }
+    }
+}
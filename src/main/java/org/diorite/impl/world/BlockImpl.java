@@ -14,7 +14,7 @@ public class BlockImpl implements Block
     private final byte              x; // x pos on chunk, not map
     private final int               y;
     private final byte              z; // z pos on chunk, not map
-    private final ChunkImpl         chunk;
+    private       ChunkImpl         chunk; // may be replaced if chunk was evicted, use getChunk()
     private       BlockMaterialData type;
 
     public BlockImpl(final int x, final int y, final int z, final ChunkImpl chunk, final BlockMaterialData type)
@@ -35,6 +35,22 @@ public class BlockImpl implements Block
         this.type = chunk.getBlockType(x, y, z);
     }
 
+    /**
+     * Returns chunk of this block, if cached chunk object was evicted from chunk manager, current one is used.
+     *
+     * @return chunk of this block.
+     */
+    public ChunkImpl getChunk()
+    {
+        ChunkImpl chunk = this.chunk;
+        if (chunk.isEvicted())
+        {
+            chunk = chunk.getWorld().getChunkManager().getChunk(chunk.getX(), chunk.getZ());
+            this.chunk = chunk;
+        }
+        return chunk;
+    }
+
     @Override
     public int getX()
     {
@@ -69,7 +85,7 @@ public class BlockImpl implements Block
     public void setType(final BlockMaterialData type)
     {
         this.type = type;
-        this.chunk.setBlock(this.x, this.y, this.z, this.type);
+        this.getChunk().setBlock(this.x, this.y, this.z, this.type);
 
 //        final PacketPlayOutBlockChange packet = new PacketPlayOutBlockChange(new BlockLocation(this.getX(), this.y, this.getZ(), this.getWorld()), type);
 //        ServerImpl.getInstance().getPlayersManager().forEach(p -> p.getWorld().equals(this.getWorld()) && p.isVisibleChunk(this.x, this.z), packet);
@@ -78,13 +94,13 @@ public class BlockImpl implements Block
     @Override
     public Biome getBiome()
     {
-        return this.chunk.getBiome(this.x, this.y, this.z);
+        return this.getChunk().getBiome(this.x, this.y, this.z);
     }
 
     @Override
     public void update()
     {
-        this.type = this.chunk.getBlockType(this.x, this.y, this.z);
+        this.type = this.getChunk().getBlockType(this.x, this.y, this.z);
     }
 
     @Override
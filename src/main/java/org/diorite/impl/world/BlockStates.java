@@ -0,0 +1,162 @@
+package org.diorite.impl.world;
+
+import org.diorite.material.BlockMaterialData;
+import org.diorite.material.Material;
+
+/**
+ * Flat lookup table of all block states, indexed directly by raw 16-bit value used by chunk parts (id &lt;&lt; 4 | meta).
+ * <br>
+ * Every state have {@link BlockMaterialData} (unknown states are mapped to {@link Material#AIR}, like in chunk parts)
+ * and packed bitset of properties, so hot paths don't need to use {@link Material#getByID(int, int)} or virtual calls.
+ * Table is built on first use of this class.
+ */
+@SuppressWarnings("MagicNumber")
+public final class BlockStates
+{
+    public static final int STATES = 1 << 16;
+
+    public static final byte SOLID          = 1;
+    public static final byte AIR            = 1 << 1;
+    public static final byte TICKABLE       = 1 << 2;
+    public static final byte LIGHT_EMITTING = 1 << 3;
+    public static final byte OPAQUE         = 1 << 4;
+
+    /**
+     * Ids of blocks that should be randomly ticked.
+     */
+    private static final int[] TICKABLE_IDS       = {2, 6, 10, 11, 18, 51, 59, 60, 74, 78, 79, 81, 83, 104, 105, 106, 110, 115, 127, 141, 142, 161};
+    /**
+     * Ids of blocks that emit any light.
+     */
+    private static final int[] LIGHT_EMITTING_IDS = {10, 11, 39, 50, 51, 62, 74, 76, 89, 90, 91, 117, 119, 120, 122, 124, 130, 138, 169};
+    /**
+     * Ids of solid blocks that don't fully block light and sight.
+     */
+    private static final int[] NOT_OPAQUE_IDS     = {18, 20, 44, 52, 53, 54, 60, 65, 67, 79, 81, 85, 88, 92, 95, 96, 101, 102, 107, 108, 109, 113, 114, 116, 117, 118, 120, 122, 126, 128, 130, 134, 135, 136, 138, 139, 140, 144, 145, 146, 151, 154, 156, 160, 161, 163, 164, 165, 167, 178, 180, 182, 183, 184, 185, 186, 187, 188, 189, 190, 191, 192};
+
+    private static final BlockMaterialData[] TYPES = new BlockMaterialData[STATES];
+    private static final byte[]              FLAGS = new byte[STATES];
+
+    static
+    {
+        final boolean[] tickable = toIdSet(TICKABLE_IDS);
+        final boolean[] lightEmitting = toIdSet(LIGHT_EMITTING_IDS);
+        final boolean[] notOpaque = toIdSet(NOT_OPAQUE_IDS);
+        for (int raw = 0; raw < STATES; raw++)
+        {
+            final int id = raw >> 4;
+            final Material material = Material.getByID(id, raw & 15);
+            final BlockMaterialData type = (material instanceof BlockMaterialData) ? (BlockMaterialData) material : Material.AIR;
+            TYPES[raw] = type;
+            int flag = 0;
+            if (type.ordinal() == 0)
+            {
+                flag |= AIR;
+            }
+            else
+            {
+                if (type.isSolid())
+                {
+                    flag |= SOLID;
+                    if (! notOpaque[id])
+                    {
+                        flag |= OPAQUE;
+                    }
+                }
+                if (tickable[id])
+                {
+                    flag |= TICKABLE;
+                }
+                if (lightEmitting[id])
+                {
+                    flag |= LIGHT_EMITTING;
+                }
+            }
+            FLAGS[raw] = (byte) flag;
+        }
+    }
+
+    private BlockStates()
+    {
+    }
+
+    /**
+     * Returns raw 16-bit value (id &lt;&lt; 4 | meta) of given block type.
+     *
+     * @param type type of block.
+     *
+     * @return raw value of block type.
+     */
+    public static short toRaw(final BlockMaterialData type)
+    {
+        return (short) ((type.ordinal() << 4) | type.getType());
+    }
+
+    public static BlockMaterialData getType(final short raw)
+    {
+        return TYPES[raw & 0xffff];
+    }
+
+    public static BlockMaterialData getType(final int id, final int meta)
+    {
+        return TYPES[((id << 4) | meta) & 0xffff];
+    }
+
+    /**
+     * Returns packed properties of given block state, see {@link #SOLID}, {@link #AIR}, {@link #TICKABLE}, {@link #LIGHT_EMITTING} and {@link #OPAQUE}.
+     *
+     * @param raw raw value of block state.
+     *
+     * @return packed properties of block state.
+     */
+    public static byte getFlags(final short raw)
+    {
+        return FLAGS[raw & 0xffff];
+    }
+
+    /**
+     * @param raw   raw value of block state.
+     * @param flags properties to check.
+     *
+     * @return true if block state have all given properties.
+     */
+    public static boolean hasFlags(final short raw, final int flags)
+    {
+        return (FLAGS[raw & 0xffff] & flags) == flags;
+    }
+
+    public static boolean isSolid(final short raw)
+    {
+        return (FLAGS[raw & 0xffff] & SOLID) != 0;
+    }
+
+    public static boolean isAir(final short raw)
+    {
+        return (FLAGS[raw & 0xffff] & AIR) != 0;
+    }
+
+    public static boolean isTickable(final short raw)
+    {
+        return (FLAGS[raw & 0xffff] & TICKABLE) != 0;
+    }
+
+    public static boolean isLightEmitting(final short raw)
+    {
+        return (FLAGS[raw & 0xffff] & LIGHT_EMITTING) != 0;
+    }
+
+    public static boolean isOpaque(final short raw)
+    {
+        return (FLAGS[raw & 0xffff] & OPAQUE) != 0;
+    }
+
+    private static boolean[] toIdSet(final int[] ids)
+    {
+        final boolean[] set = new boolean[STATES >> 4];
+        for (final int id : ids)
+        {
+            set[id] = true;
+        }
+        return set;
+    }
+}
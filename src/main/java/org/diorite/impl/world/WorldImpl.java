@@ -5,6 +5,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
@@ -14,7 +15,10 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 import org.diorite.impl.Tickable;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.impl.world.chunk.ChunkManagerImpl;
-import org.diorite.impl.world.chunk.ChunkManagerImpl.ChunkLock;
+import org.diorite.impl.world.chunk.ChunkPregenerator;
+import org.diorite.impl.world.chunk.ChunkSaveScheduler;
+import org.diorite.impl.world.chunk.ChunkTicketGroup;
+import org.diorite.impl.world.chunk.ChunkTicketType;
 import org.diorite.impl.world.io.ChunkIoService;
 import org.diorite.BlockLocation;
 import org.diorite.Difficulty;
@@ -47,7 +51,7 @@ import gnu.trove.set.hash.TLongHashSet;
 public class WorldImpl implements World, Tickable
 {
     private static final int CHUNK_FLAG            = (Chunk.CHUNK_SIZE - 1);
-    public static final  int DEFAULT_AUTOSAVE_TIME = 20 * 60 * 5; // 5 min, TODO: load it from config
+    public static final  int DEFAULT_AUTOSAVE_TIME = ChunkSaveScheduler.DEFAULT_INTERVAL; // 5 min
 
     protected final String           name;
     protected final WorldGroupImpl   worldGroup;
@@ -69,14 +73,15 @@ public class WorldImpl implements World, Tickable
     protected       Loc            spawn;
     protected       WorldGenerator generator;
     protected       long           time;
-    protected final ChunkLock      spawnLock;
+    protected final ChunkTicketGroup spawnTickets;
     protected       boolean noUpdateMode = true;
     protected final Random  random       = new Random();
     protected       int     saveTimer    = DEFAULT_AUTOSAVE_TIME;
     protected       boolean autosave     = true;
+    protected final ChunkSaveScheduler saveScheduler;
+    private final AtomicReference<ChunkPregenerator> pregenerator = new AtomicReference<>();
 
     // TODO: world border impl
-    // TODO: add some method allowing to set multiple blocks without calling getChunk so often
 
     public WorldImpl(final ChunkIoService chunkIO, final String name, final WorldGroupImpl group, final Dimension dimension, final WorldType worldType, final String generator, final Map<String, Object> generatorOptions)
     {
@@ -86,8 +91,9 @@ public class WorldImpl implements World, Tickable
         this.worldType = worldType;
         this.generator = WorldGenerators.getGenerator(generator, this, generatorOptions);
         this.chunkManager = new ChunkManagerImpl(this, chunkIO, WorldGenerators.getGenerator(generator, this, generatorOptions));
+        this.saveScheduler = new ChunkSaveScheduler(this.chunkManager);
 
-        this.spawnLock = this.createLock("spawn loader");
+        this.spawnTickets = this.createTicketGroup(ChunkTicketType.SPAWN, "spawn loader");
     }
 
     public WorldImpl(final ChunkIoService chunkIO, final String name, final WorldGroupImpl group, final Dimension dimension, final WorldType worldType, final String generator)
@@ -125,9 +131,9 @@ public class WorldImpl implements World, Tickable
         }
     }
 
-    public ChunkLock createLock(final String desc)
+    public ChunkTicketGroup createTicketGroup(final ChunkTicketType type, final String desc)
     {
-        return new ChunkLock(this.chunkManager, this.name + ": " + desc);
+        return this.chunkManager.createTicketGroup(type, this.name + ": " + desc);
     }
 
     @SuppressWarnings("MagicNumber")
@@ -154,7 +160,7 @@ public class WorldImpl implements World, Tickable
     {
         System.out.println("[WorldLoader] Loading spawn chunks for world: " + this.name);
         final LoadInfo info = new LoadInfo();
-        this.spawnLock.clear();
+        this.spawnTickets.clear();
         if (chunkRadius > 0)
         {
             final int toLoad = chunkRadius * chunkRadius;
@@ -163,7 +169,7 @@ public class WorldImpl implements World, Tickable
                 final int cr = r;
                 ParallelUtils.realParallelStream(() -> forChunksParallel(cr, center.getChunkPos(), (pos) -> {
                     this.loadChunk(pos);
-                    this.spawnLock.acquire(pos.asLong());
+                    this.spawnTickets.acquire(pos.asLong());
                     if ((info.loadedChunks.incrementAndGet() % 10) == 0)
                     {
                         final long cur = System.currentTimeMillis();
@@ -337,12 +343,76 @@ public class WorldImpl implements World, Tickable
         return this.name;
     }
 
+    /**
+     * @return scheduler of incremental autosave of this world.
+     */
+    public ChunkSaveScheduler getSaveScheduler()
+    {
+        return this.saveScheduler;
+    }
+
+    /**
+     * Sets interval and time budget of incremental autosave of this world.
+     *
+     * @param interval   amount of ticks between autosaves.
+     * @param tickBudget max time (in milliseconds) that autosave can use in one tick, 0 means no limit.
+     */
+    public void configureAutosave(final int interval, final int tickBudget)
+    {
+        this.saveScheduler.setInterval(interval);
+        this.saveScheduler.setTickBudget(tickBudget);
+        this.saveTimer = this.saveScheduler.getInterval();
+    }
+
     @Override
     public ChunkManagerImpl getChunkManager()
     {
         return this.chunkManager;
     }
 
+    /**
+     * @return running pregenerator of this world, or null.
+     */
+    public ChunkPregenerator getPregenerator()
+    {
+        return this.pregenerator.get();
+    }
+
+    /**
+     * Sets running pregenerator of this world, invoked by {@link ChunkPregenerator#start()}.
+     *
+     * @param pregen pregenerator that is started.
+     *
+     * @return false if other pregenerator of this world is still running.
+     */
+    public boolean addPregenerator(final ChunkPregenerator pregen)
+    {
+        return this.pregenerator.compareAndSet(null, pregen);
+    }
+
+    /**
+     * Removes pregenerator of this world, invoked by pregenerator when all its workers are stopped.
+     *
+     * @param pregen pregenerator that is stopped.
+     */
+    public void removePregenerator(final ChunkPregenerator pregen)
+    {
+        this.pregenerator.compareAndSet(pregen, null);
+    }
+
+    /**
+     * Stops pregeneration of this world, if it is running, and waits until its workers store processed chunks and progress,
+     * so world can be unloaded. Pregeneration can be resumed later.
+     */
+    public void stopPregenerator()
+    {
+        final ChunkPregenerator pregen = this.pregenerator.get();
+        if ((pregen != null) && ! pregen.stopAndWait(TimeUnit.MINUTES.toMillis(1)))
+        {
+            System.err.println("[Pregen][" + this.name + "] Workers didn't stop in time, some chunks may not be saved.");
+        }
+    }
+
     @Override
     public long getSeed()
     {
@@ -484,6 +554,30 @@ public class WorldImpl implements World, Tickable
         return this.chunkManager.getChunk(pos.getX(), pos.getZ());
     }
 
+    /**
+     * Creates new session for changing many blocks at once, changes are applied by {@link BlockEditSession#apply()}.
+     *
+     * @return new block edit session.
+     */
+    public BlockEditSession createEditSession()
+    {
+        return new BlockEditSession(this);
+    }
+
+    /**
+     * Creates new block cursor placed at given block, cursor can be reused to read and write many blocks without creating new objects.
+     *
+     * @param x x coordinate of block.
+     * @param y y coordinate of block.
+     * @param z z coordinate of block.
+     *
+     * @return new block cursor.
+     */
+    public BlockCursor getBlockCursor(final int x, final int y, final int z)
+    {
+        return new BlockCursor(this).moveTo(x, y, z);
+    }
+
     @Override
     public Block getBlock(final int x, final int y, final int z)
     {
@@ -598,6 +692,7 @@ public class WorldImpl implements World, Tickable
     @Override
     public void doTick(final int tps)
     {
+        this.chunkManager.tickTickets();
         this.activeChunks.clear();
         for (final Player entity : this.getPlayersInWorld())
         {
@@ -626,13 +721,14 @@ public class WorldImpl implements World, Tickable
 
         if (this.saveTimer-- <= 0)
         {
-            this.saveTimer = DEFAULT_AUTOSAVE_TIME;
+            this.saveTimer = this.saveScheduler.getInterval();
             this.chunkManager.unloadOldChunks();
             if (this.autosave)
             {
-                this.save(true);
+                this.saveScheduler.startCycle();
             }
         }
+        this.saveScheduler.tick();
     }
 
     @Override
@@ -656,15 +752,16 @@ public class WorldImpl implements World, Tickable
     @Override
     public void save(final boolean async)
     {
-        //TODO use pipeline
-        //TODO do it right...
-        if (async) // temp code
+        if (async)
         {
-            new Thread(() -> this.chunkManager.getLoadedChunks().forEach(this.chunkManager::save)).start();
+            // chunks are saved by next ticks of world, within time budget of autosave
+            this.saveScheduler.startCycle();
         }
         else
         {
-            this.chunkManager.getLoadedChunks().forEach(this.chunkManager::save);
+            this.saveScheduler.cancel();
+            this.chunkManager.saveAll();
+            this.chunkManager.flush();
         }
     }
 
@@ -18,7 +18,12 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 import org.diorite.impl.ServerImpl;
 import org.diorite.impl.cfg.DioriteConfigImpl;
 import org.diorite.impl.cfg.WorldsConfigImpl;
+import org.diorite.impl.world.io.ChunkIoService;
+import org.diorite.impl.world.io.ChunkStorageType;
 import org.diorite.impl.world.io.anvil.AnvilChunkIoService;
+import org.diorite.impl.world.io.log.LogChunkIoService;
+import org.diorite.impl.world.io.template.ChunkTemplate;
+import org.diorite.impl.world.io.template.TemplateChunkIoService;
 import org.diorite.impl.world.tick.TickGroupImpl;
 import org.diorite.impl.world.tick.WorldTickGroup;
 import org.diorite.cfg.WorldsConfig.WorldConfig;
@@ -36,8 +41,9 @@ public class WorldsManagerImpl implements WorldsManager
 {
     private WorldImpl        defaultWorld;
     private WorldsConfigImpl config;
-    private final Map<String, WorldGroupImpl> groups = new ConcurrentHashMap<>(5, .1f, 4);
-    private final Map<String, WorldImpl>      worlds = new ConcurrentHashMap<>(5, .1f, 4);
+    private final Map<String, WorldGroupImpl> groups    = new ConcurrentHashMap<>(5, .1f, 4);
+    private final Map<String, WorldImpl>      worlds    = new ConcurrentHashMap<>(5, .1f, 4);
+    private final Map<File, ChunkTemplate>    templates = new ConcurrentHashMap<>(5, .1f, 4);
 
     public void setDefaultWorld(final WorldImpl defaultWorld)
     {
@@ -59,6 +65,7 @@ public class WorldsManagerImpl implements WorldsManager
         {
             return;
         }
+        world.stopPregenerator();
         for (final TickGroupImpl group : ServerImpl.getInstance().getTicker().getGroups())
         {
             group.removeWorld(world);
@@ -68,6 +75,7 @@ public class WorldsManagerImpl implements WorldsManager
     public void removeWorld(final World world)
     {
         this.worlds.remove(world.getName());
+        ((WorldImpl) world).stopPregenerator();
         for (final TickGroupImpl group : ServerImpl.getInstance().getTicker().getGroups())
         {
             group.removeWorld(world);
@@ -155,7 +163,26 @@ public class WorldsManagerImpl implements WorldsManager
             this.groups.put(wgc.getName(), wgImpl);
             loaders.addAll(wgc.getWorlds().stream().filter(WorldConfig::isEnabled).map(wc -> (Runnable) () -> {
                 final File wFile = new File(wgImpl.getDataFolder(), wc.getName());
-                final WorldImpl wImpl = new WorldImpl(new AnvilChunkIoService(wFile), wc.getName(), wgImpl, wc.getDimension(), wc.getWorldType(), wc.getGenerator(), wc.getGeneratorSettings());
+                final ChunkIoService io;
+                if (wc.getChunkStorage() == ChunkStorageType.LOG)
+                {
+                    final LogChunkIoService logIo = new LogChunkIoService(wFile, wc.getIoThreads());
+                    logIo.setCompressionLevel(wc.getRegionCompressionLevel());
+                    io = logIo;
+                }
+                else
+                {
+                    final AnvilChunkIoService anvilIo = new AnvilChunkIoService(wFile, wc.getIoThreads(), wc.isMappedRegionFiles());
+                    anvilIo.setCompressionLevel(wc.getRegionCompressionLevel());
+                    anvilIo.setCompactionThreshold(wc.getRegionCompactionThreshold());
+                    if (wc.getRegionSyncPolicy() != null)
+                    {
+                        anvilIo.setSyncPolicy(wc.getRegionSyncPolicy());
+                    }
+                    io = anvilIo;
+                }
+                final WorldImpl wImpl = new WorldImpl(io, wc.getName(), wgImpl, wc.getDimension(), wc.getWorldType(), wc.getGenerator(), wc.getGeneratorSettings());
+                wImpl.configureAutosave(wc.getAutosaveInterval(), wc.getAutosaveTickBudget());
                 this.loadWorld(wImpl, wc);
                 wgImpl.addWorld(wImpl);
             }).collect(Collectors.toList()));
@@ -166,6 +193,83 @@ public class WorldsManagerImpl implements WorldsManager
         System.out.println("[WorldLoader] Loaded all " + loaders.size() + " worlds!");
     }
 
+    /**
+     * Creates new world from chunks of template world, template is loaded (and decoded) only once, and every chunk of new world
+     * is copy-on-write instance of template chunk, so creating world doesn't read or copy any chunk data.
+     * Template world must be defined in worlds config (it can be disabled), and its settings are used by new world.
+     *
+     * @param templateName   name of template world.
+     * @param name           name of new world.
+     * @param discardChanges if true, changes of chunks are dropped when chunk is unloaded, otherwise they are kept in memory until world is removed.
+     *
+     * @return created world.
+     *
+     * @see TemplateChunkIoService
+     */
+    public WorldImpl createInstance(final String templateName, final String name, final boolean discardChanges)
+    {
+        Validate.isTrue(! this.worlds.containsKey(name), "World already exists: " + name);
+        for (final WorldGroupConfig wgc : this.config.getGroups())
+        {
+            for (final WorldConfig wc : wgc.getWorlds())
+            {
+                if (! wc.getName().equals(templateName))
+                {
+                    continue;
+                }
+                final WorldGroupImpl wgImpl = this.groups.get(wgc.getName());
+                final File templateDir = new File(wgImpl.getDataFolder(), templateName);
+                final ChunkTemplate template = this.templates.computeIfAbsent(templateDir, dir -> {
+                    try
+                    {
+                        final long start = System.currentTimeMillis();
+                        final ChunkTemplate loaded = ChunkTemplate.load(dir);
+                        System.out.println("[WorldLoader] Loaded template world " + templateName + " (" + loaded.size() + " chunks) in " + (System.currentTimeMillis() - start) + " ms.");
+                        return loaded;
+                    } catch (final IOException e)
+                    {
+                        throw new RuntimeException("Can't load template world: " + dir, e);
+                    }
+                });
+                final WorldImpl wImpl = new WorldImpl(new TemplateChunkIoService(templateDir, template, discardChanges), name, wgImpl, wc.getDimension(), wc.getWorldType(), wc.getGenerator(), wc.getGeneratorSettings());
+                wImpl.setAutoSave(! discardChanges);
+                this.loadWorld(wImpl, wc);
+                wgImpl.addWorld(wImpl);
+                return wImpl;
+            }
+        }
+        throw new IllegalArgumentException("Unknown template world: " + templateName);
+    }
+
+    /**
+     * Removes world created by {@link #createInstance(String, String, boolean)}, and drops its changed chunks.
+     * Template stays loaded, so next instances can be created without loading it again.
+     *
+     * @param world world to remove.
+     */
+    public void removeInstance(final WorldImpl world)
+    {
+        this.removeWorld(world);
+        world.getWorldGroup().getWorlds().remove(world);
+        try
+        {
+            world.getChunkManager().getService().unload();
+        } catch (final IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Drops loaded template of given world, worlds created from it still use it.
+     *
+     * @param templateDir folder of template world.
+     */
+    public void unloadTemplate(final File templateDir)
+    {
+        this.templates.remove(templateDir);
+    }
+
     private void loadWorld(final WorldImpl world, final WorldConfig worldConfig)
     {
         world.setNoUpdateMode(true);
@@ -0,0 +1,556 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Bit-packed, palette indexed storage for raw block data (id &lt;&lt; 4 | meta) of single chunk part.
+ * <br>
+ * Every entry is stored as index into palette of used values, using as few bits as possible (from {@link #MIN_BITS_PER_ENTRY}
+ * to {@link #MAX_PALETTE_BITS}), if palette grows above that limit, raw values are stored instead ({@link #DIRECT_BITS} per entry).
+ * Entries never cross long boundaries, so every read is a single atomic read and don't need any locks.
+ * <br>
+ * All write operations are synchronized on this object, as they may need to resize palette and data array.
+ * <br>
+ * {@link #snapshot()} shares internal storage instead of copying it, storage is copied by first write to any array
+ * that is still sharing it (copy-on-write), so snapshot is O(1) and unchanged sections are never copied.
+ */
+@SuppressWarnings("MagicNumber")
+public class ChunkBlockData
+{
+    public static final int MIN_BITS_PER_ENTRY = 4;
+    public static final int MAX_PALETTE_BITS   = 8;
+    public static final int DIRECT_BITS        = 16;
+
+    private final    int     size;
+    private volatile Storage storage;
+    private          boolean released;
+
+    public ChunkBlockData(final int size)
+    {
+        this.size = size;
+        this.storage = new Storage(size, MIN_BITS_PER_ENTRY);
+        this.storage.addToPalette((short) 0);
+    }
+
+    public ChunkBlockData(final short[] data)
+    {
+        this.size = data.length;
+        // palette is collected in empty storage of max palette size (only small palette and its lookup table are allocated),
+        // ids of values are the same in final storage, as palette is copied in the same order
+        final Storage scratch = new Storage(0, MAX_PALETTE_BITS);
+        boolean direct = false;
+        for (final short value : data)
+        {
+            if (scratch.indexOf(value) == - 1)
+            {
+                if (scratch.paletteSize == scratch.palette.length)
+                {
+                    direct = true;
+                    break;
+                }
+                scratch.addToPalette(value);
+            }
+        }
+        if (scratch.paletteSize == 0)
+        {
+            scratch.addToPalette((short) 0);
+        }
+        final Storage storage = new Storage(this.size, direct ? DIRECT_BITS : bitsFor(scratch.paletteSize));
+        if (storage.palette != null)
+        {
+            for (int i = 0; i < scratch.paletteSize; i++)
+            {
+                storage.addToPalette(scratch.palette[i]);
+            }
+            for (int i = 0; i < data.length; i++)
+            {
+                storage.set(i, scratch.indexOf(data[i]));
+            }
+        }
+        else
+        {
+            for (int i = 0; i < data.length; i++)
+            {
+                storage.set(i, data[i] & 0xffff);
+            }
+        }
+        this.storage = storage;
+    }
+
+    private ChunkBlockData(final int size, final Storage storage)
+    {
+        this.size = size;
+        this.storage = storage;
+    }
+
+    /**
+     * Returns raw value (id &lt;&lt; 4 | meta) at given index.
+     *
+     * @param index index of entry.
+     *
+     * @return raw value at given index.
+     */
+    public short get(final int index)
+    {
+        return this.storage.getValue(index);
+    }
+
+    /**
+     * Sets raw value (id &lt;&lt; 4 | meta) at given index.
+     *
+     * @param index index of entry.
+     * @param value new value.
+     */
+    public synchronized void set(final int index, final short value)
+    {
+        this.writableStorage();
+        final int id = this.idFor(value);
+        this.storage.set(index, id);
+    }
+
+    /**
+     * Sets raw value (id &lt;&lt; 4 | meta) at given index and returns old one.
+     *
+     * @param index index of entry.
+     * @param value new value.
+     *
+     * @return previous value at given index.
+     */
+    public synchronized short getAndSet(final int index, final short value)
+    {
+        this.writableStorage();
+        final int id = this.idFor(value);
+        final Storage storage = this.storage;
+        final short old = storage.getValue(index);
+        storage.set(index, id);
+        return old;
+    }
+
+    /**
+     * Sets raw value (id &lt;&lt; 4 | meta) at given index only if current value is equal to expected one.
+     *
+     * @param index  index of entry.
+     * @param expect expected value.
+     * @param update new value.
+     *
+     * @return true if value was changed.
+     */
+    public boolean compareAndSet(final int index, final short expect, final short update)
+    {
+        // failed and no-op updates only need single read, so they don't take the lock
+        final short current = this.storage.getValue(index);
+        if (current != expect)
+        {
+            return false;
+        }
+        if (expect == update)
+        {
+            return true;
+        }
+        return this.compareAndSetLocked(index, expect, update);
+    }
+
+    private synchronized boolean compareAndSetLocked(final int index, final short expect, final short update)
+    {
+        if (this.storage.getValue(index) != expect)
+        {
+            return false;
+        }
+        this.writableStorage();
+        final int id = this.idFor(update);
+        this.storage.set(index, id);
+        return true;
+    }
+
+    /**
+     * Sets raw values (id &lt;&lt; 4 | meta) at all indexes marked in given bitset, in one pass.
+     *
+     * @param values  new values, indexed like this array.
+     * @param mask    bitset of indexes to set.
+     * @param changed bitset where indexes of values that were really changed are marked, may be null.
+     *
+     * @return difference in amount of non-zero (non-air) entries.
+     */
+    public synchronized int setAll(final short[] values, final long[] mask, final long[] changed)
+    {
+        int delta = 0;
+        boolean writable = false;
+        for (int word = 0; word < mask.length; word++)
+        {
+            long bits = mask[word];
+            while (bits != 0)
+            {
+                final int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                final short value = values[index];
+                final short old = this.storage.getValue(index);
+                if (old == value)
+                {
+                    continue;
+                }
+                if (! writable)
+                {
+                    this.writableStorage();
+                    writable = true;
+                }
+                final int id = this.idFor(value);
+                this.storage.set(index, id);
+                if (old == 0)
+                {
+                    delta++;
+                }
+                else if (value == 0)
+                {
+                    delta--;
+                }
+                if (changed != null)
+                {
+                    changed[word] |= 1L << index;
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * @return amount of entries in this array.
+     */
+    public int length()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return amount of bits used by single entry.
+     */
+    public int getBitsPerEntry()
+    {
+        return this.storage.bits;
+    }
+
+    /**
+     * @return amount of values in palette, or -1 if raw values are stored.
+     */
+    public int getPaletteSize()
+    {
+        final Storage storage = this.storage;
+        return (storage.palette == null) ? - 1 : storage.paletteSize;
+    }
+
+    /**
+     * Expands this array to raw short form, used by chunk writers and packets.
+     *
+     * @return new array with raw values.
+     */
+    public short[] getArray()
+    {
+        final Storage storage = this.storage;
+        final short[] result = new short[this.size];
+        final short[] palette = storage.palette;
+        // decoded cell by cell, so every entry needs only shift and mask
+        for (int cell = 0, i = 0; i < this.size; cell++)
+        {
+            long word = storage.data.get(cell);
+            for (int j = 0; (j < storage.valuesPerLong) && (i < this.size); j++, i++)
+            {
+                final int id = (int) (word & storage.mask);
+                word >>>= storage.bits;
+                result[i] = (palette == null) ? (short) id : palette[id];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return amount of non-zero (non-air) entries.
+     */
+    public int countNonZero()
+    {
+        final Storage storage = this.storage;
+        final short[] palette = storage.palette;
+        int zeroId = - 1;
+        if (palette != null)
+        {
+            for (int i = 0; i < storage.paletteSize; i++)
+            {
+                if (palette[i] == 0)
+                {
+                    zeroId = i;
+                    break;
+                }
+            }
+            if (zeroId == - 1)
+            {
+                return this.size;
+            }
+        }
+        else
+        {
+            zeroId = 0;
+        }
+        int count = 0;
+        for (int i = 0; i < this.size; i++)
+        {
+            if (storage.get(i) != zeroId)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns approximate amount of memory used by data of this array, in bytes.
+     *
+     * @return approximate memory usage.
+     */
+    public int getMemoryUsage()
+    {
+        final Storage storage = this.storage;
+        return (storage.data.length() << 3) + ((storage.palette == null) ? 0 : ((storage.palette.length << 1) + (storage.lookup.length << 2)));
+    }
+
+    /**
+     * @return new independent copy of this array.
+     */
+    public synchronized ChunkBlockData copy()
+    {
+        return new ChunkBlockData(this.size, this.storage.copy());
+    }
+
+    /**
+     * Returns array sharing storage with this one, storage will be copied by first write to any of arrays, so changes of
+     * one array are never visible in other.
+     * Snapshot should be {@link #release() released} when it isn't needed anymore, so writes to this array don't need to copy storage.
+     *
+     * @return new array sharing storage with this one.
+     */
+    public synchronized ChunkBlockData snapshot()
+    {
+        final Storage storage = this.storage;
+        storage.holders.incrementAndGet();
+        return new ChunkBlockData(this.size, storage);
+    }
+
+    /**
+     * Stops sharing storage of this array, should be called on snapshot that will not be used anymore.
+     * <br>
+     * Array sharing storage with released one doesn't copy it anymore before writing, so reads of released array may see
+     * later changes of that array, released array should not be read anymore. First write to released array copies storage,
+     * so it never changes other arrays.
+     */
+    public synchronized void release()
+    {
+        if (! this.released)
+        {
+            this.released = true;
+            this.storage.holders.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if storage of this array is shared with any other array.
+     */
+    public boolean isShared()
+    {
+        return this.storage.holders.get() > 1;
+    }
+
+    private void writableStorage()
+    {
+        final Storage storage = this.storage;
+        if (this.released)
+        {
+            this.storage = storage.copy();
+            this.released = false;
+        }
+        else if (storage.holders.get() > 1)
+        {
+            this.storage = storage.copy();
+            storage.holders.decrementAndGet();
+        }
+    }
+
+    private int idFor(final short value)
+    {
+        final Storage storage = this.storage;
+        if (storage.palette == null)
+        {
+            return value & 0xffff;
+        }
+        final int id = storage.indexOf(value);
+        if (id != - 1)
+        {
+            return id;
+        }
+        if (storage.paletteSize < storage.palette.length)
+        {
+            return storage.addToPalette(value);
+        }
+        this.resize(storage.bits + 1);
+        return this.idFor(value);
+    }
+
+    private void resize(final int bits)
+    {
+        final Storage old = this.storage;
+        final Storage storage = new Storage(this.size, (bits > MAX_PALETTE_BITS) ? DIRECT_BITS : bits);
+        if (storage.palette != null)
+        {
+            for (int i = 0; i < old.paletteSize; i++)
+            {
+                storage.addToPalette(old.palette[i]);
+            }
+            for (int i = 0; i < this.size; i++)
+            {
+                storage.set(i, old.get(i));
+            }
+        }
+        else
+        {
+            for (int i = 0; i < this.size; i++)
+            {
+                storage.set(i, old.getValue(i) & 0xffff);
+            }
+        }
+        this.storage = storage;
+    }
+
+    private static int bitsFor(final int paletteSize)
+    {
+        int bits = MIN_BITS_PER_ENTRY;
+        while ((1 << bits) < paletteSize)
+        {
+            if (++ bits > MAX_PALETTE_BITS)
+            {
+                return DIRECT_BITS;
+            }
+        }
+        return bits;
+    }
+
+    @Override
+    public String toString()
+    {
+        final Storage storage = this.storage;
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("size", this.size).append("bits", storage.bits).append("paletteSize", storage.paletteSize).toString();
+    }
+
+    private static final class Storage
+    {
+        private final int             bits;
+        private final int             valuesPerLong;
+        private final long            divMagic; // index * divMagic >>> 32 == index / valuesPerLong, for all possible indexes
+        private final long            mask;
+        private final AtomicLongArray data;
+        private final short[]         palette; // null if raw values are stored
+        private final int[]           lookup; // open addressing map: value -> (id + 1) << 16 | value
+        private final AtomicInteger   holders = new AtomicInteger(1); // amount of arrays using this storage
+        private       int             paletteSize;
+
+        private Storage(final int size, final int bits)
+        {
+            this.bits = bits;
+            this.valuesPerLong = 64 / bits;
+            this.divMagic = ((1L << 32) + this.valuesPerLong - 1) / this.valuesPerLong;
+            this.mask = (1L << bits) - 1;
+            this.data = new AtomicLongArray((size + this.valuesPerLong - 1) / this.valuesPerLong);
+            if (bits > MAX_PALETTE_BITS)
+            {
+                this.palette = null;
+                this.lookup = null;
+            }
+            else
+            {
+                this.palette = new short[1 << bits];
+                this.lookup = new int[this.palette.length << 1];
+            }
+        }
+
+        private Storage(final Storage storage)
+        {
+            this.bits = storage.bits;
+            this.valuesPerLong = storage.valuesPerLong;
+            this.divMagic = storage.divMagic;
+            this.mask = storage.mask;
+            final int length = storage.data.length();
+            this.data = new AtomicLongArray(length);
+            for (int i = 0; i < length; i++)
+            {
+                this.data.lazySet(i, storage.data.get(i));
+            }
+            this.palette = (storage.palette == null) ? null : storage.palette.clone();
+            this.lookup = (storage.lookup == null) ? null : storage.lookup.clone();
+            this.paletteSize = storage.paletteSize;
+        }
+
+        private Storage copy()
+        {
+            return new Storage(this);
+        }
+
+        private int get(final int index)
+        {
+            final int cell = (int) ((index * this.divMagic) >>> 32);
+            final int shift = (index - (cell * this.valuesPerLong)) * this.bits;
+            return (int) ((this.data.get(cell) >>> shift) & this.mask);
+        }
+
+        private void set(final int index, final int id)
+        {
+            final int cell = (int) ((index * this.divMagic) >>> 32);
+            final int shift = (index - (cell * this.valuesPerLong)) * this.bits;
+            final long old = this.data.get(cell);
+            // writers are serialized by lock of array, so ordered store is enough for readers and avoids full fence of volatile store
+            this.data.lazySet(cell, (old & ~ (this.mask << shift)) | ((id & this.mask) << shift));
+        }
+
+        private short getValue(final int index)
+        {
+            final int id = this.get(index);
+            return (this.palette == null) ? (short) id : this.palette[id];
+        }
+
+        private int indexOf(final short value)
+        {
+            final int key = value & 0xffff;
+            final int mask = this.lookup.length - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask)
+            {
+                final int entry = this.lookup[i];
+                if (entry == 0)
+                {
+                    return - 1;
+                }
+                if ((entry & 0xffff) == key)
+                {
+                    return (entry >>> 16) - 1;
+                }
+            }
+        }
+
+        private int addToPalette(final short value)
+        {
+            final int id = this.paletteSize++;
+            this.palette[id] = value;
+            final int key = value & 0xffff;
+            final int mask = this.lookup.length - 1;
+            int i = hash(key) & mask;
+            while (this.lookup[i] != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            this.lookup[i] = ((id + 1) << 16) | key;
+            return id;
+        }
+
+        private static int hash(final int key)
+        {
+            return (key * 0x9E3779B1) >>> 16;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.Arrays;
+
+import org.diorite.impl.world.BlockStates;
+import org.diorite.world.chunk.Chunk;
+
+/**
+ * Section-aware heightmap engine, heightmap entry is y of highest solid block of column (index z &lt;&lt; 4 | x), or -1 if column is empty.
+ * <br>
+ * Empty chunk parts (null or with block count of 0) are skipped without reading their blocks, whole chunk is computed in single
+ * top-down pass over chunk parts that stops when every column is found, and single block changes only rescan column when
+ * highest block of it was removed.
+ */
+@SuppressWarnings("MagicNumber")
+public final class ChunkHeightMap
+{
+    public static final int COLUMNS = Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE;
+
+    /**
+     * Value of heightmap entry of column without any solid block.
+     */
+    public static final int NO_BLOCK = - 1;
+
+    private ChunkHeightMap()
+    {
+    }
+
+    /**
+     * Computes heightmap of whole chunk.
+     *
+     * @param chunkParts chunk parts of chunk, parts can be null.
+     * @param heightMap  heightmap array to fill.
+     */
+    public static void compute(final ChunkPartImpl[] chunkParts, final int[] heightMap)
+    {
+        Arrays.fill(heightMap, NO_BLOCK);
+        int remaining = COLUMNS;
+        for (int partY = chunkParts.length - 1; partY >= 0; partY--)
+        {
+            final ChunkPartImpl chunkPart = chunkParts[partY];
+            if ((chunkPart == null) || chunkPart.isEmpty())
+            {
+                continue;
+            }
+            final ChunkBlockData blocks = chunkPart.getBlocks();
+            final int baseY = partY << 4;
+            for (int y = Chunk.CHUNK_PART_HEIGHT - 1; y >= 0; y--)
+            {
+                final int offset = y << 8;
+                for (int xz = 0; xz < COLUMNS; xz++)
+                {
+                    if ((heightMap[xz] == NO_BLOCK) && BlockStates.isSolid(blocks.get(offset | xz)))
+                    {
+                        heightMap[xz] = baseY | y;
+                        if (-- remaining == 0)
+                        {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds highest solid block of single column, starting from given y.
+     *
+     * @param chunkParts chunk parts of chunk, parts can be null.
+     * @param x          x coordinate of column in chunk.
+     * @param z          z coordinate of column in chunk.
+     * @param fromY      y to start from (inclusive).
+     *
+     * @return y of highest solid block, or {@link #NO_BLOCK}.
+     */
+    public static int scanColumn(final ChunkPartImpl[] chunkParts, final int x, final int z, final int fromY)
+    {
+        final int xz = (z << 4) | x;
+        for (int partY = Math.min(fromY, Chunk.CHUNK_FULL_HEIGHT - 1) >> 4, y = fromY & 15; partY >= 0; partY--, y = Chunk.CHUNK_PART_HEIGHT - 1)
+        {
+            final ChunkPartImpl chunkPart = chunkParts[partY];
+            if ((chunkPart == null) || chunkPart.isEmpty())
+            {
+                continue;
+            }
+            final ChunkBlockData blocks = chunkPart.getBlocks();
+            for (; y >= 0; y--)
+            {
+                if (BlockStates.isSolid(blocks.get((y << 8) | xz)))
+                {
+                    return (partY << 4) | y;
+                }
+            }
+        }
+        return NO_BLOCK;
+    }
+
+    /**
+     * Updates heightmap after change of single block.
+     *
+     * @param chunkParts chunk parts of chunk, parts can be null.
+     * @param heightMap  heightmap array to update.
+     * @param x          x coordinate of block in chunk.
+     * @param y          y coordinate of block.
+     * @param z          z coordinate of block in chunk.
+     * @param solid      if new block is solid.
+     */
+    public static void update(final ChunkPartImpl[] chunkParts, final int[] heightMap, final int x, final int y, final int z, final boolean solid)
+    {
+        final int xz = (z << 4) | x;
+        final int height = heightMap[xz];
+        if (solid)
+        {
+            if (y > height)
+            {
+                heightMap[xz] = y;
+            }
+        }
+        else if (y == height)
+        {
+            heightMap[xz] = scanColumn(chunkParts, x, z, y - 1);
+        }
+    }
+}
@@ -7,13 +7,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import org.diorite.impl.entity.EntityImpl;
 import org.diorite.impl.pipelines.event.chunk.ChunkGeneratePipelineImpl;
+import org.diorite.impl.world.BlockCursor;
+import org.diorite.impl.world.BlockStates;
 import org.diorite.impl.world.TileEntityImpl;
 import org.diorite.impl.world.WorldImpl;
 import org.diorite.BlockLocation;
@@ -24,8 +26,6 @@ import org.diorite.material.Material;
 import org.diorite.nbt.NbtTag;
 import org.diorite.nbt.NbtTagCompound;
 import org.diorite.utils.collections.arrays.NibbleArray;
-import org.diorite.utils.concurrent.ParallelUtils;
-import org.diorite.utils.concurrent.atomic.AtomicShortArray;
 import org.diorite.world.Biome;
 import org.diorite.world.Block;
 import org.diorite.world.World;
@@ -34,11 +34,25 @@ import org.diorite.world.chunk.ChunkPos;
 
 public class ChunkImpl implements Chunk
 {
+    /**
+     * Value of ticket counter of chunk removed from chunk manager, such chunk will never be loaded again.
+     */
+    private static final int EVICTED   = - 1;
+    /**
+     * Value of ticket counter of chunk that is just being unloaded by chunk manager, new tickets wait until it is unloaded or unload fails.
+     */
+    private static final int UNLOADING = - 2;
+
     private final ChunkPos pos;
     private final int[]    heightMap;
     private final AtomicBoolean populated = new AtomicBoolean(false);
+    private final AtomicInteger tickets   = new AtomicInteger(); // amount of tickets keeping this chunk loaded, or EVICTED/UNLOADING
+    private final Object        loadLock  = new Object(); // held while chunk is loaded, or unloaded and evicted by chunk manager
     private byte[]          biomes;
     private ChunkPartImpl[] chunkParts; // size of 16, parts can be null
+    private volatile boolean dirty = true; // biomes, sections or tile entities changed since last save, block changes are tracked by sections
+    private Map<String, byte[]> unknownTags; // raw NBT of tags of Level compound that aren't used by diorite, by name
+    private Map<String, byte[]> unknownRootTags; // raw NBT of tags of root compound other than Level, by name
 
     private final Map<BlockLocation, TileEntityImpl> tileEntities = new HashMap<>(10);
     private final Set<EntityImpl>                    entities     = new HashSet<>(4);
@@ -56,31 +70,32 @@ public class ChunkImpl implements Chunk
     {
         this.pos = pos;
         this.biomes = biomes;
-        this.heightMap = new int[Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE];
+        this.heightMap = new int[ChunkHeightMap.COLUMNS];
     }
 
     public ChunkImpl(final ChunkPos pos, final ChunkPartImpl[] chunkParts)
     {
         this.pos = pos;
         this.chunkParts = chunkParts;
-        this.heightMap = new int[Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE];
+        this.heightMap = new int[ChunkHeightMap.COLUMNS];
     }
 
     public ChunkImpl(final ChunkPos pos)
     {
         this.pos = pos;
-        this.heightMap = new int[Chunk.CHUNK_SIZE * Chunk.CHUNK_SIZE];
+        this.heightMap = new int[ChunkHeightMap.COLUMNS];
     }
 
     @Override
     @SuppressWarnings("MagicNumber")
     public Biome getBiome(final int x, final int y, final int z) // y is ignored, added for future possible changes.
     {
-        if ((this.biomes == null) && ! this.load())
+        final byte[] biomes = (this.biomes == null) ? this.getLoaded().biomes : this.biomes;
+        if (biomes == null)
         {
             return null;
         }
-        return Biome.getByBiomeId(this.biomes[((z * Chunk.CHUNK_SIZE) + x)] & 0xFF);
+        return Biome.getByBiomeId(biomes[((z * Chunk.CHUNK_SIZE) + x)] & 0xFF);
     }
 
     public void setBiome(final int x, final int y, final int z, final Biome biome) // y is ignored, added for future possible changes.
@@ -89,7 +104,13 @@ public class ChunkImpl implements Chunk
         {
             return;
         }
-        this.biomes[((z * Chunk.CHUNK_SIZE) + x)] = (byte) biome.getBiomeId();
+        final int index = (z * Chunk.CHUNK_SIZE) + x;
+        final byte id = (byte) biome.getBiomeId();
+        if (this.biomes[index] != id)
+        {
+            this.biomes[index] = id;
+            this.dirty = true;
+        }
     }
 
     @Override
@@ -107,7 +128,33 @@ public class ChunkImpl implements Chunk
     @Override
     public boolean load(final boolean generate)
     {
-        return this.isLoaded() || this.pos.getWorld().getChunkManager().loadChunk(this.pos.getX(), this.pos.getZ(), generate);
+        if (this.isLoaded())
+        {
+            return true;
+        }
+        if (this.isEvicted())
+        {
+            // this object is stale, chunk must be loaded to current object of chunk manager.
+            return this.getWorld().getChunkManager().getChunk(this.pos.getX(), this.pos.getZ()).load(generate);
+        }
+        return this.pos.getWorld().getChunkManager().loadChunk(this.pos.getX(), this.pos.getZ(), generate);
+    }
+
+    /**
+     * Loads this chunk if it isn't loaded yet. Stale (evicted) object is never loaded again, chunk is loaded to
+     * current object of chunk manager instead, so that object is returned then, like {@link org.diorite.impl.world.BlockImpl#getChunk()} does.
+     *
+     * @return object of this chunk that should be used to access its data, its data is null if chunk can't be loaded.
+     */
+    private ChunkImpl getLoaded()
+    {
+        if (this.isLoaded())
+        {
+            return this;
+        }
+        final ChunkImpl chunk = this.isEvicted() ? this.getWorld().getChunkManager().getChunk(this.pos.getX(), this.pos.getZ()) : this;
+        chunk.load();
+        return chunk;
     }
 
     @Override
@@ -134,21 +181,244 @@ public class ChunkImpl implements Chunk
         return ! unloadEvt.isCancelled();
     }
 
+    /**
+     * @return amount of tickets keeping this chunk loaded, negative if chunk is evicted or just being unloaded.
+     *
+     * @see ChunkTicketGroup
+     */
+    public int getTicketCount()
+    {
+        return this.tickets.get();
+    }
+
+    /**
+     * @return true if there is at least one ticket keeping this chunk loaded.
+     */
+    public boolean isInUse()
+    {
+        return this.tickets.get() > 0;
+    }
+
+    /**
+     * Returns true if this chunk was removed from chunk manager, such object is stale and should be replaced by
+     * new one from {@link ChunkManagerImpl#getChunk(int, int)}.
+     *
+     * @return true if this chunk was evicted.
+     */
+    public boolean isEvicted()
+    {
+        return this.tickets.get() == EVICTED;
+    }
+
+    /**
+     * Marks this chunk as evicted, only if there is no tickets on it and it isn't loaded.
+     *
+     * @return true if chunk was marked as evicted.
+     */
+    boolean tryEvict()
+    {
+        synchronized (this.loadLock)
+        {
+            return ! this.isLoaded() && this.tickets.compareAndSet(0, EVICTED);
+        }
+    }
+
+    /**
+     * Blocks new tickets on this chunk if there is no tickets on it, so it can be unloaded. Chunk manager must hold {@link #getLoadLock()}
+     * until {@link #finishUnload()} is invoked.
+     *
+     * @return false if chunk is in use (or was evicted), so it can't be unloaded.
+     */
+    boolean tryBeginUnload()
+    {
+        return this.tickets.compareAndSet(0, UNLOADING);
+    }
+
+    /**
+     * Ends unload started by {@link #tryBeginUnload()}, chunk is evicted if it was unloaded, otherwise it can get tickets again.
+     *
+     * @return true if chunk was evicted.
+     */
+    boolean finishUnload()
+    {
+        final boolean evict = ! this.isLoaded();
+        this.tickets.set(evict ? EVICTED : 0);
+        return evict;
+    }
+
+    /**
+     * @return lock held by chunk manager while this chunk is loaded, or unloaded and evicted, so chunk can't be evicted in the middle of load.
+     */
+    Object getLoadLock()
+    {
+        return this.loadLock;
+    }
+
+    /**
+     * Adds ticket to this chunk, unless it was evicted. If chunk is just being unloaded, it waits until unload is done.
+     *
+     * @return new amount of tickets, or -1 if chunk was evicted.
+     */
+    int addTicket()
+    {
+        while (true)
+        {
+            final int current = this.tickets.get();
+            if (current == EVICTED)
+            {
+                return EVICTED;
+            }
+            if (current == UNLOADING)
+            {
+                // chunk manager holds load lock until chunk is unloaded (and evicted) or unload fails
+                synchronized (this.loadLock)
+                {
+                    continue;
+                }
+            }
+            if (this.tickets.compareAndSet(current, current + 1))
+            {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Removes ticket from this chunk, counter never drops below zero.
+     *
+     * @return new amount of tickets, or -1 if chunk was evicted.
+     */
+    int removeTicket()
+    {
+        while (true)
+        {
+            final int current = this.tickets.get();
+            if (current <= 0)
+            {
+                return current;
+            }
+            if (this.tickets.compareAndSet(current, current - 1))
+            {
+                return current - 1;
+            }
+        }
+    }
+
     public void setBiomes(final byte[] biomes)
     {
         this.biomes = biomes;
+        this.dirty = true;
     }
 
     public void setChunkParts(final ChunkPartImpl[] chunkParts)
     {
         this.chunkParts = chunkParts;
+        this.dirty = true;
+    }
+
+    /**
+     * Drops sections of this chunk when it is unloaded. Sections are released first, so storage they share with snapshots
+     * (like save copies, or sections of template chunk, see {@link ChunkPartImpl#instance()}) isn't counted as shared by them anymore.
+     */
+    public void releaseChunkParts()
+    {
+        final ChunkPartImpl[] chunkParts = this.chunkParts;
+        this.setChunkParts(null);
+        if (chunkParts == null)
+        {
+            return;
+        }
+        for (final ChunkPartImpl chunkPart : chunkParts)
+        {
+            if (chunkPart != null)
+            {
+                chunkPart.release();
+            }
+        }
     }
 
+    /**
+     * Returns map of tile entities of this chunk, it should be only modified by
+     * {@link #addTileEntity(TileEntityImpl)} and {@link #removeTileEntity(BlockLocation)}, so chunk is marked as dirty.
+     *
+     * @return map of tile entities.
+     */
     public Map<BlockLocation, TileEntityImpl> getTileEntities()
     {
         return this.tileEntities;
     }
 
+    public void addTileEntity(final TileEntityImpl tileEntity)
+    {
+        this.tileEntities.put(tileEntity.getLocation(), tileEntity);
+        this.dirty = true;
+    }
+
+    public TileEntityImpl removeTileEntity(final BlockLocation location)
+    {
+        final TileEntityImpl removed = this.tileEntities.remove(location);
+        if (removed != null)
+        {
+            this.dirty = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if this chunk was changed since it was loaded or saved, so it needs to be saved again.
+     *
+     * @return true if this chunk or any of its sections was changed since last {@link #markClean()}.
+     */
+    public boolean isDirty()
+    {
+        if (this.dirty)
+        {
+            return true;
+        }
+        final ChunkPartImpl[] chunkParts = this.chunkParts;
+        if (chunkParts == null)
+        {
+            return false;
+        }
+        for (final ChunkPartImpl chunkPart : chunkParts)
+        {
+            if ((chunkPart != null) && chunkPart.isDirty())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks this chunk as changed, so it will be written by next save.
+     */
+    public void markDirty()
+    {
+        this.dirty = true;
+    }
+
+    /**
+     * Marks this chunk and its sections as saved, it should be invoked before chunk data is captured for save,
+     * so changes done while saving mark it as dirty again.
+     */
+    public void markClean()
+    {
+        this.dirty = false;
+        final ChunkPartImpl[] chunkParts = this.chunkParts;
+        if (chunkParts == null)
+        {
+            return;
+        }
+        for (final ChunkPartImpl chunkPart : chunkParts)
+        {
+            if (chunkPart != null)
+            {
+                chunkPart.markClean();
+            }
+        }
+    }
+
     public Set<EntityImpl> getEntities()
     {
         return this.entities;
@@ -163,6 +433,7 @@ public class ChunkImpl implements Chunk
     public void setPopulated(final boolean populated)
     {
         this.populated.set(populated);
+        this.dirty = true;
     }
 
     @Override
@@ -172,6 +443,7 @@ public class ChunkImpl implements Chunk
         {
             if (this.populated.compareAndSet(false, true))
             {
+                this.dirty = true;
                 ChunkGeneratePipelineImpl.addPops(this.pos);
                 this.getWorld().getGenerator().getPopulators().forEach(pop -> pop.populate(this));
                 return true;
@@ -184,50 +456,28 @@ public class ChunkImpl implements Chunk
     @Override
     public void initHeightMap()
     {
-        ParallelUtils.realParallelStream(() -> {
-            IntStream.range(0, CHUNK_SIZE * CHUNK_SIZE).parallel().forEach(xz -> {
-                final int x = xz / CHUNK_SIZE;
-                final int z = xz % CHUNK_SIZE;
-                this.heightMap[((z << 4) | x)] = - 1;
-                for (int y = Chunk.CHUNK_FULL_HEIGHT - 1; y >= 0; y--)
-                {
-                    if (this.getBlockType(x, y, z).isSolid())
-                    {
-                        this.heightMap[((z << 4) | x)] = y;
-                        return;
-                    }
-                }
-            });
-        }, "[" + this.pos.getX() + "," + this.pos.getZ() + "]initHeightMap");
+        ChunkHeightMap.compute(this.chunkParts, this.heightMap);
+    }
+
+    /**
+     * Recalculates heightmap entry of given column.
+     *
+     * @param x x coordinate of column in chunk.
+     * @param z z coordinate of column in chunk.
+     */
+    public void recalculateHeight(final int x, final int z)
+    {
+        this.heightMap[((z << 4) | x)] = ChunkHeightMap.scanColumn(this.chunkParts, x, z, Chunk.CHUNK_FULL_HEIGHT - 1);
     }
 
     public BlockMaterialData setBlock(final int x, final int y, final int z, final BlockMaterialData materialData)
     {
         final ChunkPartImpl chunkPart = this.getPart(y);
         final BlockMaterialData prev = chunkPart.setBlock(x, y % Chunk.CHUNK_PART_HEIGHT, z, materialData);
-
-        final int hy = this.heightMap[((z << 4) | x)];
-        if (y >= hy)
-        {
-            if (materialData.isSolid())
-            {
-                this.heightMap[((z << 4) | x)] = y;
-            }
-            else
-            {
-                for (int i = y - 1; i >= 0; i--)
-                {
-                    if (this.getBlockType(x, i, z).isSolid())
-                    {
-                        this.heightMap[((z << 4) | x)] = i;
-                        break;
-                    }
-                    this.heightMap[((z << 4) | x)] = 0;
-                }
-            }
-        }
 //        ServerImpl.getInstance().getPlayersManager().forEach(p -> p.getPlayerChunks().getVisibleChunks().contains(this), new PacketPlayOutBlockChange(new BlockLocation(x + (this.pos.getX() << 4), y, z + (this.pos.getZ() << 4), this.getWorld()), materialData));
         this.checkPart(chunkPart);
+        // the same flag as used by heightmap computation, so updated and recomputed heightmaps never differ
+        ChunkHeightMap.update(this.chunkParts, this.heightMap, x, y, z, BlockStates.isSolid(BlockStates.toRaw(materialData)));
         return prev;
     }
 
@@ -236,6 +486,22 @@ public class ChunkImpl implements Chunk
         return this.setBlock(x, y, z, BlockMaterialData.getByID(id, meta));
     }
 
+    /**
+     * Sets many blocks of one chunk part in one pass, heightmap isn't updated,
+     * {@link #recalculateHeight(int, int)} should be used for every changed column.
+     *
+     * @param partY   y position of chunk part (0-15).
+     * @param values  new raw values of blocks, indexed by {@link ChunkPartImpl#toArrayIndex(int, int, int)}.
+     * @param mask    bitset of indexes to set.
+     * @param changed bitset where indexes of changed blocks are marked, may be null.
+     */
+    public void setBlocks(final int partY, final short[] values, final long[] mask, final long[] changed)
+    {
+        final ChunkPartImpl chunkPart = this.getPart(partY << 4);
+        chunkPart.setBlocks(values, mask, changed);
+        this.checkPart(chunkPart);
+    }
+
     @Override
     public BlockMaterialData getBlockType(final int x, final int y, final int z)
     {
@@ -250,7 +516,12 @@ public class ChunkImpl implements Chunk
     @Override
     public BlockMaterialData getHighestBlockType(final int x, final int z)
     {
-        return this.getBlockType(x, ((z << 4) | x), z);
+        final int y = this.heightMap[((z << 4) | x)];
+        if (y == ChunkHeightMap.NO_BLOCK)
+        {
+            return Material.AIR;
+        }
+        return this.getBlockType(x, y, z);
     }
 
     @Override
@@ -260,12 +531,26 @@ public class ChunkImpl implements Chunk
         return new org.diorite.impl.world.BlockImpl(x, y, z, this);
     }
 
+    /**
+     * Creates new block cursor placed at given block of this chunk, cursor can be moved outside of this chunk.
+     *
+     * @param x x coordinate of block in chunk.
+     * @param y y coordinate of block.
+     * @param z z coordinate of block in chunk.
+     *
+     * @return new block cursor.
+     */
+    public BlockCursor getBlockCursor(final int x, final int y, final int z)
+    {
+        return new BlockCursor(this).move(x, y, z);
+    }
+
     @Override
     public Block getHighestBlock(final int x, final int z)
     {
         // TODO change when meta-data of block will be added
         final int y = this.heightMap[((z << 4) | x)];
-        if (y == - 1)
+        if (y == ChunkHeightMap.NO_BLOCK)
         {
             return null;
         }
@@ -319,6 +604,7 @@ public class ChunkImpl implements Chunk
         if (chunkPart.getBlocksCount() <= 0)
         {
             this.chunkParts[chunkPart.getYPos()] = null;
+            this.dirty = true; // removed section can't be tracked anymore
         }
     }
 
@@ -334,6 +620,68 @@ public class ChunkImpl implements Chunk
         return chunkPart;
     }
 
+    /**
+     * Loads decoded data of chunk, used by {@link #loadFrom(NbtTagCompound)} and streaming chunk codecs.
+     *
+     * @param sections  sections of chunk, array of size 16, sections can be null.
+     * @param biomes    biomes of chunk.
+     * @param heightMap heightmap of chunk, if null or invalid it will be calculated.
+     * @param populated if chunk is populated.
+     */
+    public void loadFrom(final ChunkPartImpl[] sections, final byte[] biomes, final int[] heightMap, final boolean populated)
+    {
+        for (final ChunkPartImpl section : sections)
+        {
+            if (section != null)
+            {
+                section.recalculateBlockCount();
+            }
+        }
+        this.populated.set(populated);
+        this.biomes = biomes;
+        if ((heightMap != null) && (heightMap.length == this.heightMap.length))
+        {
+            System.arraycopy(heightMap, 0, this.heightMap, 0, this.heightMap.length);
+        }
+        else
+        {
+            ChunkHeightMap.compute(sections, this.heightMap);
+        }
+
+        this.chunkParts = sections;
+        this.init();
+        this.markClean(); // chunk is the same as stored one
+    }
+
+    /**
+     * Loads data of template chunk, sections are copy-on-write instances of sections of template (see {@link ChunkPartImpl#instance()}),
+     * so no block or light data is copied until chunk is changed. Template chunk must not be changed.
+     *
+     * @param template chunk to load data from.
+     */
+    public void loadFrom(final ChunkImpl template)
+    {
+        final ChunkPartImpl[] templateParts = template.chunkParts;
+        final ChunkPartImpl[] parts = new ChunkPartImpl[templateParts.length];
+        for (int i = 0; i < templateParts.length; ++ i)
+        {
+            final ChunkPartImpl templatePart = templateParts[i];
+            if (templatePart != null)
+            {
+                parts[i] = templatePart.instance();
+            }
+        }
+        this.populated.set(template.populated.get());
+        this.biomes = (template.biomes == null) ? null : template.biomes.clone();
+        System.arraycopy(template.heightMap, 0, this.heightMap, 0, this.heightMap.length);
+        this.unknownTags = template.unknownTags;
+        this.unknownRootTags = template.unknownRootTags;
+
+        this.chunkParts = parts;
+        this.init();
+        this.markClean(); // chunk is the same as template
+    }
+
     @SuppressWarnings("MagicNumber")
     public void loadFrom(final NbtTagCompound tag)
     {
@@ -345,41 +693,19 @@ public class ChunkImpl implements Chunk
             final byte[] rawTypes = sectionTag.getByteArray("Blocks");
             final NibbleArray extTypes = sectionTag.containsTag("Add") ? new NibbleArray(sectionTag.getByteArray("Add")) : null;
             final NibbleArray data = new NibbleArray(sectionTag.getByteArray("Data"));
-            final NibbleArray blockLight = new NibbleArray(sectionTag.getByteArray("BlockLight"));
-            final NibbleArray skyLight = new NibbleArray(sectionTag.getByteArray("SkyLight"));
+            final NibbleArray blockLight = ChunkPartImpl.shareIfUniform(new NibbleArray(sectionTag.getByteArray("BlockLight")));
+            final NibbleArray skyLight = ChunkPartImpl.shareIfUniform(new NibbleArray(sectionTag.getByteArray("SkyLight")));
 
             final short[] types = new short[rawTypes.length];
             for (int i = 0; i < rawTypes.length; i++)
             {
                 types[i] = (short) ((((extTypes == null) ? 0 : extTypes.get(i)) << 12) | ((rawTypes[i] & 0xff) << 4) | data.get(i));
             }
-            sections[y] = new ChunkPartImpl(new AtomicShortArray(types), skyLight, blockLight, y);
+            sections[y] = new ChunkPartImpl(new ChunkBlockData(types), skyLight, blockLight, y);
         }
-        System.arraycopy(sections, 0, this.chunkParts, 0, sections.length);
-
-        this.populated.set(tag.getBoolean("TerrainPopulated"));
         // TODO: load tile entites and other entities
-
         final byte[] biomes = tag.getByteArray("Biomes");
-        if (biomes != null)
-        {
-            this.biomes = biomes;
-        }
-        else
-        {
-            this.biomes = new byte[CHUNK_BIOMES_SIZE];
-        }
-        final int[] heightMap = tag.getIntArray("HeightMap");
-        if (heightMap != null)
-        {
-            System.arraycopy(tag.getIntArray("HeightMap"), 0, this.heightMap, 0, this.heightMap.length);
-        }
-        else
-        {
-            this.initHeightMap();
-        }
-
-        this.init();
+        this.loadFrom(sections, (biomes != null) ? biomes : new byte[CHUNK_BIOMES_SIZE], tag.getIntArray("HeightMap"), tag.getBoolean("TerrainPopulated"));
 //        tag.getBoolean("LightPopulated"); // TODO
 //        tag.getLong("InhabitedTime"); // TODO
 //
@@ -411,19 +737,23 @@ public class ChunkImpl implements Chunk
 //        }
     }
 
-    @SuppressWarnings("MagicNumber")
     public NbtTagCompound writeTo(final NbtTagCompound tag)
+    {
+        return this.writeTo(tag, this.getWorld().getTime(), this.getWorld().getDimension().hasSkyLight());
+    }
+
+    @SuppressWarnings("MagicNumber")
+    public NbtTagCompound writeTo(final NbtTagCompound tag, final long lastUpdate, final boolean hasSkyLight)
     {
         tag.setByte("V", 1);
         tag.setInt("xPos", this.getX());
         tag.setInt("zPos", this.getZ());
-        tag.setLong("LastUpdate", this.getWorld().getTime());
+        tag.setLong("LastUpdate", lastUpdate);
         tag.setIntArray("HeightMap", this.heightMap);
         tag.setBoolean("TerrainPopulated", this.populated.get());
         tag.setBoolean("LightPopulated", false); // TODO
         tag.setLong("InhabitedTime", 0); // TODO: value used to set local difficulty based on play time
         final List<NbtTag> sections = new ArrayList<>(16);
-        final boolean hasSkyLight = this.getWorld().getDimension().hasSkyLight();
         for (final ChunkPartImpl chunkPart : this.chunkParts)
         {
             if (chunkPart == null)
@@ -432,12 +762,13 @@ public class ChunkImpl implements Chunk
             }
             final NbtTagCompound sectionNBT = new NbtTagCompound();
             sectionNBT.setByte("Y", chunkPart.getYPos());
-            final byte[] blocksIDs = new byte[chunkPart.getBlocks().length()];
+            final short[] blocks = chunkPart.getBlocks().getArray();
+            final byte[] blocksIDs = new byte[blocks.length];
             final org.diorite.impl.world.chunk.ChunkNibbleArray blocksMetaData = new org.diorite.impl.world.chunk.ChunkNibbleArray();
             org.diorite.impl.world.chunk.ChunkNibbleArray additionalData = null;
-            for (int i = 0; i < chunkPart.getBlocks().length(); ++ i)
+            for (int i = 0; i < blocks.length; ++ i)
             {
-                final short block = chunkPart.getBlocks().get(i);
+                final short block = blocks[i];
                 final int blockMeta = i & 15;
                 final int blockData = (i >> 8) & 15;
                 final int blockID = (i >> 4) & 15;
@@ -481,6 +812,43 @@ public class ChunkImpl implements Chunk
         return this.biomes;
     }
 
+    /**
+     * Returns heightmap of this chunk, it must not be modified.
+     *
+     * @return heightmap of this chunk.
+     */
+    public int[] getHeightMap()
+    {
+        return this.heightMap;
+    }
+
+    /**
+     * Returns raw NBT data (type, name and payload) of tags of "Level" compound that aren't used by diorite,
+     * they are written back unchanged when chunk is saved.
+     *
+     * @return raw NBT data of unknown tags by names of tags, may be null.
+     */
+    public Map<String, byte[]> getUnknownTags()
+    {
+        return this.unknownTags;
+    }
+
+    /**
+     * Returns raw NBT data of tags of root compound other than "Level", see {@link #getUnknownTags()}.
+     *
+     * @return raw NBT data of unknown tags by names of tags, may be null.
+     */
+    public Map<String, byte[]> getUnknownRootTags()
+    {
+        return this.unknownRootTags;
+    }
+
+    public void setUnknownTags(final Map<String, byte[]> unknownTags, final Map<String, byte[]> unknownRootTags)
+    {
+        this.unknownTags = unknownTags;
+        this.unknownRootTags = unknownRootTags;
+    }
+
 //    public void setBlock(final int x, final int y, final int z, final int id, final int meta)
 //    {
 //        this.setBlock(x, y, z, id, meta);
@@ -491,14 +859,15 @@ public class ChunkImpl implements Chunk
     // set bit to 0: variable &= ~(1 << bit)
     public int getMask()
     {
-        if (! this.isLoaded())
+        final ChunkPartImpl[] chunkParts = this.getLoaded().chunkParts;
+        int mask = 0x0;
+        if (chunkParts == null)
         {
-            this.load();
+            return mask;
         }
-        int mask = 0x0;
-        for (int i = 0, chunkPartsLength = this.chunkParts.length; i < chunkPartsLength; i++)
+        for (int i = 0, chunkPartsLength = chunkParts.length; i < chunkPartsLength; i++)
         {
-            if ((this.chunkParts[i] != null) && ! this.chunkParts[i].isEmpty())
+            if ((chunkParts[i] != null) && ! chunkParts[i].isEmpty())
             {
                 mask |= (1 << i);
             }
@@ -511,6 +880,93 @@ public class ChunkImpl implements Chunk
         return this.chunkParts;
     }
 
+    /**
+     * Creates snapshot of this chunk, sections aren't copied, so it can be used every tick.
+     *
+     * @param saveBiomes       if biomes should be saved in snapshot.
+     * @param saveTemperatures if temperature and humidity of biomes should be saved in snapshot.
+     *
+     * @return snapshot of this chunk.
+     *
+     * @see ChunkSnapshotImpl#release()
+     */
+    public ChunkSnapshotImpl getSnapshot(final boolean saveBiomes, final boolean saveTemperatures)
+    {
+        final ChunkPartImpl[] chunkParts = this.chunkParts;
+        final byte[] biomes = (saveBiomes || saveTemperatures) ? this.copyBiomes() : null;
+        if (chunkParts == null)
+        {
+            return new ChunkSnapshotImpl.EmptySnapshot(this.getX(), this.getZ(), this.getWorld(), biomes, saveTemperatures);
+        }
+        return new ChunkSnapshotImpl(this.getX(), this.getZ(), this.getWorld(), chunkParts, this.heightMap.clone(), biomes, saveTemperatures);
+    }
+
+    /**
+     * Returns copy of biomes of this chunk, if chunk doesn't have biomes (it isn't loaded or generated yet),
+     * biomes are generated from biome grid of world, so they match biomes that chunk will have.
+     *
+     * @return copy of biomes of this chunk.
+     */
+    private byte[] copyBiomes()
+    {
+        final byte[] biomes = this.biomes;
+        if (biomes != null)
+        {
+            return biomes.clone();
+        }
+        final int[] values = this.getWorld().getChunkManager().getBiomeGrid(this.getX() << 4, this.getZ() << 4, Chunk.CHUNK_SIZE, Chunk.CHUNK_SIZE);
+        final byte[] generated = new byte[Chunk.CHUNK_BIOMES_SIZE];
+        for (int i = 0; i < Chunk.CHUNK_BIOMES_SIZE; ++ i)
+        {
+            generated[i] = (byte) values[i];
+        }
+        return generated;
+    }
+
+    /**
+     * Creates detached copy of this chunk that can be saved by other thread while this chunk is changed.
+     * Sections of copy are copy-on-write snapshots, so creating it don't copy any block data.
+     * Copy should be released by {@link #releaseSaveCopy()} after it is saved.
+     *
+     * @return copy of this chunk, or null if this chunk isn't loaded.
+     */
+    public ChunkImpl createSaveCopy()
+    {
+        final ChunkPartImpl[] chunkParts = this.chunkParts;
+        if (chunkParts == null)
+        {
+            return null;
+        }
+        final ChunkPartImpl[] parts = new ChunkPartImpl[chunkParts.length];
+        for (int i = 0; i < chunkParts.length; ++ i)
+        {
+            final ChunkPartImpl chunkPart = chunkParts[i];
+            if (chunkPart != null)
+            {
+                parts[i] = chunkPart.snapshot();
+            }
+        }
+        final byte[] biomes = this.biomes;
+        final ChunkImpl copy = new ChunkImpl(this.pos, (biomes == null) ? null : biomes.clone(), parts, this.heightMap.clone());
+        copy.populated.set(this.populated.get());
+        copy.setUnknownTags(this.unknownTags, this.unknownRootTags);
+        return copy;
+    }
+
+    /**
+     * Releases sections of copy created by {@link #createSaveCopy()}, so source chunk don't need to copy them on next change.
+     */
+    public void releaseSaveCopy()
+    {
+        for (final ChunkPartImpl chunkPart : this.chunkParts)
+        {
+            if (chunkPart != null)
+            {
+                chunkPart.release();
+            }
+        }
+    }
+
     @Override
     public String toString()
     {
@@ -1,14 +1,15 @@
 package org.diorite.impl.world.chunk;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -16,7 +17,9 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 import org.diorite.impl.Tickable;
 import org.diorite.impl.world.WorldImpl;
+import org.diorite.impl.world.chunk.ChunkTicketGroup.Ticket;
 import org.diorite.impl.world.generator.ChunkBuilderImpl;
+import org.diorite.impl.world.io.ChunkIoExecutor;
 import org.diorite.impl.world.io.ChunkIoService;
 import org.diorite.event.EventType;
 import org.diorite.event.chunk.ChunkGenerateEvent;
@@ -54,14 +57,43 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     private final MapLayer[] biomeGrid;
 
     /**
-     * A map of chunks currently loaded in memory.
+     * A map of chunks currently loaded in memory, unloaded chunks are removed from it by {@link #unloadOldChunks()}.
      */
-    private final ConcurrentMap<Long, ChunkImpl> chunks = new ConcurrentHashMap<>(1000, .25f, 8);
+    private final ChunkMap<ChunkImpl> chunks = new ChunkMap<>(1000, 16);
 
     /**
-     * A map of chunks which are being kept loaded by players or other factors.
+     * A map of chunks which may be unloaded, chunks are added here when they are loaded or when last ticket on them is released.
      */
-    private final ConcurrentMap<Long, Set<ChunkLock>> locks = new ConcurrentHashMap<>(1000, .25f, 8);
+    private final ChunkMap<ChunkImpl> unloadCandidates = new ChunkMap<>(100, 16);
+
+    /**
+     * Tickets with expire time, sorted by it, including released tickets kept for unload delay of their type.
+     */
+    private final PriorityBlockingQueue<Ticket> expiringTickets = new PriorityBlockingQueue<>();
+
+    /**
+     * Tickets of cleared ticket groups, released by next {@link #tickTickets()}.
+     */
+    private final Queue<ChunkMap<Ticket>> clearedTickets = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Chunks read by {@link #prefetchChunks(long[])}, they are detached from this manager and waiting to be loaded by {@link #read(ChunkImpl)}.
+     */
+    private final ChunkMap<CompletableFuture<ChunkImpl>> prefetched = new ChunkMap<>(64, 16);
+
+    private volatile long currentTick;
+
+    /**
+     * Amount of chunks written and skipped (because they weren't changed) by save cycles since world was loaded.
+     */
+    private final AtomicLong writtenChunks = new AtomicLong();
+    private final AtomicLong skippedChunks = new AtomicLong();
+
+    /**
+     * Amount of chunks written and skipped by last save cycle.
+     */
+    private volatile int lastSaveWritten;
+    private volatile int lastSaveSkipped;
 
     public ChunkManagerImpl(final WorldImpl world, final ChunkIoService service, final WorldGenerator generator)
     {
@@ -112,19 +144,45 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     @Override
     public ChunkImpl getChunk(final int x, final int z)
     {
-        final Long key = IntsToLong.pack(x, z);
-        if (this.chunks.containsKey(key))
+        final long key = IntsToLong.pack(x, z);
+        while (true)
         {
-            return this.chunks.get(key);
+            ChunkImpl chunk = this.chunks.get(key);
+            if (chunk == null)
+            {
+                // only create chunk if it's not in the map already, if it was created in the intervening time, the earlier one wins
+                final ChunkImpl[] created = new ChunkImpl[1];
+                chunk = this.chunks.computeIfAbsent(key, k -> created[0] = new ChunkImpl(new ChunkPos(x, z, this.world)));
+                if (chunk == created[0])
+                {
+                    // chunk that is never loaded or acquired (like by plain block lookup) must be removed from cache too
+                    this.markUnloadCandidate(chunk);
+                }
+            }
+            if (! chunk.isEvicted())
+            {
+                return chunk;
+            }
+            // chunk is just being removed from map
+            this.chunks.remove(key, chunk);
         }
-        else
+    }
+
+    /**
+     * Gets a chunk object representing the specified packed coordinates, which might not yet be loaded.
+     *
+     * @param key packed coordinates of chunk. (see {@link IntsToLong#pack(int, int)})
+     *
+     * @return The chunk.
+     */
+    public ChunkImpl getChunk(final long key)
+    {
+        final ChunkImpl chunk = this.chunks.get(key);
+        if ((chunk != null) && ! chunk.isEvicted())
         {
-            // only create chunk if it's not in the map already
-            final ChunkImpl chunk = new ChunkImpl(new ChunkPos(x, z, this.world));
-            final ChunkImpl prev = this.chunks.putIfAbsent(key, chunk);
-            // if it was created in the intervening time, the earlier one wins
-            return (prev == null) ? chunk : prev;
+            return chunk;
         }
+        return this.getChunk(IntsToLong.getA(key), IntsToLong.getB(key));
     }
 
     /**
@@ -138,13 +196,25 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     @Override
     public boolean isChunkLoaded(final int x, final int z)
     {
-        final Long key = IntsToLong.pack(x, z);
-        final ChunkImpl chunk = this.chunks.get(key);
+        final ChunkImpl chunk = this.chunks.get(IntsToLong.pack(x, z));
         return (chunk != null) && chunk.isLoaded();
     }
 
     /**
-     * Check whether a chunk has locks on it preventing it from being unloaded.
+     * Checks if chunk at the specified coordinates is loaded or stored by storage provider, without reading it.
+     *
+     * @param x The X coordinate.
+     * @param z The Z coordinate.
+     *
+     * @return false if the chunk surely doesn't exist, so it would be generated by load without reading it.
+     */
+    public boolean isChunkStored(final int x, final int z)
+    {
+        return this.isChunkLoaded(x, z) || this.service.hasChunk(x, z);
+    }
+
+    /**
+     * Check whether a chunk has tickets on it preventing it from being unloaded.
      *
      * @param x The X coordinate.
      * @param z The Z coordinate.
@@ -154,9 +224,8 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     @Override
     public boolean isChunkInUse(final int x, final int z)
     {
-        final Long key = IntsToLong.pack(x, z);
-        final Set<ChunkLock> lockSet = this.locks.get(key);
-        return (lockSet != null) && ! lockSet.isEmpty();
+        final ChunkImpl chunk = this.chunks.get(IntsToLong.pack(x, z));
+        return (chunk != null) && chunk.isInUse();
     }
 
     /**
@@ -170,6 +239,22 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
      */
     @Override
     public boolean loadChunk(final int x, final int z, final boolean generate)
+    {
+        while (true)
+        {
+            final ChunkImpl target = this.getChunk(x, z);
+            synchronized (target.getLoadLock())
+            {
+                // evicted chunk would be loaded to stale object, that is no longer in chunk cache, so it must be loaded to new one
+                if (! target.isEvicted())
+                {
+                    return this.loadChunk0(x, z, generate);
+                }
+            }
+        }
+    }
+
+    private boolean loadChunk0(final int x, final int z, final boolean generate)
     {
         final ChunkLoadEvent loadEvt = new ChunkLoadEvent(new ChunkPos(x, z, this.world));
         EventType.callEvent(loadEvt);
@@ -183,6 +268,7 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
         {
             throw new NullPointerException("Loaded null chunk from: " + x + ", " + z);
         }
+        this.markUnloadCandidate(chunk);
         // stop here if we can't generate
         if (! generate || ! loadEvt.isNeedBeGenerated())
         {
@@ -196,28 +282,222 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     }
 
     /**
-     * Unload chunks with no locks on them.
+     * Reads many chunks at once, without loading them. Chunks are read in batch by storage provider (see {@link ChunkIoService#readBatchAsync(List)}),
+     * so chunks of one region are read in order of their position in file and decoded in parallel by I/O threads.
+     * Decoded data is kept by this manager and used by {@link #read(ChunkImpl)} when chunk is loaded by main thread,
+     * so events and generation of chunks are never invoked by I/O threads.
+     * <br>
+     * Chunks should be protected by tickets before invocation of this method, prefetched data of chunk is dropped when chunk is removed
+     * from cache by {@link #unloadOldChunks()}.
+     *
+     * @param keys packed coordinates of chunks. (see {@link IntsToLong#pack(int, int)})
+     *
+     * @return futures in order of given coordinates, completed by I/O thread when chunk is read, with true if chunk exists
+     * (or is already loaded), exceptionally if chunk can't be read. Chunk must be loaded by main thread after that.
+     */
+    public List<CompletableFuture<Boolean>> prefetchChunks(final long[] keys)
+    {
+        final List<CompletableFuture<Boolean>> result = new ArrayList<>(keys.length);
+        final List<ChunkImpl> toRead = new ArrayList<>(keys.length);
+        for (final long key : keys)
+        {
+            if (this.getChunk(key).isLoaded())
+            {
+                result.add(CompletableFuture.completedFuture(Boolean.TRUE));
+                continue;
+            }
+            final CompletableFuture<ChunkImpl> prefetch = this.prefetched.get(key);
+            if (prefetch != null)
+            {
+                result.add(prefetch.thenApply(data -> data != null));
+                continue;
+            }
+            result.add(null);
+            toRead.add(new ChunkImpl(new ChunkPos(IntsToLong.getA(key), IntsToLong.getB(key), this.world)));
+        }
+        final List<CompletableFuture<Boolean>> reads = this.service.readBatchAsync(toRead);
+        for (int i = 0, j = 0; i < keys.length; ++ i)
+        {
+            if (result.get(i) != null)
+            {
+                continue;
+            }
+            final ChunkImpl data = toRead.get(j);
+            final CompletableFuture<Boolean> read = reads.get(j++);
+            this.prefetched.put(keys[i], read.thenApply(found -> found ? data : null));
+            result.set(i, read);
+        }
+        return result;
+    }
+
+    /**
+     * Unload chunks with no tickets on them, only chunks whose ticket count dropped to zero (or were loaded without tickets) are checked.
+     * Unloaded chunks are removed from chunk cache, objects still holding them (like {@link org.diorite.impl.world.BlockImpl})
+     * can detect that by {@link ChunkImpl#isEvicted()} and get new chunk object.
      */
     @Override
     public void unloadOldChunks()
     {
-        for (final Map.Entry<Long, ChunkImpl> entry : this.chunks.entrySet())
+        int unloaded = 0;
+        for (final Iterator<ChunkImpl> it = this.unloadCandidates.iterator(); it.hasNext(); )
         {
-            final Set<ChunkLock> lockSet = this.locks.get(entry.getKey());
-            if ((lockSet == null) || lockSet.isEmpty())
+            final ChunkImpl chunk = it.next();
+            if (chunk.isInUse())
+            {
+                it.remove();
+                continue;
+            }
+            // chunk can't be loaded again by other thread between unload and eviction
+            synchronized (chunk.getLoadLock())
             {
-                if (! entry.getValue().unload(true, true))
+                // ticket could be acquired after check above, new tickets wait until unload is done
+                if (! chunk.tryBeginUnload())
+                {
+                    it.remove();
+                    continue;
+                }
+                if (chunk.isLoaded())
+                {
+                    if (! chunk.unload(true, true))
+                    {
+                        chunk.finishUnload();
+                        System.err.println("[ChunkIO] Failed to unload chunk " + this.world.getName() + ":" + chunk.getPos());
+                        continue;
+                    }
+                    unloaded++;
+                }
+                it.remove();
+                if (chunk.finishUnload())
                 {
-                    System.err.println("[ChunkIO] Failed to unload chunk " + this.world.getName() + ":" + entry.getKey());
+                    final long key = chunk.getPos().asLong();
+                    this.chunks.remove(key, chunk);
+                    this.prefetched.remove(key); // prefetched, but never loaded
                 }
             }
-            // cannot remove old chunks from cache - Block and BlockState keep references.
-            // they must either be changed to look up the chunk again all the time, or this code left out.
-            /*if (!entry.getValue().isLoaded()) {
-                chunks.entrySet().remove(entry);
-                locks.remove(entry.getKey());
-            }*/
         }
+        if (unloaded > 0)
+        {
+            // storage of unloaded chunks is synced even if there are no save cycles
+            this.service.afterSaveCycle();
+        }
+    }
+
+    /**
+     * @return amount of chunks that will be checked by next {@link #unloadOldChunks()}
+     */
+    public int getUnloadCandidatesCount()
+    {
+        return this.unloadCandidates.size();
+    }
+
+    /**
+     * @return amount of chunk objects in chunk cache, loaded or not.
+     */
+    public int getCachedChunksCount()
+    {
+        return this.chunks.size();
+    }
+
+    /**
+     * Create new group of tickets on chunks of this manager.
+     *
+     * @param type type of tickets.
+     * @param desc description of group.
+     *
+     * @return new ticket group.
+     */
+    public ChunkTicketGroup createTicketGroup(final ChunkTicketType type, final String desc)
+    {
+        return new ChunkTicketGroup(this, type, desc);
+    }
+
+    /**
+     * @return amount of ticks processed by {@link #tickTickets()}, used as time of ticket expiration.
+     */
+    public long getCurrentTick()
+    {
+        return this.currentTick;
+    }
+
+    /**
+     * Releases tickets of cleared groups, expired tickets, and released tickets whose unload delay passed, should be invoked once per world tick.
+     */
+    public void tickTickets()
+    {
+        final long tick = ++ this.currentTick;
+        ChunkMap<Ticket> cleared;
+        while ((cleared = this.clearedTickets.poll()) != null)
+        {
+            cleared.forEach((Ticket t) -> t.group.release(t));
+        }
+        Ticket ticket;
+        while ((ticket = this.expiringTickets.poll()) != null)
+        {
+            if (ticket.expireAt > tick)
+            {
+                this.expiringTickets.add(ticket);
+                break;
+            }
+            if (ticket.group == null)
+            {
+                this.releaseTicket(ticket.chunk); // unload delay passed
+            }
+            else
+            {
+                ticket.group.release(ticket);
+            }
+        }
+    }
+
+    /**
+     * Queues tickets of cleared group to be released by next {@link #tickTickets()}.
+     *
+     * @param tickets tickets of cleared group.
+     */
+    void releaseTickets(final ChunkMap<Ticket> tickets)
+    {
+        this.clearedTickets.add(tickets);
+    }
+
+    void addExpiringTicket(final Ticket ticket)
+    {
+        this.expiringTickets.add(ticket);
+    }
+
+    /**
+     * Releases ticket removed from its group, after unload delay of its type (see {@link ChunkTicketType#getUnloadDelay()}).
+     *
+     * @param type  type of ticket.
+     * @param chunk chunk of ticket.
+     */
+    void releaseTicket(final ChunkTicketType type, final ChunkImpl chunk)
+    {
+        final int delay = type.getUnloadDelay();
+        if (delay <= 0)
+        {
+            this.releaseTicket(chunk);
+            return;
+        }
+        // chunk keeps this ticket until delay passes
+        this.expiringTickets.add(new Ticket(null, chunk.getPos().asLong(), chunk, this.currentTick + delay));
+    }
+
+    void releaseTicket(final ChunkImpl chunk)
+    {
+        if (chunk.removeTicket() == 0)
+        {
+            this.markUnloadCandidate(chunk);
+        }
+    }
+
+    /**
+     * Marks chunk to be checked by next {@link #unloadOldChunks()}, it will be unloaded and removed from cache if there is no tickets on it.
+     *
+     * @param chunk chunk to check.
+     */
+    public void markUnloadCandidate(final ChunkImpl chunk)
+    {
+        this.unloadCandidates.putIfAbsent(chunk.getPos().asLong(), chunk);
     }
 
     /**
@@ -316,120 +596,233 @@ public class ChunkManagerImpl implements ChunkManager, Tickable
     }
 
     /**
-     * Performs the save for the given chunk using the storage provider.
+     * Reads given chunk using I/O threads of storage provider, and waits for it,
+     * so pending write of the same chunk is always done before read.
+     * If chunk was already read by {@link #prefetchChunks(long[])}, its data is used instead,
+     * and chunks that surely don't exist (see {@link ChunkIoService#hasChunk(int, int)}) aren't read at all.
+     * <br>
+     * Must not be invoked by I/O threads, as they would wait for own tasks.
      *
-     * @param chunk The chunk to save.
+     * @param chunk The chunk to read into.
+     *
+     * @return true if chunk was read, false if it doesn't exist.
+     *
+     * @throws IOException if an I/O error occurs.
      */
-    @Override
-    public boolean save(final Chunk chunk)
+    public boolean read(final ChunkImpl chunk) throws IOException
     {
-        if (chunk.isLoaded())
+        if (ChunkIoExecutor.isIoThread())
+        {
+            throw new IllegalStateException("Chunk " + chunk.getPos() + " can't be loaded by I/O thread.");
+        }
+        final CompletableFuture<ChunkImpl> prefetch = this.prefetched.remove(chunk.getPos().asLong());
+        if (prefetch != null)
         {
             try
             {
-                this.service.write((ChunkImpl) chunk);
+                final ChunkImpl data = prefetch.join();
+                if (data == null)
+                {
+                    return false;
+                }
+                chunk.setUnknownTags(data.getUnknownTags(), data.getUnknownRootTags());
+                chunk.loadFrom(data.getChunkParts(), data.getBiomes(), data.getHeightMap(), data.isPopulated());
                 return true;
-            } catch (final IOException e)
+            } catch (final CompletionException ignored)
             {
-                System.err.println("[ChunkIO] Error while saving " + chunk);
-                e.printStackTrace();
-                return false;
+                // batch read failed, so chunk is read again alone, to report error of this chunk
             }
         }
-        return false;
-    }
-
-    public int[] getBiomeGridAtLowerRes(final int x, final int z, final int sizeX, final int sizeZ)
-    {
-        return this.biomeGrid[1].generateValues(x, z, sizeX, sizeZ);
+        if (! this.service.hasChunk(chunk.getX(), chunk.getZ()))
+        {
+            return false;
+        }
+        try
+        {
+            return this.service.readAsync(chunk).join();
+        } catch (final CompletionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Can't read chunk " + chunk.getPos(), e.getCause());
+        }
     }
 
+    /**
+     * Performs the save for the given chunk using the storage provider, see {@link #saveAsync(ChunkImpl)}.
+     *
+     * @param chunk The chunk to save.
+     *
+     * @return true if chunk wasn't changed, or its data was captured and queued for write,
+     * false if chunk isn't loaded. Use {@link #saveAsync(ChunkImpl)} to get result of write.
+     */
     @Override
-    public void doTick(final int tps)
+    public boolean save(final Chunk chunk)
     {
-        this.chunks.values().stream().filter(ChunkImpl::isLoaded).forEach(c -> {
-            c.getTileEntities().values().forEach(t -> t.doTick(tps));
-        });
+        return chunk.isLoaded() && (this.saveAsync((ChunkImpl) chunk) != null);
     }
 
     /**
-     * Look up the set of locks on a given chunk.
+     * Performs the save for the given chunk using the storage provider.
+     * Chunk data is captured by this method, and written to disk by I/O threads of storage provider.
+     * Chunks that weren't changed since they were loaded or saved are skipped.
+     * <br>
+     * Chunk is marked as saved before its data is captured, so changes done while it is written mark it as dirty again,
+     * and it is marked as dirty again if write fails, so it is written by next save.
+     * <br>
+     * If queue of storage provider is full, this method blocks until it can accept more chunks (see {@link ChunkIoService#awaitCapacity()}),
+     * so save bursts (like autosave of many changed chunks) can't grow memory used by waiting writes without limit.
      *
-     * @param key The chunk key.
+     * @param chunk The chunk to save.
      *
-     * @return The set of locks for that chunk.
+     * @return future completed when chunk is written (or at once if it wasn't changed), exceptionally if write failed,
+     * or null if chunk isn't loaded.
      */
-    private Collection<ChunkLock> getLockSet(final Long key)
+    public CompletableFuture<Void> saveAsync(final ChunkImpl chunk)
     {
-        if (this.locks.containsKey(key))
+        if (! chunk.isLoaded())
+        {
+            return null;
+        }
+        if (! chunk.isDirty())
         {
-            return this.locks.get(key);
+            return CompletableFuture.completedFuture(null);
         }
-        else
+        try
+        {
+            this.service.awaitCapacity();
+        } catch (final InterruptedException e)
         {
-            // only create chunk if it's not in the map already
-            final Set<ChunkLock> set = new HashSet<>(5);
-            final Set<ChunkLock> prev = this.locks.putIfAbsent(key, set);
-            // if it was created in the intervening time, the earlier one wins
-            return (prev == null) ? set : prev;
+            Thread.currentThread().interrupt(); // chunk is still saved, queue can only grow over limit then
         }
+        chunk.markClean();
+        final CompletableFuture<Void> future = this.service.writeAsync(chunk);
+        future.whenComplete((v, e) -> {
+            if (e != null)
+            {
+                chunk.markDirty(); // so it will be saved again by next save
+                System.err.println("[ChunkIO] Error while saving " + chunk);
+                e.printStackTrace();
+            }
+        });
+        return future;
     }
 
     /**
-     * A group of locks on chunks to prevent them from being unloaded while in use.
+     * Saves all loaded chunks that were changed since they were loaded or saved, in one go.
+     *
+     * @see ChunkSaveScheduler
      */
-    public static class ChunkLock implements Iterable<Long>
+    public void saveAll()
     {
-        private final ChunkManagerImpl cm;
-        private final String           desc;
-        private final Collection<Long> keys = new HashSet<>(5);
-
-        public ChunkLock(final ChunkManagerImpl cm, final String desc)
-        {
-            this.cm = cm;
-            this.desc = desc;
-        }
-
-        public void acquire(final Long key)
+        int written = 0;
+        int skipped = 0;
+        for (final ChunkImpl chunk : this.getLoadedChunks())
         {
-            if (this.keys.contains(key))
+            if (! chunk.isDirty())
             {
-                return;
+                skipped++;
             }
-            this.keys.add(key);
-            this.cm.getLockSet(key).add(this);
-        }
-
-        public void release(final Long key)
-        {
-            if (! this.keys.contains(key))
+            else if (this.save(chunk))
             {
-                return;
+                written++;
             }
-            this.keys.remove(key);
-            this.cm.getLockSet(key).remove(this);
         }
+        this.recordSaveCycle(written, skipped);
+    }
 
-        public void clear()
-        {
-            for (final Long key : this.keys)
-            {
-                this.cm.getLockSet(key).remove(this);
-            }
-            this.keys.clear();
-        }
+    void recordSaveCycle(final int written, final int skipped)
+    {
+        this.lastSaveWritten = written;
+        this.lastSaveSkipped = skipped;
+        this.writtenChunks.addAndGet(written);
+        this.skippedChunks.addAndGet(skipped);
+        this.service.afterSaveCycle();
+    }
 
-        @Override
-        public Iterator<Long> iterator()
-        {
-            return this.keys.iterator();
-        }
+    /**
+     * @return amount of chunks written by last save cycle.
+     */
+    public int getLastSaveWritten()
+    {
+        return this.lastSaveWritten;
+    }
 
-        @Override
-        public String toString()
-        {
-            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("cm", this.cm).append("desc", this.desc).append("keys", this.keys).toString();
-        }
+    /**
+     * @return amount of unchanged chunks skipped by last save cycle.
+     */
+    public int getLastSaveSkipped()
+    {
+        return this.lastSaveSkipped;
+    }
+
+    /**
+     * @return amount of chunks written by save cycles since world was loaded.
+     */
+    public long getWrittenChunks()
+    {
+        return this.writtenChunks.get();
+    }
+
+    /**
+     * @return amount of unchanged chunks skipped by save cycles since world was loaded.
+     */
+    public long getSkippedChunks()
+    {
+        return this.skippedChunks.get();
+    }
+
+    /**
+     * Waits until all chunks saved before invocation of this method are written.
+     *
+     * @return true if all chunks were written, false if any write failed.
+     */
+    public boolean flush()
+    {
+        return this.service.flush();
+    }
+
+    /**
+     * Blocks until chunk I/O can accept more chunks, used by background producers of chunks, see {@link ChunkIoService#awaitCapacity()}.
+     *
+     * @throws InterruptedException if thread was interrupted while waiting.
+     */
+    public void awaitIoCapacity() throws InterruptedException
+    {
+        this.service.awaitCapacity();
+    }
+
+    public int[] getBiomeGridAtLowerRes(final int x, final int z, final int sizeX, final int sizeZ)
+    {
+        return this.biomeGrid[1].generateValues(x, z, sizeX, sizeZ);
+    }
+
+    /**
+     * Generates biome ids of given area of blocks, the same as generator sets to new chunks.
+     *
+     * @param x     min x coordinate of block.
+     * @param z     min z coordinate of block.
+     * @param sizeX size of area on x axis.
+     * @param sizeZ size of area on z axis.
+     *
+     * @return biome ids of area, indexed by z * sizeX + x.
+     */
+    public int[] getBiomeGrid(final int x, final int z, final int sizeX, final int sizeZ)
+    {
+        return this.biomeGrid[0].generateValues(x, z, sizeX, sizeZ);
+    }
+
+    @Override
+    public void doTick(final int tps)
+    {
+        this.chunks.forEach((ChunkImpl c) -> {
+            if (c.isLoaded())
+            {
+                c.getTileEntities().values().forEach(t -> t.doTick(tps));
+            }
+        });
     }
 
     @Override
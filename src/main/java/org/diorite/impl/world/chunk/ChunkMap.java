@@ -0,0 +1,554 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Concurrent open addressing map with primitive long keys, made for packed chunk (or region) coordinates.
+ * (see {@link org.diorite.utils.math.pack.IntsToLong#pack(int, int)})
+ * <br>
+ * Reads are lock-free and don't allocate anything, writes are locking only one of segments (stripes) of map.
+ * Removed entries are replaced by tombstones, they are dropped when segment table is rebuilt.
+ * Iteration is weakly consistent, like in {@link java.util.concurrent.ConcurrentHashMap}.
+ *
+ * @param <V> type of values.
+ */
+@SuppressWarnings("MagicNumber")
+public class ChunkMap<V> implements Iterable<V>
+{
+    private static final float     LOAD_FACTOR = 0.6f;
+    private static final Entry<?>  TOMBSTONE   = new Entry<>(0, null);
+
+    private final Segment<V>[] segments;
+    private final int          segmentShift;
+
+    public ChunkMap()
+    {
+        this(256, 16);
+    }
+
+    /**
+     * Construct new map.
+     *
+     * @param initialCapacity  initial capacity of whole map.
+     * @param concurrencyLevel amount of segments, rounded up to power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public ChunkMap(final int initialCapacity, final int concurrencyLevel)
+    {
+        final int segmentsCount = powerOfTwo(Math.max(1, concurrencyLevel));
+        this.segments = new Segment[segmentsCount];
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentsCount);
+        final int segmentCapacity = powerOfTwo(Math.max(8, (int) ((initialCapacity / segmentsCount) / LOAD_FACTOR)));
+        for (int i = 0; i < segmentsCount; i++)
+        {
+            this.segments[i] = new Segment<>(segmentCapacity);
+        }
+    }
+
+    private Segment<V> segmentFor(final int hash)
+    {
+        return (this.segments.length == 1) ? this.segments[0] : this.segments[hash >>> this.segmentShift];
+    }
+
+    /**
+     * Returns value for given key, or null if there is no value for it.
+     *
+     * @param key key of value.
+     *
+     * @return value for given key or null.
+     */
+    public V get(final long key)
+    {
+        final int hash = hash(key);
+        return this.segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(final long key)
+    {
+        return this.get(key) != null;
+    }
+
+    /**
+     * Puts new value to map, and returns previous one.
+     *
+     * @param key   key of value.
+     * @param value new value, can't be null.
+     *
+     * @return previous value for given key or null.
+     */
+    public V put(final long key, final V value)
+    {
+        if (value == null)
+        {
+            throw new NullPointerException("Value can't be null.");
+        }
+        final int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * Puts new value to map only if there is no value for given key.
+     *
+     * @param key   key of value.
+     * @param value new value, can't be null.
+     *
+     * @return current value for given key, or null if given value was added.
+     */
+    public V putIfAbsent(final long key, final V value)
+    {
+        if (value == null)
+        {
+            throw new NullPointerException("Value can't be null.");
+        }
+        final int hash = hash(key);
+        return this.segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * Returns value for given key, if there is no value, new one is created by given function and added to map.
+     * Function is invoked at most once, while holding lock of one segment of map, so it should be short and simple.
+     *
+     * @param key      key of value.
+     * @param function function creating new value.
+     *
+     * @return current (existing or created) value for given key.
+     */
+    public V computeIfAbsent(final long key, final LongFunction<? extends V> function)
+    {
+        final int hash = hash(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        final V value = segment.get(key, hash);
+        if (value != null)
+        {
+            return value;
+        }
+        return segment.computeIfAbsent(key, hash, function);
+    }
+
+    /**
+     * Removes value for given key.
+     *
+     * @param key key of value.
+     *
+     * @return removed value or null.
+     */
+    public V remove(final long key)
+    {
+        final int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash, null);
+    }
+
+    /**
+     * Removes value for given key, only if it is equal to given value.
+     *
+     * @param key   key of value.
+     * @param value expected value.
+     *
+     * @return true if value was removed.
+     */
+    public boolean remove(final long key, final V value)
+    {
+        if (value == null)
+        {
+            return false;
+        }
+        final int hash = hash(key);
+        return this.segmentFor(hash).remove(key, hash, value) != null;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (final Segment<V> segment : this.segments)
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        for (final Segment<V> segment : this.segments)
+        {
+            if (segment.size != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear()
+    {
+        for (final Segment<V> segment : this.segments)
+        {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Invokes given action for each entry of map, without creating any objects.
+     *
+     * @param action action to invoke.
+     */
+    public void forEach(final EntryConsumer<? super V> action)
+    {
+        for (final Segment<V> segment : this.segments)
+        {
+            final AtomicReferenceArray<Entry<V>> table = segment.table;
+            for (int i = 0, length = table.length(); i < length; i++)
+            {
+                final Entry<V> entry = table.get(i);
+                if ((entry != null) && (entry != TOMBSTONE))
+                {
+                    action.accept(entry.key, entry.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Invokes given action for each value of map, without creating any objects.
+     *
+     * @param action action to invoke.
+     */
+    @Override
+    public void forEach(final Consumer<? super V> action)
+    {
+        for (final Segment<V> segment : this.segments)
+        {
+            final AtomicReferenceArray<Entry<V>> table = segment.table;
+            for (int i = 0, length = table.length(); i < length; i++)
+            {
+                final Entry<V> entry = table.get(i);
+                if ((entry != null) && (entry != TOMBSTONE))
+                {
+                    action.accept(entry.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return new list with all values of this map.
+     */
+    public List<V> values()
+    {
+        final List<V> values = new ArrayList<>(this.size());
+        this.forEach((Consumer<V>) values::add);
+        return values;
+    }
+
+    /**
+     * Returns weakly consistent iterator of values, {@link Iterator#remove()} removes value from map.
+     *
+     * @return iterator of values.
+     */
+    @Override
+    public Iterator<V> iterator()
+    {
+        return new ValueIterator();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("size", this.size()).append("segments", this.segments.length).toString();
+    }
+
+    /**
+     * Spreads bits of packed coordinates, both parts of key are used for index and segment selection.
+     *
+     * @param key key to hash.
+     *
+     * @return hash of key.
+     */
+    static int hash(final long key)
+    {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int powerOfTwo(final int value)
+    {
+        return (value <= 1) ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Primitive version of {@link java.util.function.BiConsumer} for map entries.
+     *
+     * @param <V> type of values.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V>
+    {
+        void accept(long key, V value);
+    }
+
+    private static final class Entry<V>
+    {
+        private final long key;
+        private final V    value;
+
+        private Entry(final long key, final V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment<V>
+    {
+        private volatile AtomicReferenceArray<Entry<V>> table;
+        private volatile int                            size;
+        private          int                            used; // live entries and tombstones, guarded by this
+
+        private Segment(final int capacity)
+        {
+            this.table = new AtomicReferenceArray<>(capacity);
+        }
+
+        private V get(final long key, final int hash)
+        {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask)
+            {
+                final Entry<V> entry = table.get(i);
+                if (entry == null)
+                {
+                    return null;
+                }
+                if ((entry.key == key) && (entry != TOMBSTONE))
+                {
+                    return entry.value;
+                }
+            }
+        }
+
+        private synchronized V put(final long key, final int hash, final V value, final boolean onlyIfAbsent)
+        {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            int free = - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask)
+            {
+                final Entry<V> entry = table.get(i);
+                if (entry == null)
+                {
+                    break;
+                }
+                if (entry == TOMBSTONE)
+                {
+                    if (free == - 1)
+                    {
+                        free = i;
+                    }
+                    continue;
+                }
+                if (entry.key == key)
+                {
+                    if (! onlyIfAbsent)
+                    {
+                        table.set(i, new Entry<>(key, value));
+                    }
+                    return entry.value;
+                }
+            }
+            this.insert(key, hash, value, free);
+            return null;
+        }
+
+        private synchronized V computeIfAbsent(final long key, final int hash, final LongFunction<? extends V> function)
+        {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            int free = - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask)
+            {
+                final Entry<V> entry = table.get(i);
+                if (entry == null)
+                {
+                    break;
+                }
+                if (entry == TOMBSTONE)
+                {
+                    if (free == - 1)
+                    {
+                        free = i;
+                    }
+                    continue;
+                }
+                if (entry.key == key)
+                {
+                    return entry.value;
+                }
+            }
+            final V value = function.apply(key);
+            if (value == null)
+            {
+                return null;
+            }
+            this.insert(key, hash, value, free);
+            return value;
+        }
+
+        // must be called while holding lock, after checking that key isn't in table.
+        private void insert(final long key, final int hash, final V value, final int tombstone)
+        {
+            AtomicReferenceArray<Entry<V>> table = this.table;
+            if (tombstone != - 1)
+            {
+                table.set(tombstone, new Entry<>(key, value));
+                this.size++;
+                return;
+            }
+            if ((this.used + 1) > (table.length() * LOAD_FACTOR))
+            {
+                table = this.rebuild();
+            }
+            final int mask = table.length() - 1;
+            int i = hash & mask;
+            while (table.get(i) != null)
+            {
+                i = (i + 1) & mask;
+            }
+            table.set(i, new Entry<>(key, value));
+            this.used++;
+            this.size++;
+        }
+
+        private AtomicReferenceArray<Entry<V>> rebuild()
+        {
+            final AtomicReferenceArray<Entry<V>> old = this.table;
+            final int length = ((this.size + 1) > ((old.length() * LOAD_FACTOR) / 2)) ? (old.length() << 1) : old.length();
+            final AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<>(length);
+            final int mask = length - 1;
+            for (int j = 0, oldLength = old.length(); j < oldLength; j++)
+            {
+                final Entry<V> entry = old.get(j);
+                if ((entry == null) || (entry == TOMBSTONE))
+                {
+                    continue;
+                }
+                int i = hash(entry.key) & mask;
+                while (table.get(i) != null)
+                {
+                    i = (i + 1) & mask;
+                }
+                table.lazySet(i, entry);
+            }
+            this.used = this.size;
+            this.table = table;
+            return table;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized V remove(final long key, final int hash, final V expected)
+        {
+            final AtomicReferenceArray<Entry<V>> table = this.table;
+            final int mask = table.length() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask)
+            {
+                final Entry<V> entry = table.get(i);
+                if (entry == null)
+                {
+                    return null;
+                }
+                if ((entry.key == key) && (entry != TOMBSTONE))
+                {
+                    if ((expected != null) && ! expected.equals(entry.value))
+                    {
+                        return null;
+                    }
+                    table.set(i, (Entry<V>) TOMBSTONE);
+                    this.size--;
+                    return entry.value;
+                }
+            }
+        }
+
+        private synchronized void clear()
+        {
+            this.table = new AtomicReferenceArray<>(this.table.length());
+            this.used = 0;
+            this.size = 0;
+        }
+    }
+
+    private class ValueIterator implements Iterator<V>
+    {
+        private int                            segment = - 1;
+        private AtomicReferenceArray<Entry<V>> table;
+        private int                            index;
+        private Entry<V>                       next;
+        private Entry<V>                       last;
+
+        private ValueIterator()
+        {
+            this.advance();
+        }
+
+        private void advance()
+        {
+            while (true)
+            {
+                if ((this.table == null) || (this.index >= this.table.length()))
+                {
+                    if (++ this.segment >= ChunkMap.this.segments.length)
+                    {
+                        this.next = null;
+                        return;
+                    }
+                    this.table = ChunkMap.this.segments[this.segment].table;
+                    this.index = 0;
+                    continue;
+                }
+                final Entry<V> entry = this.table.get(this.index++);
+                if ((entry != null) && (entry != TOMBSTONE))
+                {
+                    this.next = entry;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next != null;
+        }
+
+        @Override
+        public V next()
+        {
+            if (this.next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.advance();
+            return this.last.value;
+        }
+
+        @Override
+        public void remove()
+        {
+            if (this.last == null)
+            {
+                throw new IllegalStateException();
+            }
+            ChunkMap.this.remove(this.last.key, this.last.value);
+            this.last = null;
+        }
+    }
+}
@@ -1,52 +1,54 @@
 package org.diorite.impl.world.chunk;
 
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockStates;
 import org.diorite.material.BlockMaterialData;
-import org.diorite.material.Material;
 import org.diorite.utils.collections.arrays.NibbleArray;
-import org.diorite.utils.concurrent.atomic.AtomicShortArray;
 import org.diorite.world.chunk.Chunk;
 
 public class ChunkPartImpl // part of chunk 16x16x16
 {
     public static final int CHUNK_DATA_SIZE = Chunk.CHUNK_SIZE * Chunk.CHUNK_PART_HEIGHT * Chunk.CHUNK_SIZE;
-    private final    byte             yPos; // from 0 to 15
-    private volatile int              blocksCount;
-    private          AtomicShortArray blocks; // id and sub-id(0-15) of every block
-    private          NibbleArray      skyLight;
-    private          NibbleArray      blockLight;
+    public static final int MAX_LIGHT       = 15;
+
+    /**
+     * Shared light arrays of fully lit and fully dark sections, they must never be modified.
+     * Section is using them until first light change, then own copy of array is created.
+     */
+    private static final NibbleArray FULL_LIGHT  = createUniformLight((byte) MAX_LIGHT);
+    private static final NibbleArray EMPTY_LIGHT = createUniformLight((byte) 0);
+
+    /**
+     * Blocks are changed by CAS without lock, so counter of non-air blocks must be updated atomically too.
+     */
+    private static final AtomicIntegerFieldUpdater<ChunkPartImpl> BLOCKS_COUNT = AtomicIntegerFieldUpdater.newUpdater(ChunkPartImpl.class, "blocksCount");
+
+    private final    byte                yPos; // from 0 to 15
+    private volatile int                 blocksCount;
+    private          ChunkBlockData      blocks; // id and sub-id(0-15) of every block
+    private          NibbleArray         skyLight;
+    private          NibbleArray         blockLight;
+    private          AtomicInteger       lightHolders; // amount of sections sharing light arrays with this one (with itself), null if not shared
+    private volatile boolean             dirty; // blocks or light changed since last save
+    private          Map<String, byte[]> unknownTags; // raw NBT of tags of section that aren't used by diorite, by name
 
     public ChunkPartImpl(final byte yPos, final boolean hasSkyLight)
     {
-        this.yPos = yPos;
-        this.blocks = new AtomicShortArray(CHUNK_DATA_SIZE);
-        this.blockLight = new NibbleArray(CHUNK_DATA_SIZE);
-        if (hasSkyLight)
-        {
-            this.skyLight = new NibbleArray(CHUNK_DATA_SIZE);
-            //noinspection MagicNumber
-            this.skyLight.fill((byte) 0xf);
-        }
-        this.blockLight.fill((byte) 0x0);
+        this(new ChunkBlockData(CHUNK_DATA_SIZE), yPos, hasSkyLight);
     }
 
-    public ChunkPartImpl(final AtomicShortArray blocks, final byte yPos, final boolean hasSkyLight)
+    public ChunkPartImpl(final ChunkBlockData blocks, final byte yPos, final boolean hasSkyLight)
     {
-        this.blocks = blocks;
-        this.blockLight = new NibbleArray(CHUNK_DATA_SIZE);
-        this.yPos = yPos;
-        if (hasSkyLight)
-        {
-            this.skyLight = new NibbleArray(CHUNK_DATA_SIZE);
-            //noinspection MagicNumber
-            this.skyLight.fill((byte) 0xf);
-        }
-        this.blockLight.fill((byte) 0x0);
+        this(blocks, hasSkyLight ? FULL_LIGHT : null, EMPTY_LIGHT, yPos);
     }
 
-    public ChunkPartImpl(final AtomicShortArray blocks, final NibbleArray skyLight, final NibbleArray blockLight, final byte yPos)
+    public ChunkPartImpl(final ChunkBlockData blocks, final NibbleArray skyLight, final NibbleArray blockLight, final byte yPos)
     {
         this.blocks = blocks;
         this.skyLight = skyLight;
@@ -56,43 +58,109 @@ public class ChunkPartImpl // part of chunk 16x16x16
 
     /**
      * Take a snapshot of this section which will not reflect future changes.
+     * <br>
+     * Snapshot shares all arrays with this section, arrays are copied by first change of this section after snapshot,
+     * so taking snapshot don't copy any data. Snapshot should be {@link #release() released} when it isn't used anymore.
+     *
+     * @return snapshot of this section.
      */
-    public ChunkPartImpl snapshot()
+    public synchronized ChunkPartImpl snapshot()
     {
-        return new ChunkPartImpl(new AtomicShortArray(this.blocks.getArray()), this.skyLight.snapshot(), this.blockLight.snapshot(), this.yPos);
+        final ChunkPartImpl snapshot = new ChunkPartImpl(this.blocks.snapshot(), this.skyLight, this.blockLight, this.yPos);
+        snapshot.blocksCount = this.blocksCount;
+        snapshot.unknownTags = this.unknownTags;
+        snapshot.lightHolders = this.shareLight();
+        return snapshot;
+    }
+
+    /**
+     * Creates new section sharing all arrays with this one, that can be changed like any other section.
+     * <br>
+     * Arrays are copied by first change of either section, so it can be used to create many worlds from the same
+     * template (see {@link org.diorite.impl.world.io.template.ChunkTemplate}), copying only sections that are changed.
+     * Instance should be {@link #release() released} when its chunk is unloaded, see {@link ChunkImpl#releaseChunkParts()}.
+     *
+     * @return copy-on-write copy of this section.
+     *
+     * @see #snapshot()
+     */
+    public ChunkPartImpl instance()
+    {
+        // snapshot is already copy-on-write in both directions, only its intended use differs
+        return this.snapshot();
+    }
+
+    /**
+     * Releases data of snapshot, so section that snapshot was created from don't need to copy it on next change.
+     * Blocks and light of released snapshot may then reflect later changes of that section, so snapshot should not be read after release.
+     *
+     * @see #snapshot()
+     */
+    public void release()
+    {
+        this.blocks.release();
+        synchronized (this)
+        {
+            if (this.lightHolders != null)
+            {
+                this.lightHolders.decrementAndGet();
+                this.lightHolders = null;
+            }
+        }
     }
 
     public BlockMaterialData setBlock(final int x, final int y, final int z, final int id, final int meta)
     {
-        final BlockMaterialData old = this.getBlockType(x, y, z);
-        if ((id == old.ordinal()) && (meta == old.getType()))
+        final int index = toArrayIndex(x, y, z);
+        final short update = (short) ((id << 4) | meta);
+        final short old = this.blocks.get(index);
+        if (old == update)
         {
-            return old;
+            return BlockStates.getType(old);
         }
-        if (this.blocks.compareAndSet(toArrayIndex(x, y, z), (short) ((old.ordinal() << 4) | old.getType()), (short) ((id << 4) | meta)))
+        if (this.blocks.compareAndSet(index, old, update))
         {
-            if (old.getType() != 0)
+            this.dirty = true;
+            if (old != 0)
             {
-                if (id == 0)
+                if (update == 0)
                 {
-                    this.blocksCount--;
+                    BLOCKS_COUNT.decrementAndGet(this);
                 }
             }
-            else if (id != 0)
+            else
             {
-                this.blocksCount++;
+                BLOCKS_COUNT.incrementAndGet(this);
             }
-            return old;
+            return BlockStates.getType(old);
         }
         return this.getBlockType(x, y, z);
     }
 
-    @SuppressWarnings("MagicNumber")
+    /**
+     * Sets many blocks in one pass.
+     *
+     * @param values  new raw values of blocks, indexed by {@link #toArrayIndex(int, int, int)}.
+     * @param mask    bitset of indexes to set.
+     * @param changed bitset where indexes of changed blocks are marked, may be null.
+     *
+     * @see ChunkBlockData#setAll(short[], long[], long[])
+     */
+    public void setBlocks(final short[] values, final long[] mask, final long[] changed)
+    {
+        BLOCKS_COUNT.addAndGet(this, this.blocks.setAll(values, mask, changed));
+        this.dirty = true;
+    }
+
     public BlockMaterialData rawSetBlock(final int x, final int y, final int z, final int id, final int meta)
     {
-        final short data = this.blocks.getAndSet(toArrayIndex(x, y, z), (short) ((id << 4) | meta));
-        final BlockMaterialData type = (BlockMaterialData) Material.getByID(data >> 4, data & 15);
-        return (type == null) ? Material.AIR : type;
+        final short update = (short) ((id << 4) | meta);
+        final short old = this.blocks.getAndSet(toArrayIndex(x, y, z), update);
+        if (old != update)
+        {
+            this.dirty = true;
+        }
+        return BlockStates.getType(old);
     }
 
     public BlockMaterialData setBlock(final int x, final int y, final int z, final BlockMaterialData material)
@@ -100,34 +168,39 @@ public class ChunkPartImpl // part of chunk 16x16x16
         return this.setBlock(x, y, z, material.ordinal(), material.getType());
     }
 
-    @SuppressWarnings("MagicNumber")
     public BlockMaterialData getBlockType(final int x, final int y, final int z)
     {
-        final short data = this.blocks.get(toArrayIndex(x, y, z));
-        final BlockMaterialData type = (BlockMaterialData) Material.getByID(data >> 4, data & 15);
-        return (type == null) ? Material.AIR : type;
+        return BlockStates.getType(this.blocks.get(toArrayIndex(x, y, z)));
     }
 
-    public AtomicShortArray getBlocks()
+    /**
+     * Returns raw value (id &lt;&lt; 4 | meta) of block, see {@link BlockStates}.
+     *
+     * @param x x coordinate in chunk part.
+     * @param y y coordinate (only 4 lowest bits are used).
+     * @param z z coordinate in chunk part.
+     *
+     * @return raw value of block.
+     */
+    public short getRawBlock(final int x, final int y, final int z)
+    {
+        return this.blocks.get(toArrayIndex(x, y, z));
+    }
+
+    public ChunkBlockData getBlocks()
     {
         return this.blocks;
     }
 
-    public void setBlocks(final AtomicShortArray blocks)
+    public void setBlocks(final ChunkBlockData blocks)
     {
         this.blocks = blocks;
+        this.dirty = true;
     }
 
     public int recalculateBlockCount()
     {
-        this.blocksCount = 0;
-        for (final short type : this.blocks.getArray())
-        {
-            if (type != 0)
-            {
-                this.blocksCount++;
-            }
-        }
+        this.blocksCount = this.blocks.countNonZero();
         return this.blocksCount;
     }
 
@@ -136,6 +209,13 @@ public class ChunkPartImpl // part of chunk 16x16x16
         return this.blocksCount;
     }
 
+    /**
+     * Returns block light array of this section, it may be shared between sections, so it must not be modified.
+     *
+     * @return block light array.
+     *
+     * @see #setBlockLight(int, int, int, int)
+     */
     public NibbleArray getBlockLight()
     {
         return this.blockLight;
@@ -144,8 +224,40 @@ public class ChunkPartImpl // part of chunk 16x16x16
     public void setBlockLight(final NibbleArray blockLight)
     {
         this.blockLight = blockLight;
+        this.dirty = true;
     }
 
+    public int getBlockLight(final int x, final int y, final int z)
+    {
+        return this.blockLight.get(toArrayIndex(x, y, z));
+    }
+
+    public synchronized void setBlockLight(final int x, final int y, final int z, final int level)
+    {
+        if ((this.lightHolders != null) || isSharedLight(this.blockLight))
+        {
+            if (this.blockLight.get(toArrayIndex(x, y, z)) == level)
+            {
+                return;
+            }
+            this.unpinLight();
+            if (isSharedLight(this.blockLight))
+            {
+                this.blockLight = this.blockLight.snapshot();
+            }
+        }
+        this.blockLight.set(toArrayIndex(x, y, z), (byte) level);
+        this.dirty = true;
+    }
+
+    /**
+     * Returns sky light array of this section (null if world don't have sky light),
+     * it may be shared between sections, so it must not be modified.
+     *
+     * @return sky light array.
+     *
+     * @see #setSkyLight(int, int, int, int)
+     */
     public NibbleArray getSkyLight()
     {
         return this.skyLight;
@@ -154,6 +266,67 @@ public class ChunkPartImpl // part of chunk 16x16x16
     public void setSkyLight(final NibbleArray skyLight)
     {
         this.skyLight = skyLight;
+        this.dirty = true;
+    }
+
+    public int getSkyLight(final int x, final int y, final int z)
+    {
+        return (this.skyLight == null) ? 0 : this.skyLight.get(toArrayIndex(x, y, z));
+    }
+
+    public synchronized void setSkyLight(final int x, final int y, final int z, final int level)
+    {
+        if (this.skyLight == null)
+        {
+            return;
+        }
+        if ((this.lightHolders != null) || isSharedLight(this.skyLight))
+        {
+            if (this.skyLight.get(toArrayIndex(x, y, z)) == level)
+            {
+                return;
+            }
+            this.unpinLight();
+            if (isSharedLight(this.skyLight))
+            {
+                this.skyLight = this.skyLight.snapshot();
+            }
+        }
+        this.skyLight.set(toArrayIndex(x, y, z), (byte) level);
+        this.dirty = true;
+    }
+
+    /**
+     * @return true if blocks or light of this section were changed since last {@link #markClean()}.
+     */
+    public boolean isDirty()
+    {
+        return this.dirty;
+    }
+
+    /**
+     * Marks this section as saved, it should be invoked before section data is captured for save,
+     * so changes done while saving mark it as dirty again.
+     */
+    public void markClean()
+    {
+        this.dirty = false;
+    }
+
+    /**
+     * Returns raw NBT data (type, name and payload) of tags of section that aren't used by diorite,
+     * they are written back unchanged when chunk is saved.
+     *
+     * @return raw NBT data of unknown tags by names of tags, may be null.
+     */
+    public Map<String, byte[]> getUnknownTags()
+    {
+        return this.unknownTags;
+    }
+
+    public void setUnknownTags(final Map<String, byte[]> unknownTags)
+    {
+        this.unknownTags = unknownTags;
     }
 
     public byte getYPos()
@@ -172,6 +345,86 @@ public class ChunkPartImpl // part of chunk 16x16x16
         return ((y & 0xf) << 8) | (z << 4) | x;
     }
 
+    /**
+     * Returns shared light array if given one is fully lit or fully dark, otherwise returns given array.
+     * Used to drop uniform light arrays of loaded sections.
+     *
+     * @param light light array to check.
+     *
+     * @return shared light array or given one.
+     */
+    @SuppressWarnings("MagicNumber")
+    public static NibbleArray shareIfUniform(final NibbleArray light)
+    {
+        final byte[] raw = light.getRawData();
+        if (raw.length != EMPTY_LIGHT.getRawData().length)
+        {
+            return light;
+        }
+        final byte first = raw[0];
+        if ((first != 0) && (first != (byte) 0xff))
+        {
+            return light;
+        }
+        for (final byte b : raw)
+        {
+            if (b != first)
+            {
+                return light;
+            }
+        }
+        return (first == 0) ? EMPTY_LIGHT : FULL_LIGHT;
+    }
+
+    /**
+     * @param light light array to check.
+     *
+     * @return true if given light array is shared between sections and can't be modified.
+     */
+    @SuppressWarnings("ObjectEquality")
+    public static boolean isSharedLight(final NibbleArray light)
+    {
+        return (light == FULL_LIGHT) || (light == EMPTY_LIGHT);
+    }
+
+    private AtomicInteger shareLight()
+    {
+        if (this.lightHolders == null)
+        {
+            this.lightHolders = new AtomicInteger(1);
+        }
+        this.lightHolders.incrementAndGet();
+        return this.lightHolders;
+    }
+
+    private void unpinLight()
+    {
+        if (this.lightHolders == null)
+        {
+            return;
+        }
+        // if all other sections were released, arrays aren't shared anymore and can be changed in place
+        if (this.lightHolders.decrementAndGet() > 0)
+        {
+            // light changes are rare, so both arrays are copied at once.
+            this.skyLight = snapshotLight(this.skyLight);
+            this.blockLight = snapshotLight(this.blockLight);
+        }
+        this.lightHolders = null;
+    }
+
+    private static NibbleArray snapshotLight(final NibbleArray light)
+    {
+        return ((light == null) || isSharedLight(light)) ? light : light.snapshot();
+    }
+
+    private static NibbleArray createUniformLight(final byte level)
+    {
+        final NibbleArray light = new NibbleArray(CHUNK_DATA_SIZE);
+        light.fill(level);
+        return light;
+    }
+
     @Override
     public String toString()
     {
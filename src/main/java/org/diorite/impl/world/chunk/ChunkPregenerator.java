@@ -0,0 +1,486 @@
+package org.diorite.impl.world.chunk;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.ServerImpl;
+import org.diorite.impl.world.WorldImpl;
+import org.diorite.nbt.NbtInputStream;
+import org.diorite.nbt.NbtLimiter;
+import org.diorite.nbt.NbtOutputStream;
+import org.diorite.nbt.NbtTagCompound;
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * Generates, populates and saves all chunks in given area of world, using own bounded pool of worker threads.
+ * <br>
+ * Area is processed region by region (32x32 chunks), and every region row by row, so chunks are written to region files
+ * in the same order as they are stored. Every chunk is kept loaded (with its 3x3 neighbourhood needed by population) only
+ * while it is processed, and then it is unloaded by chunk manager like any other unused chunk.
+ * <br>
+ * Workers pause when server can't keep its tps, or when too many chunks are waiting for unload, so pregeneration doesn't starve main thread.
+ * Progress (amount of finished regions) is stored in world folder after every region, so pregeneration of the same area
+ * continues from last unfinished region after restart.
+ * <br>
+ * Only one pregenerator of world can run at once, it is stopped by {@link WorldImpl#stopPregenerator()} when world is unloaded
+ * or server is stopped.
+ */
+public class ChunkPregenerator
+{
+    /**
+     * Name of file with progress of pregeneration, in world folder.
+     */
+    public static final String PROGRESS_FILE = "pregen.dat";
+
+    /**
+     * Default amount of worker threads.
+     */
+    public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private static final int  REGION_SIZE       = 32;
+    private static final int  MAX_CACHED_CHUNKS = 8192;
+    private static final long THROTTLE_SLEEP    = 50;
+    private static final long REPORT_INTERVAL   = TimeUnit.SECONDS.toMillis(10);
+    private static final int  ONE_MiB           = 1024 * 1024;
+
+    private final WorldImpl world;
+    private final int       minX;
+    private final int       minZ;
+    private final int       maxX;
+    private final int       maxZ;
+    private final int       threads;
+    private final int       minRegionX;
+    private final int       minRegionZ;
+    private final int       regionsX;
+    private final int       regions;
+    private final long      total;
+
+    private final    AtomicInteger[] remainingRows; // rows of each region that aren't finished yet
+    private final    AtomicInteger   nextRow       = new AtomicInteger();
+    private final    AtomicInteger   activeWorkers = new AtomicInteger();
+    private final    AtomicLong      done          = new AtomicLong();
+    private final    AtomicLong      skipped       = new AtomicLong(); // chunks of regions finished before resume
+    private final    AtomicLong      throttledTime = new AtomicLong();
+    private final    List<Thread>    workers;
+    private          int             finishedRegions; // guarded by this
+    private          int             storedRegions; // guarded by this
+    private volatile boolean         stopped;
+    private volatile long            startTime;
+    private          long            lastReport; // guarded by this
+
+    /**
+     * Construct new pregenerator of chunks in given area, coordinates are inclusive.
+     *
+     * @param world   world to pregenerate.
+     * @param minX    min x coordinate of chunk.
+     * @param minZ    min z coordinate of chunk.
+     * @param maxX    max x coordinate of chunk.
+     * @param maxZ    max z coordinate of chunk.
+     * @param threads amount of worker threads.
+     */
+    public ChunkPregenerator(final WorldImpl world, final int minX, final int minZ, final int maxX, final int maxZ, final int threads)
+    {
+        this.world = world;
+        this.minX = Math.min(minX, maxX);
+        this.minZ = Math.min(minZ, maxZ);
+        this.maxX = Math.max(minX, maxX);
+        this.maxZ = Math.max(minZ, maxZ);
+        this.threads = Math.max(1, threads);
+        this.minRegionX = this.minX >> 5;
+        this.minRegionZ = this.minZ >> 5;
+        this.regionsX = (this.maxX >> 5) - this.minRegionX + 1;
+        this.regions = this.regionsX * ((this.maxZ >> 5) - this.minRegionZ + 1);
+        this.total = ((long) this.maxX - this.minX + 1) * ((long) this.maxZ - this.minZ + 1);
+        this.workers = new ArrayList<>(this.threads);
+        this.remainingRows = new AtomicInteger[this.regions];
+        for (int i = 0; i < this.regions; ++ i)
+        {
+            this.remainingRows[i] = new AtomicInteger(REGION_SIZE);
+        }
+    }
+
+    /**
+     * Creates pregenerator of square area around given chunk.
+     *
+     * @param world   world to pregenerate.
+     * @param centerX x coordinate of center chunk.
+     * @param centerZ z coordinate of center chunk.
+     * @param radius  radius of area in chunks.
+     * @param threads amount of worker threads.
+     *
+     * @return new pregenerator.
+     */
+    public static ChunkPregenerator around(final WorldImpl world, final int centerX, final int centerZ, final int radius, final int threads)
+    {
+        return new ChunkPregenerator(world, centerX - radius, centerZ - radius, centerX + radius, centerZ + radius, threads);
+    }
+
+    /**
+     * Creates pregenerator of area stored in progress file of given world, so unfinished pregeneration can be continued.
+     *
+     * @param world   world to pregenerate.
+     * @param threads amount of worker threads.
+     *
+     * @return new pregenerator, or null if world doesn't have unfinished pregeneration.
+     */
+    public static ChunkPregenerator resume(final WorldImpl world, final int threads)
+    {
+        final NbtTagCompound tag = readProgress(world);
+        if (tag == null)
+        {
+            return null;
+        }
+        return new ChunkPregenerator(world, tag.getInt("minX"), tag.getInt("minZ"), tag.getInt("maxX"), tag.getInt("maxZ"), threads);
+    }
+
+    /**
+     * Starts worker threads, if progress file of world contains progress of the same area, finished regions are skipped.
+     *
+     * @throws IllegalStateException if other pregenerator of the same world is running, or this one was already started.
+     */
+    public synchronized void start()
+    {
+        if (! this.workers.isEmpty())
+        {
+            throw new IllegalStateException("Pregenerator was already started.");
+        }
+        if (! this.world.addPregenerator(this))
+        {
+            throw new IllegalStateException("Pregeneration of " + this.world.getName() + " is already running.");
+        }
+        final NbtTagCompound tag = readProgress(this.world);
+        if ((tag != null) && (tag.getInt("minX") == this.minX) && (tag.getInt("minZ") == this.minZ) && (tag.getInt("maxX") == this.maxX) && (tag.getInt("maxZ") == this.maxZ))
+        {
+            this.finishedRegions = Math.min(this.regions, tag.getInt("regions"));
+            for (int i = 0; i < this.finishedRegions; ++ i)
+            {
+                this.remainingRows[i].set(0);
+                this.skipped.addAndGet(this.countChunks(i));
+            }
+            this.nextRow.set(this.finishedRegions * REGION_SIZE);
+            System.out.println("[Pregen][" + this.world.getName() + "] Resuming from region " + this.finishedRegions + "/" + this.regions);
+        }
+        this.startTime = System.currentTimeMillis();
+        this.lastReport = this.startTime;
+        this.writeProgress(this.finishedRegions);
+        for (int i = 0; i < this.threads; ++ i)
+        {
+            final int id = i + 1;
+            final ChunkTicketGroup tickets = this.world.createTicketGroup(ChunkTicketType.FORCED, "pregenerator #" + id);
+            final Thread thread = new Thread(() -> this.work(tickets), "{Pregen} " + this.world.getName() + " #" + id);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            this.activeWorkers.incrementAndGet();
+            this.workers.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops workers after chunks that are currently processed, progress is kept, so it can be resumed later.
+     */
+    public void stop()
+    {
+        this.stopped = true;
+    }
+
+    /**
+     * Stops workers like {@link #stop()}, and waits until they save processed chunks and progress.
+     *
+     * @param timeout max time to wait, in milliseconds.
+     *
+     * @return true if all workers are stopped.
+     */
+    public boolean stopAndWait(final long timeout)
+    {
+        this.stop();
+        final List<Thread> threads;
+        synchronized (this)
+        {
+            threads = new ArrayList<>(this.workers);
+        }
+        final long end = System.currentTimeMillis() + timeout;
+        try
+        {
+            for (final Thread thread : threads)
+            {
+                final long remaining = end - System.currentTimeMillis();
+                if (remaining > 0)
+                {
+                    thread.join(remaining);
+                }
+            }
+        } catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        return ! this.isRunning();
+    }
+
+    private void work(final ChunkTicketGroup tickets)
+    {
+        final ChunkManagerImpl cm = this.world.getChunkManager();
+        try
+        {
+            int row;
+            while (! this.stopped && ((row = this.nextRow.getAndIncrement()) < (this.regions * REGION_SIZE)))
+            {
+                final int region = row / REGION_SIZE;
+                final int z = ((this.minRegionZ + (region / this.regionsX)) * REGION_SIZE) + (row % REGION_SIZE);
+                if ((z >= this.minZ) && (z <= this.maxZ))
+                {
+                    final int regionMinX = (this.minRegionX + (region % this.regionsX)) * REGION_SIZE;
+                    final int endX = Math.min(this.maxX, (regionMinX + REGION_SIZE) - 1);
+                    for (int x = Math.max(this.minX, regionMinX); x <= endX; ++ x)
+                    {
+                        this.throttle(cm);
+                        this.generate(cm, tickets, x, z);
+                        this.done.incrementAndGet();
+                        this.report();
+                    }
+                }
+                if (this.remainingRows[region].decrementAndGet() == 0)
+                {
+                    this.regionFinished();
+                }
+            }
+        } catch (final Throwable e)
+        {
+            System.err.println("[Pregen][" + this.world.getName() + "] Pregeneration failed, it can be resumed from last finished region.");
+            e.printStackTrace();
+            this.stopped = true;
+        } finally
+        {
+            tickets.clear();
+            if (this.activeWorkers.decrementAndGet() == 0)
+            {
+                this.world.getChunkManager().flush();
+                System.out.println("[Pregen][" + this.world.getName() + "] " + (this.isFinished() ? "Finished: " : "Stopped: ") + this.getStatus());
+                if (this.isFinished())
+                {
+                    new File(this.world.getWorldFile(), PROGRESS_FILE).delete();
+                }
+                this.world.removePregenerator(this);
+            }
+        }
+    }
+
+    private void generate(final ChunkManagerImpl cm, final ChunkTicketGroup tickets, final int x, final int z)
+    {
+        // population needs all neighbours, so whole 3x3 area is kept loaded until chunk is saved
+        for (int dx = - 1; dx <= 1; ++ dx)
+        {
+            for (int dz = - 1; dz <= 1; ++ dz)
+            {
+                tickets.acquire(IntsToLong.pack(x + dx, z + dz));
+            }
+        }
+        try
+        {
+            final ChunkImpl chunk = cm.getChunk(x, z);
+            chunk.load(true);
+            if (! chunk.isPopulated())
+            {
+                cm.populateChunk(x, z, true);
+            }
+            cm.save(chunk);
+        } finally
+        {
+            for (int dx = - 1; dx <= 1; ++ dx)
+            {
+                for (int dz = - 1; dz <= 1; ++ dz)
+                {
+                    tickets.release(IntsToLong.pack(x + dx, z + dz));
+                }
+            }
+        }
+    }
+
+    private void throttle(final ChunkManagerImpl cm) throws InterruptedException
+    {
+        final ServerImpl server = ServerImpl.getInstance();
+        while (! this.stopped && ((cm.getCachedChunksCount() > MAX_CACHED_CHUNKS) || (server.getRecentTps()[0] < (server.getTps() * 0.95))))
+        {
+            Thread.sleep(THROTTLE_SLEEP);
+            this.throttledTime.addAndGet(THROTTLE_SLEEP);
+        }
+        // saves of pregenerator must not flood I/O queue shared with tick thread
+        final long start = System.currentTimeMillis();
+        cm.awaitIoCapacity();
+        this.throttledTime.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    private void regionFinished()
+    {
+        final int finished;
+        synchronized (this)
+        {
+            final int before = this.finishedRegions;
+            while ((this.finishedRegions < this.regions) && (this.remainingRows[this.finishedRegions].get() == 0))
+            {
+                this.finishedRegions++;
+            }
+            if (this.finishedRegions == before)
+            {
+                return;
+            }
+            finished = this.finishedRegions;
+        }
+        // chunks of finished regions must be on disk before progress is stored, flush is done without lock, so other workers
+        // can report and finish rows meanwhile
+        if (this.world.getChunkManager().flush())
+        {
+            this.writeProgress(finished);
+        }
+        else
+        {
+            System.err.println("[Pregen][" + this.world.getName() + "] Some chunks weren't written, progress isn't stored.");
+        }
+    }
+
+    private synchronized void report()
+    {
+        final long now = System.currentTimeMillis();
+        if ((now - this.lastReport) < REPORT_INTERVAL)
+        {
+            return;
+        }
+        this.lastReport = now;
+        System.out.println("[Pregen][" + this.world.getName() + "] " + this.getStatus());
+    }
+
+    private long countChunks(final int region)
+    {
+        final int regionMinX = (this.minRegionX + (region % this.regionsX)) * REGION_SIZE;
+        final int regionMinZ = (this.minRegionZ + (region / this.regionsX)) * REGION_SIZE;
+        final long width = Math.min(this.maxX, (regionMinX + REGION_SIZE) - 1) - Math.max(this.minX, regionMinX) + 1;
+        final long height = Math.min(this.maxZ, (regionMinZ + REGION_SIZE) - 1) - Math.max(this.minZ, regionMinZ) + 1;
+        return width * height;
+    }
+
+    private synchronized void writeProgress(final int finished)
+    {
+        if (finished < this.storedRegions)
+        {
+            return; // newer progress was already stored by other worker
+        }
+        this.storedRegions = finished;
+        final NbtTagCompound tag = new NbtTagCompound();
+        tag.setInt("minX", this.minX);
+        tag.setInt("minZ", this.minZ);
+        tag.setInt("maxX", this.maxX);
+        tag.setInt("maxZ", this.maxZ);
+        tag.setInt("regions", finished);
+        final File file = new File(this.world.getWorldFile(), PROGRESS_FILE);
+        try (final NbtOutputStream os = NbtOutputStream.getCompressed(file))
+        {
+            os.write(tag);
+            os.flush();
+        } catch (final IOException e)
+        {
+            System.err.println("[Pregen][" + this.world.getName() + "] Can't save progress to: " + file);
+            e.printStackTrace();
+        }
+    }
+
+    private static NbtTagCompound readProgress(final WorldImpl world)
+    {
+        final File file = new File(world.getWorldFile(), PROGRESS_FILE);
+        if (! file.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            return (NbtTagCompound) NbtInputStream.readTagCompressed(file, NbtLimiter.getUnlimited());
+        } catch (final IOException e)
+        {
+            System.err.println("[Pregen][" + world.getName() + "] Can't read progress from: " + file);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return world of this pregenerator.
+     */
+    public WorldImpl getWorld()
+    {
+        return this.world;
+    }
+
+    /**
+     * @return total amount of chunks in area.
+     */
+    public long getTotal()
+    {
+        return this.total;
+    }
+
+    /**
+     * @return amount of processed chunks, including chunks of regions finished before resume.
+     */
+    public long getDone()
+    {
+        return this.done.get() + this.skipped.get();
+    }
+
+    /**
+     * @return amount of chunks processed per second since start (or resume).
+     */
+    public double getChunksPerSecond()
+    {
+        final long time = System.currentTimeMillis() - this.startTime;
+        return (time <= 0) ? 0 : ((this.done.get() * 1000.0) / time);
+    }
+
+    /**
+     * @return estimated time to finish, in seconds, or -1 if unknown.
+     */
+    public long getEta()
+    {
+        final double speed = this.getChunksPerSecond();
+        return (speed <= 0) ? - 1 : (long) ((this.total - this.getDone()) / speed);
+    }
+
+    /**
+     * @return true if all chunks were processed.
+     */
+    public boolean isFinished()
+    {
+        return this.getDone() >= this.total;
+    }
+
+    /**
+     * @return true if workers are still running.
+     */
+    public boolean isRunning()
+    {
+        return this.activeWorkers.get() > 0;
+    }
+
+    /**
+     * @return human-readable progress, speed, ETA and memory usage.
+     */
+    public String getStatus()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        final long eta = this.getEta();
+        final long done = this.getDone();
+        return done + "/" + this.total + " chunks (" + String.format("%.1f", (done * 100.0) / this.total) + "%), " + String.format("%.1f", this.getChunksPerSecond()) + " chunks/s, ETA " + ((eta < 0) ? "?" : (eta / 60) + "m " + (eta % 60) + "s") + ", throttled " + (this.throttledTime.get() / 1000) + "s, memory " + ((runtime.totalMemory() - runtime.freeMemory()) / ONE_MiB) + "/" + (runtime.maxMemory() / ONE_MiB) + " MiB";
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("world", this.world.getName()).append("minX", this.minX).append("minZ", this.minZ).append("maxX", this.maxX).append("maxZ", this.maxZ).append("threads", this.threads).append("done", this.getDone()).append("total", this.total).toString();
+    }
+}
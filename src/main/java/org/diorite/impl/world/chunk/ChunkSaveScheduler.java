@@ -0,0 +1,173 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Incremental autosave of chunks of one world.
+ * <br>
+ * Every save cycle collects dirty chunks, and then saves them in next ticks, only as many as fits in time budget of tick.
+ * Chunks are captured by main thread between ticks (as copy-on-write snapshots, see {@link ChunkImpl#createSaveCopy()}),
+ * so saved data is always consistent, and they are serialized and written by I/O threads of chunk manager.
+ */
+public class ChunkSaveScheduler
+{
+    /**
+     * Default amount of ticks between save cycles (5 min).
+     */
+    public static final int DEFAULT_INTERVAL    = 20 * 60 * 5;
+    /**
+     * Default time budget of single tick, in milliseconds.
+     */
+    public static final int DEFAULT_TICK_BUDGET = 2;
+
+    private final ChunkManagerImpl manager;
+    private final Deque<ChunkImpl> pending = new ArrayDeque<>(256);
+    private       int              interval;
+    private       long             tickBudget; // nanoseconds, 0 means no limit
+    private       int              written;
+    private       int              skipped;
+
+    public ChunkSaveScheduler(final ChunkManagerImpl manager)
+    {
+        this.manager = manager;
+        this.setInterval(DEFAULT_INTERVAL);
+        this.setTickBudget(DEFAULT_TICK_BUDGET);
+    }
+
+    /**
+     * @return amount of ticks between save cycles.
+     */
+    public int getInterval()
+    {
+        return this.interval;
+    }
+
+    /**
+     * @param interval amount of ticks between save cycles, at least 1.
+     */
+    public void setInterval(final int interval)
+    {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * @return max time (in milliseconds) that may be used to save chunks in one tick, 0 means no limit.
+     */
+    public int getTickBudget()
+    {
+        return (int) TimeUnit.NANOSECONDS.toMillis(this.tickBudget);
+    }
+
+    /**
+     * @param tickBudget max time (in milliseconds) that may be used to save chunks in one tick, 0 means no limit.
+     */
+    public void setTickBudget(final int tickBudget)
+    {
+        this.tickBudget = TimeUnit.MILLISECONDS.toNanos(Math.max(0, tickBudget));
+    }
+
+    /**
+     * @return true if chunks of current save cycle are still waiting to be saved.
+     */
+    public synchronized boolean isSaving()
+    {
+        return ! this.pending.isEmpty();
+    }
+
+    /**
+     * @return amount of chunks waiting to be saved in current save cycle.
+     */
+    public synchronized int getPendingChunks()
+    {
+        return this.pending.size();
+    }
+
+    /**
+     * Starts new save cycle, all loaded dirty chunks will be saved by next ticks.
+     * Nothing is done if previous cycle isn't finished yet.
+     */
+    public synchronized void startCycle()
+    {
+        if (! this.pending.isEmpty())
+        {
+            return;
+        }
+        for (final ChunkImpl chunk : this.manager.getLoadedChunks())
+        {
+            if (chunk.isDirty())
+            {
+                this.pending.addLast(chunk);
+            }
+            else
+            {
+                this.skipped++;
+            }
+        }
+        if (this.pending.isEmpty())
+        {
+            this.finishCycle();
+        }
+    }
+
+    /**
+     * Saves next chunks of current cycle, until time budget of tick is used. Must be invoked by main thread of world.
+     */
+    public synchronized void tick()
+    {
+        if (this.pending.isEmpty())
+        {
+            return;
+        }
+        final long start = System.nanoTime();
+        ChunkImpl chunk;
+        while ((chunk = this.pending.pollFirst()) != null)
+        {
+            if (! chunk.isLoaded() || ! chunk.isDirty())
+            {
+                // chunk was unloaded (and saved by unload) or saved by other save since cycle started
+                this.skipped++;
+                continue;
+            }
+            if (this.manager.save(chunk))
+            {
+                this.written++;
+            }
+            if ((this.tickBudget != 0) && ((System.nanoTime() - start) >= this.tickBudget))
+            {
+                break;
+            }
+        }
+        if (this.pending.isEmpty())
+        {
+            this.finishCycle();
+        }
+    }
+
+    /**
+     * Drops chunks waiting for save, used before all chunks are saved at once.
+     */
+    public synchronized void cancel()
+    {
+        this.pending.clear();
+        this.written = 0;
+        this.skipped = 0;
+    }
+
+    private void finishCycle()
+    {
+        this.manager.recordSaveCycle(this.written, this.skipped);
+        this.written = 0;
+        this.skipped = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("interval", this.interval).append("tickBudget", this.getTickBudget()).append("pending", this.pending.size()).toString();
+    }
+}
@@ -3,6 +3,7 @@ package org.diorite.impl.world.chunk;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockStates;
 import org.diorite.material.BlockMaterialData;
 import org.diorite.material.blocks.AirMat;
 import org.diorite.world.Biome;
@@ -10,6 +11,13 @@ import org.diorite.world.World;
 import org.diorite.world.chunk.Chunk;
 import org.diorite.world.chunk.ChunkSnapshot;
 
+/**
+ * Read-only view of chunk at time of creation, safe to use from other threads.
+ * <br>
+ * Sections aren't copied, snapshot only pins current data of every section and section copies it on next change
+ * (see {@link ChunkPartImpl#snapshot()}), so snapshot can be taken every tick. Snapshot should be {@link #release() released}
+ * when it isn't used anymore, so sections don't need to copy their data.
+ */
 public class ChunkSnapshotImpl implements ChunkSnapshot
 {
     public static final int MAX_SKY_LIGHT = 15;
@@ -19,11 +27,11 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
 
     private final ChunkPartImpl[] sections;
 
-    private final byte[]   height;
+    private final int[]    height;
     private final double[] temp, humid;
     private final byte[] biomes;
 
-    public ChunkSnapshotImpl(final int x, final int z, final World world, final ChunkPartImpl[] sections, final byte[] height, final byte[] biomes, final boolean svTemp)
+    public ChunkSnapshotImpl(final int x, final int z, final World world, final ChunkPartImpl[] sections, final int[] height, final byte[] biomes, final boolean svTemp)
     {
         this.x = x;
         this.z = z;
@@ -45,17 +53,13 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
 
         if (svTemp)
         {
-            final int baseX = x << 4, baseZ = z << 4;
             this.temp = new double[Chunk.CHUNK_BIOMES_SIZE];
             this.humid = new double[Chunk.CHUNK_BIOMES_SIZE];
-            for (int xx = 0; xx < Chunk.CHUNK_SIZE; ++ xx)
+            for (int i = 0; i < Chunk.CHUNK_BIOMES_SIZE; ++ i)
             {
-                for (int zz = 0; zz < Chunk.CHUNK_SIZE; ++ zz)
-                {
-                    final Biome biome = world.getBiome(baseX + xx, - 1, baseZ + zz);
-                    this.temp[this.coordToIndex(xx, zz)] = biome.getTemperature();
-                    this.humid[this.coordToIndex(xx, zz)] = biome.getHumidity();
-                }
+                final Biome biome = Biome.getByBiomeId((biomes == null) ? 0 : (biomes[i] & 0xFF));
+                this.temp[i] = biome.getTemperature();
+                this.humid[i] = biome.getHumidity();
             }
         }
         else
@@ -64,6 +68,21 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
         }
     }
 
+    /**
+     * Releases pinned data of all sections, this snapshot can be still used after release,
+     * but sections of chunk don't need to copy their data on next change.
+     */
+    public void release()
+    {
+        for (final ChunkPartImpl section : this.sections)
+        {
+            if (section != null)
+            {
+                section.release();
+            }
+        }
+    }
+
     private ChunkPartImpl getSection(final int y)
     {
         final int idx = y >> 4;
@@ -86,12 +105,7 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
 
     public int[] getRawHeightmap()
     {
-        final int[] result = new int[this.height.length];
-        for (int i = 0; i < result.length; ++ i)
-        {
-            result[i] = this.height[i];
-        }
-        return result;
+        return this.height.clone();
     }
 
     public byte[] getRawBiomes()
@@ -133,14 +147,14 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
     public int getBlockTypeId(final int x, final int y, final int z)
     {
         final ChunkPartImpl section = this.getSection(y);
-        return (section == null) ? 0 : section.getBlockType(x, y, z).ordinal();
+        return (section == null) ? 0 : BlockStates.getType(section.getRawBlock(x, y, z)).ordinal();
     }
 
     @Override
     public int getBlockData(final int x, final int y, final int z)
     {
         final ChunkPartImpl section = this.getSection(y);
-        return (section == null) ? 0 : section.getBlockType(x, y, z).getType();
+        return (section == null) ? 0 : BlockStates.getType(section.getRawBlock(x, y, z)).getType();
     }
 
     @Override
@@ -154,14 +168,14 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
     public int getBlockSkyLight(final int x, final int y, final int z)
     {
         final ChunkPartImpl section = this.getSection(y);
-        return (section == null) ? MAX_SKY_LIGHT : section.getSkyLight().get(ChunkPartImpl.toArrayIndex(x, y, z));
+        return (section == null) ? MAX_SKY_LIGHT : section.getSkyLight(x, y, z);
     }
 
     @Override
     public int getBlockEmittedLight(final int x, final int y, final int z)
     {
         final ChunkPartImpl section = this.getSection(y);
-        return (section == null) ? 0 : section.getBlockLight().get(ChunkPartImpl.toArrayIndex(x, y, z));
+        return (section == null) ? 0 : section.getBlockLight(x, y, z);
     }
 
     @Override
@@ -173,7 +187,7 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
     @Override
     public Biome getBiome(final int x, final int z)
     {
-        return Biome.getByBiomeId(this.biomes[this.coordToIndex(x, z)]);
+        return Biome.getByBiomeId(this.biomes[this.coordToIndex(x, z)] & 0xFF);
     }
 
     @Override
@@ -198,12 +212,15 @@ public class ChunkSnapshotImpl implements ChunkSnapshot
         return (z * Chunk.CHUNK_SIZE) + x;
     }
 
+    /**
+     * Snapshot of chunk without sections (not loaded chunk), it contains only air, but biomes are still biomes of that chunk,
+     * or biomes generated by world if chunk doesn't have them yet.
+     */
     public static class EmptySnapshot extends ChunkSnapshotImpl
     {
-
-        public EmptySnapshot(final int x, final int z, final World world, final boolean svBiome, final boolean svTemp)
+        public EmptySnapshot(final int x, final int z, final World world, final byte[] biomes, final boolean svTemp)
         {
-            super(x, z, world, null, null, svBiome ? new byte[Chunk.CHUNK_BIOMES_SIZE] : null, svTemp);
+            super(x, z, world, null, null, biomes, svTemp);
         }
 
         @Override
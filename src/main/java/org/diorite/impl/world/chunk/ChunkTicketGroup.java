@@ -0,0 +1,193 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * A group of tickets on chunks to prevent them from being unloaded while in use.
+ * <br>
+ * Every chunk have atomic counter of tickets, group only holds own tickets to release them later.
+ * Group is lock-free, it can be used from many threads. Whole group is cleared in O(1) by replacing its map of tickets,
+ * old tickets are released by chunk manager on next {@link ChunkManagerImpl#tickTickets()}, before chunks are unloaded.
+ * Every ticket is released only once, as it is marked by CAS, so acquire racing with {@link #clear()} can't leak ticket.
+ * Released tickets are kept by chunk for unload delay of type of group, see {@link ChunkTicketType#getUnloadDelay()}.
+ */
+public class ChunkTicketGroup
+{
+    private final ChunkManagerImpl                  cm;
+    private final ChunkTicketType                   type;
+    private final String                            desc;
+    private final AtomicReference<ChunkMap<Ticket>> tickets = new AtomicReference<>(new ChunkMap<>(16, 4));
+
+    public ChunkTicketGroup(final ChunkManagerImpl cm, final ChunkTicketType type, final String desc)
+    {
+        this.cm = cm;
+        this.type = type;
+        this.desc = desc;
+    }
+
+    public ChunkTicketType getType()
+    {
+        return this.type;
+    }
+
+    public String getDescription()
+    {
+        return this.desc;
+    }
+
+    /**
+     * Acquire ticket on given chunk, chunk will not be unloaded until ticket is released.
+     *
+     * @param key packed chunk coordinates.
+     *
+     * @return false if this group already have ticket on this chunk.
+     */
+    public boolean acquire(final long key)
+    {
+        return this.acquire(key, - 1);
+    }
+
+    /**
+     * Acquire ticket on given chunk, ticket will be released after given amount of ticks.
+     *
+     * @param key   packed chunk coordinates.
+     * @param ticks amount of ticks after ticket will expire, or -1 if it should never expire.
+     *
+     * @return false if this group already have ticket on this chunk.
+     */
+    public boolean acquire(final long key, final int ticks)
+    {
+        final ChunkMap<Ticket> tickets = this.tickets.get();
+        if (tickets.containsKey(key))
+        {
+            return false;
+        }
+        final long expireAt = (ticks < 0) ? - 1 : (this.cm.getCurrentTick() + ticks);
+        ChunkImpl chunk;
+        do
+        {
+            chunk = this.cm.getChunk(key);
+        } while (chunk.addTicket() == - 1); // chunk was evicted in the meantime, try again with new chunk object.
+
+        final Ticket ticket = new Ticket(this, key, chunk, expireAt);
+        if (tickets.putIfAbsent(key, ticket) != null)
+        {
+            // other thread acquired ticket on this chunk in the meantime, so this one was never visible
+            this.cm.releaseTicket(chunk);
+            return false;
+        }
+        if (this.tickets.get() != tickets)
+        {
+            // group was cleared in the meantime, old tickets might be already released without this one
+            this.release(ticket);
+            return true;
+        }
+        if (expireAt != - 1)
+        {
+            this.cm.addExpiringTicket(ticket);
+        }
+        return true;
+    }
+
+    /**
+     * Release ticket on given chunk.
+     *
+     * @param key packed chunk coordinates.
+     *
+     * @return false if this group don't have ticket on this chunk.
+     */
+    public boolean release(final long key)
+    {
+        final Ticket ticket = this.tickets.get().remove(key);
+        return (ticket != null) && this.release(ticket);
+    }
+
+    /**
+     * Releases given ticket of this group, unless it was already released.
+     *
+     * @param ticket ticket to release.
+     *
+     * @return false if ticket was already released.
+     */
+    boolean release(final Ticket ticket)
+    {
+        if (! ticket.markReleased())
+        {
+            return false;
+        }
+        this.tickets.get().remove(ticket.key, ticket);
+        this.cm.releaseTicket(this.type, ticket.chunk);
+        return true;
+    }
+
+    /**
+     * @param key packed chunk coordinates.
+     *
+     * @return true if this group have ticket on this chunk.
+     */
+    public boolean contains(final long key)
+    {
+        return this.tickets.get().containsKey(key);
+    }
+
+    public int size()
+    {
+        return this.tickets.get().size();
+    }
+
+    /**
+     * Release all tickets of this group, in O(1).
+     * Chunks are kept by old tickets until next {@link ChunkManagerImpl#tickTickets()}, that releases them.
+     */
+    public void clear()
+    {
+        final ChunkMap<Ticket> old = this.tickets.getAndSet(new ChunkMap<>(16, 4));
+        if (! old.isEmpty())
+        {
+            this.cm.releaseTickets(old);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("type", this.type).append("desc", this.desc).append("tickets", this.size()).toString();
+    }
+
+    static final class Ticket implements Comparable<Ticket>
+    {
+        private static final AtomicIntegerFieldUpdater<Ticket> RELEASED = AtomicIntegerFieldUpdater.newUpdater(Ticket.class, "released");
+
+        final ChunkTicketGroup group; // null for released ticket kept for unload delay
+        final long             key;
+        final ChunkImpl        chunk;
+        final long             expireAt;
+        private volatile int   released; // 1 if ticket was released, by group or by chunk manager after group was cleared
+
+        Ticket(final ChunkTicketGroup group, final long key, final ChunkImpl chunk, final long expireAt)
+        {
+            this.group = group;
+            this.key = key;
+            this.chunk = chunk;
+            this.expireAt = expireAt;
+        }
+
+        /**
+         * @return true if ticket wasn't released yet, so invoker must release it.
+         */
+        boolean markReleased()
+        {
+            return RELEASED.compareAndSet(this, 0, 1);
+        }
+
+        @Override
+        public int compareTo(final Ticket o)
+        {
+            return Long.compare(this.expireAt, o.expireAt);
+        }
+    }
+}
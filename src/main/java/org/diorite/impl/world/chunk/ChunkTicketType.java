@@ -0,0 +1,45 @@
+package org.diorite.impl.world.chunk;
+
+/**
+ * Reason why chunk is kept loaded, every {@link ChunkTicketGroup} is using one of types.
+ * <br>
+ * Type decides how long chunk stays loaded after ticket is released, see {@link #getUnloadDelay()}.
+ */
+public enum ChunkTicketType
+{
+    /**
+     * Chunks visible by player, they stay loaded for 5 seconds after player can't see them,
+     * so chunks aren't unloaded and loaded again when player moves back and forth over chunk border, or relogs.
+     */
+    PLAYER(100),
+    /**
+     * Spawn chunks of world.
+     */
+    SPAWN(0),
+    /**
+     * Chunks kept loaded by plugins.
+     */
+    PLUGIN(0),
+    /**
+     * Chunks forced to stay loaded by server, like by commands or other tasks, they can be unloaded right after release,
+     * so tasks like pregeneration don't keep chunks in memory.
+     */
+    FORCED(0);
+
+    private final int unloadDelay;
+
+    ChunkTicketType(final int unloadDelay)
+    {
+        this.unloadDelay = unloadDelay;
+    }
+
+    /**
+     * Returns amount of ticks chunk is kept loaded after ticket of this type is released, chunk isn't unload candidate until then.
+     *
+     * @return amount of ticks of unload delay, 0 if chunk can be unloaded right after release.
+     */
+    public int getUnloadDelay()
+    {
+        return this.unloadDelay;
+    }
+}
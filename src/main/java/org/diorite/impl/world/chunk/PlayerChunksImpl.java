@@ -1,8 +1,10 @@
 package org.diorite.impl.world.chunk;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
@@ -14,32 +16,39 @@ import org.diorite.impl.Tickable;
 import org.diorite.impl.connection.packets.play.out.PacketPlayOutMapChunk;
 import org.diorite.impl.connection.packets.play.out.PacketPlayOutMapChunkBulk;
 import org.diorite.impl.entity.PlayerImpl;
-import org.diorite.impl.world.chunk.ChunkManagerImpl.ChunkLock;
-import org.diorite.utils.collections.sets.ConcurrentSet;
+import org.diorite.utils.math.pack.IntsToLong;
 import org.diorite.world.chunk.ChunkPos;
 
-import gnu.trove.TLongCollection;
 import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
 
 public class PlayerChunksImpl implements Tickable
 {
-    public static final int CHUNK_BULK_SIZE = 4;
+    public static final int CHUNK_BULK_SIZE        = 4;
+    /**
+     * Amount of ticks neighbours of sent chunks are kept loaded, so they aren't unloaded between read and population of chunk.
+     */
+    public static final int NEIGHBOUR_TICKET_TICKS = 1200;
 
     private final PlayerImpl player;
     @SuppressWarnings("MagicNumber")
     private final TLongSet visibleChunks = new TLongHashSet(400);
-    private final ChunkLock chunkLock;
-    private       boolean   logout;
-    private       ChunkPos  lastUpdate;
-    private       byte      lastUpdateR;
+    private final ChunkTicketGroup chunkTickets;
+    private final ChunkTicketGroup neighbourTickets;
+    private       boolean          logout;
+    private       ChunkPos         lastUpdate;
+    private       byte             lastUpdateR;
     private long lastUnload = System.currentTimeMillis();
+    private final Queue<ChunkPos> readyChunks = new ConcurrentLinkedQueue<>(); // read chunks waiting to be loaded and sent by main thread
 
     public PlayerChunksImpl(final PlayerImpl player)
     {
         this.player = player;
-        this.chunkLock = player.getWorld().createLock(player.getName());
+        this.chunkTickets = player.getWorld().createTicketGroup(ChunkTicketType.PLAYER, player.getName());
+        this.neighbourTickets = player.getWorld().createTicketGroup(ChunkTicketType.PLAYER, player.getName() + " neighbours");
     }
 
     public byte getRenderDistance()
@@ -65,12 +74,10 @@ public class PlayerChunksImpl implements Tickable
     public void logout()
     {
         this.logout = true;
-        for (final TLongIterator it = this.visibleChunks.iterator(); it.hasNext(); )
-        {
-            final long key = it.next();
-            this.chunkLock.release(key);
-        }
+        this.chunkTickets.clear();
+        this.neighbourTickets.clear();
         this.visibleChunks.clear();
+        this.readyChunks.clear();
     }
 
     private void checkOld()
@@ -92,7 +99,7 @@ public class PlayerChunksImpl implements Tickable
                 continue;
             }
             it.remove();
-            this.chunkLock.release(key);
+            this.chunkTickets.release(key);
             this.player.getNetworkManager().sendPacket(PacketPlayOutMapChunk.unload(chunkPos));
         }
     }
@@ -106,35 +113,88 @@ public class PlayerChunksImpl implements Tickable
         {
             return;
         }
-        final TLongCollection oldChunks = new TLongHashSet(this.visibleChunks);
-        final Collection<ChunkImpl> chunksToSent = new ConcurrentSet<>();
         final int r = this.lastUpdateR++;
         final ChunkManagerImpl impl = this.player.getWorld().getChunkManager();
 
-        forChunks(r, this.lastUpdate, chunkPos -> {
-            impl.forcePopulation(chunkPos.getX(), chunkPos.getZ());
-            long key = chunkPos.asLong();
-            if (this.visibleChunks.contains(key))
-            {
-                oldChunks.remove(key);
-            }
-            else
+        final List<ChunkPos> ring = new ArrayList<>((r == 0) ? 1 : (r << 3));
+        forChunks(r, this.lastUpdate, ring::add);
+        final List<ChunkPos> chunksToSent = new ArrayList<>(ring.size());
+        for (final ChunkPos chunkPos : ring)
+        {
+            final long key = chunkPos.asLong();
+            if (! this.visibleChunks.contains(key))
             {
                 this.visibleChunks.add(key);
-                this.chunkLock.acquire(key);
-                chunksToSent.add(impl.getChunk(chunkPos));
+                this.chunkTickets.acquire(key);
+                chunksToSent.add(chunkPos);
             }
-
-        });
-        if (chunksToSent.isEmpty() && oldChunks.isEmpty())
+        }
+        if (chunksToSent.isEmpty())
         {
             return;
         }
+
+        // chunks and their neighbours (needed to populate them) are read at once, in order of region files, and decoded in parallel,
+        // each chunk is loaded and sent by main thread as soon as it and its neighbours are read, without waiting for rest of them.
+        // neighbours aren't visible, so they are kept by expiring tickets until chunk is populated.
+        final TLongSet area = new TLongHashSet(chunksToSent.size() * 3);
+        for (final ChunkPos chunkPos : chunksToSent)
+        {
+            for (int x = - 1; x <= 1; ++ x)
+            {
+                for (int z = - 1; z <= 1; ++ z)
+                {
+                    area.add(IntsToLong.pack(chunkPos.getX() + x, chunkPos.getZ() + z));
+                }
+            }
+        }
+        final long[] keys = area.toArray();
+        for (final long key : keys)
+        {
+            if (! this.visibleChunks.contains(key))
+            {
+                this.neighbourTickets.acquire(key, NEIGHBOUR_TICKET_TICKS);
+            }
+        }
+        final List<CompletableFuture<Boolean>> futures = impl.prefetchChunks(keys);
+        final TLongObjectMap<CompletableFuture<Boolean>> reading = new TLongObjectHashMap<>(keys.length);
+        for (int i = 0; i < keys.length; ++ i)
+        {
+            reading.put(keys[i], futures.get(i));
+        }
+        for (final ChunkPos chunkPos : chunksToSent)
+        {
+            final CompletableFuture<?>[] neighbours = new CompletableFuture<?>[9];
+            int i = 0;
+            for (int x = - 1; x <= 1; ++ x)
+            {
+                for (int z = - 1; z <= 1; ++ z)
+                {
+                    neighbours[i++] = reading.get(IntsToLong.pack(chunkPos.getX() + x, chunkPos.getZ() + z));
+                }
+            }
+            // I/O thread only queues chunk, errors are ignored here, chunk is read again (and error is reported) when it is loaded
+            CompletableFuture.allOf(neighbours).handle((v, e) -> this.readyChunks.add(chunkPos));
+        }
+    }
+
+    /**
+     * Loads, populates and sends chunks whose neighbours are read, invoked by main thread.
+     */
+    private void sendReadyChunks()
+    {
+        final ChunkManagerImpl impl = this.player.getWorld().getChunkManager();
         List<PacketPlayOutMapChunk> packets = new ArrayList<>(6);
         int bulkSize = 6;
 
-        for (final ChunkImpl chunk : chunksToSent)
+        for (ChunkPos chunkPos = this.readyChunks.poll(); chunkPos != null; chunkPos = this.readyChunks.poll())
         {
+            if (! this.visibleChunks.contains(chunkPos.asLong()))
+            {
+                continue; // player moved away before chunk was loaded
+            }
+            impl.forcePopulation(chunkPos.getX(), chunkPos.getZ());
+            final ChunkImpl chunk = impl.getChunk(chunkPos);
             chunk.load();
             final PacketPlayOutMapChunk packet = new PacketPlayOutMapChunk(true, chunk);
             final int messageSize = PacketPlayOutMapChunkBulk.HEADER_SIZE + packet.getData().getRawData().length;
@@ -175,12 +235,14 @@ public class PlayerChunksImpl implements Tickable
         if (center.equals(this.lastUpdate))
         {
             this.continueUpdate();
+            this.sendReadyChunks();
             return;
         }
         this.lastUpdateR = 0;
         this.lastUpdate = center;
         this.continueUpdate();
         this.checkOld();
+        this.sendReadyChunks();
     }
 
     static void forChunks(final int r, final ChunkPos center, final Consumer<ChunkPos> action)
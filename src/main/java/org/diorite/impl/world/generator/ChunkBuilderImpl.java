@@ -3,6 +3,7 @@ package org.diorite.impl.world.generator;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.chunk.ChunkBlockData;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.impl.world.chunk.ChunkPartImpl;
 import org.diorite.material.BlockMaterialData;
@@ -104,7 +105,7 @@ public class ChunkBuilderImpl implements ChunkBuilder
             {
                 continue;
             }
-            chunkParts[i] = new ChunkPartImpl(chunkPart.blocks, (byte) i, chunk.getWorld().getDimension().hasSkyLight());
+            chunkParts[i] = new ChunkPartImpl(new ChunkBlockData(chunkPart.blocks.getArray()), (byte) i, chunk.getWorld().getDimension().hasSkyLight());
             chunkParts[i].recalculateBlockCount();
         }
         chunk.setChunkParts(chunkParts);
@@ -5,6 +5,8 @@ import java.util.Random;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockCursor;
+import org.diorite.impl.world.WorldImpl;
 import org.diorite.BlockLocation;
 import org.diorite.material.BlockMaterialData;
 import org.diorite.material.blocks.wooden.WoodTypeMat;
@@ -50,83 +52,89 @@ public class SmallTreeStructure extends TreeStructure
     @SuppressWarnings("PointlessArithmeticExpression") // it looks better, java should simplify that on compilation time
     protected boolean genTree(final ChunkPos chunkPos, final Random random, final BlockLocation c, final int size)
     {
+        final BlockCursor cursor = new BlockCursor((WorldImpl) c.getWorld());
         for (int i = 0; i < size; i++)
         {
-            this.setBlock(c, 0 * 0, 0 + i, 0 * 0, this.logMat);
+            this.setBlock(cursor, c, 0 * 0, 0 + i, 0 * 0, this.logMat);
         }
-        this.setBlock(c, 0 * 0, size, 0 * 0, this.leavesMat);
+        this.setBlock(cursor, c, 0 * 0, size, 0 * 0, this.leavesMat);
         int k = 0;
         for (int i = size, h = (size - 4); i > h; i--, k++)
         {
-            this.setBlock(c, 0 + 1, i, 0 * 0, this.leavesMat);
-            this.setBlock(c, 0 * 0, i, 0 + 1, this.leavesMat);
-            this.setBlock(c, 0 - 1, i, 0 * 0, this.leavesMat);
-            this.setBlock(c, 0 * 0, i, 0 - 1, this.leavesMat);
+            this.setBlock(cursor, c, 0 + 1, i, 0 * 0, this.leavesMat);
+            this.setBlock(cursor, c, 0 * 0, i, 0 + 1, this.leavesMat);
+            this.setBlock(cursor, c, 0 - 1, i, 0 * 0, this.leavesMat);
+            this.setBlock(cursor, c, 0 * 0, i, 0 - 1, this.leavesMat);
             if (k == 1)
             {
                 // corners are set randomly
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 + 1, i, 0 + 1, this.leavesMat);
+                    this.setBlock(cursor, c, 0 + 1, i, 0 + 1, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 + 1, i, 0 - 1, this.leavesMat);
+                    this.setBlock(cursor, c, 0 + 1, i, 0 - 1, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 - 1, i, 0 + 1, this.leavesMat);
+                    this.setBlock(cursor, c, 0 - 1, i, 0 + 1, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 - 1, i, 0 - 1, this.leavesMat);
+                    this.setBlock(cursor, c, 0 - 1, i, 0 - 1, this.leavesMat);
                 }
             }
             else if (k >= 2)
             {
-                this.setBlock(c, 0 + 1, i, 0 + 1, this.leavesMat);
-                this.setBlock(c, 0 + 1, i, 0 - 1, this.leavesMat);
-                this.setBlock(c, 0 - 1, i, 0 + 1, this.leavesMat);
-                this.setBlock(c, 0 - 1, i, 0 - 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 1, i, 0 + 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 1, i, 0 - 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 1, i, 0 + 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 1, i, 0 - 1, this.leavesMat);
 
-                this.setBlock(c, 0 + 2, i, 0 + 1, this.leavesMat);
-                this.setBlock(c, 0 + 2, i, 0 * 0, this.leavesMat);
-                this.setBlock(c, 0 + 2, i, 0 - 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 2, i, 0 + 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 2, i, 0 * 0, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 2, i, 0 - 1, this.leavesMat);
 
-                this.setBlock(c, 0 - 2, i, 0 + 1, this.leavesMat);
-                this.setBlock(c, 0 - 2, i, 0 * 0, this.leavesMat);
-                this.setBlock(c, 0 - 2, i, 0 - 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 2, i, 0 + 1, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 2, i, 0 * 0, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 2, i, 0 - 1, this.leavesMat);
 
-                this.setBlock(c, 0 + 1, i, 0 + 2, this.leavesMat);
-                this.setBlock(c, 0 * 0, i, 0 + 2, this.leavesMat);
-                this.setBlock(c, 0 - 1, i, 0 + 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 1, i, 0 + 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 * 0, i, 0 + 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 1, i, 0 + 2, this.leavesMat);
 
-                this.setBlock(c, 0 + 1, i, 0 - 2, this.leavesMat);
-                this.setBlock(c, 0 * 0, i, 0 - 2, this.leavesMat);
-                this.setBlock(c, 0 - 1, i, 0 - 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 + 1, i, 0 - 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 * 0, i, 0 - 2, this.leavesMat);
+                this.setBlock(cursor, c, 0 - 1, i, 0 - 2, this.leavesMat);
 
                 // corners are set randomly
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 + 2, i, 0 + 2, this.leavesMat);
+                    this.setBlock(cursor, c, 0 + 2, i, 0 + 2, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 + 2, i, 0 - 2, this.leavesMat);
+                    this.setBlock(cursor, c, 0 + 2, i, 0 - 2, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 - 2, i, 0 + 2, this.leavesMat);
+                    this.setBlock(cursor, c, 0 - 2, i, 0 + 2, this.leavesMat);
                 }
                 if (random.nextBoolean())
                 {
-                    this.setBlock(c, 0 - 2, i, 0 - 2, this.leavesMat);
+                    this.setBlock(cursor, c, 0 - 2, i, 0 - 2, this.leavesMat);
                 }
             }
         }
         return true;
     }
 
+    private void setBlock(final BlockCursor cursor, final BlockLocation c, final int x, final int y, final int z, final BlockMaterialData material)
+    {
+        cursor.moveTo(c.getX() + x, c.getY() + y, c.getZ() + z).setType(material);
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,415 @@
+package org.diorite.impl.world.io;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.world.chunk.ChunkMap;
+
+/**
+ * Executor of chunk I/O tasks, used by {@link ChunkIoService} implementations to provide async API.
+ * <br>
+ * Tasks of one chunk (identified by packed chunk coordinates) are always executed one by one, in order of submitting,
+ * so write followed by read of the same chunk is consistent. Tasks of different chunks are executed in parallel.
+ * If write of chunk is submitted while previous write of the same chunk is still waiting (and it is last task of that chunk),
+ * data of waiting write is replaced (and passed to {@link IoWriter#discard(long, Object)}) and its future is returned,
+ * so chunk is written only once.
+ * <br>
+ * Submitting never blocks and never executes task in submitting thread, so it is safe to submit from tick thread.
+ * Background producers (like pregenerator) and chunk saves must invoke {@link #awaitCapacity()} before submitting, so queue can't grow unbounded.
+ */
+public class ChunkIoExecutor
+{
+    /**
+     * Max amount of chunks with waiting tasks in queue of executor, before {@link #awaitCapacity()} blocks.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final    String                   name;
+    private final    ThreadPoolExecutor       executor;
+    private final    int                      queueSize;
+    private final    ChunkMap<ChunkTaskQueue> queues       = new ChunkMap<>(256, 16);
+    private final    AtomicInteger            pending      = new AtomicInteger();
+    private final    Object                   capacityLock = new Object();
+    private volatile int                      waiting; // guarded by capacityLock, read without it
+
+    /**
+     * Construct new executor.
+     *
+     * @param name    name used in names of threads.
+     * @param threads amount of I/O threads.
+     */
+    public ChunkIoExecutor(final String name, final int threads)
+    {
+        this(name, threads, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Construct new executor.
+     *
+     * @param name      name used in names of threads.
+     * @param threads   amount of I/O threads.
+     * @param queueSize max amount of chunks waiting in queue before {@link #awaitCapacity()} blocks.
+     */
+    public ChunkIoExecutor(final String name, final int threads, final int queueSize)
+    {
+        this.name = name;
+        this.queueSize = Math.max(1, queueSize);
+        final AtomicInteger threadId = new AtomicInteger();
+        final int threadsCount = Math.max(1, threads);
+        // queue is unbounded, so only rejection is after shutdown, then tasks are executed by submitting thread
+        this.executor = new ThreadPoolExecutor(threadsCount, threadsCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new IoThread(r, "{ChunkIO} " + name + " #" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, (r, e) -> r.run());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits task of given chunk, it will be executed after all previously submitted tasks of this chunk.
+     *
+     * @param key  packed coordinates of chunk.
+     * @param task task to execute.
+     * @param <T>  type of result.
+     *
+     * @return future completed with result of task, or exceptionally if task thrown exception.
+     */
+    public <T> CompletableFuture<T> submit(final long key, final IoTask<T> task)
+    {
+        final Task<T> t = new Task<>(task);
+        this.add(key, t, false);
+        return t.future;
+    }
+
+    /**
+     * Submits write of given chunk, it will be executed after all previously submitted tasks of this chunk.
+     * If last submitted task of this chunk is waiting write, its data is replaced by given one, and its future is returned.
+     *
+     * @param key    packed coordinates of chunk.
+     * @param data   data to write.
+     * @param writer writer of data.
+     * @param <T>    type of data.
+     *
+     * @return future completed when data (or newer data of the same chunk) is written.
+     */
+    public <T> CompletableFuture<Void> submitWrite(final long key, final T data, final IoWriter<T> writer)
+    {
+        final WriteTask<T> t = new WriteTask<>(key, data, writer);
+        return this.add(key, t, true).future;
+    }
+
+    /**
+     * Checks if given chunk has any submitted tasks that aren't completed yet.
+     *
+     * @param key packed coordinates of chunk.
+     *
+     * @return true if chunk has waiting or running tasks.
+     */
+    public boolean hasTasks(final long key)
+    {
+        return this.queues.containsKey(key);
+    }
+
+    /**
+     * @return amount of submitted tasks that aren't completed yet.
+     */
+    public int getPendingTasks()
+    {
+        return this.pending.get();
+    }
+
+    /**
+     * Blocks until queue of executor has less than max amount of waiting chunks, must be invoked by background producers of tasks
+     * before submitting them. It returns immediately if invoked by I/O thread of this executor.
+     *
+     * @throws InterruptedException if thread was interrupted while waiting.
+     */
+    public void awaitCapacity() throws InterruptedException
+    {
+        if (isIoThread() || (this.executor.getQueue().size() < this.queueSize))
+        {
+            return;
+        }
+        synchronized (this.capacityLock)
+        {
+            this.waiting++;
+            try
+            {
+                while (this.executor.getQueue().size() >= this.queueSize)
+                {
+                    this.capacityLock.wait();
+                }
+            } finally
+            {
+                this.waiting--;
+            }
+        }
+    }
+
+    /**
+     * Waits until all tasks submitted before invocation of this method are completed.
+     *
+     * @return true if all tasks were completed successfully, false if any of them failed (failure is also logged).
+     */
+    public boolean flush()
+    {
+        try
+        {
+            this.whenFlushed().join();
+            return true;
+        } catch (final Exception e)
+        {
+            System.err.println("[ChunkIO] " + this.name + " failed to complete some of flushed tasks.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Returns future completed when all tasks submitted before invocation of this method are completed, without waiting for them.
+     *
+     * @return future completed when all currently submitted tasks are completed, exceptionally if any of them failed.
+     */
+    public CompletableFuture<Void> whenFlushed()
+    {
+        return CompletableFuture.allOf(this.queues.values().stream().map(ChunkTaskQueue::lastFuture).filter(f -> f != null).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Waits for all submitted tasks and stops threads of this executor, tasks submitted later are executed by submitting thread.
+     */
+    public void shutdown()
+    {
+        this.flush();
+        this.executor.shutdown();
+        try
+        {
+            if (! this.executor.awaitTermination(1, TimeUnit.MINUTES))
+            {
+                System.err.println("[ChunkIO] " + this.name + " I/O threads didn't stop in time, " + this.pending.get() + " tasks are still pending.");
+            }
+        } catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Task<?>> T add(final long key, final T task, final boolean coalesce)
+    {
+        while (true)
+        {
+            final ChunkTaskQueue queue = this.queues.computeIfAbsent(key, ChunkTaskQueue::new);
+            final boolean start;
+            synchronized (queue)
+            {
+                if (queue.removed)
+                {
+                    continue; // queue was just finished and removed, new one must be created
+                }
+                if (coalesce)
+                {
+                    final Task<?> last = queue.tasks.peekLast();
+                    if ((last instanceof WriteTask) && ((WriteTask<?>) last).coalesce((WriteTask<?>) task))
+                    {
+                        return (T) last;
+                    }
+                }
+                queue.tasks.addLast(task);
+                this.pending.incrementAndGet();
+                start = ! queue.running;
+                queue.running = true;
+            }
+            if (start)
+            {
+                this.executor.execute(queue);
+            }
+            return task;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("name", this.name).append("threads", this.executor.getMaximumPoolSize()).append("pending", this.pending.get()).toString();
+    }
+
+    /**
+     * Task executed by I/O thread.
+     *
+     * @param <T> type of result.
+     */
+    @FunctionalInterface
+    public interface IoTask<T>
+    {
+        T call() throws IOException;
+    }
+
+    /**
+     * Writer of chunk data.
+     *
+     * @param <T> type of data.
+     */
+    @FunctionalInterface
+    public interface IoWriter<T>
+    {
+        void write(long key, T data) throws IOException;
+
+        /**
+         * Invoked when data of waiting write is replaced by newer data of the same chunk, so it will never be written.
+         * By default it does nothing.
+         *
+         * @param key  packed coordinates of chunk.
+         * @param data replaced data.
+         */
+        default void discard(final long key, final T data)
+        {
+        }
+    }
+
+    /**
+     * @return true if current thread is I/O thread of any executor, such thread must never wait for other I/O tasks.
+     */
+    public static boolean isIoThread()
+    {
+        return Thread.currentThread() instanceof IoThread;
+    }
+
+    private static final class IoThread extends Thread
+    {
+        private IoThread(final Runnable target, final String name)
+        {
+            super(target, name);
+        }
+    }
+
+    private final class ChunkTaskQueue implements Runnable
+    {
+        private final long           key;
+        private final Deque<Task<?>> tasks = new ArrayDeque<>(2);
+        private       boolean        running;
+        private       boolean        removed;
+
+        private ChunkTaskQueue(final long key)
+        {
+            this.key = key;
+        }
+
+        private synchronized CompletableFuture<?> lastFuture()
+        {
+            final Task<?> last = this.tasks.peekLast();
+            return (last == null) ? null : last.future;
+        }
+
+        @Override
+        public void run()
+        {
+            // queue was just taken from queue of executor, so producers waiting for capacity may continue
+            if (ChunkIoExecutor.this.waiting > 0)
+            {
+                synchronized (ChunkIoExecutor.this.capacityLock)
+                {
+                    ChunkIoExecutor.this.capacityLock.notifyAll();
+                }
+            }
+            while (true)
+            {
+                final Task<?> task;
+                synchronized (this)
+                {
+                    task = this.tasks.peekFirst(); // task stays in queue until it is done, so lastFuture() can see it
+                    if (task == null)
+                    {
+                        this.running = false;
+                        this.removed = true;
+                        ChunkIoExecutor.this.queues.remove(this.key, this);
+                        return;
+                    }
+                    task.started = true;
+                }
+                task.run();
+                synchronized (this)
+                {
+                    this.tasks.pollFirst();
+                }
+                ChunkIoExecutor.this.pending.decrementAndGet();
+            }
+        }
+    }
+
+    private static class Task<T>
+    {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final IoTask<T>            task;
+        boolean started;
+
+        private Task(final IoTask<T> task)
+        {
+            this.task = task;
+        }
+
+        void run()
+        {
+            try
+            {
+                this.future.complete(this.task.call());
+            } catch (final Throwable e)
+            {
+                this.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class WriteTask<T> extends Task<Void>
+    {
+        private final    long        key;
+        private volatile IoWriter<T> writer;
+        private volatile T           data;
+
+        private WriteTask(final long key, final T data, final IoWriter<T> writer)
+        {
+            super(null);
+            this.key = key;
+            this.data = data;
+            this.writer = writer;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean coalesce(final WriteTask<?> newer)
+        {
+            if (this.started)
+            {
+                return false;
+            }
+            final WriteTask<T> task = (WriteTask<T>) newer;
+            final IoWriter<T> replacedWriter = this.writer;
+            final T replaced = this.data;
+            this.writer = task.writer;
+            this.data = task.data;
+            replacedWriter.discard(this.key, replaced);
+            return true;
+        }
+
+        @Override
+        void run()
+        {
+            try
+            {
+                this.writer.write(this.key, this.data);
+                this.future.complete(null);
+            } catch (final Throwable e)
+            {
+                this.future.completeExceptionally(e);
+            }
+        }
+    }
+}
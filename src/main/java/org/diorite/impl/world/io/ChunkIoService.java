@@ -2,6 +2,9 @@ package org.diorite.impl.world.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.diorite.impl.world.chunk.ChunkImpl;
 
@@ -31,6 +34,90 @@ public interface ChunkIoService
      */
     void write(ChunkImpl chunk) throws IOException;
 
+    /**
+     * Reads a single chunk using I/O threads of this service. The provided chunk must not yet be initialized.
+     * Read is executed after all previously submitted reads and writes of the same chunk.
+     *
+     * @param chunk The ChunkImpl to read into.
+     *
+     * @return future completed with true if chunk was read, false if it doesn't exist,
+     * or completed exceptionally if an I/O error occurs.
+     */
+    CompletableFuture<Boolean> readAsync(ChunkImpl chunk);
+
+    /**
+     * Checks if given chunk may be stored, without reading it or touching its storage file, so chunks that don't exist
+     * can be generated without any I/O. It never returns false for stored chunk, but may return true for chunk
+     * that isn't stored (then read returns false). By default it always returns true.
+     *
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     *
+     * @return false if chunk surely isn't stored.
+     */
+    default boolean hasChunk(final int x, final int z)
+    {
+        return true;
+    }
+
+    /**
+     * Reads many chunks using I/O threads of this service. The provided chunks must not yet be initialized.
+     * Implementations may read chunks in order of their position in storage and decode them in parallel,
+     * futures of chunks are completed independently, as soon as each chunk is ready.
+     * By default each chunk is read by {@link #readAsync(ChunkImpl)}.
+     *
+     * @param chunks The ChunkImpls to read into.
+     *
+     * @return futures of chunks in order of given chunks, see {@link #readAsync(ChunkImpl)}.
+     */
+    default List<CompletableFuture<Boolean>> readBatchAsync(final List<ChunkImpl> chunks)
+    {
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(chunks.size());
+        for (final ChunkImpl chunk : chunks)
+        {
+            futures.add(this.readAsync(chunk));
+        }
+        return futures;
+    }
+
+    /**
+     * Writes a single chunk using I/O threads of this service, chunk data is captured before this method returns
+     * (as copy-on-write snapshot, so it is cheap), so chunk can be unloaded or changed right after it. If previous write of the same chunk is still waiting,
+     * it is replaced by this one.
+     *
+     * @param chunk The {@link ChunkImpl} to write from.
+     *
+     * @return future completed when chunk is written, or completed exceptionally if an I/O error occurs.
+     */
+    CompletableFuture<Void> writeAsync(ChunkImpl chunk);
+
+    /**
+     * Waits until all reads and writes submitted before invocation of this method are done.
+     *
+     * @return true if all of them were done successfully, false if any of them failed (failures are logged by service).
+     */
+    boolean flush();
+
+    /**
+     * Blocks until service can accept more reads and writes without growing its queue unbounded, it must be invoked by
+     * background producers of chunks (like pregenerator) before submitting them, and it is invoked by chunk manager before
+     * every chunk save (see {@link org.diorite.impl.world.chunk.ChunkManagerImpl#saveAsync(ChunkImpl)}), so tick thread waits
+     * only if writes are queued faster than I/O threads write them. Submitting itself is never blocked. By default it returns immediately.
+     *
+     * @throws InterruptedException if thread was interrupted while waiting.
+     */
+    default void awaitCapacity() throws InterruptedException
+    {
+    }
+
+    /**
+     * Invoked by world after each save cycle, and after chunks were saved by unloading (so storage is synced even if autosave is disabled),
+     * service may use it to do maintenance of its storage (like syncing or compaction) using its I/O threads. By default it does nothing.
+     */
+    default void afterSaveCycle()
+    {
+    }
+
     /**
      * Unload the service, performing any cleanup necessary.
      *
@@ -0,0 +1,22 @@
+package org.diorite.impl.world.io;
+
+import org.diorite.impl.world.io.anvil.AnvilChunkIoService;
+import org.diorite.impl.world.io.log.ChunkLogConverter;
+import org.diorite.impl.world.io.log.LogChunkIoService;
+
+/**
+ * Format used to store chunks of world.
+ * <br>
+ * Changing format of existing world doesn't convert its chunks, use {@link ChunkLogConverter} for that.
+ */
+public enum ChunkStorageType
+{
+    /**
+     * Anvil region files, one file per 32x32 chunks, see {@link AnvilChunkIoService}.
+     */
+    ANVIL,
+    /**
+     * Single append-only file with all chunks of world, see {@link LogChunkIoService}.
+     */
+    LOG
+}
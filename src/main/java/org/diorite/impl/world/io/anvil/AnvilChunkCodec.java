@@ -0,0 +1,530 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.diorite.impl.world.chunk.ChunkBlockData;
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.utils.collections.arrays.NibbleArray;
+import org.diorite.world.chunk.Chunk;
+
+/**
+ * Streaming codec of anvil chunk format, it reads and writes NBT data of chunk directly from/to stream,
+ * without creating tree of NBT tags.
+ * <br>
+ * Block ids, additional ids and metadata of sections are packed straight to arrays of {@link ChunkPartImpl}.
+ * Tags of root and "Level" compound that aren't used by diorite (entities, tile entities, tile ticks, tags
+ * added by other software...) are kept as raw NBT data and written back unchanged, see {@link ChunkImpl#getUnknownTags()},
+ * the same is done with unknown tags of sections, see {@link ChunkPartImpl#getUnknownTags()}.
+ */
+@SuppressWarnings("MagicNumber")
+public final class AnvilChunkCodec
+{
+    private static final int TAG_END        = 0;
+    private static final int TAG_BYTE       = 1;
+    private static final int TAG_SHORT      = 2;
+    private static final int TAG_INT        = 3;
+    private static final int TAG_LONG       = 4;
+    private static final int TAG_FLOAT      = 5;
+    private static final int TAG_DOUBLE     = 6;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING     = 8;
+    private static final int TAG_LIST       = 9;
+    private static final int TAG_COMPOUND   = 10;
+    private static final int TAG_INT_ARRAY  = 11;
+
+    private static final int MAX_DEPTH = 512;
+
+    private static final int SECTION_BLOCKS  = ChunkPartImpl.CHUNK_DATA_SIZE;
+    private static final int SECTION_NIBBLES = SECTION_BLOCKS >> 1;
+    private static final int SECTIONS        = Chunk.CHUNK_FULL_HEIGHT / Chunk.CHUNK_PART_HEIGHT;
+
+    private AnvilChunkCodec()
+    {
+    }
+
+    /**
+     * Reads chunk data from given stream and loads it to given chunk.
+     *
+     * @param in    uncompressed stream of chunk data, it should be buffered.
+     * @param chunk chunk to load.
+     *
+     * @throws IOException if an I/O error occurs or data is malformed.
+     */
+    public static void read(final DataInput in, final ChunkImpl chunk) throws IOException
+    {
+        if (in.readByte() != TAG_COMPOUND)
+        {
+            throw new IOException("Chunk data must start with compound tag.");
+        }
+        in.readUTF();
+
+        ChunkPartImpl[] sections = null;
+        byte[] biomes = null;
+        int[] heightMap = null;
+        boolean populated = false;
+        Map<String, byte[]> unknownTags = null;
+        Map<String, byte[]> unknownRootTags = null;
+        for (int type = in.readByte(); type != TAG_END; type = in.readByte())
+        {
+            final String name = in.readUTF();
+            if ((type != TAG_COMPOUND) || ! "Level".equals(name))
+            {
+                unknownRootTags = readRaw(unknownRootTags, type, name, in);
+                continue;
+            }
+            sections = new ChunkPartImpl[SECTIONS];
+            for (int levelType = in.readByte(); levelType != TAG_END; levelType = in.readByte())
+            {
+                final String levelName = in.readUTF();
+                if ((levelType == TAG_LIST) && "Sections".equals(levelName))
+                {
+                    readSections(in, sections);
+                }
+                else if ((levelType == TAG_BYTE_ARRAY) && "Biomes".equals(levelName))
+                {
+                    biomes = readByteArray(in);
+                }
+                else if ((levelType == TAG_INT_ARRAY) && "HeightMap".equals(levelName))
+                {
+                    heightMap = readIntArray(in);
+                }
+                else if ((levelType == TAG_BYTE) && "TerrainPopulated".equals(levelName))
+                {
+                    populated = in.readByte() != 0;
+                }
+                else if ("xPos".equals(levelName) || "zPos".equals(levelName) || "LastUpdate".equals(levelName) || "V".equals(levelName))
+                {
+                    copyPayload(levelType, in, null, 0); // always written from current state of chunk
+                }
+                else
+                {
+                    unknownTags = readRaw(unknownTags, levelType, levelName, in);
+                }
+            }
+        }
+        if (sections == null)
+        {
+            throw new IOException("Chunk data don't contain Level tag.");
+        }
+        chunk.setUnknownTags(unknownTags, unknownRootTags);
+        chunk.loadFrom(sections, ((biomes == null) || (biomes.length != Chunk.CHUNK_BIOMES_SIZE)) ? new byte[Chunk.CHUNK_BIOMES_SIZE] : biomes, heightMap, populated);
+    }
+
+    /**
+     * Writes data of given chunk to given stream.
+     *
+     * @param out         stream to write, it should be buffered.
+     * @param chunk       chunk to write, it should not be changed while it is written, see {@link ChunkImpl#createSaveCopy()}.
+     * @param lastUpdate  time of world.
+     * @param hasSkyLight if world of chunk has sky light.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(final DataOutput out, final ChunkImpl chunk, final long lastUpdate, final boolean hasSkyLight) throws IOException
+    {
+        final Map<String, byte[]> unknownTags = chunk.getUnknownTags();
+        final Map<String, byte[]> unknownRootTags = chunk.getUnknownRootTags();
+
+        writeHeader(out, TAG_COMPOUND, "");
+        writeHeader(out, TAG_COMPOUND, "Level");
+        writeHeader(out, TAG_BYTE, "V");
+        out.writeByte(1);
+        writeHeader(out, TAG_INT, "xPos");
+        out.writeInt(chunk.getX());
+        writeHeader(out, TAG_INT, "zPos");
+        out.writeInt(chunk.getZ());
+        writeHeader(out, TAG_LONG, "LastUpdate");
+        out.writeLong(lastUpdate);
+        writeHeader(out, TAG_INT_ARRAY, "HeightMap");
+        final int[] heightMap = chunk.getHeightMap();
+        out.writeInt(heightMap.length);
+        for (final int height : heightMap)
+        {
+            out.writeInt(height);
+        }
+        writeHeader(out, TAG_BYTE, "TerrainPopulated");
+        out.writeByte(chunk.isPopulated() ? 1 : 0);
+        writeSections(out, chunk.getChunkParts(), hasSkyLight);
+        final byte[] biomes = chunk.getBiomes();
+        writeByteArray(out, "Biomes", (biomes == null) ? new byte[Chunk.CHUNK_BIOMES_SIZE] : biomes);
+
+        if (unknownTags != null)
+        {
+            for (final byte[] raw : unknownTags.values())
+            {
+                out.write(raw);
+            }
+        }
+        // default values of tags that diorite don't support yet.
+        if ((unknownTags == null) || ! unknownTags.containsKey("LightPopulated"))
+        {
+            writeHeader(out, TAG_BYTE, "LightPopulated");
+            out.writeByte(0);
+        }
+        if ((unknownTags == null) || ! unknownTags.containsKey("InhabitedTime"))
+        {
+            writeHeader(out, TAG_LONG, "InhabitedTime");
+            out.writeLong(0);
+        }
+        if ((unknownTags == null) || ! unknownTags.containsKey("Entities"))
+        {
+            writeEmptyList(out, "Entities");
+        }
+        if ((unknownTags == null) || ! unknownTags.containsKey("TileEntities"))
+        {
+            writeEmptyList(out, "TileEntities");
+        }
+        out.writeByte(TAG_END); // end of Level
+
+        if (unknownRootTags != null)
+        {
+            for (final byte[] raw : unknownRootTags.values())
+            {
+                out.write(raw);
+            }
+        }
+        out.writeByte(TAG_END); // end of root
+    }
+
+    private static void readSections(final DataInput in, final ChunkPartImpl[] sections) throws IOException
+    {
+        final int type = in.readByte();
+        final int length = in.readInt();
+        if (length <= 0)
+        {
+            return;
+        }
+        if (type != TAG_COMPOUND)
+        {
+            throw new IOException("Sections must be list of compound tags, not: " + type);
+        }
+        for (int i = 0; i < length; ++ i)
+        {
+            int y = - 1;
+            byte[] blocks = null;
+            byte[] add = null;
+            byte[] data = null;
+            byte[] blockLight = null;
+            byte[] skyLight = null;
+            Map<String, byte[]> unknownTags = null;
+            for (int tagType = in.readByte(); tagType != TAG_END; tagType = in.readByte())
+            {
+                final String name = in.readUTF();
+                if (tagType == TAG_BYTE_ARRAY)
+                {
+                    switch (name)
+                    {
+                        case "Blocks":
+                            blocks = readByteArray(in);
+                            continue;
+                        case "Add":
+                            add = readByteArray(in);
+                            continue;
+                        case "Data":
+                            data = readByteArray(in);
+                            continue;
+                        case "BlockLight":
+                            blockLight = readByteArray(in);
+                            continue;
+                        case "SkyLight":
+                            skyLight = readByteArray(in);
+                            continue;
+                        default:
+                            break;
+                    }
+                }
+                else if ((tagType == TAG_BYTE) && "Y".equals(name))
+                {
+                    y = in.readByte();
+                    continue;
+                }
+                unknownTags = readRaw(unknownTags, tagType, name, in);
+            }
+            if ((y < 0) || (y >= SECTIONS))
+            {
+                throw new IOException("Invalid section y: " + y);
+            }
+            sections[y] = decodeSection((byte) y, blocks, add, data, blockLight, skyLight);
+            sections[y].setUnknownTags(unknownTags);
+        }
+    }
+
+    private static ChunkPartImpl decodeSection(final byte y, final byte[] blocks, final byte[] add, final byte[] data, final byte[] blockLight, final byte[] skyLight) throws IOException
+    {
+        checkLength("Blocks", blocks, SECTION_BLOCKS);
+        checkLength("Data", data, SECTION_NIBBLES);
+        if (add != null)
+        {
+            checkLength("Add", add, SECTION_NIBBLES);
+        }
+        final short[] types = new short[SECTION_BLOCKS];
+        for (int i = 0, j = 0; i < SECTION_BLOCKS; i += 2, ++ j)
+        {
+            final int meta = data[j];
+            final int ext = (add == null) ? 0 : add[j];
+            types[i] = (short) (((ext & 0xf) << 12) | ((blocks[i] & 0xff) << 4) | (meta & 0xf));
+            types[i + 1] = (short) (((ext & 0xf0) << 8) | ((blocks[i + 1] & 0xff) << 4) | ((meta >> 4) & 0xf));
+        }
+        final NibbleArray blockLightArray = ChunkPartImpl.shareIfUniform(new NibbleArray((blockLight == null) ? new byte[SECTION_NIBBLES] : blockLight));
+        final NibbleArray skyLightArray = (skyLight == null) ? null : ChunkPartImpl.shareIfUniform(new NibbleArray(skyLight));
+        return new ChunkPartImpl(new ChunkBlockData(types), skyLightArray, blockLightArray, y);
+    }
+
+    private static void writeSections(final DataOutput out, final ChunkPartImpl[] chunkParts, final boolean hasSkyLight) throws IOException
+    {
+        int count = 0;
+        for (final ChunkPartImpl chunkPart : chunkParts)
+        {
+            if (chunkPart != null)
+            {
+                count++;
+            }
+        }
+        writeHeader(out, TAG_LIST, "Sections");
+        out.writeByte(TAG_COMPOUND);
+        out.writeInt(count);
+        if (count == 0)
+        {
+            return;
+        }
+
+        final byte[] blocks = new byte[SECTION_BLOCKS];
+        final byte[] data = new byte[SECTION_NIBBLES];
+        final byte[] add = new byte[SECTION_NIBBLES];
+        for (final ChunkPartImpl chunkPart : chunkParts)
+        {
+            if (chunkPart == null)
+            {
+                continue;
+            }
+            final short[] types = chunkPart.getBlocks().getArray();
+            boolean hasAdd = false;
+            for (int i = 0, j = 0; i < SECTION_BLOCKS; i += 2, ++ j)
+            {
+                final int first = types[i];
+                final int second = types[i + 1];
+                blocks[i] = (byte) (first >> 4);
+                blocks[i + 1] = (byte) (second >> 4);
+                data[j] = (byte) ((first & 0xf) | ((second & 0xf) << 4));
+                final byte ext = (byte) (((first >> 12) & 0xf) | (((second >> 12) & 0xf) << 4));
+                add[j] = ext;
+                hasAdd |= ext != 0;
+            }
+
+            writeHeader(out, TAG_BYTE, "Y");
+            out.writeByte(chunkPart.getYPos());
+            writeByteArray(out, "Blocks", blocks);
+            writeByteArray(out, "Data", data);
+            if (hasAdd)
+            {
+                writeByteArray(out, "Add", add);
+            }
+            final NibbleArray blockLight = chunkPart.getBlockLight();
+            final NibbleArray skyLight = chunkPart.getSkyLight();
+            writeByteArray(out, "BlockLight", blockLight.getRawData());
+            writeByteArray(out, "SkyLight", (hasSkyLight && (skyLight != null)) ? skyLight.getRawData() : new byte[blockLight.getRawData().length]);
+            final Map<String, byte[]> unknownTags = chunkPart.getUnknownTags();
+            if (unknownTags != null)
+            {
+                for (final byte[] raw : unknownTags.values())
+                {
+                    out.write(raw);
+                }
+            }
+            out.writeByte(TAG_END);
+        }
+    }
+
+    private static Map<String, byte[]> readRaw(final Map<String, byte[]> tags, final int type, final String name, final DataInput in) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        writeHeader(out, type, name);
+        copyPayload(type, in, out, 0);
+        final Map<String, byte[]> result = (tags == null) ? new LinkedHashMap<>(8) : tags;
+        result.put(name, buffer.toByteArray());
+        return result;
+    }
+
+    /**
+     * Copies payload of tag of given type, or skips it if output is null.
+     */
+    private static void copyPayload(final int type, final DataInput in, final DataOutput out, final int depth) throws IOException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+        switch (type)
+        {
+            case TAG_BYTE:
+                copyBytes(in, out, 1);
+                break;
+            case TAG_SHORT:
+                copyBytes(in, out, 2);
+                break;
+            case TAG_INT:
+            case TAG_FLOAT:
+                copyBytes(in, out, 4);
+                break;
+            case TAG_LONG:
+            case TAG_DOUBLE:
+                copyBytes(in, out, 8);
+                break;
+            case TAG_BYTE_ARRAY:
+                copyBytes(in, out, copyLength(in, out));
+                break;
+            case TAG_INT_ARRAY:
+                copyBytes(in, out, ((long) copyLength(in, out)) << 2);
+                break;
+            case TAG_STRING:
+            {
+                final int length = in.readUnsignedShort();
+                if (out != null)
+                {
+                    out.writeShort(length);
+                }
+                copyBytes(in, out, length);
+                break;
+            }
+            case TAG_LIST:
+            {
+                final int elementType = in.readByte();
+                if (out != null)
+                {
+                    out.writeByte(elementType);
+                }
+                final int length = copyLength(in, out);
+                for (int i = 0; i < length; ++ i)
+                {
+                    copyPayload(elementType, in, out, depth + 1);
+                }
+                break;
+            }
+            case TAG_COMPOUND:
+                for (int tagType = in.readByte(); tagType != TAG_END; tagType = in.readByte())
+                {
+                    if (out != null)
+                    {
+                        out.writeByte(tagType);
+                    }
+                    copyPayload(TAG_STRING, in, out, depth + 1); // name
+                    copyPayload(tagType, in, out, depth + 1);
+                }
+                if (out != null)
+                {
+                    out.writeByte(TAG_END);
+                }
+                break;
+            default:
+                throw new IOException("Unknown NBT tag type: " + type);
+        }
+    }
+
+    private static int copyLength(final DataInput in, final DataOutput out) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0)
+        {
+            throw new IOException("Negative length of NBT tag: " + length);
+        }
+        if (out != null)
+        {
+            out.writeInt(length);
+        }
+        return length;
+    }
+
+    private static void copyBytes(final DataInput in, final DataOutput out, final long length) throws IOException
+    {
+        if (out == null)
+        {
+            long left = length;
+            while (left > 0)
+            {
+                final int skipped = in.skipBytes((int) Math.min(left, Integer.MAX_VALUE));
+                if (skipped <= 0)
+                {
+                    in.readByte(); // skipBytes may skip nothing before end of stream, readByte will throw EOFException then
+                    left--;
+                }
+                else
+                {
+                    left -= skipped;
+                }
+            }
+            return;
+        }
+        final byte[] buffer = new byte[(int) Math.min(length, 4096)];
+        long left = length;
+        while (left > 0)
+        {
+            final int part = (int) Math.min(left, buffer.length);
+            in.readFully(buffer, 0, part);
+            out.write(buffer, 0, part);
+            left -= part;
+        }
+    }
+
+    private static byte[] readByteArray(final DataInput in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0)
+        {
+            throw new IOException("Negative length of NBT tag: " + length);
+        }
+        final byte[] array = new byte[length];
+        in.readFully(array);
+        return array;
+    }
+
+    private static int[] readIntArray(final DataInput in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0)
+        {
+            throw new IOException("Negative length of NBT tag: " + length);
+        }
+        final int[] array = new int[length];
+        for (int i = 0; i < length; ++ i)
+        {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+    private static void checkLength(final String name, final byte[] array, final int length) throws IOException
+    {
+        if ((array == null) || (array.length != length))
+        {
+            throw new IOException("Invalid length of " + name + " array of section: " + ((array == null) ? "missing" : array.length) + ", expected " + length);
+        }
+    }
+
+    private static void writeHeader(final DataOutput out, final int type, final String name) throws IOException
+    {
+        out.writeByte(type);
+        out.writeUTF(name);
+    }
+
+    private static void writeByteArray(final DataOutput out, final String name, final byte[] array) throws IOException
+    {
+        writeHeader(out, TAG_BYTE_ARRAY, name);
+        out.writeInt(array.length);
+        out.write(array);
+    }
+
+    private static void writeEmptyList(final DataOutput out, final String name) throws IOException
+    {
+        writeHeader(out, TAG_LIST, name);
+        out.writeByte(TAG_END);
+        out.writeInt(0);
+    }
+}
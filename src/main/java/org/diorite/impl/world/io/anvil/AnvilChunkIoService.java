@@ -1,17 +1,33 @@
 package org.diorite.impl.world.io.anvil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.io.ChunkIoExecutor;
+import org.diorite.impl.world.io.ChunkIoExecutor.IoWriter;
 import org.diorite.impl.world.io.ChunkIoService;
-import org.diorite.nbt.NbtInputStream;
-import org.diorite.nbt.NbtLimiter;
-import org.diorite.nbt.NbtOutputStream;
-import org.diorite.nbt.NbtTagCompound;
+import org.diorite.impl.world.io.anvil.RegionFileCache.RegionHandle;
+import org.diorite.utils.math.pack.IntsToLong;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
 /**
  * An implementation of the {@link ChunkIoService} which reads and writes Anvil maps,
@@ -25,19 +41,110 @@ public final class AnvilChunkIoService implements ChunkIoService
      */
     private static final int REGION_SIZE = 32;
 
+    /**
+     * Size of buffers between chunk codec and (de)compression streams.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Default amount of I/O threads of single world.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    /**
+     * Default percent of free space in idle region file that triggers its compaction after save cycle.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 25;
+
+    /**
+     * Key of maintenance tasks in I/O executor, it doesn't collide with keys of chunks of any reachable coordinates.
+     */
+    private static final long MAINTENANCE_KEY = Long.MIN_VALUE;
+
+    /**
+     * Key of tasks building {@link ChunkExistenceIndex}, it doesn't collide with keys of chunks of any reachable coordinates.
+     */
+    private static final long INDEX_KEY = Long.MIN_VALUE + 1;
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
     /**
      * The region file cache.
      */
     private final RegionFileCache cache;
 
+    /**
+     * Bitmap of stored chunks, used to skip reads of chunks that don't exist.
+     */
+    private final ChunkExistenceIndex index;
+
     private final File worldFile;
 
+    /**
+     * Executor of async reads and writes.
+     */
+    private final ChunkIoExecutor executor;
+
+    private volatile int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * Serializes and writes copy of chunk created by {@link ChunkImpl#createSaveCopy()}.
+     */
+    private final IoWriter<ChunkImpl> copyWriter = new IoWriter<ChunkImpl>()
+    {
+        @Override
+        public void write(final long key, final ChunkImpl copy) throws IOException
+        {
+            try
+            {
+                AnvilChunkIoService.this.write(IntsToLong.getA(key), IntsToLong.getB(key), copy);
+            } finally
+            {
+                copy.releaseSaveCopy();
+            }
+        }
+
+        @Override
+        public void discard(final long key, final ChunkImpl copy)
+        {
+            // replaced by newer copy before it was written
+            copy.releaseSaveCopy();
+        }
+    };
+
     // todo: consider the session.lock file
 
     public AnvilChunkIoService(final File dir)
+    {
+        this(dir, DEFAULT_IO_THREADS);
+    }
+
+    public AnvilChunkIoService(final File dir, final int ioThreads)
+    {
+        this(dir, ioThreads, false);
+    }
+
+    /**
+     * Construct new anvil chunk I/O service.
+     *
+     * @param dir           folder of world.
+     * @param ioThreads     amount of I/O threads.
+     * @param mappedRegions if region files should be accessed using memory mapped buffers, see {@link MappedRegionFile}.
+     */
+    public AnvilChunkIoService(final File dir, final int ioThreads, final boolean mappedRegions)
     {
         this.worldFile = dir;
-        this.cache = new RegionFileCache(dir, ".mca");
+        this.cache = new RegionFileCache(dir, ".mca", mappedRegions);
+        this.index = new ChunkExistenceIndex(new File(dir, "region"), ".mca");
+        this.executor = new ChunkIoExecutor(dir.getName(), ioThreads);
+        // headers of region files are read by I/O thread, so checks of chunks in main thread don't need to read them
+        for (final long region : this.index.getUnbuiltRegions())
+        {
+            this.executor.submit(INDEX_KEY, () -> {
+                this.index.prebuild(region);
+                return null;
+            });
+        }
     }
 
     @Override
@@ -51,42 +158,321 @@ public final class AnvilChunkIoService implements ChunkIoService
     {
         final int x = chunk.getX();
         final int z = chunk.getZ();
-        final RegionFile region = this.cache.getRegionFile(x, z);
         final int regionX = x & (REGION_SIZE - 1);
         final int regionZ = z & (REGION_SIZE - 1);
-        if (! region.hasChunk(regionX, regionZ))
+        if (! this.index.hasChunk(x, z))
+        {
+            return false; // region file isn't opened (or created) for chunks that don't exist
+        }
+        try (final RegionHandle handle = this.cache.acquire(x, z))
         {
-            return false;
+            final RegionFile region = handle.getRegion();
+            if (! region.hasChunk(regionX, regionZ))
+            {
+                return false;
+            }
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(region.getChunkDataInputStream(regionX, regionZ), BUFFER_SIZE)))
+            {
+                AnvilChunkCodec.read(in, chunk);
+            }
         }
-        chunk.loadFrom(((NbtTagCompound) NbtInputStream.readTag(region.getChunkDataInputStream(regionX, regionZ), NbtLimiter.getUnlimited())).getCompound("Level"));
         return true;
     }
 
     @Override
     public void write(final ChunkImpl chunk) throws IOException
     {
-        final int x = chunk.getX();
-        final int z = chunk.getZ();
-        final RegionFile region = this.cache.getRegionFile(x, z);
-        final int regionX = x & (REGION_SIZE - 1);
-        final int regionZ = z & (REGION_SIZE - 1);
+        this.write(chunk.getX(), chunk.getZ(), chunk);
+    }
+
+    @Override
+    public boolean hasChunk(final int x, final int z)
+    {
+        // pending write of chunk isn't in index yet
+        return this.index.hasChunk(x, z) || this.executor.hasTasks(IntsToLong.pack(x, z));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readAsync(final ChunkImpl chunk)
+    {
+        return this.executor.submit(chunk.getPos().asLong(), () -> this.read(chunk));
+    }
 
-        final NbtTagCompound levelTag = chunk.writeTo(new NbtTagCompound("Level"));
-        final NbtTagCompound levelOut = new NbtTagCompound();
-        levelOut.addTag(levelTag);
+    @Override
+    public List<CompletableFuture<Boolean>> readBatchAsync(final List<ChunkImpl> chunks)
+    {
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(chunks.size());
+        final TLongObjectMap<TIntList> regions = new TLongObjectHashMap<>(4);
+        for (int i = 0, size = chunks.size(); i < size; ++ i)
+        {
+            final ChunkImpl chunk = chunks.get(i);
+            if (this.executor.hasTasks(chunk.getPos().asLong()))
+            {
+                // chunk may be still written, so it must be read after its previous tasks
+                futures.add(this.readAsync(chunk));
+                continue;
+            }
+            if (! this.index.hasChunk(chunk.getX(), chunk.getZ()))
+            {
+                futures.add(CompletableFuture.completedFuture(false));
+                continue;
+            }
+            futures.add(new CompletableFuture<>());
+            final long regionKey = IntsToLong.pack(chunk.getX() >> 5, chunk.getZ() >> 5);
+            TIntList positions = regions.get(regionKey);
+            if (positions == null)
+            {
+                positions = new TIntArrayList(REGION_SIZE);
+                regions.put(regionKey, positions);
+            }
+            positions.add(i);
+        }
+        // one task per region, chunks that aren't loaded yet can't have any writes submitted, so key of any chunk of batch can be used
+        regions.forEachValue(positions -> {
+            this.executor.submit(chunks.get(positions.get(0)).getPos().asLong(), () -> {
+                this.readBatch(chunks, futures, positions);
+                return null;
+            });
+            return true;
+        });
+        return futures;
+    }
 
-        NbtOutputStream.write(levelOut, region.getChunkDataOutputStream(regionX, regionZ));
+    /**
+     * Reads compressed data of chunks of one region at once, in order of their sectors, and submits decoding of each chunk as separate
+     * task of I/O executor, so chunks are decoded in parallel, and every decoding is tracked by {@link #flush()} and {@link #unload()}.
+     */
+    private void readBatch(final List<ChunkImpl> chunks, final List<CompletableFuture<Boolean>> futures, final TIntList positions)
+    {
+        final int[] indexes = new int[positions.size()];
+        for (int i = 0; i < indexes.length; ++ i)
+        {
+            final ChunkImpl chunk = chunks.get(positions.get(i));
+            indexes[i] = (chunk.getX() & (REGION_SIZE - 1)) + ((chunk.getZ() & (REGION_SIZE - 1)) << 5);
+        }
+        final ChunkImpl first = chunks.get(positions.get(0));
+        final ByteBuffer[] data;
+        try (final RegionHandle handle = this.cache.acquire(first.getX(), first.getZ()))
+        {
+            data = handle.getRegion().getChunkData(indexes);
+        } catch (final IOException | RuntimeException e)
+        {
+            // some chunk is damaged, so chunks are read one by one, to fail only futures of damaged chunks
+            for (int i = 0; i < indexes.length; ++ i)
+            {
+                final CompletableFuture<Boolean> future = futures.get(positions.get(i));
+                try
+                {
+                    future.complete(this.read(chunks.get(positions.get(i))));
+                } catch (final IOException | RuntimeException ex)
+                {
+                    future.completeExceptionally(ex);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < data.length; ++ i)
+        {
+            final CompletableFuture<Boolean> future = futures.get(positions.get(i));
+            final ByteBuffer chunkData = data[i];
+            if (chunkData == null)
+            {
+                future.complete(false);
+                continue;
+            }
+            final ChunkImpl chunk = chunks.get(positions.get(i));
+            this.executor.submit(chunk.getPos().asLong(), () -> {
+                // pooled inflater is taken only for time of decoding
+                try (final DataInputStream in = new DataInputStream(new BufferedInputStream(RegionFile.openChunkData(chunkData), BUFFER_SIZE)))
+                {
+                    AnvilChunkCodec.read(in, chunk);
+                }
+                return true;
+            }).whenComplete((found, e) -> {
+                if (e == null)
+                {
+                    future.complete(found);
+                }
+                else
+                {
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(final ChunkImpl chunk)
+    {
+        // only copy-on-write snapshot is taken here, chunk is serialized and compressed by I/O thread
+        final ChunkImpl copy = chunk.createSaveCopy();
+        if (copy == null)
+        {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Can't save chunk that isn't loaded: " + chunk));
+            return future;
+        }
+        return this.executor.submitWrite(chunk.getPos().asLong(), copy, this.copyWriter);
+    }
+
+    @Override
+    public boolean flush()
+    {
+        final boolean written = this.executor.flush();
+        return this.cache.sync() && written;
+    }
+
+    @Override
+    public void awaitCapacity() throws InterruptedException
+    {
+        this.executor.awaitCapacity();
+    }
+
+    /**
+     * Returns fragmentation reports of region files of this world that are currently open.
+     *
+     * @return fragmentation reports of open region files.
+     */
+    public Collection<RegionFragmentationReport> getFragmentationReports()
+    {
+        return this.cache.getFragmentationReports();
+    }
+
+    /**
+     * @return level of compression of saved chunks.
+     */
+    public int getCompressionLevel()
+    {
+        return this.cache.getCompressionLevel();
+    }
+
+    /**
+     * @param compressionLevel level of compression of saved chunks, from 0 to 9, or -1 for default zlib level.
+     */
+    public void setCompressionLevel(final int compressionLevel)
+    {
+        this.cache.setCompressionLevel(compressionLevel);
+    }
+
+    /**
+     * @return policy of syncing region files of this world.
+     */
+    public RegionSyncPolicy getSyncPolicy()
+    {
+        return this.cache.getSyncPolicy();
+    }
+
+    /**
+     * @param syncPolicy policy of syncing region files of this world.
+     */
+    public void setSyncPolicy(final RegionSyncPolicy syncPolicy)
+    {
+        this.cache.setSyncPolicy(syncPolicy);
+    }
+
+    /**
+     * @return counters of system calls used to write region files of this world.
+     */
+    public RegionIoStats getIoStats()
+    {
+        return this.cache.getStats();
+    }
+
+    /**
+     * @return percent of free space in idle region file that triggers its compaction after save cycle, 0 if disabled.
+     */
+    public int getCompactionThreshold()
+    {
+        return this.compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold percent of free space in idle region file that triggers its compaction after save cycle, 0 disables it.
+     */
+    public void setCompactionThreshold(final int compactionThreshold)
+    {
+        this.compactionThreshold = Math.max(0, Math.min(100, compactionThreshold));
+    }
+
+    /**
+     * Compacts all region files of this world, skipping regions that are currently used by other threads.
+     * It may take some time, so it shouldn't be invoked by main thread.
+     *
+     * @return results of compaction of compacted regions.
+     *
+     * @see RegionCompactor
+     */
+    public List<RegionCompactionResult> compactRegions()
+    {
+        return this.cache.compactAll();
+    }
+
+    @Override
+    public void afterSaveCycle()
+    {
+        // headers are written (and synced) once per cycle, after all writes of cycle are done, failed writes are reported by their futures
+        this.executor.whenFlushed().handle((v, e) -> null).thenCompose(v -> this.executor.submit(MAINTENANCE_KEY, () -> {
+            this.cache.sync();
+            final int threshold = this.compactionThreshold;
+            if (threshold == 0)
+            {
+                return null;
+            }
+            for (final RegionCompactionResult result : this.cache.compactIdle(threshold / 100.0))
+            {
+                if (result.isRewritten())
+                {
+                    LOGGER.info("[ChunkIO] Compacted region file " + result.getPath() + ", reclaimed " + result.getReclaimed() + " bytes.");
+                }
+            }
+            return null;
+        })).whenComplete((v, e) -> {
+            if (e != null)
+            {
+                LOGGER.error("[ChunkIO] Maintenance of region files of world " + this.worldFile.getName() + " failed.", e);
+            }
+        });
+    }
+
+    /**
+     * @return bitmap of chunks stored in region files of this world.
+     */
+    public ChunkExistenceIndex getExistenceIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * @return cache of region files of this world.
+     */
+    public RegionFileCache getRegionCache()
+    {
+        return this.cache;
+    }
+
+    private void write(final int x, final int z, final ChunkImpl chunk) throws IOException
+    {
+        final int regionX = x & (REGION_SIZE - 1);
+        final int regionZ = z & (REGION_SIZE - 1);
+        try (final RegionHandle handle = this.cache.acquire(x, z);
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(handle.getRegion().getChunkDataOutputStream(regionX, regionZ), BUFFER_SIZE)))
+        {
+            AnvilChunkCodec.write(out, chunk, chunk.getWorld().getTime(), chunk.getWorld().getDimension().hasSkyLight());
+        }
+        this.index.add(x, z);
     }
 
     @Override
     public void unload() throws IOException
     {
+        this.executor.shutdown();
         this.cache.clear();
+        this.index.save();
     }
 
     @Override
     public String toString()
     {
-        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("cache", this.cache).toString();
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("cache", this.cache).append("executor", this.executor).toString();
     }
 }
@@ -0,0 +1,324 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * Bitmap of chunks stored in region files of one world, so checking if chunk exists doesn't need to open (or create) its region file.
+ * <br>
+ * Bitmap of region (1024 bits) is built from offset table of region file, read directly from disk without {@link RegionFileCache},
+ * regions without file are just empty. Bitmaps of existing region files should be built in background by {@link #prebuild(long)},
+ * otherwise bitmap is built on first use. Written chunks must be added by {@link #add(int, int)}, chunks are never removed from region files.
+ * <br>
+ * Index is saved to {@link #FILE_NAME} in folder of region files when world is unloaded, together with length and modification time
+ * of each region file, bitmaps of region files that were changed later (by other software or by crashed server) are dropped when index is loaded,
+ * and built again from their headers.
+ */
+@SuppressWarnings("MagicNumber")
+public class ChunkExistenceIndex
+{
+    /**
+     * Name of index file in folder of region files.
+     */
+    public static final String FILE_NAME = "chunks.idx";
+
+    private static final int MAGIC         = 0x44494458; // DIDX
+    private static final int VERSION       = 1;
+    private static final int REGION_CHUNKS = 1024;
+    private static final int BITMAP_LONGS  = REGION_CHUNKS / Long.SIZE;
+    private static final int OFFSETS_BYTES = REGION_CHUNKS * 4;
+
+    private final    File                       regionDir;
+    private final    String                     extension;
+    private final    Map<Long, AtomicLongArray> regions = new ConcurrentHashMap<>(64, 0.75f, 4);
+    private volatile boolean                    dirty;
+
+    /**
+     * Construct new index of region files in given folder, and loads saved index if it exists.
+     *
+     * @param regionDir folder of region files.
+     * @param extension extension of region files.
+     */
+    public ChunkExistenceIndex(final File regionDir, final String extension)
+    {
+        this.regionDir = regionDir;
+        this.extension = extension;
+        final File file = new File(regionDir, FILE_NAME);
+        if (! file.isFile())
+        {
+            return;
+        }
+        try
+        {
+            this.load(file);
+        } catch (final IOException e)
+        {
+            this.regions.clear();
+            System.err.println("[ChunkIO] Can't load chunk index: " + file + ", it will be built again from region files.");
+            e.printStackTrace();
+        }
+    }
+
+    private void load(final File file) throws IOException
+    {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536)))
+        {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+            {
+                throw new IOException("Invalid chunk index header");
+            }
+            final int count = in.readInt();
+            int dropped = 0;
+            for (int i = 0; i < count; ++ i)
+            {
+                final int regionX = in.readInt();
+                final int regionZ = in.readInt();
+                final long length = in.readLong();
+                final long lastModified = in.readLong();
+                final AtomicLongArray bitmap = new AtomicLongArray(BITMAP_LONGS);
+                for (int j = 0; j < BITMAP_LONGS; ++ j)
+                {
+                    bitmap.set(j, in.readLong());
+                }
+                final File region = this.getRegionFile(regionX, regionZ);
+                // missing region file is stored with length -1
+                if ((length == (region.isFile() ? region.length() : - 1)) && (lastModified == region.lastModified()))
+                {
+                    this.regions.put(IntsToLong.pack(regionX, regionZ), bitmap);
+                }
+                else
+                {
+                    dropped++;
+                }
+            }
+            if (dropped > 0)
+            {
+                this.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Checks if given chunk is stored in its region file.
+     *
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     *
+     * @return true if chunk is stored.
+     */
+    public boolean hasChunk(final int x, final int z)
+    {
+        final int index = (x & 31) + ((z & 31) << 5);
+        return (this.getRegion(x >> 5, z >> 5).get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Marks given chunk as stored, must be invoked after chunk is written to its region file.
+     *
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     */
+    public void add(final int x, final int z)
+    {
+        final int index = (x & 31) + ((z & 31) << 5);
+        final AtomicLongArray bitmap = this.getRegion(x >> 5, z >> 5);
+        final long bit = 1L << index;
+        long word;
+        while (((word = bitmap.get(index >>> 6)) & bit) == 0)
+        {
+            if (bitmap.compareAndSet(index >>> 6, word, word | bit))
+            {
+                this.dirty = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns regions that have region file, but their bitmap isn't built yet (they weren't in saved index,
+     * or region file was changed after index was saved).
+     *
+     * @return packed coordinates of regions without bitmap, see {@link IntsToLong}.
+     */
+    public long[] getUnbuiltRegions()
+    {
+        final File[] files = this.regionDir.listFiles((dir, name) -> (name.length() > (this.extension.length() + 2)) && name.startsWith("r.") && name.endsWith(this.extension));
+        if (files == null)
+        {
+            return new long[0];
+        }
+        final long[] regions = new long[files.length];
+        int count = 0;
+        for (final File file : files)
+        {
+            final String name = file.getName();
+            final String[] coords = name.substring(2, name.length() - this.extension.length()).split("\\.");
+            if (coords.length != 2)
+            {
+                continue;
+            }
+            try
+            {
+                final long key = IntsToLong.pack(Integer.parseInt(coords[0]), Integer.parseInt(coords[1]));
+                if (! this.regions.containsKey(key))
+                {
+                    regions[count++] = key;
+                }
+            } catch (final NumberFormatException ignored)
+            {
+                // not a region file
+            }
+        }
+        return Arrays.copyOf(regions, count);
+    }
+
+    /**
+     * Builds bitmap of given region from header of its region file, if it isn't built yet.
+     * It should be invoked by I/O thread for regions from {@link #getUnbuiltRegions()}, so main thread doesn't need to read
+     * headers of region files when it checks chunks.
+     *
+     * @param region packed coordinates of region, see {@link IntsToLong}.
+     */
+    public void prebuild(final long region)
+    {
+        this.getRegion(IntsToLong.getA(region), IntsToLong.getB(region));
+    }
+
+    /**
+     * @return amount of regions known by this index.
+     */
+    public int getRegions()
+    {
+        return this.regions.size();
+    }
+
+    private AtomicLongArray getRegion(final int regionX, final int regionZ)
+    {
+        final long key = IntsToLong.pack(regionX, regionZ);
+        final AtomicLongArray bitmap = this.regions.get(key);
+        if (bitmap != null)
+        {
+            return bitmap;
+        }
+        // built only once, so chunk added by other thread can't be lost
+        return this.regions.computeIfAbsent(key, k -> this.build(regionX, regionZ));
+    }
+
+    private AtomicLongArray build(final int regionX, final int regionZ)
+    {
+        final AtomicLongArray bitmap = new AtomicLongArray(BITMAP_LONGS);
+        this.dirty = true;
+        final File file = this.getRegionFile(regionX, regionZ);
+        if (! file.isFile())
+        {
+            return bitmap;
+        }
+        final ByteBuffer offsets = ByteBuffer.allocate(OFFSETS_BYTES);
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            while (offsets.hasRemaining() && (raf.getChannel().read(offsets) != - 1))
+            {
+                // read whole offset table, shorter file is padded by region file when opened
+            }
+        } catch (final IOException e)
+        {
+            // chunks of broken region file will be read and errors reported as usual
+            System.err.println("[ChunkIO] Can't read header of region file: " + file);
+            e.printStackTrace();
+            for (int i = 0; i < BITMAP_LONGS; ++ i)
+            {
+                bitmap.set(i, - 1L);
+            }
+            return bitmap;
+        }
+        offsets.flip();
+        final IntBuffer ints = offsets.asIntBuffer();
+        for (int i = 0, size = ints.remaining(); i < size; ++ i)
+        {
+            if (ints.get(i) != 0)
+            {
+                bitmap.set(i >>> 6, bitmap.get(i >>> 6) | (1L << i));
+            }
+        }
+        return bitmap;
+    }
+
+    private File getRegionFile(final int regionX, final int regionZ)
+    {
+        return new File(this.regionDir, "r." + regionX + "." + regionZ + this.extension);
+    }
+
+    /**
+     * Saves this index if it was changed since it was loaded, it should be invoked only when region files can't be changed
+     * (after they are closed by {@link RegionFileCache#clear()}), as stored bitmaps must match stored region files.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void save() throws IOException
+    {
+        if (! this.dirty)
+        {
+            return;
+        }
+        if (! this.regionDir.isDirectory() && ! this.regionDir.mkdirs())
+        {
+            throw new IOException("Can't create directory: " + this.regionDir);
+        }
+        final File file = new File(this.regionDir, FILE_NAME);
+        final File temp = new File(this.regionDir, FILE_NAME + ".tmp");
+        this.dirty = false;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.regions.size());
+            for (final Entry<Long, AtomicLongArray> entry : this.regions.entrySet())
+            {
+                final int regionX = IntsToLong.getA(entry.getKey());
+                final int regionZ = IntsToLong.getB(entry.getKey());
+                final File region = this.getRegionFile(regionX, regionZ);
+                out.writeInt(regionX);
+                out.writeInt(regionZ);
+                out.writeLong(region.isFile() ? region.length() : - 1);
+                out.writeLong(region.lastModified());
+                final AtomicLongArray bitmap = entry.getValue();
+                for (int i = 0; i < BITMAP_LONGS; ++ i)
+                {
+                    out.writeLong(bitmap.get(i));
+                }
+            }
+        } catch (final IOException e)
+        {
+            this.dirty = true;
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("regionDir", this.regionDir).append("regions", this.regions.size()).toString();
+    }
+}
@@ -0,0 +1,255 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Region file accessed by memory mapped buffers.
+ * <br>
+ * Offset and timestamp tables are mapped once, and updated without any system calls (they are copied from memory on sync).
+ * Whole file is mapped too, compressed chunk data is copied from mapped buffer to heap while region is locked (sectors of chunk
+ * may be reused by other chunk after lock is released), and inflating is done after lock of region is released.
+ * File is grown by {@link #GROW_SECTORS} sectors at once, so it don't need to be remapped for every new chunk.
+ * <br>
+ * Buffers are unmapped when they are replaced or file is closed, so file can be moved or deleted after it is closed
+ * (mapped files can't be replaced on some systems).
+ */
+@SuppressWarnings("MagicNumber")
+public class MappedRegionFile extends RegionFile
+{
+    /**
+     * Minimal amount of sectors added to file when it needs to grow (1MB).
+     */
+    public static final int GROW_SECTORS = 256;
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+    private final MappedByteBuffer header;
+    private final IntBuffer        offsetTable;
+    private final IntBuffer        timestampTable;
+    private       MappedByteBuffer data;
+    private       boolean          closed; // buffers are unmapped, so they must not be touched anymore
+
+    public MappedRegionFile(final File path) throws IOException
+    {
+        super(path);
+
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = this.file.getChannel();
+
+        final long length = this.file.length();
+        if (length < HEADER_BYTES)
+        {
+            this.sizeDelta += HEADER_BYTES - length;
+            if (this.lastModified != 0)
+            {
+                // only give a warning if the region file existed beforehand
+                System.err.println("[ChunkIO] Region \"" + path + "\" under 8K: " + length + " increasing by " + (HEADER_BYTES - length));
+            }
+            this.file.setLength(HEADER_BYTES);
+        }
+        else if ((length & 0xfff) != 0)
+        {
+            this.sizeDelta += SECTOR_BYTES - (length & 0xfff);
+            System.err.println("[ChunkIO] Region \"" + path + "\" not aligned: " + length + " increasing by " + (SECTOR_BYTES - (length & 0xfff)));
+            this.file.setLength((length & ~ 0xfff) + SECTOR_BYTES);
+        }
+
+        this.header = this.channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+        this.offsetTable = ((ByteBuffer) this.header.duplicate().position(0).limit(SECTOR_BYTES)).slice().asIntBuffer();
+        this.timestampTable = ((ByteBuffer) this.header.duplicate().position(SECTOR_BYTES)).slice().asIntBuffer();
+        this.offsetTable.get(this.offsets);
+        this.timestampTable.get(this.chunkTimestamps);
+
+        this.data = this.channel.map(MapMode.READ_WRITE, 0, this.file.length());
+        this.initSectors((int) (this.file.length() / SECTOR_BYTES));
+    }
+
+    @Override
+    protected DataInputStream readChunk(final int sectorNumber, final int numSectors) throws IOException
+    {
+        this.checkOpen();
+        final ByteBuffer buffer = this.data.duplicate();
+        buffer.position(sectorNumber * SECTOR_BYTES);
+        final int length = buffer.getInt();
+        if ((length <= 0) || (length > (SECTOR_BYTES * numSectors)))
+        {
+            throw new IOException("Invalid length: " + length + " > " + (SECTOR_BYTES * numSectors));
+        }
+
+        final byte version = buffer.get();
+        final byte[] data = new byte[length - 1];
+        buffer.get(data);
+        return decompress(version, new ByteArrayInputStream(data));
+    }
+
+    @Override
+    protected ByteBuffer readSectors(final int sectorNumber, final int numSectors) throws IOException
+    {
+        this.checkOpen();
+        // single copy of whole run, chunks are still inflated in order of their sectors, so pages of file are touched sequentially
+        final ByteBuffer buffer = this.data.duplicate();
+        buffer.position(sectorNumber * SECTOR_BYTES);
+        buffer.limit(Math.min(buffer.capacity(), buffer.position() + (numSectors * SECTOR_BYTES)));
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+    @Override
+    protected int grow(final int sectors) throws IOException
+    {
+        this.checkOpen();
+        final int added = Math.max(sectors, GROW_SECTORS);
+        this.file.setLength(this.file.length() + ((long) added * SECTOR_BYTES));
+        final MappedByteBuffer old = this.data;
+        this.data = this.channel.map(MapMode.READ_WRITE, 0, this.file.length());
+        // data is never read from mapped buffer after region lock is released, so nothing else can use old buffer
+        unmap(old);
+        this.stats.written(2);
+        return added;
+    }
+
+    @Override
+    protected void writeSectors(final int sectorNumber, final byte[] data, final int length) throws IOException
+    {
+        this.checkOpen();
+        final ByteBuffer buffer = this.data.duplicate();
+        buffer.position(sectorNumber * SECTOR_BYTES);
+        buffer.putInt(length + 1); // chunk length
+        buffer.put((byte) VERSION_DEFLATE); // chunk version number
+        buffer.put(data, 0, length); // chunk data
+        this.stats.chunkWritten(0);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException
+    {
+        this.checkOpen();
+        this.offsetTable.rewind();
+        this.offsetTable.put(this.offsets);
+        this.timestampTable.rewind();
+        this.timestampTable.put(this.chunkTimestamps);
+        this.stats.headerWritten(0);
+    }
+
+    @Override
+    protected void force() throws IOException
+    {
+        this.checkOpen();
+        this.data.force();
+        this.header.force();
+        this.stats.synced(2);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        try
+        {
+            this.sync();
+        } finally
+        {
+            this.closed = true;
+            unmap(this.data);
+            unmap(this.header);
+            this.channel.close();
+            this.file.close();
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("Region file is closed: " + this.file);
+        }
+    }
+
+    /**
+     * Unmaps given buffer at once, instead of waiting for garbage collector, buffer must not be used after this.
+     * Nothing is done if buffers can't be unmapped by this JVM, buffer will be unmapped by garbage collector then.
+     *
+     * @param buffer buffer to unmap.
+     */
+    private static void unmap(final MappedByteBuffer buffer)
+    {
+        if (UNMAPPER == null)
+        {
+            return;
+        }
+        try
+        {
+            UNMAPPER.unmap(buffer);
+        } catch (final Exception e)
+        {
+            System.err.println("[ChunkIO] Can't unmap buffer of region file.");
+            e.printStackTrace();
+        }
+    }
+
+    private static Unmapper createUnmapper()
+    {
+        try
+        {
+            // java 9+
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException ignored)
+        {
+        }
+        try
+        {
+            // java 8
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                final Object bufferCleaner = cleaner.invoke(buffer);
+                if (bufferCleaner != null)
+                {
+                    clean.invoke(bufferCleaner);
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException e)
+        {
+            System.err.println("[ChunkIO] Mapped buffers can't be unmapped by this JVM, mapped region files can't be replaced until they are unmapped by garbage collector.");
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Unmapper
+    {
+        void unmap(MappedByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("file", this.file).append("mappedBytes", this.data.capacity()).toString();
+    }
+}
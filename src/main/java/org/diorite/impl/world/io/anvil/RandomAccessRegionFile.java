@@ -0,0 +1,240 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Region file accessed by {@link RandomAccessFile}, every read copies compressed chunk data to new array.
+ * <br>
+ * Chunk is written by single gathering write (with its header), and whole region header by single write on sync.
+ * <br>
+ * Region file opened as read-only is never changed (even if it is shorter than header or not aligned to sectors), every write fails.
+ */
+@SuppressWarnings("MagicNumber")
+public class RandomAccessRegionFile extends RegionFile
+{
+    private static final byte[] emptySector = new byte[SECTOR_BYTES];
+    private static final byte[] smallBytes  = new byte[2 << 5];
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+    private final boolean          readOnly;
+    private final ByteBuffer       chunkHeader  = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+    private final ByteBuffer[]     chunkBuffers = new ByteBuffer[2];
+
+    public RandomAccessRegionFile(final File path) throws IOException
+    {
+        this(path, false);
+    }
+
+    /**
+     * Opens region file.
+     *
+     * @param path     path to region file.
+     * @param readOnly if true, file must exist and is never changed.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public RandomAccessRegionFile(final File path, final boolean readOnly) throws IOException
+    {
+        super(path);
+
+        this.readOnly = readOnly;
+        this.file = new RandomAccessFile(path, readOnly ? "r" : "rw");
+        this.channel = this.file.getChannel();
+        if (readOnly)
+        {
+            // missing part of header is read as empty, and chunks outside of file are dropped by sector map
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && (this.channel.read(header, header.position()) != - 1))
+            {
+                // read whole header
+            }
+            header.clear();
+            header.asIntBuffer().get(this.offsets).get(this.chunkTimestamps);
+            this.initSectors((int) ((Math.max(this.file.length(), HEADER_BYTES) + SECTOR_BYTES - 1) / SECTOR_BYTES));
+            return;
+        }
+
+        // seek to the end to prepare size checking
+        this.file.seek(this.file.length());
+
+        // if the file size is under 8KB, grow it (4K chunk offset table, 4K timestamp table)
+        if (this.file.length() < HEADER_BYTES)
+        {
+            this.sizeDelta += HEADER_BYTES - this.file.length();
+            if (this.lastModified != 0)
+            {
+                // only give a warning if the region file existed beforehand
+                System.err.println("[ChunkIO] Region \"" + path + "\" under 8K: " + this.file.length() + " increasing by " + (HEADER_BYTES - this.file.length()));
+            }
+            this.writeZeros(HEADER_BYTES - this.file.length());
+        }
+
+        // if the file size is not a multiple of 4KB, grow it
+        if ((this.file.length() & 0xfff) != 0)
+        {
+            this.sizeDelta += SECTOR_BYTES - (this.file.length() & 0xfff);
+            System.err.println("[ChunkIO] Region \"" + path + "\" not aligned: " + this.file.length() + " increasing by " + (SECTOR_BYTES - (this.file.length() & 0xfff)));
+            this.writeZeros(SECTOR_BYTES - (this.file.length() & 0xfff));
+        }
+
+        // read offsets from offset table
+        this.file.seek(0);
+        for (int i = 0; i < SECTOR_INTS; ++ i)
+        {
+            this.offsets[i] = this.file.readInt();
+        }
+        // read timestamps from timestamp table
+        for (int i = 0; i < SECTOR_INTS; ++ i)
+        {
+            this.chunkTimestamps[i] = this.file.readInt();
+        }
+
+        this.initSectors((int) (this.file.length() / SECTOR_BYTES));
+    }
+
+    private void writeZeros(final long length) throws IOException
+    {
+        long j = length;
+        while (j >= emptySector.length)
+        {
+            this.file.write(emptySector);
+            j -= emptySector.length;
+        }
+        while (j >= smallBytes.length)
+        {
+            this.file.write(smallBytes);
+            j -= smallBytes.length;
+        }
+        if (j > 0)
+        {
+            this.file.write(new byte[(int) j]);
+        }
+    }
+
+    @Override
+    protected DataInputStream readChunk(final int sectorNumber, final int numSectors) throws IOException
+    {
+        this.file.seek(sectorNumber * SECTOR_BYTES);
+        final int length = this.file.readInt();
+        if (length > (SECTOR_BYTES * numSectors))
+        {
+            throw new IOException("Invalid length: " + length + " > " + (SECTOR_BYTES * numSectors));
+        }
+
+        final byte version = this.file.readByte();
+        final byte[] data = new byte[length - 1];
+        this.file.read(data);
+        return decompress(version, new ByteArrayInputStream(data));
+    }
+
+    @Override
+    protected ByteBuffer readSectors(final int sectorNumber, final int numSectors) throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(numSectors * SECTOR_BYTES);
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        while (buffer.hasRemaining())
+        {
+            final int read = this.channel.read(buffer, position);
+            if (read == - 1)
+            {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    protected int grow(final int sectors) throws IOException
+    {
+        this.checkWritable();
+        this.file.setLength(this.file.length() + ((long) sectors * SECTOR_BYTES));
+        this.stats.written(2);
+        return sectors;
+    }
+
+    @Override
+    protected void writeSectors(final int sectorNumber, final byte[] data, final int length) throws IOException
+    {
+        this.checkWritable();
+        this.chunkHeader.clear();
+        this.chunkHeader.putInt(length + 1); // chunk length
+        this.chunkHeader.put((byte) VERSION_DEFLATE); // chunk version number
+        this.chunkHeader.flip();
+        this.chunkBuffers[0] = this.chunkHeader;
+        this.chunkBuffers[1] = ByteBuffer.wrap(data, 0, length); // chunk data
+        this.channel.position((long) sectorNumber * SECTOR_BYTES);
+        int calls = 1;
+        do
+        {
+            this.channel.write(this.chunkBuffers);
+            calls++;
+        } while (this.chunkBuffers[1].hasRemaining());
+        this.chunkBuffers[1] = null;
+        this.stats.chunkWritten(calls);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException
+    {
+        this.checkWritable();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.asIntBuffer().put(this.offsets).put(this.chunkTimestamps);
+        int calls = 0;
+        long position = 0;
+        while (header.hasRemaining())
+        {
+            position += this.channel.write(header, position);
+            calls++;
+        }
+        this.stats.headerWritten(calls);
+    }
+
+    @Override
+    protected void force() throws IOException
+    {
+        if (this.readOnly)
+        {
+            return;
+        }
+        this.channel.force(false);
+        this.stats.synced(1);
+    }
+
+    private void checkWritable() throws IOException
+    {
+        if (this.readOnly)
+        {
+            throw new IOException("Region file is opened as read-only: " + this.path);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            this.sync();
+        } finally
+        {
+            this.file.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("file", this.file).toString();
+    }
+}
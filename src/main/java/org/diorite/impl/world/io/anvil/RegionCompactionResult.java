@@ -0,0 +1,91 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.File;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Result of compaction of single region file, see {@link RegionCompactor#compact(File)}.
+ */
+public class RegionCompactionResult
+{
+    private final File    path;
+    private final int     chunks;
+    private final int     droppedChunks;
+    private final long    oldSize;
+    private final long    newSize;
+    private final boolean rewritten;
+
+    public RegionCompactionResult(final File path, final int chunks, final int droppedChunks, final long oldSize, final long newSize, final boolean rewritten)
+    {
+        this.path = path;
+        this.chunks = chunks;
+        this.droppedChunks = droppedChunks;
+        this.oldSize = oldSize;
+        this.newSize = newSize;
+        this.rewritten = rewritten;
+    }
+
+    /**
+     * @return path to region file.
+     */
+    public File getPath()
+    {
+        return this.path;
+    }
+
+    /**
+     * @return amount of chunks in compacted file.
+     */
+    public int getChunks()
+    {
+        return this.chunks;
+    }
+
+    /**
+     * @return amount of chunks with invalid offset or length, that couldn't be read anyway and were removed from file.
+     */
+    public int getDroppedChunks()
+    {
+        return this.droppedChunks;
+    }
+
+    /**
+     * @return size of file before compaction, in bytes.
+     */
+    public long getOldSize()
+    {
+        return this.oldSize;
+    }
+
+    /**
+     * @return size of file after compaction, in bytes.
+     */
+    public long getNewSize()
+    {
+        return this.newSize;
+    }
+
+    /**
+     * @return amount of bytes reclaimed by compaction.
+     */
+    public long getReclaimed()
+    {
+        return this.oldSize - this.newSize;
+    }
+
+    /**
+     * @return false if file was already compacted, so it wasn't rewritten.
+     */
+    public boolean isRewritten()
+    {
+        return this.rewritten;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("path", this.path).append("chunks", this.chunks).append("droppedChunks", this.droppedChunks).append("oldSize", this.oldSize).append("newSize", this.newSize).append("rewritten", this.rewritten).toString();
+    }
+}
@@ -0,0 +1,253 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites region files with all chunks stored one after another (in order of index in offset table), without free sectors between them.
+ * <br>
+ * Compacted file is first written to temporary file (region file name + ".tmp") and synced, and then it replaces old file using atomic rename,
+ * so region file is never left half-written, even if server crashes during compaction.
+ * Folder of region file is synced after rename too (where platform supports it), so rename itself isn't lost on power failure.
+ * Chunk data isn't decompressed, sectors are copied as they are.
+ * <br>
+ * Region file must not be used while it is compacted, see {@link RegionFileCache#compact(int, int)} for compaction of region files of loaded world.
+ */
+public final class RegionCompactor
+{
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private RegionCompactor()
+    {
+    }
+
+    /**
+     * Compacts single region file, it must not be opened by anyone else.
+     *
+     * @param file region file to compact.
+     *
+     * @return result of compaction.
+     *
+     * @throws IOException if an I/O error occurs, old file is left untouched then.
+     */
+    public static RegionCompactionResult compact(final File file) throws IOException
+    {
+        final int[] offsets = new int[RegionFile.SECTOR_INTS];
+        final int[] timestamps = new int[RegionFile.SECTOR_INTS];
+        final int[] lengths = new int[RegionFile.SECTOR_INTS];
+        final int[] newOffsets = new int[RegionFile.SECTOR_INTS];
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final long oldSize;
+        int chunks = 0;
+        int dropped = 0;
+        int nextSector = RegionFile.HEADER_BYTES / RegionFile.SECTOR_BYTES;
+        try (final FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            oldSize = in.size();
+            final ByteBuffer header = ByteBuffer.allocate(RegionFile.HEADER_BYTES);
+            readFully(in, header, 0);
+            header.flip();
+            for (int i = 0; i < RegionFile.SECTOR_INTS; ++ i)
+            {
+                offsets[i] = header.getInt(i << 2);
+                timestamps[i] = header.getInt(RegionFile.SECTOR_BYTES + (i << 2));
+            }
+
+            // plan new layout
+            boolean compacted = true;
+            final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+            for (int i = 0; i < RegionFile.SECTOR_INTS; ++ i)
+            {
+                final int offset = offsets[i];
+                if (offset == 0)
+                {
+                    continue;
+                }
+                final int sectorNumber = offset >> 8;
+                final int numSectors = offset & 0xFF;
+                int length = - 1;
+                if ((sectorNumber >= 2) && (numSectors > 0) && ((((long) sectorNumber + numSectors) * RegionFile.SECTOR_BYTES) <= oldSize))
+                {
+                    lengthBuffer.clear();
+                    readFully(in, lengthBuffer, (long) sectorNumber * RegionFile.SECTOR_BYTES);
+                    length = lengthBuffer.getInt(0);
+                }
+                if ((length <= 0) || ((length + 4) > (numSectors * RegionFile.SECTOR_BYTES)))
+                {
+                    System.err.println("[ChunkIO] Region \"" + file + "\": dropping invalid chunk offsets[" + i + "] = " + offset + " with length " + length);
+                    dropped++;
+                    compacted = false;
+                    continue;
+                }
+                final int sectorsNeeded = ((length + 4) / RegionFile.SECTOR_BYTES) + 1;
+                lengths[i] = length;
+                newOffsets[i] = (nextSector << 8) | sectorsNeeded;
+                compacted &= newOffsets[i] == offset;
+                nextSector += sectorsNeeded;
+                chunks++;
+            }
+            final long newSize = (long) nextSector * RegionFile.SECTOR_BYTES;
+            if (compacted && (newSize == oldSize))
+            {
+                return new RegionCompactionResult(file, chunks, 0, oldSize, newSize, false);
+            }
+
+            // write compacted copy
+            try (final FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+            {
+                header.clear();
+                for (int i = 0; i < RegionFile.SECTOR_INTS; ++ i)
+                {
+                    header.putInt(i << 2, newOffsets[i]);
+                    header.putInt(RegionFile.SECTOR_BYTES + (i << 2), (newOffsets[i] == 0) ? 0 : timestamps[i]);
+                }
+                writeFully(out, header, 0);
+                final ByteBuffer padding = ByteBuffer.allocate(RegionFile.SECTOR_BYTES);
+                for (int i = 0; i < RegionFile.SECTOR_INTS; ++ i)
+                {
+                    if (newOffsets[i] == 0)
+                    {
+                        continue;
+                    }
+                    final long position = (long) (newOffsets[i] >> 8) * RegionFile.SECTOR_BYTES;
+                    final int size = lengths[i] + 4;
+                    transferFully(in, (long) (offsets[i] >> 8) * RegionFile.SECTOR_BYTES, size, out, position);
+                    padding.clear().limit(((newOffsets[i] & 0xFF) * RegionFile.SECTOR_BYTES) - size);
+                    writeFully(out, padding, position + size);
+                }
+                out.force(true);
+            } catch (final IOException e)
+            {
+                temp.delete();
+                throw e;
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+        return new RegionCompactionResult(file, chunks, dropped, oldSize, (long) nextSector * RegionFile.SECTOR_BYTES, true);
+    }
+
+    /**
+     * Compacts all region files of world, world must not be loaded.
+     *
+     * @param worldDir folder of world.
+     *
+     * @return results of compaction of each region file.
+     */
+    public static List<RegionCompactionResult> compactWorld(final File worldDir)
+    {
+        final File[] files = new File(worldDir, "region").listFiles((dir, name) -> name.endsWith(".mca"));
+        if (files == null)
+        {
+            return new ArrayList<>(0);
+        }
+        final List<RegionCompactionResult> results = new ArrayList<>(files.length);
+        for (final File file : files)
+        {
+            try
+            {
+                results.add(compact(file));
+            } catch (final IOException e)
+            {
+                System.err.println("[ChunkIO] Failed to compact region file: " + file);
+                e.printStackTrace();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compacts all region files of given worlds, it must be used only when server isn't running.
+     *
+     * @param args folders of worlds.
+     */
+    public static void main(final String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: RegionCompactor <world folder>...");
+            return;
+        }
+        for (final String arg : args)
+        {
+            long reclaimed = 0;
+            final List<RegionCompactionResult> results = compactWorld(new File(arg));
+            for (final RegionCompactionResult result : results)
+            {
+                reclaimed += result.getReclaimed();
+            }
+            System.out.println(arg + ": compacted " + results.size() + " region files, reclaimed " + reclaimed + " bytes.");
+        }
+    }
+
+    /**
+     * Syncs entry list of given folder, so rename done in it is durable.
+     * Some platforms (like Windows) can't open folders as channels, rename is only as durable as file system makes it there.
+     *
+     * @param dir folder to sync.
+     */
+    static void syncDirectory(final File dir)
+    {
+        if (dir == null)
+        {
+            return;
+        }
+        try (final FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ))
+        {
+            channel.force(true);
+        } catch (final IOException ignored)
+        {
+            // not supported by this platform or file system
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining())
+        {
+            final int read = channel.read(buffer, pos);
+            if (read == - 1)
+            {
+                // missing part of header or chunk is treated as zeros, like in RegionFile
+                while (buffer.hasRemaining())
+                {
+                    buffer.put((byte) 0);
+                }
+                return;
+            }
+            pos += read;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining())
+        {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private static void transferFully(final FileChannel in, final long position, final long count, final FileChannel out, final long target) throws IOException
+    {
+        out.position(target);
+        long done = 0;
+        while (done < count)
+        {
+            final long transferred = in.transferTo(position + done, count - done, out);
+            if (transferred <= 0)
+            {
+                throw new IOException("Unexpected end of region file at " + (position + done));
+            }
+            done += transferred;
+        }
+    }
+}
@@ -62,44 +62,70 @@ package org.diorite.impl.world.io.anvil;
 
  */
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.utils.ZlibPool;
+
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Base of region file implementations, it keeps offset and timestamp tables and allocator of sectors,
+ * implementations only provide access to the file.
+ *
+ * @see RandomAccessRegionFile
+ * @see MappedRegionFile
+ */
 @SuppressWarnings("MagicNumber")
-public class RegionFile
+public abstract class RegionFile
 {
-    private static final int VERSION_GZIP    = 1;
-    private static final int VERSION_DEFLATE = 2;
-
-    private static final int SECTOR_BYTES = 4096;
-    private static final int SECTOR_INTS  = SECTOR_BYTES / 4;
+    protected static final int VERSION_GZIP    = 1;
+    protected static final int VERSION_DEFLATE = 2;
 
-    private static final int    CHUNK_HEADER_SIZE = 5;
-    private static final byte[] emptySector       = new byte[SECTOR_BYTES];
-    private static final byte[] smallBytes        = new byte[2 << 5];
+    protected static final int SECTOR_BYTES = 4096;
+    protected static final int SECTOR_INTS  = SECTOR_BYTES / 4;
+    protected static final int HEADER_BYTES = 2 * SECTOR_BYTES;
 
-    private final RandomAccessFile   file;
-    private final int[]              offsets;
-    private final int[]              chunkTimestamps;
-    private final ArrayList<Boolean> sectorFree;
-    private       int                sizeDelta;
-    private long lastModified = 0;
+    protected static final int CHUNK_HEADER_SIZE = 5;
 
-    public RegionFile(final File path) throws IOException
+    /**
+     * Max amount of sectors read at once by {@link #getChunkData(int[])}.
+     */
+    protected static final int MAX_BATCH_SECTORS = 256;
+    /**
+     * Max amount of unused sectors between two chunks that are still read at once by {@link #getChunkData(int[])},
+     * reading few more sectors is cheaper than another read call.
+     */
+    protected static final int MAX_BATCH_GAP     = 4;
+
+    protected final File               path;
+    protected final int[]              offsets;
+    protected final int[]              chunkTimestamps;
+    protected       SectorAllocator    sectors;
+    protected       int                sizeDelta;
+    protected long lastModified = 0;
+    protected volatile int compressionLevel = Deflater.BEST_SPEED;
+    protected RegionSyncPolicy syncPolicy       = RegionSyncPolicy.PER_CYCLE;
+    protected RegionIoStats    stats            = new RegionIoStats();
+    protected boolean          headerDirty; // offset or timestamp table was changed since last sync
+    private   long[]           pendingFree      = new long[16]; // sectors of old chunk data (packed start and count), freed on next sync
+    private   int              pendingFreeCount = 0;
+
+    protected RegionFile(final File path)
     {
+        this.path = path;
         this.offsets = new int[SECTOR_INTS];
         this.chunkTimestamps = new int[SECTOR_INTS];
 
@@ -109,115 +135,80 @@ public class RegionFile
         {
             this.lastModified = path.lastModified();
         }
+    }
 
-        this.file = new RandomAccessFile(path, "rw");
-
-        // seek to the end to prepare size checking
-        this.file.seek(this.file.length());
-
-        // if the file size is under 8KB, grow it (4K chunk offset table, 4K timestamp table)
-        if (this.file.length() < (2 * SECTOR_BYTES))
-        {
-            this.sizeDelta += (2 * SECTOR_BYTES) - this.file.length();
-            if (this.lastModified != 0)
-            {
-                // only give a warning if the region file existed beforehand
-                System.err.println("[ChunkIO] Region \"" + path + "\" under 8K: " + this.file.length() + " increasing by " + (2 * SECTOR_BYTES - this.file.length()));
-            }
-            final long i = this.file.length();
-            if (i < (2 * SECTOR_BYTES))
-            {
-                long j = (2 * SECTOR_BYTES) - i;
-                while (j >= emptySector.length)
-                {
-                    this.file.write(emptySector);
-                    j -= emptySector.length;
-                }
-                while (j >= smallBytes.length)
-                {
-                    this.file.write(smallBytes);
-                    j -= smallBytes.length;
-                }
-                if (j > 0)
-                {
-                    this.file.write(new byte[(int) j]);
-                }
-            }
-//            for (long i = this.file.length(); i < (2 * SECTOR_BYTES); ++ i)
-//            {
-//                this.file.write(0);
-//            }
-        }
-
-        // if the file size is not a multiple of 4KB, grow it
-        if ((this.file.length() & 0xfff) != 0)
-        {
-            this.sizeDelta += SECTOR_BYTES - (this.file.length() & 0xfff);
-            System.err.println("[ChunkIO] Region \"" + path + "\" not aligned: " + this.file.length() + " increasing by " + (SECTOR_BYTES - (this.file.length() & 0xfff)));
-            final long i = this.file.length() & 0xfff;
-
-            if (i < SECTOR_BYTES)
-            {
-                long j = SECTOR_BYTES - i;
-                while (j >= emptySector.length)
-                {
-                    this.file.write(emptySector);
-                    j -= emptySector.length;
-                }
-                while (j >= smallBytes.length)
-                {
-                    this.file.write(smallBytes);
-                    j -= smallBytes.length;
-                }
-                if (j > 0)
-                {
-                    this.file.write(new byte[(int) j]);
-                }
-            }
-//            for (long i = this.file.length() & 0xfff; i < SECTOR_BYTES; ++ i)
-//            {
-//                this.file.write(0);
-//            }
-        }
+    /**
+     * Opens region file.
+     *
+     * @param path   path to region file.
+     * @param mapped if true, file will be accessed using memory mapped buffers, see {@link MappedRegionFile}.
+     *
+     * @return opened region file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static RegionFile open(final File path, final boolean mapped) throws IOException
+    {
+        return mapped ? new MappedRegionFile(path) : new RandomAccessRegionFile(path);
+    }
 
-        // set up the available sector map
-        final int nSectors = (int) (this.file.length() / SECTOR_BYTES);
-        this.sectorFree = new ArrayList<>(nSectors);
-        for (int i = 0; i < nSectors; ++ i)
-        {
-            this.sectorFree.add(true);
-        }
+    /**
+     * Opens existing region file as read-only, file is never changed and every write fails.
+     *
+     * @param path path to region file.
+     *
+     * @return opened region file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static RegionFile openReadOnly(final File path) throws IOException
+    {
+        return new RandomAccessRegionFile(path, true);
+    }
 
-        this.sectorFree.set(0, false); // chunk offset table
-        this.sectorFree.set(1, false); // for the last modified info
+    /**
+     * Sets up the available sector map, offsets must be already read.
+     *
+     * @param nSectors amount of sectors in file.
+     */
+    protected void initSectors(final int nSectors)
+    {
+        this.sectors = new SectorAllocator(nSectors);
+        this.sectors.markUsed(0, 2); // chunk offset table and last modified info
 
-        // read offsets from offset table
-        this.file.seek(0);
         for (int i = 0; i < SECTOR_INTS; ++ i)
         {
-            final int offset = this.file.readInt();
-            this.offsets[i] = offset;
-
+            final int offset = this.offsets[i];
             final int startSector = (offset >> 8);
             final int numSectors = (offset & 0xff);
 
-            if ((offset != 0) && (startSector >= 0) && ((startSector + numSectors) <= this.sectorFree.size()))
+            if ((offset != 0) && (startSector >= 0) && ((startSector + numSectors) <= this.sectors.size()))
             {
-                for (int sectorNum = 0; sectorNum < numSectors; ++ sectorNum)
-                {
-                    this.sectorFree.set(startSector + sectorNum, false);
-                }
+                this.sectors.markUsed(startSector, numSectors);
             }
             else if (offset != 0)
             {
-                System.err.println("[ChunkIO] Region \"" + path + "\": offsets[" + i + "] = " + offset + " -> " + startSector + "," + numSectors + " does not fit");
+                System.err.println("[ChunkIO] Region \"" + this.path + "\": offsets[" + i + "] = " + offset + " -> " + startSector + "," + numSectors + " does not fit");
             }
         }
-        // read timestamps from timestamp table
-        for (int i = 0; i < SECTOR_INTS; ++ i)
-        {
-            this.chunkTimestamps[i] = this.file.readInt();
-        }
+    }
+
+    /**
+     * Returns current usage of sectors of this region file.
+     *
+     * @return fragmentation report of this region file.
+     */
+    public synchronized RegionFragmentationReport getFragmentationReport()
+    {
+        return new RegionFragmentationReport(this.path, this.sectors);
+    }
+
+    /**
+     * @return path to this region file.
+     */
+    public File getPath()
+    {
+        return this.path;
     }
 
     /* the modification date of the region file when it was first opened */
@@ -236,9 +227,10 @@ public class RegionFile
 
     /*
      * gets an (uncompressed) stream representing the chunk data returns null if
-     * the chunk is not found or an error occurs
+     * the chunk is not found or an error occurs, stream must be closed to release
+     * pooled inflater
      */
-    public DataInputStream getChunkDataInputStream(final int x, final int z) throws IOException
+    public synchronized DataInputStream getChunkDataInputStream(final int x, final int z) throws IOException
     {
         this.checkBounds(x, z);
 
@@ -251,39 +243,191 @@ public class RegionFile
 
         final int sectorNumber = offset >> 8;
         final int numSectors = offset & 0xFF;
-        if ((sectorNumber + numSectors) > this.sectorFree.size())
+        if (sectorNumber < 2)
+        {
+            // corrupted header entry pointing to header itself (or negative sector), treated as missing chunk
+            return null;
+        }
+        if ((sectorNumber + numSectors) > this.sectors.size())
+        {
+            throw new IOException("Invalid sector: " + sectorNumber + "+" + numSectors + " > " + this.sectors.size());
+        }
+        return this.readChunk(sectorNumber, numSectors);
+    }
+
+    /**
+     * Creates stream of chunk data stored in given sectors.
+     *
+     * @param sectorNumber first sector of chunk.
+     * @param numSectors   amount of sectors used by chunk.
+     *
+     * @return uncompressed stream of chunk data.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract DataInputStream readChunk(int sectorNumber, int numSectors) throws IOException;
+
+    /**
+     * Reads compressed data of many chunks at once. Chunks are read in order of their sectors in file,
+     * and chunks stored in adjacent (or nearly adjacent) sectors are read by single call, see {@link #readSectors(int, int)}.
+     * Data can be decompressed later, by any thread, using {@link #openChunkData(ByteBuffer)}, so pooled inflater is used only
+     * while chunk is decoded.
+     *
+     * @param indexes indexes of chunks in region ({@code x + (z * 32)}).
+     *
+     * @return compressed data of chunks, in order of given indexes, null for chunks that don't exist or have header entry pointing to header sectors.
+     *
+     * @throws IOException if an I/O error occurs or any of chunks is invalid.
+     */
+    public synchronized ByteBuffer[] getChunkData(final int[] indexes) throws IOException
+    {
+        // offset of chunk in upper half, and position in indexes array in lower one, so sorting orders chunks by sectors
+        final long[] order = new long[indexes.length];
+        int count = 0;
+        for (int i = 0; i < indexes.length; ++ i)
         {
-            throw new IOException("Invalid sector: " + sectorNumber + "+" + numSectors + " > " + this.sectorFree.size());
+            final int offset = this.offsets[indexes[i]];
+            if (offset == 0)
+            {
+                continue;
+            }
+            final int sectorNumber = offset >> 8;
+            final int numSectors = offset & 0xFF;
+            if (sectorNumber < 2)
+            {
+                // corrupted header entry pointing to header itself (or negative sector), treated as missing chunk
+                continue;
+            }
+            if ((sectorNumber + numSectors) > this.sectors.size())
+            {
+                throw new IOException("Invalid sector: " + sectorNumber + "+" + numSectors + " > " + this.sectors.size());
+            }
+            order[count++] = ((long) offset << 32) | i;
         }
+        Arrays.sort(order, 0, count);
 
-        this.file.seek(sectorNumber * SECTOR_BYTES);
-        final int length = this.file.readInt();
-        if (length > (SECTOR_BYTES * numSectors))
+        final ByteBuffer[] result = new ByteBuffer[indexes.length];
+        int i = 0;
+        while (i < count)
         {
-            throw new IOException("Invalid length: " + length + " > " + (SECTOR_BYTES * numSectors));
+            final int start = (int) (order[i] >>> 40);
+            int end = start + ((int) (order[i] >>> 32) & 0xFF);
+            int j = i + 1;
+            for (; j < count; ++ j)
+            {
+                final int offset = (int) (order[j] >>> 32);
+                final int next = (offset >> 8) + (offset & 0xFF);
+                if ((((offset >> 8) - end) > MAX_BATCH_GAP) || ((next - start) > MAX_BATCH_SECTORS))
+                {
+                    break;
+                }
+                end = Math.max(end, next);
+            }
+            final ByteBuffer run = this.readSectors(start, end - start);
+            for (; i < j; ++ i)
+            {
+                final int offset = (int) (order[i] >>> 32);
+                result[(int) order[i]] = sliceChunk(run, ((offset >> 8) - start) * SECTOR_BYTES, offset & 0xFF);
+            }
         }
+        return result;
+    }
 
-        final byte version = this.file.readByte();
+    /**
+     * Creates uncompressed stream of chunk data returned by {@link #getChunkData(int[])},
+     * stream must be closed to release pooled inflater.
+     *
+     * @param data compressed data of chunk.
+     *
+     * @return uncompressed stream of chunk data.
+     *
+     * @throws IOException if compression type of chunk is unknown.
+     */
+    public static DataInputStream openChunkData(final ByteBuffer data) throws IOException
+    {
+        final ByteBuffer buffer = data.duplicate();
+        final byte version = buffer.get();
+        return decompress(version, new ByteBufInputStream(Unpooled.wrappedBuffer(buffer.slice())));
+    }
+
+    private static ByteBuffer sliceChunk(final ByteBuffer run, final int position, final int numSectors) throws IOException
+    {
+        final ByteBuffer buffer = run.duplicate();
+        if ((position + CHUNK_HEADER_SIZE) > buffer.limit())
+        {
+            throw new IOException("Chunk at " + position + " is outside of file");
+        }
+        buffer.position(position);
+        final int length = buffer.getInt();
+        if ((length <= 0) || (length > (SECTOR_BYTES * numSectors)) || (length > buffer.remaining()))
+        {
+            throw new IOException("Invalid length: " + length + " > " + Math.min(SECTOR_BYTES * numSectors, buffer.remaining()));
+        }
+
+        // version of compression and compressed data
+        buffer.limit(buffer.position() + length);
+        return buffer.slice();
+    }
+
+    /**
+     * Reads given range of sectors at once, buffer may be shorter than requested range if file ends earlier.
+     *
+     * @param sectorNumber first sector to read.
+     * @param numSectors   amount of sectors to read.
+     *
+     * @return buffer with data of sectors, positioned at start of first sector, it can't be changed by later writes to this file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract ByteBuffer readSectors(int sectorNumber, int numSectors) throws IOException;
+
+    protected static DataInputStream decompress(final byte version, final InputStream data) throws IOException
+    {
         if (version == VERSION_GZIP)
         {
-            final byte[] data = new byte[length - 1];
-            this.file.read(data);
-            return new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+            return new DataInputStream(new GZIPInputStream(data));
         }
         if (version == VERSION_DEFLATE)
         {
-            final byte[] data = new byte[length - 1];
-            this.file.read(data);
-            return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+            return new DataInputStream(ZlibPool.getInstance().inflate(data));
         }
 
         throw new IOException("Unknown version: " + version);
     }
 
+    /**
+     * Creates stream for chunk data, data is compressed and written to file when stream is closed.
+     * Stream must be always closed, as it uses pooled deflater, see {@link ZlibPool}.
+     *
+     * @param x x coordinate of chunk in region.
+     * @param z z coordinate of chunk in region.
+     *
+     * @return stream for chunk data.
+     */
     public DataOutputStream getChunkDataOutputStream(final int x, final int z)
     {
         this.checkBounds(x, z);
-        return new DataOutputStream(new DeflaterOutputStream(new ChunkBuffer(x, z), new Deflater(Deflater.BEST_SPEED)));
+        return new DataOutputStream(ZlibPool.getInstance().deflate(new ChunkBuffer(x, z), this.compressionLevel));
+    }
+
+    /**
+     * @return level of compression of written chunks.
+     */
+    public int getCompressionLevel()
+    {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel level of compression of written chunks, from 0 to 9, or -1 for default zlib level.
+     */
+    public void setCompressionLevel(final int compressionLevel)
+    {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
     }
 
     /*
@@ -321,7 +465,7 @@ public class RegionFile
     }
 
     /* write a chunk at (x,z) with length bytes of data to disk */
-    protected void write(final int x, final int z, final byte[] data, final int length) throws IOException
+    protected synchronized void write(final int x, final int z, final byte[] data, final int length) throws IOException
     {
         final int offset = this.getOffset(x, z);
         int sectorNumber = offset >> 8;
@@ -337,133 +481,183 @@ public class RegionFile
         if ((sectorNumber != 0) && (sectorsAllocated == sectorsNeeded))
         {
             /* we can simply overwrite the old sectors */
-            this.write(sectorNumber, data, length);
+            this.writeSectors(sectorNumber, data, length);
         }
         else
         {
             /* we need to allocate new sectors */
 
-            /* mark the sectors previously used for this chunk as free */
-            for (int i = 0; i < sectorsAllocated; ++ i)
+            /*
+             * sectors previously used for this chunk are freed on next sync, as header on disk
+             * still points to them, and they can't be overwritten by other chunk until header is written
+             */
+            if (sectorNumber != 0)
             {
-                this.sectorFree.set(sectorNumber + i, true);
+                this.freeOnSync(sectorNumber, sectorsAllocated);
             }
 
-            /* scan for a free space large enough to store this chunk */
-            int runStart = this.sectorFree.indexOf(true);
-            int runLength = 0;
-            if (runStart != - 1)
-            {
-                for (int i = runStart; i < this.sectorFree.size(); ++ i)
-                {
-                    if (runLength != 0)
-                    {
-                        if (this.sectorFree.get(i))
-                        {
-                            runLength++;
-                        }
-                        else
-                        {
-                            runLength = 0;
-                        }
-                    }
-                    else if (this.sectorFree.get(i))
-                    {
-                        runStart = i;
-                        runLength = 1;
-                    }
-                    if (runLength >= sectorsNeeded)
-                    {
-                        break;
-                    }
-                }
-            }
-
-            if (runLength >= sectorsNeeded)
-            {
-                /* we found a free space large enough */
-                sectorNumber = runStart;
-                this.setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
-                for (int i = 0; i < sectorsNeeded; ++ i)
-                {
-                    this.sectorFree.set(sectorNumber + i, false);
-                }
-                this.write(sectorNumber, data, length);
-            }
-            else
+            /* find smallest free space large enough to store this chunk */
+            sectorNumber = this.sectors.allocate(sectorsNeeded);
+            if (sectorNumber == - 1)
             {
                 /*
                  * no free space large enough found -- we need to grow the
-                 * file
+                 * file, free sectors at the end of file are merged with added ones
                  */
-                this.file.seek(this.file.length());
-                sectorNumber = this.sectorFree.size();
-                for (int i = 0; i < sectorsNeeded; ++ i)
-                {
-                    this.file.write(emptySector);
-                    this.sectorFree.add(false);
-                }
-                this.sizeDelta += SECTOR_BYTES * sectorsNeeded;
-
-                this.write(sectorNumber, data, length);
-                this.setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
+                final int added = this.grow(sectorsNeeded);
+                this.sectors.grow(added);
+                this.sizeDelta += SECTOR_BYTES * added;
+                sectorNumber = this.sectors.allocate(sectorsNeeded);
             }
+
+            this.writeSectors(sectorNumber, data, length);
+            this.offsets[(x + (z << 5))] = (sectorNumber << 8) | sectorsNeeded;
+        }
+        this.chunkTimestamps[(x + (z << 5))] = (int) (System.currentTimeMillis() / 1000L);
+        this.headerDirty = true;
+        if (this.syncPolicy == RegionSyncPolicy.PER_CHUNK)
+        {
+            this.sync();
         }
-        this.setTimestamp(x, z, (int) (System.currentTimeMillis() / 1000L));
-        //file.getChannel().force(true);
     }
 
-    /* write a chunk data to the region file at specified sector number */
-    private void write(final int sectorNumber, final byte[] data, final int length) throws IOException
+    /**
+     * Writes header (offset and timestamp tables) if it was changed, and syncs file to disk if required by {@link RegionSyncPolicy}.
+     * Chunk data is synced before header, so header on disk never points to data that isn't written yet.
+     * Sectors of old data of rewritten chunks can be reused after this call.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void sync() throws IOException
     {
-        this.file.seek(sectorNumber * SECTOR_BYTES);
-        this.file.writeInt(length + 1); // chunk length
-        this.file.writeByte(VERSION_DEFLATE); // chunk version number
-        this.file.write(data, 0, length); // chunk data
+        if (! this.headerDirty)
+        {
+            return;
+        }
+        final boolean force = this.syncPolicy != RegionSyncPolicy.NONE;
+        if (force)
+        {
+            this.force();
+        }
+        this.writeHeader();
+        if (force)
+        {
+            this.force();
+        }
+        this.headerDirty = false;
+        for (int i = 0; i < this.pendingFreeCount; ++ i)
+        {
+            this.sectors.free((int) (this.pendingFree[i] >>> 32), (int) this.pendingFree[i]);
+        }
+        this.pendingFreeCount = 0;
     }
 
-    /* is this an invalid chunk coordinate? */
-    private void checkBounds(final int x, final int z)
+    private void freeOnSync(final int sectorNumber, final int count)
     {
-        if ((x < 0) || (x >= 32) || (z < 0) || (z >= 32))
+        if (this.pendingFreeCount == this.pendingFree.length)
         {
-            throw new IllegalArgumentException("Chunk out of bounds: (" + x + ", " + z + ")");
+            this.pendingFree = Arrays.copyOf(this.pendingFree, this.pendingFreeCount << 1);
         }
+        this.pendingFree[this.pendingFreeCount++] = ((long) sectorNumber << 32) | count;
     }
 
-    private int getOffset(final int x, final int z)
+    /**
+     * @return policy of syncing this region file.
+     */
+    public synchronized RegionSyncPolicy getSyncPolicy()
     {
-        return this.offsets[(x + (z << 5))];
+        return this.syncPolicy;
     }
 
-    public boolean hasChunk(final int x, final int z)
+    /**
+     * @param syncPolicy policy of syncing this region file.
+     */
+    public synchronized void setSyncPolicy(final RegionSyncPolicy syncPolicy)
     {
-        return this.getOffset(x, z) != 0;
+        this.syncPolicy = syncPolicy;
     }
 
-    private void setOffset(final int x, final int z, final int offset) throws IOException
+    /**
+     * @return counters of system calls of this region file.
+     */
+    public RegionIoStats getStats()
     {
-        this.offsets[(x + (z << 5))] = offset;
-        this.file.seek((x + (z << 5)) >> 1);
-        this.file.writeInt(offset);
+        return this.stats;
     }
 
-    private void setTimestamp(final int x, final int z, final int value) throws IOException
+    /**
+     * @param stats counters of system calls, it may be shared by many region files.
+     */
+    public synchronized void setStats(final RegionIoStats stats)
     {
-        this.chunkTimestamps[(x + (z << 5))] = value;
-        this.file.seek(SECTOR_BYTES + ((x + (z << 5)) << 2));
-        this.file.writeInt(value);
+        this.stats = stats;
     }
 
-    public void close() throws IOException
+    /**
+     * Appends empty sectors to the end of file.
+     *
+     * @param sectors minimal amount of sectors to add.
+     *
+     * @return amount of sectors added, at least given amount.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract int grow(int sectors) throws IOException;
+
+    /**
+     * Writes chunk data (with chunk header) to the region file at specified sector number.
+     *
+     * @param sectorNumber first sector of chunk.
+     * @param data         compressed chunk data.
+     * @param length       length of data.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract void writeSectors(int sectorNumber, byte[] data, int length) throws IOException;
+
+    /**
+     * Writes whole header (offset and timestamp tables) at once.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract void writeHeader() throws IOException;
+
+    /**
+     * Forces all written data (chunks and header) to disk.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    protected abstract void force() throws IOException;
+
+    /* is this an invalid chunk coordinate? */
+    private void checkBounds(final int x, final int z)
+    {
+        if ((x < 0) || (x >= 32) || (z < 0) || (z >= 32))
+        {
+            throw new IllegalArgumentException("Chunk out of bounds: (" + x + ", " + z + ")");
+        }
+    }
+
+    private int getOffset(final int x, final int z)
+    {
+        return this.offsets[(x + (z << 5))];
+    }
+
+    public synchronized boolean hasChunk(final int x, final int z)
     {
-        this.file.getChannel().force(true);
-        this.file.close();
+        return this.getOffset(x, z) != 0;
     }
 
+    /**
+     * Writes header if needed (see {@link #sync()}) and closes this region file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public abstract void close() throws IOException;
+
     @Override
     public String toString()
     {
-        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("file", this.file).append("sizeDelta", this.sizeDelta).append("lastModified", this.lastModified).toString();
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("path", this.path).append("sizeDelta", this.sizeDelta).append("lastModified", this.lastModified).toString();
     }
 }
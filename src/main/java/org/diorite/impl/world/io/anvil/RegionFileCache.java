@@ -29,75 +29,481 @@ package org.diorite.impl.world.io.anvil;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.utils.math.pack.IntsToLong;
+
 /**
- * A simple cache and wrapper for efficiently accessing multiple RegionFiles
- * simultaneously.
+ * A thread-safe cache for efficiently accessing multiple RegionFiles simultaneously.
+ * <br>
+ * Regions are keyed by packed region coordinates, and when cache is full only least recently used region
+ * that isn't used by any thread is closed. Region must be acquired before use and released after it,
+ * see {@link #acquire(int, int)}, so it can't be closed while some thread is using it.
  */
 public class RegionFileCache
 {
-    private static final int MAX_CACHE_SIZE = 256;
+    /**
+     * Default max amount of open region files.
+     */
+    public static final int DEFAULT_MAX_CACHE_SIZE = 256;
+
+    private final Map<Long, RegionHandle> cache = new ConcurrentHashMap<>(64, 0.75f, 4);
+    private final AtomicLong              clock = new AtomicLong();
 
-    private final Map<File, Reference<RegionFile>> cache = new HashMap<>(50);
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
 
-    private final String extension;
-    private final File   regionDir;
+    private final String  extension;
+    private final File    regionDir;
+    private final boolean mapped;
+    private final int     maxCacheSize;
+    private volatile int              compressionLevel = Deflater.BEST_SPEED;
+    private volatile RegionSyncPolicy syncPolicy       = RegionSyncPolicy.PER_CYCLE;
+    private final    RegionIoStats    stats            = new RegionIoStats();
 
     public RegionFileCache(final File basePath, final String extension)
     {
-        this.extension = extension;
-        this.regionDir = new File(basePath, "region");
+        this(basePath, extension, false);
     }
 
-    public RegionFile getRegionFile(final int chunkX, final int chunkZ) throws IOException
+    public RegionFileCache(final File basePath, final String extension, final boolean mapped)
     {
-        final File file = new File(this.regionDir, "r." + (chunkX >> 5) + "." + (chunkZ >> 5) + this.extension);
+        this(basePath, extension, mapped, DEFAULT_MAX_CACHE_SIZE);
+    }
 
-        final Reference<RegionFile> ref = this.cache.get(file);
+    /**
+     * Construct new region file cache.
+     *
+     * @param basePath     folder of world.
+     * @param extension    extension of region files.
+     * @param mapped       if region files should be accessed using memory mapped buffers, see {@link MappedRegionFile}.
+     * @param maxCacheSize max amount of open region files.
+     */
+    public RegionFileCache(final File basePath, final String extension, final boolean mapped, final int maxCacheSize)
+    {
+        this.extension = extension;
+        this.regionDir = new File(basePath, "region");
+        this.mapped = mapped;
+        this.maxCacheSize = Math.max(1, maxCacheSize);
+    }
 
-        if ((ref != null) && (ref.get() != null))
+    /**
+     * Acquires region file of given chunk, opening it if needed.
+     * Returned handle must be closed after use, region isn't closed by cache until all handles of it are closed.
+     *
+     * @param chunkX x coordinate of chunk.
+     * @param chunkZ z coordinate of chunk.
+     *
+     * @return handle of region file.
+     *
+     * @throws IOException if region file can't be opened.
+     */
+    public RegionHandle acquire(final int chunkX, final int chunkZ) throws IOException
+    {
+        final long key = IntsToLong.pack(chunkX >> 5, chunkZ >> 5);
+        while (true)
         {
-            return ref.get();
+            RegionHandle handle = this.cache.get(key);
+            if (handle == null)
+            {
+                final RegionHandle[] created = new RegionHandle[1];
+                try
+                {
+                    handle = this.cache.computeIfAbsent(key, k -> created[0] = this.open(k));
+                } catch (final UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+                if (handle == created[0])
+                {
+                    // new region is already acquired by this thread, so it can't be evicted before it is used
+                    this.evictIfNeeded();
+                    return handle;
+                }
+            }
+            synchronized (handle)
+            {
+                if (handle.closed)
+                {
+                    continue; // region was just evicted, it must be opened again
+                }
+                handle.users++;
+                handle.lastUsed = this.clock.incrementAndGet();
+            }
+            this.hits.incrementAndGet();
+            return handle;
         }
+    }
 
+    private RegionHandle open(final long key)
+    {
         if (! this.regionDir.isDirectory() && ! this.regionDir.mkdirs())
         {
             System.err.println("[WorldIO] Failed to create directory: " + this.regionDir);
         }
+        final File file = new File(this.regionDir, "r." + IntsToLong.getA(key) + "." + IntsToLong.getB(key) + this.extension);
+        try
+        {
+            final RegionFile region = RegionFile.open(file, this.mapped);
+            region.setCompressionLevel(this.compressionLevel);
+            region.setSyncPolicy(this.syncPolicy);
+            region.setStats(this.stats);
+            final RegionHandle handle = new RegionHandle(key, region);
+            handle.users = 1;
+            handle.lastUsed = this.clock.incrementAndGet();
+            this.misses.incrementAndGet();
+            return handle;
+        } catch (final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void evictIfNeeded()
+    {
+        while (this.cache.size() > this.maxCacheSize)
+        {
+            RegionHandle victim = null;
+            for (final RegionHandle handle : this.cache.values())
+            {
+                if ((handle.users == 0) && ((victim == null) || (handle.lastUsed < victim.lastUsed)))
+                {
+                    victim = handle;
+                }
+            }
+            if (victim == null)
+            {
+                return; // all regions are in use, cache will shrink on next miss
+            }
+            synchronized (victim)
+            {
+                if ((victim.users != 0) || victim.closed)
+                {
+                    continue;
+                }
+                victim.closed = true;
+                // region is closed (and its header synced) before it leaves the map, so the same file can't be opened again
+                // (with stale offsets and sectors) until this instance is done with it, threads acquiring it wait for this lock
+                try
+                {
+                    victim.region.close();
+                } catch (final IOException e)
+                {
+                    System.err.println("[ChunkIO] Failed to close region file: " + victim.region);
+                    e.printStackTrace();
+                } finally
+                {
+                    this.cache.remove(victim.key, victim);
+                }
+            }
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return level of compression of chunks written to region files.
+     */
+    public int getCompressionLevel()
+    {
+        return this.compressionLevel;
+    }
+
+    /**
+     * Sets level of compression of chunks written to region files, it is also applied to region files that are already open.
+     *
+     * @param compressionLevel compression level, from 0 to 9, or -1 for default zlib level.
+     */
+    public void setCompressionLevel(final int compressionLevel)
+    {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        for (final RegionHandle handle : this.cache.values())
+        {
+            handle.region.setCompressionLevel(compressionLevel);
+        }
+    }
+
+    /**
+     * @return policy of syncing region files.
+     */
+    public RegionSyncPolicy getSyncPolicy()
+    {
+        return this.syncPolicy;
+    }
+
+    /**
+     * Sets policy of syncing region files, it is also applied to region files that are already open.
+     *
+     * @param syncPolicy policy of syncing region files.
+     */
+    public void setSyncPolicy(final RegionSyncPolicy syncPolicy)
+    {
+        this.syncPolicy = syncPolicy;
+        for (final RegionHandle handle : this.cache.values())
+        {
+            handle.region.setSyncPolicy(syncPolicy);
+        }
+    }
+
+    /**
+     * @return counters of system calls used to write region files of this cache.
+     */
+    public RegionIoStats getStats()
+    {
+        return this.stats;
+    }
+
+    /**
+     * Writes changed headers of all open region files, and syncs them if required by sync policy, see {@link RegionFile#sync()}.
+     * Regions that are closed by cache are synced on close.
+     *
+     * @return true if all regions were synced, false if sync of any region failed (failures are logged).
+     */
+    public boolean sync()
+    {
+        boolean synced = true;
+        for (final RegionHandle handle : this.cache.values())
+        {
+            try
+            {
+                handle.region.sync();
+            } catch (final IOException e)
+            {
+                synced = false;
+                System.err.println("[ChunkIO] Failed to sync region file: " + handle.region);
+                e.printStackTrace();
+            }
+        }
+        return synced;
+    }
+
+    /**
+     * @return amount of open region files.
+     */
+    public int size()
+    {
+        return this.cache.size();
+    }
+
+    /**
+     * @return amount of region lookups that found already open region file.
+     */
+    public long getHits()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return amount of region lookups that needed to open region file.
+     */
+    public long getMisses()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return amount of region files closed because cache was full.
+     */
+    public long getEvictions()
+    {
+        return this.evictions.get();
+    }
+
+    /**
+     * Returns fragmentation reports of all region files that are currently open.
+     *
+     * @return fragmentation reports of open region files.
+     */
+    public Collection<RegionFragmentationReport> getFragmentationReports()
+    {
+        final Collection<RegionFragmentationReport> reports = new ArrayList<>(this.cache.size());
+        for (final RegionHandle handle : this.cache.values())
+        {
+            reports.add(handle.region.getFragmentationReport());
+        }
+        return reports;
+    }
 
-        if (this.cache.size() >= MAX_CACHE_SIZE)
+    /**
+     * Compacts region file, see {@link RegionCompactor}. Region is opened if needed, and it is closed for time of compaction,
+     * threads that try to acquire it wait until compaction is done.
+     *
+     * @param regionX x coordinate of region.
+     * @param regionZ z coordinate of region.
+     *
+     * @return result of compaction, or null if region is used by other thread.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public RegionCompactionResult compact(final int regionX, final int regionZ) throws IOException
+    {
+        // acquired region can't be evicted or opened by other thread, they will wait for lock of handle
+        final RegionHandle handle = this.acquire(regionX << 5, regionZ << 5);
+        synchronized (handle)
         {
-            this.clear();
+            handle.users--;
+            if (handle.users != 0)
+            {
+                return null;
+            }
+            handle.closed = true;
+            try
+            {
+                handle.region.close();
+                return RegionCompactor.compact(handle.region.getPath());
+            } finally
+            {
+                this.cache.remove(handle.key, handle);
+            }
         }
+    }
 
-        final RegionFile reg = new RegionFile(file);
-        this.cache.put(file, new SoftReference<>(reg));
-        return reg;
+    /**
+     * Compacts open region files that aren't used by any thread, if they have enough free space.
+     *
+     * @param minWastedSpace min part of file (from 0 to 1) that must be wasted by free sectors to compact it,
+     *                       see {@link RegionFragmentationReport#getWastedSpace()}.
+     *
+     * @return results of compaction of compacted regions.
+     */
+    public List<RegionCompactionResult> compactIdle(final double minWastedSpace)
+    {
+        final List<RegionCompactionResult> results = new ArrayList<>(4);
+        for (final RegionHandle handle : this.cache.values())
+        {
+            if ((handle.users != 0) || (handle.region.getFragmentationReport().getWastedSpace() < minWastedSpace))
+            {
+                continue;
+            }
+            this.compact(handle.key, results);
+        }
+        return results;
     }
 
+    /**
+     * Compacts all region files of world (also these that aren't open), skipping regions that are used by other threads.
+     *
+     * @return results of compaction of compacted regions.
+     */
+    public List<RegionCompactionResult> compactAll()
+    {
+        final File[] files = this.regionDir.listFiles((dir, name) -> name.startsWith("r.") && name.endsWith(this.extension));
+        if (files == null)
+        {
+            return new ArrayList<>(0);
+        }
+        final List<RegionCompactionResult> results = new ArrayList<>(files.length);
+        for (final File file : files)
+        {
+            final String[] parts = file.getName().split("\\.");
+            try
+            {
+                this.compact(IntsToLong.pack(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])), results);
+            } catch (final NumberFormatException | ArrayIndexOutOfBoundsException e)
+            {
+                System.err.println("[ChunkIO] Skipping compaction of file with invalid name: " + file);
+            }
+        }
+        return results;
+    }
+
+    private void compact(final long key, final Collection<RegionCompactionResult> results)
+    {
+        try
+        {
+            final RegionCompactionResult result = this.compact(IntsToLong.getA(key), IntsToLong.getB(key));
+            if (result != null)
+            {
+                results.add(result);
+            }
+        } catch (final IOException e)
+        {
+            System.err.println("[ChunkIO] Failed to compact region file: r." + IntsToLong.getA(key) + "." + IntsToLong.getB(key) + this.extension);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes all region files, it should be only used when no other thread is using this cache.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
     public void clear() throws IOException
     {
-        for (final Reference<RegionFile> ref : this.cache.values())
+        for (final RegionHandle handle : this.cache.values())
         {
-            final RegionFile value = ref.get();
-            if (value != null)
+            synchronized (handle)
             {
-                value.close();
+                handle.closed = true;
+                try
+                {
+                    handle.region.close();
+                } finally
+                {
+                    this.cache.remove(handle.key, handle);
+                }
             }
         }
-        this.cache.clear();
     }
 
     @Override
     public String toString()
     {
-        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("extension", this.extension).append("regionDir", this.regionDir).toString();
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("extension", this.extension).append("regionDir", this.regionDir).append("mapped", this.mapped).append("compressionLevel", this.compressionLevel).append("syncPolicy", this.syncPolicy).append("size", this.cache.size()).append("hits", this.hits.get()).append("misses", this.misses.get()).append("evictions", this.evictions.get()).toString();
+    }
+
+    /**
+     * Acquired region file, see {@link #acquire(int, int)}.
+     */
+    public static final class RegionHandle implements AutoCloseable
+    {
+        private final    long       key;
+        private final    RegionFile region;
+        private          int        users; // guarded by this
+        private          boolean    closed; // guarded by this
+        private volatile long       lastUsed;
+
+        private RegionHandle(final long key, final RegionFile region)
+        {
+            this.key = key;
+            this.region = region;
+        }
+
+        /**
+         * @return acquired region file.
+         */
+        public RegionFile getRegion()
+        {
+            return this.region;
+        }
+
+        /**
+         * Releases region file, after that it can be closed by cache.
+         */
+        @Override
+        public synchronized void close()
+        {
+            this.users--;
+        }
+
+        @Override
+        public String toString()
+        {
+            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("region", this.region).append("users", this.users).toString();
+        }
     }
 }
@@ -0,0 +1,99 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.File;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Snapshot of sector usage of single region file, see {@link RegionFile#getFragmentationReport()}.
+ */
+public class RegionFragmentationReport
+{
+    private final File   path;
+    private final int    sectors;
+    private final int    freeSectors;
+    private final int    freeRuns;
+    private final int    largestFreeRun;
+    private final double fragmentation;
+
+    public RegionFragmentationReport(final File path, final SectorAllocator allocator)
+    {
+        this.path = path;
+        this.sectors = allocator.size();
+        this.freeSectors = allocator.getFreeSectors();
+        this.freeRuns = allocator.getFreeRuns();
+        this.largestFreeRun = allocator.getLargestFreeRun();
+        this.fragmentation = allocator.getFragmentation();
+    }
+
+    /**
+     * @return path to region file.
+     */
+    public File getPath()
+    {
+        return this.path;
+    }
+
+    /**
+     * @return amount of sectors in file, including header.
+     */
+    public int getSectors()
+    {
+        return this.sectors;
+    }
+
+    /**
+     * @return amount of sectors used by header and chunks.
+     */
+    public int getUsedSectors()
+    {
+        return this.sectors - this.freeSectors;
+    }
+
+    /**
+     * @return amount of free sectors.
+     */
+    public int getFreeSectors()
+    {
+        return this.freeSectors;
+    }
+
+    /**
+     * @return amount of runs of free sectors.
+     */
+    public int getFreeRuns()
+    {
+        return this.freeRuns;
+    }
+
+    /**
+     * @return length of largest run of free sectors.
+     */
+    public int getLargestFreeRun()
+    {
+        return this.largestFreeRun;
+    }
+
+    /**
+     * @return fragmentation of free space, from 0 to 1, see {@link SectorAllocator#getFragmentation()}.
+     */
+    public double getFragmentation()
+    {
+        return this.fragmentation;
+    }
+
+    /**
+     * @return part of file that is wasted by free sectors, from 0 to 1.
+     */
+    public double getWastedSpace()
+    {
+        return (this.sectors == 0) ? 0 : (this.freeSectors / (double) this.sectors);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("path", this.path).append("sectors", this.sectors).append("freeSectors", this.freeSectors).append("freeRuns", this.freeRuns).append("largestFreeRun", this.largestFreeRun).append("fragmentation", this.fragmentation).toString();
+    }
+}
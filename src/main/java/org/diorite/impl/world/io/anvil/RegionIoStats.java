@@ -0,0 +1,86 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Counters of system calls used to write region files, shared by all region files of one {@link RegionFileCache}.
+ */
+public class RegionIoStats
+{
+    private final AtomicLong chunkWrites  = new AtomicLong();
+    private final AtomicLong headerWrites = new AtomicLong();
+    private final AtomicLong writeCalls   = new AtomicLong();
+    private final AtomicLong syncCalls    = new AtomicLong();
+
+    void chunkWritten(final int calls)
+    {
+        this.chunkWrites.incrementAndGet();
+        this.writeCalls.addAndGet(calls);
+    }
+
+    void headerWritten(final int calls)
+    {
+        this.headerWrites.incrementAndGet();
+        this.writeCalls.addAndGet(calls);
+    }
+
+    void written(final int calls)
+    {
+        this.writeCalls.addAndGet(calls);
+    }
+
+    void synced(final int calls)
+    {
+        this.syncCalls.addAndGet(calls);
+    }
+
+    /**
+     * @return amount of written chunks.
+     */
+    public long getChunkWrites()
+    {
+        return this.chunkWrites.get();
+    }
+
+    /**
+     * @return amount of writes of header (offset and timestamp tables).
+     */
+    public long getHeaderWrites()
+    {
+        return this.headerWrites.get();
+    }
+
+    /**
+     * @return amount of system calls used to write chunks and headers, and to grow files (seeks are counted too).
+     */
+    public long getWriteCalls()
+    {
+        return this.writeCalls.get();
+    }
+
+    /**
+     * @return amount of system calls used to sync files to disk.
+     */
+    public long getSyncCalls()
+    {
+        return this.syncCalls.get();
+    }
+
+    /**
+     * @return average amount of system calls (writes and syncs) per written chunk.
+     */
+    public double getCallsPerChunk()
+    {
+        final long chunks = this.chunkWrites.get();
+        return (chunks == 0) ? 0 : ((this.writeCalls.get() + this.syncCalls.get()) / (double) chunks);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("chunkWrites", this.chunkWrites.get()).append("headerWrites", this.headerWrites.get()).append("writeCalls", this.writeCalls.get()).append("syncCalls", this.syncCalls.get()).toString();
+    }
+}
@@ -0,0 +1,22 @@
+package org.diorite.impl.world.io.anvil;
+
+/**
+ * Policy of writing header (offset and timestamp tables) of region files and syncing them to disk, see {@link RegionFile#sync()}.
+ */
+public enum RegionSyncPolicy
+{
+    /**
+     * Header is written once per save cycle and when region is closed, file is never synced by diorite,
+     * so data may be lost if system (not only server) crashes.
+     */
+    NONE,
+    /**
+     * Header is written once per save cycle and when region is closed, chunk data is synced before header is written, and header after it.
+     * Chunks saved by cycle that wasn't finished may be lost on crash, but region file is never corrupted.
+     */
+    PER_CYCLE,
+    /**
+     * Header is written and synced (after chunk data) after every written chunk, it is the safest and slowest policy.
+     */
+    PER_CHUNK
+}
@@ -0,0 +1,337 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * Allocator of sectors of region file.
+ * <br>
+ * Used sectors are stored in bitmap, bounds of runs of free sectors are found by scanning bitmap word by word,
+ * and runs are indexed by length in sorted array of primitive (length &lt;&lt; 32 | start) values, so allocation is best-fit
+ * (smallest run that is big enough, lowest one if there is more of them) found by binary search, and freed runs are merged
+ * with adjacent free runs. Region file has at most few hundreds of free runs, so moving part of that array is cheaper than
+ * rebalancing of tree with boxed keys.
+ * This class isn't thread-safe, it is guarded by lock of region file.
+ */
+@SuppressWarnings("MagicNumber")
+public class SectorAllocator
+{
+    private long[] runs = new long[16]; // free runs sorted by length << 32 | start
+    private int    runsCount;
+    private long[] bitmap; // 1 - used sector, sectors after size are 0
+    private int    size;
+    private int    freeSectors;
+
+    /**
+     * Construct new allocator with given amount of free sectors.
+     *
+     * @param sectors amount of sectors.
+     */
+    public SectorAllocator(final int sectors)
+    {
+        this.bitmap = new long[Math.max(1, (sectors + 63) >> 6)];
+        this.size = 0;
+        this.grow(sectors);
+    }
+
+    /**
+     * @return amount of sectors.
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param sector index of sector.
+     *
+     * @return true if given sector exists and is free.
+     */
+    public boolean isFree(final int sector)
+    {
+        return (sector >= 0) && (sector < this.size) && ((this.bitmap[sector >> 6] & (1L << sector)) == 0);
+    }
+
+    /**
+     * Marks given sectors as used, sectors that are already used or don't exist are skipped.
+     *
+     * @param start first sector.
+     * @param count amount of sectors.
+     */
+    public void markUsed(final int start, final int count)
+    {
+        final int end = Math.min(start + count, this.size);
+        int sector = Math.max(start, 0);
+        while (sector < end)
+        {
+            sector = this.nextFree(sector);
+            if (sector >= end)
+            {
+                return;
+            }
+            final int runStart = this.lastUsedBefore(sector) + 1;
+            final int runEnd = this.nextUsed(sector);
+            final int usedEnd = Math.min(runEnd, end);
+            this.removeRun(runStart, runEnd - runStart);
+            if (sector > runStart)
+            {
+                this.addRun(runStart, sector - runStart);
+            }
+            if (usedEnd < runEnd)
+            {
+                this.addRun(usedEnd, runEnd - usedEnd);
+            }
+            this.setBits(sector, usedEnd, true);
+            this.freeSectors -= usedEnd - sector;
+            sector = usedEnd;
+        }
+    }
+
+    /**
+     * Allocates given amount of continuous sectors, using smallest run of free sectors that is big enough.
+     *
+     * @param count amount of sectors.
+     *
+     * @return first allocated sector, or -1 if there is no run of free sectors big enough.
+     */
+    public int allocate(final int count)
+    {
+        int index = Arrays.binarySearch(this.runs, 0, this.runsCount, ((long) count) << 32);
+        if (index < 0)
+        {
+            index = - index - 1;
+        }
+        if (index >= this.runsCount)
+        {
+            return - 1;
+        }
+        final long best = this.runs[index];
+        final int start = (int) best;
+        final int length = (int) (best >>> 32);
+        this.removeRun(start, length);
+        if (length > count)
+        {
+            this.addRun(start + count, length - count);
+        }
+        this.setBits(start, start + count, true);
+        this.freeSectors -= count;
+        return start;
+    }
+
+    /**
+     * Frees given sectors, sectors that are already free or don't exist are skipped.
+     *
+     * @param start first sector.
+     * @param count amount of sectors.
+     */
+    public void free(final int start, final int count)
+    {
+        final int end = Math.min(start + count, this.size);
+        int sector = Math.max(start, 0);
+        while (sector < end)
+        {
+            sector = this.nextUsed(sector);
+            if (sector >= end)
+            {
+                return;
+            }
+            final int usedEnd = Math.min(this.nextFree(sector), end);
+            this.freeRange(sector, usedEnd);
+            sector = usedEnd;
+        }
+    }
+
+    /**
+     * Adds free sectors at the end.
+     *
+     * @param count amount of sectors to add.
+     *
+     * @return index of first added sector.
+     */
+    public int grow(final int count)
+    {
+        final int start = this.size;
+        final int newSize = start + count;
+        if (((newSize + 63) >> 6) > this.bitmap.length)
+        {
+            final long[] bitmap = new long[Math.max((newSize + 63) >> 6, this.bitmap.length << 1)];
+            System.arraycopy(this.bitmap, 0, bitmap, 0, this.bitmap.length);
+            this.bitmap = bitmap;
+        }
+        this.size = newSize;
+        if (count > 0)
+        {
+            this.setBits(start, newSize, true);
+            this.freeRange(start, newSize);
+        }
+        return start;
+    }
+
+    /**
+     * @return amount of free sectors.
+     */
+    public int getFreeSectors()
+    {
+        return this.freeSectors;
+    }
+
+    /**
+     * @return amount of runs of free sectors.
+     */
+    public int getFreeRuns()
+    {
+        return this.runsCount;
+    }
+
+    /**
+     * @return length of largest run of free sectors.
+     */
+    public int getLargestFreeRun()
+    {
+        return (this.runsCount == 0) ? 0 : (int) (this.runs[this.runsCount - 1] >>> 32);
+    }
+
+    /**
+     * Returns fragmentation of free space, 0 if all free sectors are in one run (or there is no free sectors),
+     * value close to 1 if free space is split into many small runs.
+     *
+     * @return fragmentation of free space, from 0 to 1.
+     */
+    public double getFragmentation()
+    {
+        return (this.freeSectors == 0) ? 0 : (1 - (this.getLargestFreeRun() / (double) this.freeSectors));
+    }
+
+    // sectors from start to end must be used
+    private void freeRange(final int start, final int end)
+    {
+        int runStart = start;
+        int runEnd = end;
+        if (this.isFree(start - 1))
+        {
+            runStart = this.lastUsedBefore(start) + 1;
+            this.removeRun(runStart, start - runStart);
+        }
+        if (this.isFree(end))
+        {
+            runEnd = this.nextUsed(end);
+            this.removeRun(end, runEnd - end);
+        }
+        this.setBits(start, end, false);
+        this.freeSectors += end - start;
+        this.addRun(runStart, runEnd - runStart);
+    }
+
+    private void addRun(final int start, final int length)
+    {
+        final long run = (((long) length) << 32) | start;
+        final int index = - Arrays.binarySearch(this.runs, 0, this.runsCount, run) - 1;
+        if (this.runsCount == this.runs.length)
+        {
+            this.runs = Arrays.copyOf(this.runs, this.runs.length << 1);
+        }
+        System.arraycopy(this.runs, index, this.runs, index + 1, this.runsCount - index);
+        this.runs[index] = run;
+        this.runsCount++;
+    }
+
+    private void removeRun(final int start, final int length)
+    {
+        final int index = Arrays.binarySearch(this.runs, 0, this.runsCount, (((long) length) << 32) | start);
+        System.arraycopy(this.runs, index + 1, this.runs, index, this.runsCount - index - 1);
+        this.runsCount--;
+    }
+
+    /**
+     * @param sector index of sector.
+     *
+     * @return index of last used sector before given one, or -1 if there is no such sector.
+     */
+    private int lastUsedBefore(final int sector)
+    {
+        if (sector <= 0)
+        {
+            return - 1;
+        }
+        final int last = sector - 1;
+        int word = last >> 6;
+        long bits = this.bitmap[word] & (- 1L >>> (63 - (last & 63)));
+        while (bits == 0)
+        {
+            if (-- word < 0)
+            {
+                return - 1;
+            }
+            bits = this.bitmap[word];
+        }
+        return ((word << 6) + 63) - Long.numberOfLeadingZeros(bits);
+    }
+
+    /**
+     * @param sector index of sector.
+     *
+     * @return index of first used sector from given one, or size if there is no such sector.
+     */
+    private int nextUsed(final int sector)
+    {
+        return this.next(sector, 0);
+    }
+
+    /**
+     * @param sector index of sector.
+     *
+     * @return index of first free sector from given one, or size if there is no such sector.
+     */
+    private int nextFree(final int sector)
+    {
+        return this.next(sector, - 1L);
+    }
+
+    private int next(final int sector, final long invert)
+    {
+        if (sector >= this.size)
+        {
+            return this.size;
+        }
+        final int words = (this.size + 63) >> 6;
+        int word = sector >> 6;
+        long bits = (this.bitmap[word] ^ invert) & (- 1L << sector);
+        while (bits == 0)
+        {
+            if (++ word >= words)
+            {
+                return this.size;
+            }
+            bits = this.bitmap[word] ^ invert;
+        }
+        return Math.min(this.size, (word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    private void setBits(final int start, final int end, final boolean used)
+    {
+        int i = start;
+        while (i < end)
+        {
+            final int word = i >> 6;
+            final int wordEnd = Math.min(end, (word + 1) << 6);
+            final long mask = (- 1L << i) & (- 1L >>> (64 - (wordEnd - (word << 6))));
+            if (used)
+            {
+                this.bitmap[word] |= mask;
+            }
+            else
+            {
+                this.bitmap[word] &= ~ mask;
+            }
+            i = wordEnd;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("size", this.size).append("freeSectors", this.freeSectors).append("freeRuns", this.runsCount).append("largestFreeRun", this.getLargestFreeRun()).toString();
+    }
+}
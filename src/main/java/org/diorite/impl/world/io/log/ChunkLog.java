@@ -0,0 +1,686 @@
+package org.diorite.impl.world.io.log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.utils.math.pack.IntsToLong;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+
+/**
+ * Append-only store of chunks of whole world in single file.
+ * <br>
+ * File starts with magic number and version, followed by records: magic number of record, length of data, chunk x, chunk z,
+ * CRC32 of coordinates and data, and data (compressed chunk). Record of chunk is never overwritten, every write appends new record,
+ * and in-memory index (packed chunk coordinates to offset and length of newest record) is built by scanning the file on open.
+ * Damaged records in the middle of file are skipped, scan continues from next valid record (found by its magic number and checksum),
+ * and if last record is damaged (server crashed during write), file is truncated to last valid record.
+ * Damaged parts are copied to separate file.
+ * <br>
+ * Superseded records are removed by {@link #compact()}, which copies live records to temporary file while store is used,
+ * and then replaces old file using atomic rename.
+ * <br>
+ * Store opened as read-only never changes its file, damaged records are only skipped, and writes and compaction fail.
+ */
+@SuppressWarnings("MagicNumber")
+public class ChunkLog implements AutoCloseable
+{
+    /**
+     * Name of store file in world folder.
+     */
+    public static final String FILE_NAME = "chunks.dlog";
+
+    /**
+     * Max length of data of single record (16 MiB - 1).
+     */
+    public static final int MAX_DATA_LENGTH = (1 << 24) - 1;
+
+    private static final int  MAGIC              = 0x444C4F47; // DLOG
+    private static final int  RECORD_MAGIC       = 0x43484E4B; // CHNK
+    private static final int  VERSION            = 2;
+    private static final int  FILE_HEADER_SIZE   = 8;
+    private static final int  RECORD_HEADER_SIZE = 20;
+    private static final int  SCAN_BUFFER_SIZE   = 65536;
+    private static final long NO_RECORD          = - 1;
+
+    private final File          file;
+    private final boolean       readOnly;
+    private final ReadWriteLock lock       = new ReentrantReadWriteLock();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ByteBuffer    header     = ByteBuffer.allocate(RECORD_HEADER_SIZE); // guarded by write lock
+    private final ByteBuffer[]  buffers    = new ByteBuffer[2]; // guarded by write lock
+    private FileChannel      channel; // swapped by compaction
+    private TLongLongHashMap index; // packed coordinates -> packed offset and length of record
+    private long             end; // end of last record
+    private long             liveBytes; // bytes used by newest records of chunks
+    private int              compactions;
+    private boolean          closed;
+
+    /**
+     * Opens or creates store file.
+     *
+     * @param file path to store file.
+     *
+     * @throws IOException if an I/O error occurs, or file isn't valid chunk log.
+     */
+    public ChunkLog(final File file) throws IOException
+    {
+        this(file, false);
+    }
+
+    /**
+     * Opens store file, or creates it if it isn't opened as read-only.
+     *
+     * @param file     path to store file.
+     * @param readOnly if true, file must exist and is never changed.
+     *
+     * @throws IOException if an I/O error occurs, or file isn't valid chunk log.
+     */
+    public ChunkLog(final File file, final boolean readOnly) throws IOException
+    {
+        this.file = file;
+        this.readOnly = readOnly;
+        this.channel = readOnly ? FileChannel.open(file.toPath(), StandardOpenOption.READ) : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = new TLongLongHashMap(1024, 0.5f, Long.MIN_VALUE, NO_RECORD);
+        if ((this.channel.size() == 0) && ! readOnly)
+        {
+            final ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(this.channel, fileHeader, 0);
+            this.end = FILE_HEADER_SIZE;
+        }
+        else
+        {
+            this.scan();
+        }
+    }
+
+    private void scan() throws IOException
+    {
+        final ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if ((this.channel.size() < FILE_HEADER_SIZE) || (this.channel.read(fileHeader, 0) < FILE_HEADER_SIZE) || (fileHeader.getInt(0) != MAGIC))
+        {
+            throw new IOException("Not a chunk log file: " + this.file);
+        }
+        final int version = fileHeader.getInt(4);
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported version of chunk log file: " + version + " in " + this.file);
+        }
+        final long size = this.channel.size();
+        final RecordReader reader = new RecordReader(size);
+        final File damaged = new File(this.file.getPath() + ".damaged");
+        FileChannel damagedOut = null;
+        try
+        {
+            long position = FILE_HEADER_SIZE;
+            while (position < size)
+            {
+                final int length = reader.read(position);
+                if (length != - 1)
+                {
+                    this.putIndex(IntsToLong.pack(reader.x, reader.z), position, length);
+                    position += RECORD_HEADER_SIZE + length;
+                    continue;
+                }
+                // damaged record, valid records after it are still used, only torn tail is removed
+                final long next = reader.find(position + 1);
+                if (this.readOnly)
+                {
+                    System.err.println("[ChunkIO] Chunk log \"" + this.file + "\" is damaged from " + position + " to " + ((next == - 1) ? size : next) + ", damaged part is skipped.");
+                    if (next == - 1)
+                    {
+                        break;
+                    }
+                    position = next;
+                    continue;
+                }
+                if (damagedOut == null)
+                {
+                    damagedOut = FileChannel.open(damaged.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                if (next == - 1)
+                {
+                    System.err.println("[ChunkIO] Chunk log \"" + this.file + "\" is damaged at " + position + " (size " + size + "), rest of file is moved to " + damaged);
+                    this.channel.transferTo(position, size - position, damagedOut);
+                    this.channel.truncate(position);
+                    break;
+                }
+                System.err.println("[ChunkIO] Chunk log \"" + this.file + "\" is damaged from " + position + " to " + next + ", damaged part is copied to " + damaged);
+                this.channel.transferTo(position, next - position, damagedOut);
+                position = next;
+            }
+            this.end = Math.min(position, size);
+        } finally
+        {
+            if (damagedOut != null)
+            {
+                damagedOut.close();
+            }
+        }
+    }
+
+    private void putIndex(final long key, final long position, final int length)
+    {
+        final long old = this.index.put(key, (position << 24) | length);
+        if (old != NO_RECORD)
+        {
+            this.liveBytes -= RECORD_HEADER_SIZE + (old & MAX_DATA_LENGTH);
+        }
+        this.liveBytes += RECORD_HEADER_SIZE + length;
+    }
+
+    /**
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     *
+     * @return true if store contains given chunk.
+     */
+    public boolean contains(final int x, final int z)
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.index.containsKey(IntsToLong.pack(x, z));
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return packed coordinates of all stored chunks.
+     */
+    public long[] getChunks()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.index.keys();
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads data of newest record of given chunk.
+     *
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     *
+     * @return data of chunk, or null if store doesn't contain it.
+     *
+     * @throws IOException if an I/O error occurs, or checksum of record doesn't match.
+     */
+    public byte[] read(final int x, final int z) throws IOException
+    {
+        final ByteBuffer buffer;
+        final long position;
+        this.lock.readLock().lock();
+        try
+        {
+            this.checkOpen();
+            final long record = this.index.get(IntsToLong.pack(x, z));
+            if (record == NO_RECORD)
+            {
+                return null;
+            }
+            position = record >>> 24;
+            buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + (int) (record & MAX_DATA_LENGTH));
+            readFully(this.channel, buffer, position);
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+        final int length = buffer.getInt(4);
+        final byte[] data = Arrays.copyOfRange(buffer.array(), RECORD_HEADER_SIZE, buffer.capacity());
+        if ((buffer.getInt(0) != RECORD_MAGIC) || (length != data.length) || (buffer.getInt(8) != x) || (buffer.getInt(12) != z) || (checksum(new CRC32(), x, z, data, length) != buffer.getInt(16)))
+        {
+            throw new IOException("Damaged record of chunk " + x + ", " + z + " at " + position + " in " + this.file);
+        }
+        return data;
+    }
+
+    /**
+     * Appends new record of given chunk.
+     *
+     * @param x      x coordinate of chunk.
+     * @param z      z coordinate of chunk.
+     * @param data   data of chunk.
+     * @param length length of data.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(final int x, final int z, final byte[] data, final int length) throws IOException
+    {
+        if (length > MAX_DATA_LENGTH)
+        {
+            throw new IOException("Chunk " + x + ", " + z + " is too big: " + length + " bytes");
+        }
+        final int checksum = checksum(new CRC32(), x, z, data, length);
+        this.lock.writeLock().lock();
+        try
+        {
+            this.checkWritable();
+            this.header.clear();
+            this.header.putInt(RECORD_MAGIC).putInt(length).putInt(x).putInt(z).putInt(checksum).flip();
+            this.buffers[0] = this.header;
+            this.buffers[1] = ByteBuffer.wrap(data, 0, length);
+            this.channel.position(this.end);
+            while (this.buffers[1].hasRemaining())
+            {
+                this.channel.write(this.buffers);
+            }
+            this.buffers[1] = null;
+            this.putIndex(IntsToLong.pack(x, z), this.end, length);
+            this.end += RECORD_HEADER_SIZE + length;
+        } finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forces all appended records to disk.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void sync() throws IOException
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            if (! this.closed && ! this.readOnly)
+            {
+                this.channel.force(false);
+            }
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes superseded records, by copying newest records of all chunks to new file (in order of coordinates) that replaces current one.
+     * Store can be used by other threads during compaction, it is locked only to copy records appended during compaction and to swap files.
+     *
+     * @return false if other compaction is in progress, or store was closed during compaction.
+     *
+     * @throws IOException if an I/O error occurs, store is left unchanged then.
+     */
+    public boolean compact() throws IOException
+    {
+        this.checkWritable();
+        if (! this.compacting.compareAndSet(false, true))
+        {
+            return false;
+        }
+        final File temp = new File(this.file.getPath() + ".tmp");
+        try (final FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            final long[] keys;
+            final long[] records;
+            final long snapshotEnd;
+            this.lock.readLock().lock();
+            try
+            {
+                this.checkOpen();
+                keys = this.index.keys();
+                Arrays.sort(keys);
+                records = new long[keys.length];
+                for (int i = 0; i < keys.length; ++ i)
+                {
+                    records[i] = this.index.get(keys[i]);
+                }
+                snapshotEnd = this.end;
+            } finally
+            {
+                this.lock.readLock().unlock();
+            }
+
+            final ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            fileHeader.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(out, fileHeader, 0);
+            final TLongLongHashMap newIndex = new TLongLongHashMap(Math.max(1024, keys.length * 2), 0.5f, Long.MIN_VALUE, NO_RECORD);
+            long position = FILE_HEADER_SIZE;
+            // channel isn't swapped by anyone else, and records are never overwritten, so they can be copied without lock
+            for (int i = 0; i < keys.length; ++ i)
+            {
+                final int length = (int) (records[i] & MAX_DATA_LENGTH);
+                transferFully(this.channel, records[i] >>> 24, RECORD_HEADER_SIZE + length, out, position);
+                newIndex.put(keys[i], (position << 24) | length);
+                position += RECORD_HEADER_SIZE + length;
+            }
+
+            this.lock.writeLock().lock();
+            try
+            {
+                if (this.closed)
+                {
+                    return false;
+                }
+                // copy records appended during compaction
+                final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                long appended = snapshotEnd;
+                while (appended < this.end)
+                {
+                    recordHeader.clear();
+                    readFully(this.channel, recordHeader, appended);
+                    final int length = recordHeader.getInt(4);
+                    transferFully(this.channel, appended, RECORD_HEADER_SIZE + length, out, position);
+                    newIndex.put(IntsToLong.pack(recordHeader.getInt(8), recordHeader.getInt(12)), (position << 24) | length);
+                    position += RECORD_HEADER_SIZE + length;
+                    appended += RECORD_HEADER_SIZE + length;
+                }
+                out.force(true);
+                out.close();
+
+                // old file is used until new one replaces it, so store stays usable if anything fails here
+                final FileChannel newChannel = FileChannel.open(temp.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try
+                {
+                    Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (final IOException | RuntimeException e)
+                {
+                    newChannel.close();
+                    throw e;
+                }
+                final FileChannel oldChannel = this.channel;
+                this.channel = newChannel;
+                try
+                {
+                    oldChannel.close();
+                } catch (final IOException e)
+                {
+                    System.err.println("[ChunkIO] Failed to close replaced chunk log: " + this.file);
+                    e.printStackTrace();
+                }
+                this.index = newIndex;
+                this.end = position;
+                long live = 0;
+                for (final long record : newIndex.values())
+                {
+                    live += RECORD_HEADER_SIZE + (record & MAX_DATA_LENGTH);
+                }
+                this.liveBytes = live;
+                this.compactions++;
+                return true;
+            } finally
+            {
+                this.lock.writeLock().unlock();
+            }
+        } finally
+        {
+            temp.delete();
+            this.compacting.set(false);
+        }
+    }
+
+    /**
+     * @return path to store file.
+     */
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * @return amount of stored chunks.
+     */
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.index.size();
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return size of store file, in bytes.
+     */
+    public long getFileSize()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.end;
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return amount of bytes used by superseded records.
+     */
+    public long getDeadBytes()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return this.end - FILE_HEADER_SIZE - this.liveBytes;
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return part of file (from 0 to 1) used by superseded records.
+     */
+    public double getGarbageRatio()
+    {
+        this.lock.readLock().lock();
+        try
+        {
+            return (this.end == FILE_HEADER_SIZE) ? 0 : ((this.end - FILE_HEADER_SIZE - this.liveBytes) / (double) this.end);
+        } finally
+        {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return amount of finished compactions since store was opened.
+     */
+    public int getCompactions()
+    {
+        return this.compactions;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.lock.writeLock().lock();
+        try
+        {
+            if (this.closed)
+            {
+                return;
+            }
+            this.closed = true;
+            if (! this.readOnly)
+            {
+                this.channel.force(false);
+            }
+            this.channel.close();
+        } finally
+        {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("Chunk log is closed: " + this.file);
+        }
+    }
+
+    private void checkWritable() throws IOException
+    {
+        this.checkOpen();
+        if (this.readOnly)
+        {
+            throw new IOException("Chunk log is opened as read-only: " + this.file);
+        }
+    }
+
+    private static int checksum(final CRC32 crc, final int x, final int z, final byte[] data, final int length)
+    {
+        crc.reset();
+        crc.update(x >>> 24);
+        crc.update(x >>> 16);
+        crc.update(x >>> 8);
+        crc.update(x);
+        crc.update(z >>> 24);
+        crc.update(z >>> 16);
+        crc.update(z >>> 8);
+        crc.update(z);
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining())
+        {
+            final int read = channel.read(buffer, pos);
+            if (read == - 1)
+            {
+                throw new EOFException("Unexpected end of chunk log at " + pos);
+            }
+            pos += read;
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException
+    {
+        long pos = position;
+        while (buffer.hasRemaining())
+        {
+            pos += channel.write(buffer, pos);
+        }
+    }
+
+    private static void transferFully(final FileChannel in, final long position, final long count, final FileChannel out, final long target) throws IOException
+    {
+        out.position(target);
+        long done = 0;
+        while (done < count)
+        {
+            final long transferred = in.transferTo(position + done, count - done, out);
+            if (transferred <= 0)
+            {
+                throw new EOFException("Unexpected end of chunk log at " + (position + done));
+            }
+            done += transferred;
+        }
+    }
+
+    /**
+     * Reads and validates records while file is scanned.
+     */
+    private final class RecordReader
+    {
+        private final long       size;
+        private final CRC32      crc    = new CRC32();
+        private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        private final ByteBuffer search = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        private       byte[]     data   = new byte[SCAN_BUFFER_SIZE];
+        private       int        x;
+        private       int        z;
+
+        private RecordReader(final long size)
+        {
+            this.size = size;
+        }
+
+        /**
+         * Reads record at given position.
+         *
+         * @return length of data of record, or -1 if there is no valid record at given position.
+         */
+        private int read(final long position) throws IOException
+        {
+            if ((position + RECORD_HEADER_SIZE) > this.size)
+            {
+                return - 1;
+            }
+            this.header.clear();
+            readFully(ChunkLog.this.channel, this.header, position);
+            final int length = this.header.getInt(4);
+            if ((this.header.getInt(0) != RECORD_MAGIC) || (length < 0) || (length > MAX_DATA_LENGTH) || ((position + RECORD_HEADER_SIZE + length) > this.size))
+            {
+                return - 1;
+            }
+            if (this.data.length < length)
+            {
+                this.data = new byte[Math.max(length, this.data.length << 1)];
+            }
+            readFully(ChunkLog.this.channel, ByteBuffer.wrap(this.data, 0, length), position + RECORD_HEADER_SIZE);
+            this.x = this.header.getInt(8);
+            this.z = this.header.getInt(12);
+            if (checksum(this.crc, this.x, this.z, this.data, length) != this.header.getInt(16))
+            {
+                return - 1;
+            }
+            return length;
+        }
+
+        /**
+         * Finds next valid record, by its magic number and checksum.
+         *
+         * @return position of next valid record, or -1 if there is no valid record after given position.
+         */
+        private long find(final long from) throws IOException
+        {
+            long base = from;
+            while ((base + RECORD_HEADER_SIZE) <= this.size)
+            {
+                this.search.clear();
+                final int read = ChunkLog.this.channel.read(this.search, base);
+                if (read < 4)
+                {
+                    return - 1;
+                }
+                for (int i = 0; i <= (read - 4); ++ i)
+                {
+                    if ((this.search.getInt(i) == RECORD_MAGIC) && (this.read(base + i) != - 1))
+                    {
+                        return base + i;
+                    }
+                }
+                base += read - 3; // magic may cross the end of buffer
+            }
+            return - 1;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("file", this.file).append("chunks", this.index.size()).append("end", this.end).append("liveBytes", this.liveBytes).append("compactions", this.compactions).toString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.diorite.impl.world.io.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.diorite.impl.utils.ZlibPool;
+import org.diorite.impl.world.io.anvil.RegionFile;
+import org.diorite.impl.world.io.anvil.RegionFileCache;
+import org.diorite.impl.world.io.anvil.RegionFileCache.RegionHandle;
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * Converts worlds between Anvil region files and chunk log, see {@link ChunkLog}.
+ * <br>
+ * Chunk data isn't decoded, only decompressed and compressed again (region files may contain gzip compressed chunks).
+ * Source files are never changed or removed, and world must not be loaded while it is converted.
+ */
+public final class ChunkLogConverter
+{
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int     REGION_SIZE = 32;
+
+    private ChunkLogConverter()
+    {
+    }
+
+    /**
+     * Copies all chunks from Anvil region files of given world to its chunk log.
+     *
+     * @param worldDir         folder of world.
+     * @param compressionLevel level of compression of chunks in log.
+     *
+     * @return amount of copied chunks.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static int importAnvil(final File worldDir, final int compressionLevel) throws IOException
+    {
+        final File[] files = new File(worldDir, "region").listFiles((dir, name) -> REGION_NAME.matcher(name).matches());
+        if (files == null)
+        {
+            return 0;
+        }
+        int chunks = 0;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        try (final ChunkLog log = new ChunkLog(new File(worldDir, ChunkLog.FILE_NAME)))
+        {
+            for (final File file : files)
+            {
+                final Matcher matcher = REGION_NAME.matcher(file.getName());
+                matcher.matches();
+                final int regionX = Integer.parseInt(matcher.group(1)) * REGION_SIZE;
+                final int regionZ = Integer.parseInt(matcher.group(2)) * REGION_SIZE;
+                final RegionFile region = RegionFile.open(file, false);
+                try
+                {
+                    for (int x = 0; x < REGION_SIZE; ++ x)
+                    {
+                        for (int z = 0; z < REGION_SIZE; ++ z)
+                        {
+                            if (! region.hasChunk(x, z))
+                            {
+                                continue;
+                            }
+                            buffer.reset();
+                            try (final DataInputStream in = region.getChunkDataInputStream(x, z);
+                                 final OutputStream out = ZlibPool.getInstance().deflate(buffer, compressionLevel))
+                            {
+                                copy(in, out);
+                            } catch (final IOException e)
+                            {
+                                System.err.println("[ChunkIO] Skipping damaged chunk " + (regionX + x) + ", " + (regionZ + z) + " in " + file);
+                                e.printStackTrace();
+                                continue;
+                            }
+                            log.write(regionX + x, regionZ + z, buffer.toByteArray(), buffer.size());
+                            chunks++;
+                        }
+                    }
+                } finally
+                {
+                    region.close();
+                }
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Copies all chunks from chunk log of given world to its Anvil region files, chunks that already exist in region files are replaced.
+     *
+     * @param worldDir         folder of world.
+     * @param compressionLevel level of compression of chunks in region files.
+     *
+     * @return amount of copied chunks.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static int exportAnvil(final File worldDir, final int compressionLevel) throws IOException
+    {
+        final File file = new File(worldDir, ChunkLog.FILE_NAME);
+        if (! file.isFile())
+        {
+            return 0;
+        }
+        int chunks = 0;
+        final RegionFileCache cache = new RegionFileCache(worldDir, ".mca");
+        cache.setCompressionLevel(compressionLevel);
+        new File(worldDir, "region").mkdirs();
+        try (final ChunkLog log = new ChunkLog(file))
+        {
+            for (final long key : log.getChunks())
+            {
+                final int x = IntsToLong.getA(key);
+                final int z = IntsToLong.getB(key);
+                final byte[] data = log.read(x, z);
+                try (final RegionHandle handle = cache.acquire(x, z);
+                     final InputStream in = ZlibPool.getInstance().inflate(new ByteArrayInputStream(data));
+                     final OutputStream out = handle.getRegion().getChunkDataOutputStream(x & (REGION_SIZE - 1), z & (REGION_SIZE - 1)))
+                {
+                    copy(in, out);
+                }
+                chunks++;
+            }
+        } finally
+        {
+            cache.clear();
+        }
+        return chunks;
+    }
+
+    private static void copy(final InputStream in, final OutputStream out) throws IOException
+    {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != - 1)
+        {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Converts given worlds, it must be used only when server isn't running.
+     *
+     * @param args "import" (Anvil to chunk log) or "export" (chunk log to Anvil), and folders of worlds.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        if ((args.length < 2) || (! "import".equals(args[0]) && ! "export".equals(args[0])))
+        {
+            System.out.println("Usage: ChunkLogConverter <import|export> <world folder>...");
+            return;
+        }
+        final boolean importing = "import".equals(args[0]);
+        for (int i = 1; i < args.length; ++ i)
+        {
+            final File worldDir = new File(args[i]);
+            final int chunks = importing ? importAnvil(worldDir, Deflater.BEST_SPEED) : exportAnvil(worldDir, Deflater.BEST_SPEED);
+            System.out.println(args[i] + ": " + (importing ? "imported " : "exported ") + chunks + " chunks.");
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.diorite.impl.world.io.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.diorite.impl.utils.ZlibPool;
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.io.ChunkIoExecutor;
+import org.diorite.impl.world.io.ChunkIoExecutor.IoWriter;
+import org.diorite.impl.world.io.ChunkIoService;
+import org.diorite.impl.world.io.anvil.AnvilChunkCodec;
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * An implementation of the {@link ChunkIoService} which stores all chunks of world in single append-only file, see {@link ChunkLog}.
+ * <br>
+ * Chunks are stored in the same format as in Anvil region files (zlib compressed NBT), so they can be converted without
+ * decoding, see {@link ChunkLogConverter}. Superseded records are removed after save cycle, when they use enough of file.
+ */
+public final class LogChunkIoService implements ChunkIoService
+{
+    /**
+     * Size of buffers between chunk codec and (de)compression streams.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Default amount of I/O threads of single world.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    /**
+     * Default percent of file used by superseded records that triggers compaction after save cycle.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 50;
+
+    /**
+     * Min amount of bytes used by superseded records before file is compacted, so small worlds aren't compacted after every save.
+     */
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    /**
+     * Key of maintenance tasks in I/O executor, it doesn't collide with keys of chunks of any reachable coordinates.
+     */
+    private static final long MAINTENANCE_KEY = Long.MIN_VALUE;
+
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final File            worldFile;
+    private final ChunkLog        log;
+    private final ChunkIoExecutor executor;
+
+    private volatile int compressionLevel    = Deflater.BEST_SPEED;
+    private volatile int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * Serializes and writes copy of chunk created by {@link ChunkImpl#createSaveCopy()}.
+     */
+    private final IoWriter<ChunkImpl> copyWriter = new IoWriter<ChunkImpl>()
+    {
+        @Override
+        public void write(final long key, final ChunkImpl copy) throws IOException
+        {
+            try
+            {
+                LogChunkIoService.this.write(IntsToLong.getA(key), IntsToLong.getB(key), copy);
+            } finally
+            {
+                copy.releaseSaveCopy();
+            }
+        }
+
+        @Override
+        public void discard(final long key, final ChunkImpl copy)
+        {
+            // replaced by newer copy before it was written
+            copy.releaseSaveCopy();
+        }
+    };
+
+    public LogChunkIoService(final File dir)
+    {
+        this(dir, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Construct new chunk log I/O service, log file is opened (or created) and scanned here.
+     *
+     * @param dir       folder of world.
+     * @param ioThreads amount of I/O threads.
+     */
+    public LogChunkIoService(final File dir, final int ioThreads)
+    {
+        this.worldFile = dir;
+        dir.mkdirs();
+        final File file = new File(dir, ChunkLog.FILE_NAME);
+        try
+        {
+            this.log = new ChunkLog(file);
+        } catch (final IOException e)
+        {
+            throw new RuntimeException("Can't open chunk log: " + file, e);
+        }
+        this.executor = new ChunkIoExecutor(dir.getName(), ioThreads);
+    }
+
+    @Override
+    public File getWorldFile()
+    {
+        return this.worldFile;
+    }
+
+    @Override
+    public boolean read(final ChunkImpl chunk) throws IOException
+    {
+        final byte[] data = this.log.read(chunk.getX(), chunk.getZ());
+        if (data == null)
+        {
+            return false;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(ZlibPool.getInstance().inflate(new ByteArrayInputStream(data)), BUFFER_SIZE)))
+        {
+            AnvilChunkCodec.read(in, chunk);
+        }
+        return true;
+    }
+
+    @Override
+    public void write(final ChunkImpl chunk) throws IOException
+    {
+        this.write(chunk.getX(), chunk.getZ(), chunk);
+    }
+
+    @Override
+    public boolean hasChunk(final int x, final int z)
+    {
+        // pending write of chunk isn't in index of log yet
+        return this.log.contains(x, z) || this.executor.hasTasks(IntsToLong.pack(x, z));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readAsync(final ChunkImpl chunk)
+    {
+        return this.executor.submit(chunk.getPos().asLong(), () -> this.read(chunk));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(final ChunkImpl chunk)
+    {
+        final ChunkImpl copy = chunk.createSaveCopy();
+        if (copy == null)
+        {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Can't save chunk that isn't loaded: " + chunk));
+            return future;
+        }
+        return this.executor.submitWrite(chunk.getPos().asLong(), copy, this.copyWriter);
+    }
+
+    @Override
+    public boolean flush()
+    {
+        final boolean written = this.executor.flush();
+        try
+        {
+            this.log.sync();
+            return written;
+        } catch (final IOException e)
+        {
+            System.err.println("[ChunkIO] Failed to sync chunk log: " + this.log.getFile());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void awaitCapacity() throws InterruptedException
+    {
+        this.executor.awaitCapacity();
+    }
+
+    @Override
+    public void afterSaveCycle()
+    {
+        // log is synced once per cycle, after all writes of cycle are done, failed writes are reported by their futures
+        this.executor.whenFlushed().handle((v, e) -> null).thenCompose(v -> this.executor.submit(MAINTENANCE_KEY, () -> {
+            this.log.sync();
+            final int threshold = this.compactionThreshold;
+            if ((threshold == 0) || (this.log.getDeadBytes() < MIN_COMPACTION_BYTES) || (this.log.getGarbageRatio() < (threshold / 100.0)))
+            {
+                return null;
+            }
+            final long oldSize = this.log.getFileSize();
+            if (this.log.compact())
+            {
+                LOGGER.info("[ChunkIO] Compacted chunk log " + this.log.getFile() + ", reclaimed " + (oldSize - this.log.getFileSize()) + " bytes.");
+            }
+            return null;
+        })).whenComplete((v, e) -> {
+            if (e != null)
+            {
+                LOGGER.error("[ChunkIO] Maintenance of chunk log " + this.log.getFile() + " failed.", e);
+            }
+        });
+    }
+
+    /**
+     * Removes superseded records from chunk log of this world.
+     * It may take some time, so it shouldn't be invoked by main thread.
+     *
+     * @return amount of reclaimed bytes, or -1 if log is already compacted by other thread.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public long compact() throws IOException
+    {
+        final long oldSize = this.log.getFileSize();
+        if (! this.log.compact())
+        {
+            return - 1;
+        }
+        return oldSize - this.log.getFileSize();
+    }
+
+    /**
+     * @return chunk log of this world.
+     */
+    public ChunkLog getLog()
+    {
+        return this.log;
+    }
+
+    /**
+     * @return level of compression of saved chunks.
+     */
+    public int getCompressionLevel()
+    {
+        return this.compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel level of compression of saved chunks, from 0 to 9, or -1 for default zlib level.
+     */
+    public void setCompressionLevel(final int compressionLevel)
+    {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return percent of file used by superseded records that triggers compaction after save cycle, 0 if disabled.
+     */
+    public int getCompactionThreshold()
+    {
+        return this.compactionThreshold;
+    }
+
+    /**
+     * @param compactionThreshold percent of file used by superseded records that triggers compaction after save cycle, 0 disables it.
+     */
+    public void setCompactionThreshold(final int compactionThreshold)
+    {
+        this.compactionThreshold = Math.max(0, Math.min(100, compactionThreshold));
+    }
+
+    private void write(final int x, final int z, final ChunkImpl chunk) throws IOException
+    {
+        final RecordBuffer buffer = new RecordBuffer();
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(ZlibPool.getInstance().deflate(buffer, this.compressionLevel), BUFFER_SIZE)))
+        {
+            AnvilChunkCodec.write(out, chunk, chunk.getWorld().getTime(), chunk.getWorld().getDimension().hasSkyLight());
+        }
+        this.log.write(x, z, buffer.getBuffer(), buffer.size());
+    }
+
+    @Override
+    public void unload() throws IOException
+    {
+        this.executor.shutdown();
+        this.log.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("log", this.log).append("executor", this.executor).toString();
+    }
+
+    /**
+     * Buffer of compressed chunk, its array is written to log without copying.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream
+    {
+        RecordBuffer()
+        {
+            super(8192);
+        }
+
+        byte[] getBuffer()
+        {
+            return this.buf;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.diorite.impl.world.io.template;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.utils.ZlibPool;
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.io.anvil.AnvilChunkCodec;
+import org.diorite.impl.world.io.anvil.RegionFile;
+import org.diorite.impl.world.io.log.ChunkLog;
+import org.diorite.utils.math.pack.IntsToLong;
+import org.diorite.world.chunk.ChunkPos;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Immutable set of decoded chunks of template world, loaded once and shared by all worlds created from it, see {@link TemplateChunkIoService}.
+ * <br>
+ * Chunks of template are never changed, worlds using template get copy-on-write instances of their sections (see {@link ChunkImpl#loadFrom(ChunkImpl)}),
+ * so creating new world from template doesn't read, decode or copy any chunk data.
+ */
+public final class ChunkTemplate
+{
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int     REGION_SIZE = 32;
+    private static final int     BUFFER_SIZE = 8192;
+
+    private final File                      worldDir;
+    private final TLongObjectMap<ChunkImpl> chunks;
+
+    private ChunkTemplate(final File worldDir, final TLongObjectMap<ChunkImpl> chunks)
+    {
+        this.worldDir = worldDir;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Loads and decodes all chunks of given world, from its chunk log if it exists, or from its Anvil region files.
+     * Files of template world are opened as read-only, so they are never changed (or repaired) by loading.
+     *
+     * @param worldDir folder of template world.
+     *
+     * @return loaded template.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public static ChunkTemplate load(final File worldDir) throws IOException
+    {
+        final TLongObjectMap<ChunkImpl> chunks = new TLongObjectHashMap<>(1024);
+        final File logFile = new File(worldDir, ChunkLog.FILE_NAME);
+        if (logFile.isFile())
+        {
+            try (final ChunkLog log = new ChunkLog(logFile, true))
+            {
+                for (final long key : log.getChunks())
+                {
+                    final int x = IntsToLong.getA(key);
+                    final int z = IntsToLong.getB(key);
+                    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(ZlibPool.getInstance().inflate(new ByteArrayInputStream(log.read(x, z))), BUFFER_SIZE)))
+                    {
+                        chunks.put(key, decode(x, z, in));
+                    }
+                }
+            }
+            return new ChunkTemplate(worldDir, chunks);
+        }
+
+        final File[] files = new File(worldDir, "region").listFiles((dir, name) -> REGION_NAME.matcher(name).matches());
+        if (files == null)
+        {
+            return new ChunkTemplate(worldDir, chunks);
+        }
+        for (final File file : files)
+        {
+            final Matcher matcher = REGION_NAME.matcher(file.getName());
+            matcher.matches();
+            final int regionX = Integer.parseInt(matcher.group(1)) * REGION_SIZE;
+            final int regionZ = Integer.parseInt(matcher.group(2)) * REGION_SIZE;
+            final RegionFile region = RegionFile.openReadOnly(file);
+            try
+            {
+                for (int x = 0; x < REGION_SIZE; ++ x)
+                {
+                    for (int z = 0; z < REGION_SIZE; ++ z)
+                    {
+                        if (! region.hasChunk(x, z))
+                        {
+                            continue;
+                        }
+                        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(region.getChunkDataInputStream(x, z), BUFFER_SIZE)))
+                        {
+                            chunks.put(IntsToLong.pack(regionX + x, regionZ + z), decode(regionX + x, regionZ + z, in));
+                        }
+                    }
+                }
+            } finally
+            {
+                region.close();
+            }
+        }
+        return new ChunkTemplate(worldDir, chunks);
+    }
+
+    private static ChunkImpl decode(final int x, final int z, final DataInputStream in) throws IOException
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(x, z, null));
+        AnvilChunkCodec.read(in, chunk);
+        return chunk;
+    }
+
+    /**
+     * Returns decoded chunk of template, it must not be changed.
+     *
+     * @param x x coordinate of chunk.
+     * @param z z coordinate of chunk.
+     *
+     * @return chunk of template, or null if template doesn't contain it.
+     */
+    public ChunkImpl getChunk(final int x, final int z)
+    {
+        return this.chunks.get(IntsToLong.pack(x, z));
+    }
+
+    /**
+     * @return folder of template world.
+     */
+    public File getWorldDir()
+    {
+        return this.worldDir;
+    }
+
+    /**
+     * @return amount of chunks in template.
+     */
+    public int size()
+    {
+        return this.chunks.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("worldDir", this.worldDir).append("chunks", this.chunks.size()).toString();
+    }
+}
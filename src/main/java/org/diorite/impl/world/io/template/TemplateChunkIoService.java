@@ -0,0 +1,150 @@
+package org.diorite.impl.world.io.template;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.io.ChunkIoService;
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * An implementation of the {@link ChunkIoService} that never touches disk, chunks are created from shared {@link ChunkTemplate}
+ * as copy-on-write instances, so loading chunk of world created from template doesn't read, decompress or decode any data.
+ * <br>
+ * Saved chunks are kept in memory (as copy-on-write snapshots) until service is unloaded, so chunk that was changed, unloaded and
+ * loaded again keeps its changes. If changes are discarded, saved chunks are dropped and every load returns template chunk again.
+ * Chunks that don't exist in template are generated by world generator.
+ */
+public final class TemplateChunkIoService implements ChunkIoService
+{
+    private final File                 worldFile;
+    private final ChunkTemplate        template;
+    private final boolean              discardChanges;
+    private final Map<Long, ChunkImpl> saved = new ConcurrentHashMap<>(64, 0.75f, 4);
+
+    /**
+     * Construct new template chunk I/O service.
+     *
+     * @param worldFile      folder of world, only used as world folder (for level.dat), chunks are never written there.
+     * @param template       template of chunks.
+     * @param discardChanges if true, changes of chunks are dropped when chunk is unloaded.
+     */
+    public TemplateChunkIoService(final File worldFile, final ChunkTemplate template, final boolean discardChanges)
+    {
+        this.worldFile = worldFile;
+        this.template = template;
+        this.discardChanges = discardChanges;
+    }
+
+    @Override
+    public File getWorldFile()
+    {
+        return this.worldFile;
+    }
+
+    @Override
+    public boolean read(final ChunkImpl chunk)
+    {
+        ChunkImpl source = this.saved.get(chunk.getPos().asLong());
+        if (source == null)
+        {
+            source = this.template.getChunk(chunk.getX(), chunk.getZ());
+            if (source == null)
+            {
+                return false;
+            }
+        }
+        chunk.loadFrom(source);
+        return true;
+    }
+
+    @Override
+    public boolean hasChunk(final int x, final int z)
+    {
+        return this.saved.containsKey(IntsToLong.pack(x, z)) || (this.template.getChunk(x, z) != null);
+    }
+
+    @Override
+    public void write(final ChunkImpl chunk)
+    {
+        if (this.discardChanges)
+        {
+            return;
+        }
+        final ChunkImpl copy = chunk.createSaveCopy();
+        if (copy == null)
+        {
+            return;
+        }
+        final ChunkImpl old = this.saved.put(chunk.getPos().asLong(), copy);
+        if (old != null)
+        {
+            old.releaseSaveCopy();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> readAsync(final ChunkImpl chunk)
+    {
+        // nothing is read from disk, so there is no reason to use other threads
+        return CompletableFuture.completedFuture(this.read(chunk));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(final ChunkImpl chunk)
+    {
+        this.write(chunk);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public boolean flush()
+    {
+        return true;
+    }
+
+    /**
+     * @return template of chunks of this world.
+     */
+    public ChunkTemplate getTemplate()
+    {
+        return this.template;
+    }
+
+    /**
+     * @return true if changes of chunks are dropped when chunk is unloaded.
+     */
+    public boolean isDiscardChanges()
+    {
+        return this.discardChanges;
+    }
+
+    /**
+     * @return amount of changed chunks kept in memory.
+     */
+    public int getSavedChunks()
+    {
+        return this.saved.size();
+    }
+
+    @Override
+    public void unload()
+    {
+        for (final ChunkImpl copy : this.saved.values())
+        {
+            copy.releaseSaveCopy();
+        }
+        this.saved.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("template", this.template).append("discardChanges", this.discardChanges).append("saved", this.saved.size()).toString();
+    }
+}
@@ -3,6 +3,7 @@ package org.diorite.impl.world.tick;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockCursor;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.impl.world.chunk.ChunkManagerImpl;
 import org.diorite.utils.math.pack.IntsToLong;
@@ -12,7 +13,8 @@ import gnu.trove.iterator.TLongIterator;
 
 public class ChunkTickGroup implements TickGroupImpl
 {
-    private final ChunkGroup chunks;
+    private final ChunkGroup  chunks;
+    private final BlockCursor tickCursor = new BlockCursor();
 
     public ChunkTickGroup(final ChunkGroup chunks)
     {
@@ -47,6 +49,12 @@ public class ChunkTickGroup implements TickGroupImpl
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("chunks", this.chunks).toString();
     }
 
+    @Override
+    public BlockCursor getTickCursor()
+    {
+        return this.tickCursor;
+    }
+
     @Override
     public boolean removeWorld(final World world)
     {
@@ -6,6 +6,7 @@ import java.util.Set;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockCursor;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.impl.world.chunk.ChunkManagerImpl;
 import org.diorite.utils.math.pack.IntsToLong;
@@ -16,6 +17,7 @@ import gnu.trove.iterator.TLongIterator;
 public class ChunksTickGroup implements TickGroupImpl
 {
     private final Set<ChunkGroup> chunks;
+    private final BlockCursor     tickCursor = new BlockCursor();
 
     public ChunksTickGroup(final Set<ChunkGroup> chunks)
     {
@@ -48,6 +50,12 @@ public class ChunksTickGroup implements TickGroupImpl
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("chunks", this.chunks).toString();
     }
 
+    @Override
+    public BlockCursor getTickCursor()
+    {
+        return this.tickCursor;
+    }
+
     @Override
     public boolean removeWorld(final World world)
     {
@@ -9,11 +9,12 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 import org.diorite.impl.ServerImpl;
 import org.diorite.impl.Tickable;
 import org.diorite.impl.connection.packets.play.out.PacketPlayOutBlockChange;
+import org.diorite.impl.world.BlockCursor;
+import org.diorite.impl.world.BlockStates;
 import org.diorite.impl.world.WorldImpl;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.material.BlockMaterialData;
 import org.diorite.material.Material;
-import org.diorite.world.Block;
 import org.diorite.world.TickGroup;
 import org.diorite.world.World;
 import org.diorite.world.chunk.Chunk;
@@ -34,24 +35,29 @@ public interface TickGroupImpl extends Tickable, TickGroup
         chunk.getTileEntities().values().forEach(t -> t.doTick(tps));
         // Test code, more gooold!
         final Random rand = chunk.getWorld().getRandom();
+        final WorldImpl world = chunk.getWorld();
+        final BlockCursor cursor = this.getTickCursor().moveTo(chunk);
+        final int baseX = chunk.getX() << 4;
+        final int baseZ = chunk.getZ() << 4;
         for (int i = 0; i < Chunk.CHUNK_PART_HEIGHT; i++)
         {
             if (rand.nextBoolean() || rand.nextBoolean())
             {
                 continue;
             }
-            final Block b = chunk.getBlock(rand.nextInt(Chunk.CHUNK_SIZE), ((i % Chunk.CHUNK_PART_HEIGHT) * Chunk.CHUNK_PART_HEIGHT) + rand.nextInt(Chunk.CHUNK_PART_HEIGHT), rand.nextInt(Chunk.CHUNK_SIZE));
+            cursor.moveTo(baseX + rand.nextInt(Chunk.CHUNK_SIZE), ((i % Chunk.CHUNK_PART_HEIGHT) * Chunk.CHUNK_PART_HEIGHT) + rand.nextInt(Chunk.CHUNK_PART_HEIGHT), baseZ + rand.nextInt(Chunk.CHUNK_SIZE));
+            final BlockMaterialData type = BlockStates.getType(cursor.getRawType());
 
             if (rand.nextBoolean() && rand.nextBoolean())
             {
-                if (! b.getType().simpleEquals(Material.STONE))
+                if ((type == null) || ! type.simpleEquals(Material.STONE))
                 {
                     continue;
                 }
             }
             else if (rand.nextBoolean())
             {
-                if (! b.getType().simpleEquals(Material.GRASS) && ! b.getType().simpleEquals(Material.DIRT))
+                if ((type == null) || (! type.simpleEquals(Material.GRASS) && ! type.simpleEquals(Material.DIRT)))
                 {
                     continue;
                 }
@@ -61,14 +67,22 @@ public interface TickGroupImpl extends Tickable, TickGroup
                 continue;
             }
             final BlockMaterialData newMat = rand.nextBoolean() ? Material.GOLD_BLOCK : Material.GOLD_ORE;
-            b.setType(newMat);
-            final PacketPlayOutBlockChange packet = new PacketPlayOutBlockChange(b.getLocation(), newMat);
-            ServerImpl.getInstance().getPlayersManager().forEach(p -> p.getWorld().equals(b.getWorld()) && p.isVisibleChunk(b.getChunk().getX(), b.getChunk().getZ()), packet);
+            cursor.setType(newMat);
+            final PacketPlayOutBlockChange packet = new PacketPlayOutBlockChange(cursor.toLocation(), newMat);
+            ServerImpl.getInstance().getPlayersManager().forEach(p -> p.getWorld().equals(world) && p.isVisibleChunk(chunk.getX(), chunk.getZ()), packet);
 
         }
+        cursor.release(); // cursor lives as long as group, it can't keep unloaded chunks and worlds
         // TODO
     }
 
+    /**
+     * Returns cursor reused by ticks of all chunks of this group, group is never ticked by more than one thread at once.
+     *
+     * @return cursor of this group.
+     */
+    BlockCursor getTickCursor();
+
     boolean removeWorld(World world);
 
     boolean isEmpty();
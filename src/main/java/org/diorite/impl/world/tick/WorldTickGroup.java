@@ -5,6 +5,7 @@ import java.lang.ref.WeakReference;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockCursor;
 import org.diorite.impl.world.WorldImpl;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.world.World;
@@ -12,6 +13,7 @@ import org.diorite.world.World;
 public class WorldTickGroup implements TickGroupImpl
 {
     private final WeakReference<WorldImpl> world;
+    private final BlockCursor              tickCursor = new BlockCursor();
 
     public WorldTickGroup(final WorldImpl world)
     {
@@ -29,6 +31,12 @@ public class WorldTickGroup implements TickGroupImpl
         }
     }
 
+    @Override
+    public BlockCursor getTickCursor()
+    {
+        return this.tickCursor;
+    }
+
     @Override
     public boolean removeWorld(final World world)
     {
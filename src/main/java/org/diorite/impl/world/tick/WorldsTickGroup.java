@@ -5,6 +5,7 @@ import java.util.Collection;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import org.diorite.impl.world.BlockCursor;
 import org.diorite.impl.world.WorldImpl;
 import org.diorite.impl.world.chunk.ChunkImpl;
 import org.diorite.utils.collections.WeakCollection;
@@ -13,6 +14,7 @@ import org.diorite.world.World;
 public class WorldsTickGroup implements TickGroupImpl
 {
     private final WeakCollection<WorldImpl> worlds;
+    private final BlockCursor               tickCursor = new BlockCursor();
 
     public WorldsTickGroup(final Collection<WorldImpl> worlds)
     {
@@ -40,6 +42,12 @@ public class WorldsTickGroup implements TickGroupImpl
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).appendSuper(super.toString()).append("worlds", this.worlds).toString();
     }
 
+    @Override
+    public BlockCursor getTickCursor()
+    {
+        return this.tickCursor;
+    }
+
     @Override
     public boolean removeWorld(final World world)
     {
@@ -0,0 +1,102 @@
+package org.diorite.impl.world;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.world.chunk.Chunk;
+
+/**
+ * Fill of 1M blocks (16 full chunks, 256 chunk parts), every invocation switches between two block types so every block is changed.
+ * Compares old per-block path ({@link ChunkPartImpl#setBlock(int, int, int, int, int)}, one CAS per block)
+ * with one pass per chunk part used by {@link BlockEditSession}, and measures cost of grouping changes by session itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockEditSessionBenchmark
+{
+    private static final int PARTS = 256;
+    private static final int SIZE  = 64; // 64 * 64 * 256 blocks
+
+    private ChunkPartImpl[] parts;
+    private short[][]       values;
+    private long[]          mask;
+    private boolean         flip;
+
+    @Setup
+    public void setup()
+    {
+        this.parts = new ChunkPartImpl[PARTS];
+        this.values = new short[2][ChunkPartImpl.CHUNK_DATA_SIZE];
+        this.mask = new long[ChunkPartImpl.CHUNK_DATA_SIZE >> 6];
+        for (int i = 0; i < PARTS; i++)
+        {
+            this.parts[i] = new ChunkPartImpl((byte) (i % Chunk.CHUNK_PARTS), true);
+        }
+        Arrays.fill(this.values[0], (short) (1 << 4));
+        Arrays.fill(this.values[1], (short) (3 << 4));
+        Arrays.fill(this.mask, - 1L);
+    }
+
+    @Benchmark
+    public ChunkPartImpl[] perBlockFill()
+    {
+        this.flip = ! this.flip;
+        final int id = this.flip ? 1 : 3;
+        for (final ChunkPartImpl part : this.parts)
+        {
+            for (int y = 0; y < Chunk.CHUNK_PART_HEIGHT; y++)
+            {
+                for (int z = 0; z < Chunk.CHUNK_SIZE; z++)
+                {
+                    for (int x = 0; x < Chunk.CHUNK_SIZE; x++)
+                    {
+                        part.setBlock(x, y, z, id, 0);
+                    }
+                }
+            }
+        }
+        return this.parts;
+    }
+
+    @Benchmark
+    public ChunkPartImpl[] bulkFill()
+    {
+        this.flip = ! this.flip;
+        final short[] values = this.values[this.flip ? 0 : 1];
+        for (final ChunkPartImpl part : this.parts)
+        {
+            part.setBlocks(values, this.mask, null);
+        }
+        return this.parts;
+    }
+
+    @Benchmark
+    public BlockEditSession collectSession()
+    {
+        return new BlockEditSession(null).fill(0, 0, 0, SIZE - 1, Chunk.CHUNK_FULL_HEIGHT - 1, SIZE - 1, BlockStates.getType((short) (1 << 4)));
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(BlockEditSessionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,120 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.utils.concurrent.atomic.AtomicShortArray;
+
+/**
+ * Compares palette storage of chunk parts with old {@link AtomicShortArray} layout.
+ * Run {@link #main(String[])} to also print memory used by single chunk part for every palette size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChunkBlockDataBenchmark
+{
+    @Param({"2", "16", "64", "512"})
+    private int types;
+
+    private AtomicShortArray atomic;
+    private ChunkBlockData   palette;
+    private short[]          updates;
+
+    @Setup
+    public void setup()
+    {
+        final short[] data = randomSection(this.types, 1);
+        this.atomic = new AtomicShortArray(data);
+        this.palette = new ChunkBlockData(data);
+        this.updates = randomSection(this.types, 2);
+    }
+
+    @Benchmark
+    public int readAtomic()
+    {
+        int sum = 0;
+        for (int i = 0; i < ChunkPartImpl.CHUNK_DATA_SIZE; i++)
+        {
+            sum += this.atomic.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int readPalette()
+    {
+        int sum = 0;
+        for (int i = 0; i < ChunkPartImpl.CHUNK_DATA_SIZE; i++)
+        {
+            sum += this.palette.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public AtomicShortArray compareAndSetAtomic()
+    {
+        for (int i = 0; i < ChunkPartImpl.CHUNK_DATA_SIZE; i++)
+        {
+            this.atomic.compareAndSet(i, this.atomic.get(i), this.updates[i]);
+        }
+        return this.atomic;
+    }
+
+    @Benchmark
+    public ChunkBlockData compareAndSetPalette()
+    {
+        for (int i = 0; i < ChunkPartImpl.CHUNK_DATA_SIZE; i++)
+        {
+            this.palette.compareAndSet(i, this.palette.get(i), this.updates[i]);
+        }
+        return this.palette;
+    }
+
+    @Benchmark
+    public short[] expandPalette()
+    {
+        return this.palette.getArray();
+    }
+
+    @SuppressWarnings("MagicNumber")
+    private static short[] randomSection(final int types, final long seed)
+    {
+        final Random random = new Random(seed);
+        final short[] data = new short[ChunkPartImpl.CHUNK_DATA_SIZE];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (short) (random.nextInt(types) << 4);
+        }
+        return data;
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        for (final int types : new int[]{1, 2, 16, 17, 64, 256, 257, 512})
+        {
+            final ChunkBlockData data = new ChunkBlockData(randomSection(types, 1));
+            System.out.println("[ChunkBlockData] types: " + types + ", bits per entry: " + data.getBitsPerEntry() + ", bytes: " + data.getMemoryUsage() + " (AtomicShortArray: " + (ChunkPartImpl.CHUNK_DATA_SIZE << 1) + ")");
+        }
+        new Runner(new OptionsBuilder().include(ChunkBlockDataBenchmark.class.getSimpleName()).build()).run();
+    }
+}
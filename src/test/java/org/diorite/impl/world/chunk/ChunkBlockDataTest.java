@@ -0,0 +1,162 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class ChunkBlockDataTest extends TestCase
+{
+    private static final int SIZE = 4096;
+
+    @org.junit.Test
+    public void testCreateFromArray() throws Exception
+    {
+        final int[][] cases = {{1, 4}, {2, 4}, {16, 4}, {17, 5}, {128, 7}, {256, 8}, {257, 16}, {1000, 16}};
+        for (final int[] c : cases)
+        {
+            final short[] data = randomSection(c[0], c[0]);
+            final ChunkBlockData blocks = new ChunkBlockData(data);
+            assertTrue("values of " + c[0] + " types", Arrays.equals(data, blocks.getArray()));
+            assertEquals("bits of " + c[0] + " types", c[1], blocks.getBitsPerEntry());
+            assertEquals("palette of " + c[0] + " types", (c[1] == ChunkBlockData.DIRECT_BITS) ? - 1 : c[0], blocks.getPaletteSize());
+            for (int i = 0; i < SIZE; ++ i)
+            {
+                assertEquals(data[i], blocks.get(i));
+            }
+        }
+        final ChunkBlockData empty = new ChunkBlockData(new short[SIZE]);
+        assertEquals(1, empty.getPaletteSize());
+        assertEquals(0, empty.countNonZero());
+    }
+
+    @org.junit.Test
+    public void testPaletteGrowsToDirectValues() throws Exception
+    {
+        final ChunkBlockData blocks = new ChunkBlockData(SIZE);
+        final short[] expected = new short[SIZE];
+        for (int i = 0; i < 600; ++ i)
+        {
+            final short value = (short) ((i + 1) << 4);
+            blocks.set(i, value);
+            expected[i] = value;
+            if (i == 14)
+            {
+                assertEquals(4, blocks.getBitsPerEntry()); // 15 types and air
+            }
+            else if (i == 15)
+            {
+                assertEquals(5, blocks.getBitsPerEntry());
+            }
+        }
+        assertEquals(ChunkBlockData.DIRECT_BITS, blocks.getBitsPerEntry());
+        assertTrue(Arrays.equals(expected, blocks.getArray()));
+        assertEquals(600, blocks.countNonZero());
+    }
+
+    @org.junit.Test
+    public void testSnapshotIsCopiedOnWrite() throws Exception
+    {
+        final short[] data = randomSection(8, 1);
+        final ChunkBlockData source = new ChunkBlockData(data);
+        final ChunkBlockData snapshot = source.snapshot();
+        assertTrue(source.isShared());
+        assertTrue(snapshot.isShared());
+
+        source.set(10, (short) (100 << 4));
+        assertEquals(data[10], snapshot.get(10));
+        assertEquals((short) (100 << 4), source.get(10));
+        assertFalse("source has own copy after write", source.isShared());
+        assertTrue(Arrays.equals(data, snapshot.getArray()));
+
+        final ChunkBlockData second = source.snapshot();
+        second.set(11, (short) (101 << 4));
+        assertEquals(data[11], source.get(11));
+        assertEquals((short) (101 << 4), second.get(11));
+    }
+
+    @org.junit.Test
+    public void testReleasedSnapshotDoesNotForceCopy() throws Exception
+    {
+        final ChunkBlockData source = new ChunkBlockData(randomSection(8, 2));
+        final ChunkBlockData snapshot = source.snapshot();
+        final int memory = source.getMemoryUsage();
+        snapshot.release();
+        assertFalse(source.isShared());
+        snapshot.release(); // second release is ignored
+        assertFalse(source.isShared());
+
+        // write to released snapshot copies storage, so source never sees it
+        final short old = source.get(5);
+        snapshot.set(5, (short) (200 << 4));
+        assertEquals(old, source.get(5));
+        assertEquals(memory, source.getMemoryUsage());
+    }
+
+    @org.junit.Test
+    public void testCompareAndSet() throws Exception
+    {
+        final ChunkBlockData blocks = new ChunkBlockData(SIZE);
+        assertFalse(blocks.compareAndSet(0, (short) 16, (short) 32));
+        assertEquals(0, blocks.get(0));
+        assertTrue(blocks.compareAndSet(0, (short) 0, (short) 0));
+        assertTrue(blocks.compareAndSet(0, (short) 0, (short) 32));
+        assertEquals(32, blocks.get(0));
+
+        // no-op and failed updates must not copy shared storage
+        final ChunkBlockData snapshot = blocks.snapshot();
+        assertTrue(blocks.compareAndSet(0, (short) 32, (short) 32));
+        assertFalse(blocks.compareAndSet(0, (short) 0, (short) 48));
+        assertTrue(blocks.isShared());
+        assertTrue(blocks.compareAndSet(0, (short) 32, (short) 48));
+        assertEquals(32, snapshot.get(0));
+        assertEquals(48, blocks.get(0));
+        assertEquals(32, blocks.getAndSet(1, (short) 32) + 32);
+    }
+
+    @org.junit.Test
+    public void testReadsDuringResize() throws Exception
+    {
+        final ChunkBlockData blocks = new ChunkBlockData(SIZE);
+        blocks.set(SIZE - 1, (short) (1 << 4));
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger errors = new AtomicInteger();
+        final Thread reader = new Thread(() -> {
+            while (! done.get())
+            {
+                // this entry is never changed, so it must be always read correctly while palette grows
+                if (blocks.get(SIZE - 1) != (short) (1 << 4))
+                {
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < (SIZE - 1); ++ i)
+        {
+            blocks.compareAndSet(i, (short) 0, (short) ((i + 2) << 4));
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(0, errors.get());
+        assertEquals(ChunkBlockData.DIRECT_BITS, blocks.getBitsPerEntry());
+        for (int i = 0; i < (SIZE - 1); ++ i)
+        {
+            assertEquals((short) ((i + 2) << 4), blocks.get(i));
+        }
+    }
+
+    private static short[] randomSection(final int types, final long seed)
+    {
+        final Random random = new Random(seed);
+        final short[] data = new short[SIZE];
+        for (int i = 0; i < SIZE; ++ i)
+        {
+            // every type is used at least once
+            data[i] = (short) ((i < types) ? (i << 4) : (random.nextInt(types) << 4));
+        }
+        return data;
+    }
+}
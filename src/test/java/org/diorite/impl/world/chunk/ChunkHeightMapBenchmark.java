@@ -0,0 +1,142 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.impl.world.BlockStates;
+import org.diorite.world.chunk.Chunk;
+
+/**
+ * Heightmap computation of chunk with terrain similar to generated one (bedrock, stone, dirt and grass around y=64, water in lower areas).
+ * Compares {@link ChunkHeightMap} with old column by column scan from top of the world.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@SuppressWarnings("MagicNumber")
+public class ChunkHeightMapBenchmark
+{
+    private static final int WATER_LEVEL = 62;
+
+    private ChunkPartImpl[] chunkParts;
+    private int[]           heightMap;
+
+    @Setup
+    public void setup()
+    {
+        this.chunkParts = new ChunkPartImpl[Chunk.CHUNK_PARTS];
+        this.heightMap = new int[ChunkHeightMap.COLUMNS];
+        for (int x = 0; x < Chunk.CHUNK_SIZE; x++)
+        {
+            for (int z = 0; z < Chunk.CHUNK_SIZE; z++)
+            {
+                final int height = 56 + (int) (8 * (Math.sin(x / 3.0) + Math.cos(z / 4.0)));
+                for (int y = 0; y <= Math.max(height, WATER_LEVEL); y++)
+                {
+                    final int id;
+                    if (y == 0)
+                    {
+                        id = 7; // bedrock
+                    }
+                    else if (y < (height - 3))
+                    {
+                        id = 1; // stone
+                    }
+                    else if (y < height)
+                    {
+                        id = 3; // dirt
+                    }
+                    else if (y == height)
+                    {
+                        id = (height < WATER_LEVEL) ? 12 : 2; // sand or grass
+                    }
+                    else
+                    {
+                        id = 9; // water
+                    }
+                    this.getPart(y).setBlock(x, y & 15, z, id, 0);
+                }
+                if ((height >= WATER_LEVEL) && (((x * 7) + (z * 3)) % 5 == 0))
+                {
+                    this.getPart(height + 1).setBlock(x, (height + 1) & 15, z, 31, 1); // tall grass
+                }
+            }
+        }
+        ChunkHeightMap.compute(this.chunkParts, this.heightMap);
+    }
+
+    private ChunkPartImpl getPart(final int y)
+    {
+        ChunkPartImpl chunkPart = this.chunkParts[y >> 4];
+        if (chunkPart == null)
+        {
+            chunkPart = new ChunkPartImpl((byte) (y >> 4), true);
+            this.chunkParts[y >> 4] = chunkPart;
+        }
+        return chunkPart;
+    }
+
+    @Benchmark
+    public int[] columnScan()
+    {
+        for (int x = 0; x < Chunk.CHUNK_SIZE; x++)
+        {
+            for (int z = 0; z < Chunk.CHUNK_SIZE; z++)
+            {
+                this.heightMap[(z << 4) | x] = ChunkHeightMap.NO_BLOCK;
+                for (int y = Chunk.CHUNK_FULL_HEIGHT - 1; y >= 0; y--)
+                {
+                    final ChunkPartImpl chunkPart = this.chunkParts[y >> 4];
+                    if ((chunkPart != null) && BlockStates.isSolid(chunkPart.getRawBlock(x, y & 15, z)))
+                    {
+                        this.heightMap[(z << 4) | x] = y;
+                        break;
+                    }
+                }
+            }
+        }
+        return this.heightMap;
+    }
+
+    @Benchmark
+    public int[] sectionAware()
+    {
+        ChunkHeightMap.compute(this.chunkParts, this.heightMap);
+        return this.heightMap;
+    }
+
+    @Benchmark
+    public int[] incrementalUpdate()
+    {
+        for (int xz = 0; xz < ChunkHeightMap.COLUMNS; xz++)
+        {
+            final int x = xz & 15;
+            final int z = xz >> 4;
+            final int y = this.heightMap[xz];
+            ChunkHeightMap.update(this.chunkParts, this.heightMap, x, y, z, false);
+            this.heightMap[xz] = y;
+        }
+        return this.heightMap;
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ChunkHeightMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.utils.math.pack.IntsToLong;
+
+/**
+ * Compares {@link ChunkMap} with old {@link ConcurrentHashMap} of boxed keys used by {@link ChunkManagerImpl}.
+ * Every operation is a lookup of random chunk in given radius using same pattern as {@link ChunkManagerImpl#getChunk(int, int)},
+ * creating missing values, and some of operations removes chunk (like unloading) so inserts never stop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class ChunkMapBenchmark
+{
+    @Param({"16", "64"})
+    private int radius;
+
+    /**
+     * One of that many operations removes chunk instead of getting it.
+     */
+    @Param({"16", "256"})
+    private int removeRatio;
+
+    private ChunkMap<Object>            chunkMap;
+    private ConcurrentMap<Long, Object> concurrentMap;
+
+    @Setup
+    public void setup()
+    {
+        this.chunkMap = new ChunkMap<>(1000, 16);
+        this.concurrentMap = new ConcurrentHashMap<>(1000, .25f, 8);
+        for (int x = - this.radius; x < this.radius; x++)
+        {
+            for (int z = - this.radius; z < this.radius; z++)
+            {
+                final Object value = new Object();
+                this.chunkMap.put(IntsToLong.pack(x, z), value);
+                this.concurrentMap.put(IntsToLong.pack(x, z), value);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object chunkMap()
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long key = IntsToLong.pack(random.nextInt(- this.radius, this.radius), random.nextInt(- this.radius, this.radius));
+        if (random.nextInt(this.removeRatio) == 0)
+        {
+            return this.chunkMap.remove(key);
+        }
+        final Object value = this.chunkMap.get(key);
+        if (value != null)
+        {
+            return value;
+        }
+        return this.chunkMap.computeIfAbsent(key, k -> new Object());
+    }
+
+    @Benchmark
+    public Object concurrentHashMap()
+    {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Long key = IntsToLong.pack(random.nextInt(- this.radius, this.radius), random.nextInt(- this.radius, this.radius));
+        if (random.nextInt(this.removeRatio) == 0)
+        {
+            return this.concurrentMap.remove(key);
+        }
+        if (this.concurrentMap.containsKey(key))
+        {
+            return this.concurrentMap.get(key);
+        }
+        final Object value = new Object();
+        final Object prev = this.concurrentMap.putIfAbsent(key, value);
+        return (prev == null) ? value : prev;
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ChunkMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
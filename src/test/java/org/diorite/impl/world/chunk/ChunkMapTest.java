@@ -0,0 +1,241 @@
+package org.diorite.impl.world.chunk;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import junit.framework.TestCase;
+
+public class ChunkMapTest extends TestCase
+{
+    @org.junit.Test
+    public void testPutGetRemove() throws Exception
+    {
+        final ChunkMap<String> map = new ChunkMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(key(- 5, 7), "a"));
+        assertEquals("a", map.put(key(- 5, 7), "b"));
+        assertEquals("b", map.putIfAbsent(key(- 5, 7), "c"));
+        assertNull(map.putIfAbsent(key(7, - 5), "d"));
+        assertEquals("b", map.get(key(- 5, 7)));
+        assertEquals("d", map.get(key(7, - 5)));
+        assertNull(map.get(key(0, 0)));
+        assertEquals(2, map.size());
+
+        assertFalse(map.remove(key(- 5, 7), "x"));
+        assertTrue(map.remove(key(- 5, 7), "b"));
+        assertNull(map.remove(key(- 5, 7)));
+        assertEquals("d", map.remove(key(7, - 5)));
+        assertTrue(map.isEmpty());
+    }
+
+    @org.junit.Test
+    public void testCollisions() throws Exception
+    {
+        final ChunkMap<Long> map = new ChunkMap<>(4, 1); // single segment with 8 slots
+        final long[] keys = collidingKeys(4, 7);
+        for (final long key : keys)
+        {
+            map.put(key, key);
+        }
+        for (final long key : keys)
+        {
+            assertEquals(Long.valueOf(key), map.get(key));
+        }
+
+        // removed entry in the middle of probe chain must not hide entries after it
+        assertEquals(Long.valueOf(keys[1]), map.remove(keys[1]));
+        assertNull(map.get(keys[1]));
+        assertEquals(Long.valueOf(keys[2]), map.get(keys[2]));
+        assertEquals(Long.valueOf(keys[3]), map.get(keys[3]));
+
+        // key after tombstone is updated, not added again
+        assertEquals(Long.valueOf(keys[3]), map.put(keys[3], - 1L));
+        assertEquals(3, map.size());
+        map.put(keys[1], keys[1]);
+        assertEquals(4, map.size());
+        assertEquals(Long.valueOf(- 1L), map.get(keys[3]));
+    }
+
+    @org.junit.Test
+    public void testResize() throws Exception
+    {
+        final ChunkMap<Long> map = new ChunkMap<>(8, 2);
+        for (int x = - 50; x < 50; ++ x)
+        {
+            for (int z = - 50; z < 50; ++ z)
+            {
+                map.put(key(x, z), key(x, z));
+            }
+        }
+        assertEquals(10000, map.size());
+        assertEquals(10000, map.values().size());
+        for (int x = - 50; x < 50; ++ x)
+        {
+            for (int z = - 50; z < 50; ++ z)
+            {
+                assertEquals(Long.valueOf(key(x, z)), map.get(key(x, z)));
+            }
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(key(0, 0)));
+    }
+
+    @org.junit.Test
+    public void testTombstonesAreDropped() throws Exception
+    {
+        final ChunkMap<Long> map = new ChunkMap<>(8, 1);
+        map.put(key(0, 0), 0L);
+        // every key is new, so table would be full of tombstones if they were never dropped
+        for (int i = 1; i < 100_000; ++ i)
+        {
+            map.put(key(i, i), (long) i);
+            assertEquals(Long.valueOf(i), map.remove(key(i, i)));
+        }
+        assertEquals(1, map.size());
+        assertEquals(Long.valueOf(0), map.get(key(0, 0)));
+        assertNull(map.get(key(5, 5)));
+        assertTrue("table must not grow because of tombstones", tableLength(map) <= 16);
+    }
+
+    @org.junit.Test
+    public void testIteratorRemove() throws Exception
+    {
+        final ChunkMap<Integer> map = new ChunkMap<>(16, 4);
+        for (int i = 0; i < 100; ++ i)
+        {
+            map.put(key(i, - i), i);
+        }
+        int count = 0;
+        for (final Iterator<Integer> it = map.iterator(); it.hasNext(); )
+        {
+            if ((it.next() % 2) == 0)
+            {
+                it.remove();
+            }
+            count++;
+        }
+        assertEquals(100, count);
+        assertEquals(50, map.size());
+        final AtomicInteger sum = new AtomicInteger();
+        map.forEach((final long key, final Integer value) -> {
+            assertEquals(key(value, - value), key);
+            sum.addAndGet(value);
+        });
+        assertEquals(2500, sum.get()); // 1 + 3 + ... + 99
+    }
+
+    @org.junit.Test
+    public void testConcurrentComputeIfAbsent() throws Exception
+    {
+        final ChunkMap<Object> map = new ChunkMap<>(16, 4);
+        final int threadsCount = 8;
+        final int keys = 5000;
+        final AtomicInteger created = new AtomicInteger();
+        final Object[][] results = new Object[threadsCount][keys];
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>(threadsCount);
+        for (int t = 0; t < threadsCount; ++ t)
+        {
+            final Object[] result = results[t];
+            final Thread thread = new Thread(() -> {
+                try
+                {
+                    start.await();
+                } catch (final InterruptedException e)
+                {
+                    return;
+                }
+                for (int i = 0; i < keys; ++ i)
+                {
+                    result[i] = map.computeIfAbsent(key(i, i >> 3), k -> {
+                        created.incrementAndGet();
+                        return new Object();
+                    });
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals("value must be created once per key", keys, created.get());
+        assertEquals(keys, map.size());
+        for (int i = 0; i < keys; ++ i)
+        {
+            for (int t = 1; t < threadsCount; ++ t)
+            {
+                assertSame(results[0][i], results[t][i]);
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testReadsDuringResize() throws Exception
+    {
+        final ChunkMap<Long> map = new ChunkMap<>(8, 1);
+        map.put(key(- 1, - 1), - 1L);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger errors = new AtomicInteger();
+        final Thread reader = new Thread(() -> {
+            while (! done.get())
+            {
+                if (map.get(key(- 1, - 1)) == null)
+                {
+                    errors.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200_000; ++ i)
+        {
+            map.put(key(i, 0), (long) i);
+            if ((i % 3) == 0)
+            {
+                map.remove(key(i, 0));
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertEquals("entry must be visible while table is rebuilt", 0, errors.get());
+    }
+
+    private static long key(final int x, final int z)
+    {
+        return (((long) x) << 32) | (z & 0xffffffffL);
+    }
+
+    private static long[] collidingKeys(final int count, final int mask)
+    {
+        final long[] keys = new long[count];
+        final int index = ChunkMap.hash(0) & mask;
+        int found = 0;
+        for (long key = 0; found < count; ++ key)
+        {
+            if ((ChunkMap.hash(key) & mask) == index)
+            {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static int tableLength(final ChunkMap<?> map) throws Exception
+    {
+        final Field segmentsField = ChunkMap.class.getDeclaredField("segments");
+        segmentsField.setAccessible(true);
+        final Object segment = ((Object[]) segmentsField.get(map))[0];
+        final Field tableField = segment.getClass().getDeclaredField("table");
+        tableField.setAccessible(true);
+        return ((AtomicReferenceArray<?>) tableField.get(segment)).length();
+    }
+}
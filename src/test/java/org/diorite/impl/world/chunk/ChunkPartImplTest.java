@@ -0,0 +1,91 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.diorite.utils.collections.arrays.NibbleArray;
+
+import junit.framework.TestCase;
+
+public class ChunkPartImplTest extends TestCase
+{
+    @org.junit.Test
+    public void testSnapshotLightIsCopiedOnWrite() throws Exception
+    {
+        final ChunkPartImpl section = new ChunkPartImpl((byte) 0, true);
+        section.setBlockLight(1, 1, 1, 7);
+        final ChunkPartImpl snapshot = section.snapshot();
+        assertSame(section.getBlockLight(), snapshot.getBlockLight());
+
+        section.setBlockLight(1, 1, 1, 9);
+        assertEquals(7, snapshot.getBlockLight(1, 1, 1));
+        assertEquals(9, section.getBlockLight(1, 1, 1));
+        assertNotSame(section.getBlockLight(), snapshot.getBlockLight());
+    }
+
+    @org.junit.Test
+    public void testReleasedSnapshotDoesNotForceLightCopy() throws Exception
+    {
+        final ChunkPartImpl section = new ChunkPartImpl((byte) 0, true);
+        section.setBlockLight(1, 1, 1, 7);
+        section.snapshot().release();
+        final NibbleArray light = section.getBlockLight();
+
+        // snapshot was released, so light array isn't shared anymore and it is changed in place
+        section.setBlockLight(1, 1, 1, 9);
+        assertSame(light, section.getBlockLight());
+        assertEquals(9, section.getBlockLight(1, 1, 1));
+    }
+
+    @org.junit.Test
+    public void testLightIsCopiedWhileAnySnapshotIsUsed() throws Exception
+    {
+        final ChunkPartImpl section = new ChunkPartImpl((byte) 0, true);
+        section.setBlockLight(1, 1, 1, 7);
+        final ChunkPartImpl first = section.snapshot();
+        final ChunkPartImpl second = section.snapshot();
+        first.release();
+        first.release(); // second release is ignored
+
+        section.setBlockLight(1, 1, 1, 9);
+        assertEquals(7, second.getBlockLight(1, 1, 1));
+
+        // instance changed after template was copied is the only user of its arrays
+        final ChunkPartImpl instance = section.instance();
+        section.setSkyLight(2, 2, 2, 3);
+        final NibbleArray light = instance.getBlockLight();
+        instance.setBlockLight(1, 1, 1, 4);
+        assertSame(light, instance.getBlockLight());
+        assertEquals(9, section.getBlockLight(1, 1, 1));
+    }
+
+    @org.junit.Test
+    public void testConcurrentBlocksCount() throws Exception
+    {
+        final ChunkPartImpl section = new ChunkPartImpl((byte) 0, true);
+        final int threadsCount = 8;
+        final int perThread = ChunkPartImpl.CHUNK_DATA_SIZE / threadsCount;
+        final List<Thread> threads = new ArrayList<>(threadsCount);
+        for (int t = 0; t < threadsCount; ++ t)
+        {
+            final int first = t * perThread;
+            final Thread thread = new Thread(() -> {
+                for (int round = 0; round < 1000; ++ round)
+                {
+                    for (int i = first; i < (first + perThread); ++ i)
+                    {
+                        section.setBlock(i & 15, i >> 8, (i >> 4) & 15, (round == 999) ? 1 : (round & 1), 0);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (final Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(ChunkPartImpl.CHUNK_DATA_SIZE, section.getBlocks().countNonZero());
+        assertEquals("updates of counter must not be lost", ChunkPartImpl.CHUNK_DATA_SIZE, section.getBlocksCount());
+    }
+}
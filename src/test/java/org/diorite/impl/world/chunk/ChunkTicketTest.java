@@ -0,0 +1,108 @@
+package org.diorite.impl.world.chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.diorite.world.chunk.ChunkPos;
+
+import junit.framework.TestCase;
+
+public class ChunkTicketTest extends TestCase
+{
+    @org.junit.Test
+    public void testRefCount() throws Exception
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+        assertFalse(chunk.isInUse());
+        assertEquals(1, chunk.addTicket());
+        assertEquals(2, chunk.addTicket());
+        assertTrue(chunk.isInUse());
+        assertFalse("chunk in use can't be evicted", chunk.tryEvict());
+        assertEquals(1, chunk.removeTicket());
+        assertEquals(0, chunk.removeTicket());
+        assertEquals("counter can't drop below zero", 0, chunk.removeTicket());
+        assertFalse(chunk.isInUse());
+    }
+
+    @org.junit.Test
+    public void testEviction() throws Exception
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+        assertTrue(chunk.tryEvict());
+        assertTrue(chunk.isEvicted());
+        assertEquals("evicted chunk can't get tickets", - 1, chunk.addTicket());
+        assertEquals(- 1, chunk.removeTicket());
+        assertFalse(chunk.tryEvict());
+    }
+
+    @org.junit.Test
+    public void testConcurrentTickets() throws Exception
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>(4);
+        for (int t = 0; t < 4; ++ t)
+        {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 100000; ++ i)
+                {
+                    assertTrue(chunk.addTicket() > 0);
+                    assertTrue(chunk.removeTicket() >= 0);
+                }
+            }));
+        }
+        for (final Future<?> future : futures)
+        {
+            future.get();
+        }
+        pool.shutdown();
+        assertEquals(0, chunk.getTicketCount());
+        assertTrue(chunk.tryEvict());
+    }
+
+    @org.junit.Test
+    public void testTicketWaitsForUnload() throws Exception
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final Future<Integer> ticket;
+        synchronized (chunk.getLoadLock())
+        {
+            assertTrue(chunk.tryBeginUnload());
+            assertFalse(chunk.isInUse());
+            ticket = pool.submit(chunk::addTicket);
+            Thread.sleep(100);
+            assertFalse("ticket must wait until unload is done", ticket.isDone());
+            assertTrue(chunk.finishUnload());
+        }
+        assertEquals("unloaded chunk is evicted", - 1, ticket.get(10, TimeUnit.SECONDS).intValue());
+        pool.shutdown();
+    }
+
+    @org.junit.Test
+    public void testChunkInUseIsNotUnloaded() throws Exception
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+        assertEquals(1, chunk.addTicket());
+        assertFalse(chunk.tryBeginUnload());
+        assertEquals(0, chunk.removeTicket());
+
+        // unload failed, chunk is still loaded and can get tickets again
+        chunk.setChunkParts(new ChunkPartImpl[16]);
+        assertTrue(chunk.tryBeginUnload());
+        assertFalse(chunk.finishUnload());
+        assertFalse(chunk.isEvicted());
+        assertEquals(1, chunk.addTicket());
+    }
+
+    @org.junit.Test
+    public void testUnloadDelay() throws Exception
+    {
+        assertTrue(ChunkTicketType.PLAYER.getUnloadDelay() > 0);
+        assertEquals(0, ChunkTicketType.FORCED.getUnloadDelay());
+    }
+}
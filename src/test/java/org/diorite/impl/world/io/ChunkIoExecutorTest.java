@@ -0,0 +1,141 @@
+package org.diorite.impl.world.io;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class ChunkIoExecutorTest extends TestCase
+{
+    @org.junit.Test
+    public void testCoalescedWriteDiscardsReplacedData() throws Exception
+    {
+        final ChunkIoExecutor executor = new ChunkIoExecutor("test", 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final List<String> discarded = new CopyOnWriteArrayList<>();
+        final ChunkIoExecutor.IoWriter<String> writer = new ChunkIoExecutor.IoWriter<String>()
+        {
+            @Override
+            public void write(final long key, final String data) throws IOException
+            {
+                written.add(data);
+            }
+
+            @Override
+            public void discard(final long key, final String data)
+            {
+                discarded.add(data);
+            }
+        };
+        try
+        {
+            // only I/O thread is blocked, so writes of other chunk are waiting
+            executor.submit(1, () -> await(latch));
+            executor.submitWrite(2, "old", writer);
+            executor.submitWrite(2, "new", writer);
+            latch.countDown();
+            assertTrue(executor.flush());
+            assertEquals("[new]", written.toString());
+            assertEquals("[old]", discarded.toString());
+        } finally
+        {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testFlushReportsFailure() throws Exception
+    {
+        final ChunkIoExecutor executor = new ChunkIoExecutor("test", 2);
+        try
+        {
+            executor.submit(1, () -> {
+                throw new IOException("expected failure");
+            });
+            assertFalse("failed task must be reported", executor.flush());
+            executor.submit(1, () -> null);
+            assertTrue(executor.flush());
+        } finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testSubmitNeverRunsTaskInCaller() throws Exception
+    {
+        final ChunkIoExecutor executor = new ChunkIoExecutor("test", 1, 2);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        try
+        {
+            executor.submit(0, () -> await(latch));
+            for (int i = 1; i <= 20; ++ i)
+            {
+                // queue is full after first few chunks, but submitting thread is never used for I/O
+                executor.submit(i, () -> threads.add(Thread.currentThread()));
+            }
+            assertTrue("tasks can't run while I/O thread is blocked", threads.isEmpty());
+            latch.countDown();
+            assertTrue(executor.flush());
+            assertEquals(20, threads.size());
+            assertFalse(threads.contains(Thread.currentThread()));
+        } finally
+        {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @org.junit.Test
+    public void testAwaitCapacityBlocksUntilQueueIsDrained() throws Exception
+    {
+        final ChunkIoExecutor executor = new ChunkIoExecutor("test", 1, 2);
+        final CountDownLatch latch = new CountDownLatch(1);
+        try
+        {
+            executor.submit(0, () -> await(latch));
+            executor.submit(1, () -> null);
+            executor.submit(2, () -> null);
+            final CountDownLatch passed = new CountDownLatch(1);
+            final Thread producer = new Thread(() -> {
+                try
+                {
+                    executor.awaitCapacity();
+                    passed.countDown();
+                } catch (final InterruptedException ignored)
+                {
+                }
+            });
+            producer.start();
+            assertFalse("producer must wait while queue is full", passed.await(200, TimeUnit.MILLISECONDS));
+            latch.countDown();
+            assertTrue("producer must continue when queue is drained", passed.await(10, TimeUnit.SECONDS));
+            producer.join();
+            assertTrue(executor.flush());
+            // queue is empty now, so it returns immediately
+            executor.awaitCapacity();
+        } finally
+        {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static Void await(final CountDownLatch latch) throws IOException
+    {
+        try
+        {
+            latch.await();
+            return null;
+        } catch (final InterruptedException e)
+        {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.impl.world.chunk.ChunkBlockData;
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.nbt.NbtInputStream;
+import org.diorite.nbt.NbtLimiter;
+import org.diorite.nbt.NbtOutputStream;
+import org.diorite.nbt.NbtTagCompound;
+import org.diorite.world.chunk.Chunk;
+import org.diorite.world.chunk.ChunkPos;
+
+/**
+ * Compares reading and writing of all chunks of region file using NBT tree ({@link ChunkImpl#loadFrom(NbtTagCompound)}
+ * and {@link ChunkImpl#writeTo(NbtTagCompound, long, boolean)}) and {@link AnvilChunkCodec}.
+ * <br>
+ * Real region file can be used by setting "diorite.region" system property to path of .mca file,
+ * otherwise region with generated chunks is used. Chunks are decompressed before benchmark, so only codec is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("MagicNumber")
+public class AnvilChunkCodecBenchmark
+{
+    private static final int CHUNKS = 1024;
+
+    private byte[][]              chunks;
+    private ChunkImpl[]           loaded;
+    private ByteArrayOutputStream output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        final String path = System.getProperty("diorite.region");
+        final File file;
+        if (path == null)
+        {
+            file = File.createTempFile("diorite-codec", ".mca");
+            file.delete();
+            file.deleteOnExit();
+            generateRegion(file);
+        }
+        else
+        {
+            file = new File(path);
+        }
+        final List<byte[]> chunks = new ArrayList<>(CHUNKS);
+        final RegionFile region = RegionFile.open(file, false);
+        try
+        {
+            final byte[] buffer = new byte[8192];
+            for (int i = 0; i < CHUNKS; ++ i)
+            {
+                if (! region.hasChunk(i & 31, i >> 5))
+                {
+                    continue;
+                }
+                final ByteArrayOutputStream data = new ByteArrayOutputStream(32768);
+                try (final DataInputStream in = region.getChunkDataInputStream(i & 31, i >> 5))
+                {
+                    int read;
+                    while ((read = in.read(buffer)) != - 1)
+                    {
+                        data.write(buffer, 0, read);
+                    }
+                }
+                chunks.add(data.toByteArray());
+            }
+        } finally
+        {
+            region.close();
+        }
+        if (chunks.isEmpty())
+        {
+            throw new IllegalStateException("Region file doesn't contain any chunk: " + file);
+        }
+        this.chunks = chunks.toArray(new byte[chunks.size()][]);
+        this.loaded = new ChunkImpl[this.chunks.length];
+        for (int i = 0; i < this.chunks.length; ++ i)
+        {
+            this.loaded[i] = this.streamRead(i);
+        }
+        this.output = new ByteArrayOutputStream(65536);
+    }
+
+    @Benchmark
+    public int treeRead() throws IOException
+    {
+        int sum = 0;
+        for (int i = 0; i < this.chunks.length; ++ i)
+        {
+            final NbtTagCompound root = (NbtTagCompound) NbtInputStream.readTag(new ByteArrayInputStream(this.chunks[i]), NbtLimiter.getUnlimited());
+            final ChunkImpl chunk = new ChunkImpl(new ChunkPos(0, 0, null));
+            chunk.loadFrom(root.getCompound("Level"));
+            sum += chunk.getHeightMap()[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int streamRead() throws IOException
+    {
+        int sum = 0;
+        for (int i = 0; i < this.chunks.length; ++ i)
+        {
+            sum += this.streamRead(i).getHeightMap()[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int treeWrite() throws IOException
+    {
+        int size = 0;
+        for (final ChunkImpl chunk : this.loaded)
+        {
+            this.output.reset();
+            final NbtTagCompound root = new NbtTagCompound();
+            root.addTag(chunk.writeTo(new NbtTagCompound("Level"), 0, true));
+            NbtOutputStream.write(root, this.output);
+            size += this.output.size();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int streamWrite() throws IOException
+    {
+        int size = 0;
+        for (final ChunkImpl chunk : this.loaded)
+        {
+            this.output.reset();
+            final DataOutputStream out = new DataOutputStream(this.output);
+            AnvilChunkCodec.write(out, chunk, 0, true);
+            out.flush();
+            size += this.output.size();
+        }
+        return size;
+    }
+
+    private ChunkImpl streamRead(final int i) throws IOException
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(i & 31, i >> 5, null));
+        AnvilChunkCodec.read(new DataInputStream(new ByteArrayInputStream(this.chunks[i])), chunk);
+        return chunk;
+    }
+
+    private static void generateRegion(final File file) throws IOException
+    {
+        final Random random = new Random(CHUNKS);
+        final RegionFile region = RegionFile.open(file, false);
+        try
+        {
+            for (int i = 0; i < CHUNKS; ++ i)
+            {
+                // 5 sections of stone with some ores, dirt and air, like typical overworld chunk
+                final ChunkPartImpl[] parts = new ChunkPartImpl[Chunk.CHUNK_FULL_HEIGHT / Chunk.CHUNK_PART_HEIGHT];
+                for (int y = 0; y < 5; ++ y)
+                {
+                    final short[] blocks = new short[ChunkPartImpl.CHUNK_DATA_SIZE];
+                    for (int j = 0; j < blocks.length; ++ j)
+                    {
+                        final int id = (y < 4) ? ((random.nextInt(20) == 0) ? (14 + random.nextInt(3)) : 1) : (((j >> 8) < 4) ? 3 : 0);
+                        blocks[j] = (short) (id << 4);
+                    }
+                    parts[y] = new ChunkPartImpl(new ChunkBlockData(blocks), (byte) y, true);
+                }
+                final byte[] biomes = new byte[Chunk.CHUNK_BIOMES_SIZE];
+                random.nextBytes(biomes);
+                final ChunkImpl chunk = new ChunkImpl(new ChunkPos(i & 31, i >> 5, null));
+                chunk.loadFrom(parts, biomes, null, true);
+                try (final DataOutputStream out = region.getChunkDataOutputStream(i & 31, i >> 5))
+                {
+                    AnvilChunkCodec.write(out, chunk, 0, true);
+                }
+            }
+        } finally
+        {
+            region.close();
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(AnvilChunkCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
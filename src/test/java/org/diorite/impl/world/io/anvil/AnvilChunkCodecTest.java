@@ -0,0 +1,181 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.world.chunk.ChunkPos;
+
+import junit.framework.TestCase;
+
+public class AnvilChunkCodecTest extends TestCase
+{
+    private static final int TAG_END        = 0;
+    private static final int TAG_BYTE       = 1;
+    private static final int TAG_INT        = 3;
+    private static final int TAG_BYTE_ARRAY = 7;
+    private static final int TAG_STRING     = 8;
+    private static final int TAG_LIST       = 9;
+    private static final int TAG_COMPOUND   = 10;
+    private static final int TAG_INT_ARRAY  = 11;
+
+    @org.junit.Test
+    public void testRoundTrip() throws Exception
+    {
+        final ChunkImpl chunk = read(createChunkData());
+        assertEquals(3, chunk.getX());
+        assertEquals(- 5, chunk.getZ());
+        assertTrue(chunk.isPopulated());
+        final ChunkPartImpl section = chunk.getChunkParts()[2];
+        assertNotNull(section);
+        assertNull(chunk.getChunkParts()[0]);
+        // block 1 is stone (id 1), block 2 is wool (id 35) with meta 14
+        assertEquals((short) (1 << 4), section.getBlocks().get(1));
+        assertEquals((short) ((35 << 4) | 14), section.getBlocks().get(2));
+        assertEquals(2, section.getBlocksCount());
+
+        final byte[] written = write(chunk);
+        final ChunkImpl copy = read(written);
+        assertTrue(Arrays.equals(section.getBlocks().getArray(), copy.getChunkParts()[2].getBlocks().getArray()));
+        assertTrue(Arrays.equals(chunk.getBiomes(), copy.getBiomes()));
+        assertTrue(Arrays.equals(chunk.getHeightMap(), copy.getHeightMap()));
+        assertTrue("data should not change after second round trip", Arrays.equals(written, write(copy)));
+    }
+
+    @org.junit.Test
+    public void testUnknownTagsAreKept() throws Exception
+    {
+        final ChunkImpl chunk = read(write(read(createChunkData())));
+
+        final Map<String, byte[]> rootTags = chunk.getUnknownRootTags();
+        assertNotNull(rootTags);
+        assertTrue(Arrays.equals(intTag("DataVersion", 169), rootTags.get("DataVersion")));
+
+        final Map<String, byte[]> levelTags = chunk.getUnknownTags();
+        assertNotNull(levelTags);
+        assertTrue(Arrays.equals(entitiesTag(), levelTags.get("Entities")));
+
+        final Map<String, byte[]> sectionTags = chunk.getChunkParts()[2].getUnknownTags();
+        assertNotNull("unknown tags of section should be kept", sectionTags);
+        assertEquals(2, sectionTags.size());
+        assertTrue(Arrays.equals(intTag("Custom", 42), sectionTags.get("Custom")));
+        assertTrue(Arrays.equals(paletteTag(), sectionTags.get("Palette")));
+    }
+
+    @org.junit.Test
+    public void testSnapshotKeepsUnknownSectionTags() throws Exception
+    {
+        final ChunkPartImpl section = read(createChunkData()).getChunkParts()[2];
+        final ChunkPartImpl snapshot = section.snapshot();
+        assertSame(section.getUnknownTags(), snapshot.getUnknownTags());
+        snapshot.release();
+    }
+
+    private static ChunkImpl read(final byte[] data) throws IOException
+    {
+        final ChunkImpl chunk = new ChunkImpl(new ChunkPos(3, - 5, null));
+        AnvilChunkCodec.read(new DataInputStream(new ByteArrayInputStream(data)), chunk);
+        return chunk;
+    }
+
+    private static byte[] write(final ChunkImpl chunk) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16384);
+        AnvilChunkCodec.write(new DataOutputStream(buffer), chunk, 1000, true);
+        return buffer.toByteArray();
+    }
+
+    private static byte[] createChunkData() throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16384);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        header(out, TAG_COMPOUND, "");
+        out.write(intTag("DataVersion", 169));
+        header(out, TAG_COMPOUND, "Level");
+        out.write(intTag("xPos", 3));
+        out.write(intTag("zPos", - 5));
+        header(out, TAG_BYTE, "TerrainPopulated");
+        out.writeByte(1);
+        out.write(entitiesTag());
+
+        header(out, TAG_LIST, "Sections");
+        out.writeByte(TAG_COMPOUND);
+        out.writeInt(1);
+        header(out, TAG_BYTE, "Y");
+        out.writeByte(2);
+        out.write(paletteTag());
+        final byte[] blocks = new byte[4096];
+        blocks[1] = 1;
+        blocks[2] = 35;
+        byteArray(out, "Blocks", blocks);
+        final byte[] data = new byte[2048];
+        data[1] = 14; // meta of block 2
+        byteArray(out, "Data", data);
+        out.write(intTag("Custom", 42));
+        byteArray(out, "BlockLight", new byte[2048]);
+        final byte[] skyLight = new byte[2048];
+        Arrays.fill(skyLight, (byte) 0xff);
+        byteArray(out, "SkyLight", skyLight);
+        out.writeByte(TAG_END); // end of section
+
+        final byte[] biomes = new byte[256];
+        Arrays.fill(biomes, (byte) 4);
+        byteArray(out, "Biomes", biomes);
+        out.writeByte(TAG_END); // end of Level
+        out.writeByte(TAG_END); // end of root
+        return buffer.toByteArray();
+    }
+
+    private static byte[] intTag(final String name, final int value) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        header(out, TAG_INT, name);
+        out.writeInt(value);
+        return buffer.toByteArray();
+    }
+
+    private static byte[] paletteTag() throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(32);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        header(out, TAG_INT_ARRAY, "Palette");
+        out.writeInt(3);
+        out.writeInt(0);
+        out.writeInt(16);
+        out.writeInt(574);
+        return buffer.toByteArray();
+    }
+
+    private static byte[] entitiesTag() throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(32);
+        final DataOutputStream out = new DataOutputStream(buffer);
+        header(out, TAG_LIST, "Entities");
+        out.writeByte(TAG_COMPOUND);
+        out.writeInt(1);
+        header(out, TAG_STRING, "id");
+        out.writeUTF("Pig");
+        out.writeByte(TAG_END);
+        return buffer.toByteArray();
+    }
+
+    private static void header(final DataOutputStream out, final int type, final String name) throws IOException
+    {
+        out.writeByte(type);
+        out.writeUTF(name);
+    }
+
+    private static void byteArray(final DataOutputStream out, final String name, final byte[] array) throws IOException
+    {
+        header(out, TAG_BYTE_ARRAY, name);
+        out.writeInt(array.length);
+        out.write(array);
+    }
+}
@@ -0,0 +1,190 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.diorite.utils.math.pack.IntsToLong;
+
+import junit.framework.TestCase;
+
+public class ChunkExistenceIndexTest extends TestCase
+{
+    private static final long LAST_MODIFIED = 1_000_000_000_000L;
+
+    @org.junit.Test
+    public void testBuildFromRegionHeader() throws Exception
+    {
+        final File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            writeChunks(dir, 0, 0, 31, 31, 40, 3);
+            writeChunks(dir, - 1, - 33);
+            final ChunkExistenceIndex index = new ChunkExistenceIndex(dir, ".mca");
+            assertTrue(index.hasChunk(0, 0));
+            assertTrue(index.hasChunk(31, 31));
+            assertTrue(index.hasChunk(40, 3));
+            assertTrue(index.hasChunk(- 1, - 33));
+            assertFalse(index.hasChunk(1, 0));
+            assertFalse(index.hasChunk(- 2, - 33));
+            assertFalse("region without file is empty", index.hasChunk(1000, 1000));
+            assertEquals(4, index.getRegions());
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testPrebuildUnbuiltRegions() throws Exception
+    {
+        final File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            writeChunks(dir, 0, 0, 40, 3, - 1, - 33);
+            new File(dir, "r.mca").createNewFile(); // not a region file
+            final ChunkExistenceIndex index = new ChunkExistenceIndex(dir, ".mca");
+            final long[] regions = index.getUnbuiltRegions();
+            Arrays.sort(regions);
+            final long[] expected = {IntsToLong.pack(0, 0), IntsToLong.pack(1, 0), IntsToLong.pack(- 1, - 2)};
+            Arrays.sort(expected);
+            assertTrue(Arrays.toString(regions), Arrays.equals(expected, regions));
+
+            for (final long region : regions)
+            {
+                index.prebuild(region);
+            }
+            assertEquals(3, index.getRegions());
+            assertEquals(0, index.getUnbuiltRegions().length);
+            assertTrue(index.hasChunk(40, 3));
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testSaveAndLoad() throws Exception
+    {
+        final File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            writeChunks(dir, 0, 0);
+            final File region = new File(dir, "r.0.0.mca");
+            region.setLastModified(LAST_MODIFIED);
+            final ChunkExistenceIndex index = new ChunkExistenceIndex(dir, ".mca");
+            assertTrue(index.hasChunk(0, 0));
+            // only in index, so it is visible after load only if saved bitmap is used
+            index.add(5, 5);
+            assertFalse(index.hasChunk(1000, 1000));
+            index.save();
+
+            final ChunkExistenceIndex loaded = new ChunkExistenceIndex(dir, ".mca");
+            assertEquals(2, loaded.getRegions());
+            assertEquals(0, loaded.getUnbuiltRegions().length);
+            assertTrue(loaded.hasChunk(0, 0));
+            assertTrue("bitmap must be loaded from index", loaded.hasChunk(5, 5));
+            assertFalse(loaded.hasChunk(1000, 1000));
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testChangedRegionIsRebuilt() throws Exception
+    {
+        final File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            writeChunks(dir, 0, 0, 40, 0);
+            final File first = new File(dir, "r.0.0.mca");
+            final File second = new File(dir, "r.1.0.mca");
+            first.setLastModified(LAST_MODIFIED);
+            second.setLastModified(LAST_MODIFIED);
+            final ChunkExistenceIndex index = new ChunkExistenceIndex(dir, ".mca");
+            index.add(5, 5);
+            index.add(45, 5);
+            index.save();
+
+            // changed by other software, first with the same length, second with the same modification time
+            first.setLastModified(LAST_MODIFIED + 1000);
+            try (final RandomAccessFile raf = new RandomAccessFile(second, "rw"))
+            {
+                raf.setLength(raf.length() + 4096);
+            }
+            second.setLastModified(LAST_MODIFIED);
+
+            final ChunkExistenceIndex loaded = new ChunkExistenceIndex(dir, ".mca");
+            assertEquals(2, loaded.getUnbuiltRegions().length);
+            assertFalse("stale bitmap must be dropped", loaded.hasChunk(5, 5));
+            assertFalse("stale bitmap must be dropped", loaded.hasChunk(45, 5));
+            assertTrue(loaded.hasChunk(0, 0));
+            assertTrue(loaded.hasChunk(40, 0));
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testBrokenIndexIsIgnored() throws Exception
+    {
+        final File dir = Files.createTempDirectory("index").toFile();
+        try
+        {
+            writeChunks(dir, 3, 4);
+            Files.write(new File(dir, ChunkExistenceIndex.FILE_NAME).toPath(), new byte[]{1, 2, 3});
+            final ChunkExistenceIndex index = new ChunkExistenceIndex(dir, ".mca");
+            assertEquals(0, index.getRegions());
+            assertTrue(index.hasChunk(3, 4));
+            index.save();
+            assertTrue(new ChunkExistenceIndex(dir, ".mca").hasChunk(3, 4));
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * Writes small chunks to region files in given folder.
+     *
+     * @param dir    folder of region files.
+     * @param coords x and z coordinates of chunks.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void writeChunks(final File dir, final int... coords) throws IOException
+    {
+        for (int i = 0; i < coords.length; i += 2)
+        {
+            final int x = coords[i];
+            final int z = coords[i + 1];
+            final RegionFile region = RegionFile.open(new File(dir, "r." + (x >> 5) + "." + (z >> 5) + ".mca"), false);
+            try (final DataOutputStream out = region.getChunkDataOutputStream(x & 31, z & 31))
+            {
+                out.writeInt(x);
+                out.writeInt(z);
+            } finally
+            {
+                region.close();
+            }
+        }
+    }
+
+    private static void deleteAll(final File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (final File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+}
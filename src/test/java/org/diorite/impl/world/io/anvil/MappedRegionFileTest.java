@@ -0,0 +1,137 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class MappedRegionFileTest extends TestCase
+{
+    @org.junit.Test
+    public void testStreamsDontChangeAfterSectorsAreReused() throws Exception
+    {
+        final File file = File.createTempFile("mapped", ".mca");
+        try
+        {
+            final RegionFile region = new MappedRegionFile(file);
+            final byte[] first = random(1, 6000);
+            write(region, 0, first);
+
+            final DataInputStream single = region.getChunkDataInputStream(0, 0);
+            final DataInputStream batch = RegionFile.openChunkData(region.getChunkData(new int[]{0})[0]);
+
+            // chunk of the same size is written to the same sectors before streams are read
+            write(region, 0, random(2, 6000));
+            assertEquals(first, single);
+            assertEquals(first, batch);
+
+            final byte[] second = random(2, 6000);
+            final DataInputStream moved = region.getChunkDataInputStream(0, 0);
+            // chunk is moved to bigger sectors, and its old sectors are reused by other chunk before stream is read
+            write(region, 0, random(3, 12000));
+            region.sync();
+            write(region, 1, random(4, 6000));
+            assertEquals(second, moved);
+            region.close();
+        } finally
+        {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testGrowAndReopen() throws Exception
+    {
+        final File file = File.createTempFile("mapped", ".mca");
+        try
+        {
+            RegionFile region = new MappedRegionFile(file);
+            for (int i = 0; i < 300; ++ i)
+            {
+                // incompressible data, so file must be grown and remapped few times
+                write(region, i, random(i, 3 * 4096));
+            }
+            region.close();
+            region.close();
+
+            region = new MappedRegionFile(file);
+            for (int i = 0; i < 300; ++ i)
+            {
+                assertEquals(random(i, 3 * 4096), region.getChunkDataInputStream(i & 31, i >> 5));
+            }
+            region.close();
+        } finally
+        {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testClosedFileCanBeReplaced() throws Exception
+    {
+        final File file = File.createTempFile("mapped", ".mca");
+        final File other = File.createTempFile("mapped", ".mca");
+        try
+        {
+            final RegionFile region = new MappedRegionFile(file);
+            write(region, 0, random(1, 100));
+            region.close();
+            try
+            {
+                region.getChunkDataInputStream(0, 0);
+                fail("closed region file should not be read");
+            } catch (final IOException expected)
+            {
+                // buffers are unmapped
+            }
+
+            final RegionFile replacement = new RandomAccessRegionFile(other);
+            write(replacement, 0, random(2, 100));
+            replacement.close();
+            Files.move(other.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            final RegionFile reopened = new MappedRegionFile(file);
+            assertEquals(random(2, 100), reopened.getChunkDataInputStream(0, 0));
+            reopened.close();
+        } finally
+        {
+            file.delete();
+            other.delete();
+        }
+    }
+
+    private static void write(final RegionFile region, final int index, final byte[] data) throws IOException
+    {
+        try (final DataOutputStream out = region.getChunkDataOutputStream(index & 31, index >> 5))
+        {
+            out.write(data);
+        }
+    }
+
+    private static void assertEquals(final byte[] expected, final DataInputStream in) throws IOException
+    {
+        assertNotNull(in);
+        try (final DataInputStream stream = in)
+        {
+            final byte[] data = new byte[expected.length];
+            stream.readFully(data);
+            assertEquals(- 1, stream.read());
+            for (int i = 0; i < data.length; ++ i)
+            {
+                assertEquals("byte " + i, expected[i], data[i]);
+            }
+        }
+    }
+
+    private static byte[] random(final int seed, final int length)
+    {
+        final byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
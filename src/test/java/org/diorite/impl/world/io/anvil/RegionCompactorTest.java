@@ -0,0 +1,182 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RegionCompactorTest extends TestCase
+{
+    @org.junit.Test
+    public void testCompact() throws Exception
+    {
+        final File dir = Files.createTempDirectory("compact").toFile();
+        try
+        {
+            final File file = new File(dir, "r.0.0.mca");
+            final RegionFile region = RegionFile.open(file, false);
+            final Random random = new Random(3);
+            for (int i = 0; i < 1024; i += 2)
+            {
+                write(region, i, data(i, 100 + random.nextInt(10000)));
+            }
+            // moved chunks leave free sectors in file
+            for (int i = 0; i < 1024; i += 8)
+            {
+                write(region, i, data(i, 9000 + random.nextInt(10000)));
+            }
+            final byte[][] expected = new byte[1024][];
+            for (int i = 0; i < 1024; i += 2)
+            {
+                expected[i] = readAll(region.getChunkDataInputStream(i & 31, i >> 5));
+            }
+            region.sync(); // old sectors of moved chunks are freed on sync
+            assertTrue(region.getFragmentationReport().getFreeSectors() > 0);
+            region.close();
+            final long oldSize = file.length();
+
+            final RegionCompactionResult result = RegionCompactor.compact(file);
+            assertTrue(result.isRewritten());
+            assertEquals(512, result.getChunks());
+            assertEquals(0, result.getDroppedChunks());
+            assertEquals(oldSize, result.getOldSize());
+            assertEquals(file.length(), result.getNewSize());
+            assertTrue(result.getReclaimed() > 0);
+            assertFalse("temporary file must be renamed", new File(dir, "r.0.0.mca.tmp").exists());
+
+            final RegionFile compacted = RegionFile.open(file, false);
+            assertEquals(0, compacted.getFragmentationReport().getFreeSectors());
+            for (int i = 0; i < 1024; ++ i)
+            {
+                if (expected[i] == null)
+                {
+                    assertFalse(compacted.hasChunk(i & 31, i >> 5));
+                    continue;
+                }
+                assertTrue("chunk " + i, Arrays.equals(expected[i], readAll(compacted.getChunkDataInputStream(i & 31, i >> 5))));
+            }
+            compacted.close();
+
+            final RegionCompactionResult again = RegionCompactor.compact(file);
+            assertFalse("compacted file isn't written again", again.isRewritten());
+            assertEquals(0, again.getReclaimed());
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testInvalidChunkIsDropped() throws Exception
+    {
+        final File dir = Files.createTempDirectory("compact").toFile();
+        try
+        {
+            final File file = new File(dir, "r.0.0.mca");
+            final RegionFile region = RegionFile.open(file, false);
+            write(region, 0, data(0, 5000));
+            write(region, 1, data(1, 5000));
+            region.close();
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.seek(4);
+                raf.writeInt((1000 << 8) | 2); // points after end of file
+            }
+
+            final RegionCompactionResult result = RegionCompactor.compact(file);
+            assertTrue(result.isRewritten());
+            assertEquals(1, result.getChunks());
+            assertEquals(1, result.getDroppedChunks());
+            final RegionFile compacted = RegionFile.open(file, false);
+            assertFalse(compacted.hasChunk(1, 0));
+            assertTrue(Arrays.equals(data(0, 5000), readAll(compacted.getChunkDataInputStream(0, 0))));
+            compacted.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testCompactWorld() throws Exception
+    {
+        final File dir = Files.createTempDirectory("compact").toFile();
+        try
+        {
+            final File regionDir = new File(dir, "region");
+            regionDir.mkdirs();
+            for (int r = 0; r < 3; ++ r)
+            {
+                final RegionFile region = RegionFile.open(new File(regionDir, "r." + r + ".0.mca"), false);
+                write(region, 0, data(0, 1000));
+                write(region, 1, data(1, 1000));
+                write(region, 0, data(0, 20000));
+                region.close();
+            }
+            final List<RegionCompactionResult> results = RegionCompactor.compactWorld(dir);
+            assertEquals(3, results.size());
+            for (final RegionCompactionResult result : results)
+            {
+                assertTrue(result.isRewritten());
+                assertEquals(2, result.getChunks());
+            }
+            assertTrue(RegionCompactor.compactWorld(new File(dir, "missing")).isEmpty());
+            RegionCompactor.syncDirectory(new File(dir, "missing")); // errors are ignored
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    private static void write(final RegionFile region, final int index, final byte[] data) throws IOException
+    {
+        try (final DataOutputStream out = region.getChunkDataOutputStream(index & 31, index >> 5))
+        {
+            out.write(data);
+        }
+    }
+
+    private static byte[] data(final int index, final int length)
+    {
+        final byte[] data = new byte[length];
+        new Random(index).nextBytes(data);
+        ByteBuffer.wrap(data).putInt(index);
+        return data;
+    }
+
+    private static byte[] readAll(final DataInputStream in) throws IOException
+    {
+        try (final DataInputStream stream = in)
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+            final byte[] buffer = new byte[4096];
+            for (int read = stream.read(buffer); read != - 1; read = stream.read(buffer))
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static void deleteAll(final File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (final File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+}
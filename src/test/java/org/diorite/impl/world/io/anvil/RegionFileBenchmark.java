@@ -0,0 +1,178 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Reads and writes all 1024 chunks of region file, using {@link RandomAccessRegionFile} and {@link MappedRegionFile}.
+ * <br>
+ * With cold cache, region file is reopened before every iteration and page cache is dropped
+ * (only when benchmark can write to /proc/sys/vm/drop_caches, so it needs root on linux, otherwise only file is reopened).
+ * <br>
+ * Every write of all chunks ends with {@link RegionFile#sync()}, like save cycle, and system calls used by writes
+ * (see {@link RegionIoStats}) are printed after each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("MagicNumber")
+public class RegionFileBenchmark
+{
+    private static final int CHUNKS = 1024;
+
+    @Param({"false", "true"})
+    private boolean mapped;
+
+    @Param({"warm", "cold"})
+    private String cache;
+
+    @Param({"NONE", "PER_CYCLE", "PER_CHUNK"})
+    private RegionSyncPolicy syncPolicy;
+
+    private File          file;
+    private byte[][]      chunks;
+    private byte[]        readBuffer;
+    private RegionFile    region;
+    private RegionIoStats stats;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        this.file = File.createTempFile("diorite-region", ".mca");
+        this.file.delete();
+        final Random random = new Random(CHUNKS);
+        this.chunks = new byte[CHUNKS][];
+        int max = 0;
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            // low entropy data, compressed to about 4-12KB like typical chunk
+            final byte[] chunk = new byte[20_000 + random.nextInt(40_000)];
+            for (int j = 0; j < chunk.length; j++)
+            {
+                chunk[j] = (byte) ((random.nextInt(16) == 0) ? random.nextInt(256) : (j >> 8));
+            }
+            this.chunks[i] = chunk;
+            max = Math.max(max, chunk.length);
+        }
+        this.readBuffer = new byte[max];
+        final RegionFile region = RegionFile.open(this.file, false);
+        this.writeAll(region);
+        region.close();
+        this.stats = new RegionIoStats();
+        this.region = this.open();
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws IOException
+    {
+        if (! "cold".equals(this.cache))
+        {
+            return;
+        }
+        this.region.close();
+        dropPageCache();
+        this.region = this.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        this.region.close();
+        this.file.delete();
+        System.out.println("Write system calls: " + this.stats.getWriteCalls() + ", sync system calls: " + this.stats.getSyncCalls() + ", per chunk: " + this.stats.getCallsPerChunk());
+    }
+
+    private RegionFile open() throws IOException
+    {
+        final RegionFile region = RegionFile.open(this.file, this.mapped);
+        region.setSyncPolicy(this.syncPolicy);
+        region.setStats(this.stats);
+        return region;
+    }
+
+    @Benchmark
+    public int readAll() throws IOException
+    {
+        int sum = 0;
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            try (final DataInputStream in = this.region.getChunkDataInputStream(i & 31, i >> 5))
+            {
+                final int length = this.chunks[i].length;
+                in.readFully(this.readBuffer, 0, length);
+                sum += this.readBuffer[length - 1];
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public RegionFile writeAll() throws IOException
+    {
+        this.writeAll(this.region);
+        this.region.sync();
+        return this.region;
+    }
+
+    private void writeAll(final RegionFile region) throws IOException
+    {
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            try (final DataOutputStream out = region.getChunkDataOutputStream(i & 31, i >> 5))
+            {
+                out.write(this.chunks[i]);
+            }
+        }
+    }
+
+    private static void dropPageCache()
+    {
+        final File dropCaches = new File("/proc/sys/vm/drop_caches");
+        if (! dropCaches.canWrite())
+        {
+            return;
+        }
+        try
+        {
+            new ProcessBuilder("sync").start().waitFor();
+            try (final Writer writer = new FileWriter(dropCaches))
+            {
+                writer.write("3");
+            }
+        } catch (final IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(RegionFileBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,105 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class RegionFileCacheTest extends TestCase
+{
+    private static final int THREADS = 4;
+    private static final int REGIONS = 8;
+    private static final int WRITES  = 800;
+
+    @org.junit.Test
+    public void testConcurrentEvictionAndReopen() throws Exception
+    {
+        final File dir = Files.createTempDirectory("regioncache").toFile();
+        try
+        {
+            // cache of single region, so almost every access to other region evicts it and opens the same files again and again
+            final RegionFileCache cache = new RegionFileCache(dir, ".mca", false, 1);
+            final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            final List<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int t = 0; t < THREADS; ++ t)
+            {
+                final int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < WRITES; ++ i)
+                    {
+                        // chunks are unique for each thread, every chunk is written few times
+                        final int chunkX = ((i % REGIONS) << 5) + thread;
+                        final int chunkZ = (i / REGIONS) & 31;
+                        write(cache, chunkX, chunkZ, (thread * WRITES) + i);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures)
+            {
+                future.get();
+            }
+            pool.shutdown();
+            cache.clear();
+            assertTrue("regions should be evicted", cache.getEvictions() > 0);
+
+            final RegionFileCache reopened = new RegionFileCache(dir, ".mca", false, 4);
+            for (int t = 0; t < THREADS; ++ t)
+            {
+                // last write of each chunk wins
+                for (int i = WRITES - (REGIONS * 32); i < WRITES; ++ i)
+                {
+                    final int chunkX = ((i % REGIONS) << 5) + t;
+                    final int chunkZ = (i / REGIONS) & 31;
+                    assertEquals("chunk " + chunkX + "," + chunkZ, (t * WRITES) + i, read(reopened, chunkX, chunkZ));
+                }
+            }
+            reopened.clear();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    private static void write(final RegionFileCache cache, final int chunkX, final int chunkZ, final int value) throws IOException
+    {
+        try (final RegionFileCache.RegionHandle handle = cache.acquire(chunkX, chunkZ);
+             final DataOutputStream out = handle.getRegion().getChunkDataOutputStream(chunkX & 31, chunkZ & 31))
+        {
+            out.writeInt(value);
+            // make chunks of different size, so sectors are reallocated
+            out.write(new byte[(value % 3) * 5000]);
+        }
+    }
+
+    private static int read(final RegionFileCache cache, final int chunkX, final int chunkZ) throws IOException
+    {
+        try (final RegionFileCache.RegionHandle handle = cache.acquire(chunkX, chunkZ);
+             final DataInputStream in = handle.getRegion().getChunkDataInputStream(chunkX & 31, chunkZ & 31))
+        {
+            assertNotNull("chunk " + chunkX + "," + chunkZ + " is missing", in);
+            return in.readInt();
+        }
+    }
+
+    static void deleteAll(final File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (final File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,133 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RegionFileTest extends TestCase
+{
+    @org.junit.Test
+    public void testBatchRead() throws Exception
+    {
+        this.testBatchRead(false);
+        this.testBatchRead(true);
+    }
+
+    private void testBatchRead(final boolean mapped) throws Exception
+    {
+        final File file = File.createTempFile("region", ".mca");
+        try
+        {
+            final RegionFile region = RegionFile.open(file, mapped);
+            final Random random = new Random(7);
+            for (int i = 0; i < 1024; i += 3)
+            {
+                write(region, i, data(i, 100 + random.nextInt(10000)));
+            }
+            // some chunks are moved, so there are gaps between chunks
+            for (int i = 0; i < 1024; i += 9)
+            {
+                write(region, i, data(i, 9000 + random.nextInt(10000)));
+            }
+
+            final int[] indexes = new int[1024];
+            for (int i = 0; i < indexes.length; ++ i)
+            {
+                indexes[i] = 1023 - i;
+            }
+            final ByteBuffer[] data = region.getChunkData(indexes);
+            assertEquals(indexes.length, data.length);
+            for (int i = 0; i < indexes.length; ++ i)
+            {
+                final int index = indexes[i];
+                if ((index % 3) != 0)
+                {
+                    assertNull(data[i]);
+                    continue;
+                }
+                assertNotNull(data[i]);
+                final byte[] batch = readAll(RegionFile.openChunkData(data[i]));
+                assertTrue("chunk " + index, Arrays.equals(readAll(region.getChunkDataInputStream(index & 31, index >> 5)), batch));
+                assertEquals(index, ByteBuffer.wrap(batch).getInt());
+            }
+            region.close();
+        } finally
+        {
+            file.delete();
+        }
+    }
+
+    @org.junit.Test
+    public void testCorruptedOffsetIsMissingChunk() throws Exception
+    {
+        this.testCorruptedOffsetIsMissingChunk(false);
+        this.testCorruptedOffsetIsMissingChunk(true);
+    }
+
+    private void testCorruptedOffsetIsMissingChunk(final boolean mapped) throws Exception
+    {
+        final File file = File.createTempFile("region", ".mca");
+        try
+        {
+            RegionFile region = RegionFile.open(file, mapped);
+            write(region, 0, data(0, 5000));
+            region.close();
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.seek(4);
+                raf.writeInt(0x80000001); // negative sector number
+                raf.writeInt((1 << 8) | 1); // points to timestamp table
+            }
+
+            region = RegionFile.open(file, mapped);
+            assertNull(region.getChunkDataInputStream(1, 0));
+            assertNull(region.getChunkDataInputStream(2, 0));
+            final ByteBuffer[] data = region.getChunkData(new int[]{2, 1, 0});
+            assertNull(data[0]);
+            assertNull(data[1]);
+            assertTrue(Arrays.equals(data(0, 5000), readAll(RegionFile.openChunkData(data[2]))));
+            region.close();
+        } finally
+        {
+            file.delete();
+        }
+    }
+
+    private static void write(final RegionFile region, final int index, final byte[] data) throws IOException
+    {
+        try (final DataOutputStream out = region.getChunkDataOutputStream(index & 31, index >> 5))
+        {
+            out.write(data);
+        }
+    }
+
+    private static byte[] data(final int index, final int length)
+    {
+        final byte[] data = new byte[length];
+        new Random(index).nextBytes(data);
+        ByteBuffer.wrap(data).putInt(index);
+        return data;
+    }
+
+    private static byte[] readAll(final DataInputStream in) throws IOException
+    {
+        try (final DataInputStream stream = in)
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+            final byte[] buffer = new byte[4096];
+            for (int read = stream.read(buffer); read != - 1; read = stream.read(buffer))
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
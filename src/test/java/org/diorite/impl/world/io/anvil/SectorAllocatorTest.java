@@ -0,0 +1,212 @@
+package org.diorite.impl.world.io.anvil;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SectorAllocatorTest extends TestCase
+{
+    @org.junit.Test
+    public void testAllocateAndFree() throws Exception
+    {
+        final SectorAllocator allocator = new SectorAllocator(10);
+        assertEquals(10, allocator.getFreeSectors());
+        assertEquals(0, allocator.allocate(3));
+        assertEquals(3, allocator.allocate(3));
+        assertEquals(6, allocator.allocate(4));
+        assertEquals(- 1, allocator.allocate(1));
+        assertEquals(0, allocator.getFreeSectors());
+        assertEquals(0, allocator.getFreeRuns());
+
+        allocator.free(3, 3);
+        assertTrue(allocator.isFree(3));
+        assertFalse(allocator.isFree(6));
+        assertEquals(3, allocator.getFreeSectors());
+        assertEquals(3, allocator.allocate(2));
+        assertEquals(5, allocator.allocate(1));
+        assertEquals(- 1, allocator.allocate(1));
+    }
+
+    @org.junit.Test
+    public void testFreeMergesAdjacentRuns() throws Exception
+    {
+        final SectorAllocator allocator = new SectorAllocator(9);
+        allocator.markUsed(0, 9);
+        allocator.free(0, 2);
+        allocator.free(4, 2);
+        allocator.free(7, 2);
+        assertEquals(3, allocator.getFreeRuns());
+        assertEquals(2, allocator.getLargestFreeRun());
+
+        allocator.free(2, 2); // joins run before and after
+        assertEquals(2, allocator.getFreeRuns());
+        assertEquals(6, allocator.getLargestFreeRun());
+        allocator.free(6, 1);
+        assertEquals(1, allocator.getFreeRuns());
+        assertEquals(9, allocator.getLargestFreeRun());
+        assertEquals(0.0, allocator.getFragmentation());
+
+        // freeing already free sectors changes nothing
+        allocator.free(0, 9);
+        assertEquals(9, allocator.getFreeSectors());
+        assertEquals(1, allocator.getFreeRuns());
+    }
+
+    @org.junit.Test
+    public void testBestFitPrefersFirstOfEqualRuns() throws Exception
+    {
+        final SectorAllocator allocator = new SectorAllocator(20);
+        allocator.markUsed(0, 20);
+        allocator.free(1, 5);
+        allocator.free(8, 2);
+        allocator.free(12, 3);
+        allocator.free(16, 2);
+
+        assertEquals("smallest run that fits", 12, allocator.allocate(3));
+        assertEquals("first of equal runs", 8, allocator.allocate(2));
+        assertEquals(16, allocator.allocate(2));
+        assertEquals(1, allocator.allocate(2));
+        assertEquals("rest of split run", 3, allocator.allocate(3));
+        assertEquals(- 1, allocator.allocate(1));
+    }
+
+    @org.junit.Test
+    public void testMarkUsedSplitsRuns() throws Exception
+    {
+        final SectorAllocator allocator = new SectorAllocator(200);
+        allocator.markUsed(0, 2); // header
+        allocator.markUsed(60, 10); // crosses bitmap word
+        allocator.markUsed(130, 5);
+        allocator.markUsed(195, 10); // partially out of file
+        assertEquals(200 - 2 - 10 - 5 - 5, allocator.getFreeSectors());
+        assertEquals(3, allocator.getFreeRuns());
+        assertEquals(60, allocator.getLargestFreeRun());
+        assertFalse(allocator.isFree(199));
+        assertTrue(allocator.isFree(194));
+
+        assertEquals(200, allocator.grow(10));
+        assertEquals(210, allocator.size());
+        assertEquals(4, allocator.getFreeRuns());
+        assertEquals(200, allocator.allocate(10));
+    }
+
+    @org.junit.Test
+    public void testGrowMergesWithFreeEnd() throws Exception
+    {
+        final SectorAllocator allocator = new SectorAllocator(0);
+        assertEquals(0, allocator.getFreeRuns());
+        assertEquals(- 1, allocator.allocate(1));
+        assertEquals(0, allocator.grow(2));
+        allocator.markUsed(0, 2);
+        assertEquals(2, allocator.grow(100));
+        assertEquals(102, allocator.grow(100));
+        assertEquals(1, allocator.getFreeRuns());
+        assertEquals(200, allocator.getLargestFreeRun());
+        assertEquals(2, allocator.allocate(200));
+    }
+
+    @org.junit.Test
+    public void testRandomOperations() throws Exception
+    {
+        final Random random = new Random(13);
+        final SectorAllocator allocator = new SectorAllocator(300);
+        boolean[] used = new boolean[300];
+        for (int op = 0; op < 20_000; ++ op)
+        {
+            final int start = random.nextInt(used.length);
+            final int count = 1 + random.nextInt(20);
+            switch (random.nextInt(5))
+            {
+                case 0:
+                case 1:
+                {
+                    final int expected = bestFit(used, count);
+                    assertEquals(expected, allocator.allocate(count));
+                    for (int i = expected; (expected != - 1) && (i < (expected + count)); ++ i)
+                    {
+                        used[i] = true;
+                    }
+                    break;
+                }
+                case 2:
+                case 3:
+                    allocator.free(start, count);
+                    for (int i = start; i < Math.min(start + count, used.length); ++ i)
+                    {
+                        used[i] = false;
+                    }
+                    break;
+                default:
+                    if (random.nextInt(50) == 0)
+                    {
+                        allocator.grow(count);
+                        final boolean[] grown = new boolean[used.length + count];
+                        System.arraycopy(used, 0, grown, 0, used.length);
+                        used = grown;
+                    }
+                    else
+                    {
+                        allocator.markUsed(start, count);
+                        for (int i = start; i < Math.min(start + count, used.length); ++ i)
+                        {
+                            used[i] = true;
+                        }
+                    }
+            }
+            assertState(used, allocator);
+        }
+    }
+
+    private static void assertState(final boolean[] used, final SectorAllocator allocator)
+    {
+        int free = 0;
+        int runs = 0;
+        int largest = 0;
+        int run = 0;
+        for (int i = 0; i < used.length; ++ i)
+        {
+            assertEquals(! used[i], allocator.isFree(i));
+            if (used[i])
+            {
+                run = 0;
+                continue;
+            }
+            free++;
+            if (run++ == 0)
+            {
+                runs++;
+            }
+            largest = Math.max(largest, run);
+        }
+        assertEquals(used.length, allocator.size());
+        assertEquals(free, allocator.getFreeSectors());
+        assertEquals(runs, allocator.getFreeRuns());
+        assertEquals(largest, allocator.getLargestFreeRun());
+    }
+
+    private static int bestFit(final boolean[] used, final int count)
+    {
+        int best = - 1;
+        int bestLength = Integer.MAX_VALUE;
+        for (int i = 0; i < used.length; )
+        {
+            if (used[i])
+            {
+                ++ i;
+                continue;
+            }
+            int end = i;
+            while ((end < used.length) && ! used[end])
+            {
+                ++ end;
+            }
+            if (((end - i) >= count) && ((end - i) < bestLength))
+            {
+                best = i;
+                bestLength = end - i;
+            }
+            i = end;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,223 @@
+package org.diorite.impl.world.io.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ChunkLogTest extends TestCase
+{
+    private static final int CHUNKS = 20;
+
+    @org.junit.Test
+    public void testReopen() throws Exception
+    {
+        final File dir = Files.createTempDirectory("chunklog").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            ChunkLog log = new ChunkLog(file);
+            writeAll(log, 0);
+            writeAll(log, 1);
+            log.close();
+
+            log = new ChunkLog(file);
+            assertEquals(CHUNKS, log.size());
+            assertAll(log, 1);
+            assertNull(log.read(CHUNKS, 0));
+            log.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testTornTailIsTruncated() throws Exception
+    {
+        final File dir = Files.createTempDirectory("chunklog").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            ChunkLog log = new ChunkLog(file);
+            writeAll(log, 0);
+            final long valid = log.getFileSize();
+            log.write(0, 0, data(0, 7), 1000);
+            log.close();
+
+            // crash during write of last record
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.setLength(valid + 500);
+            }
+            log = new ChunkLog(file);
+            assertEquals(valid, log.getFileSize());
+            assertEquals(valid, file.length());
+            assertAll(log, 0);
+            assertEquals(500, new File(dir, ChunkLog.FILE_NAME + ".damaged").length());
+
+            // new records are appended after last valid one
+            log.write(0, 0, data(0, 2), 1000);
+            log.close();
+            log = new ChunkLog(file);
+            assertTrue(Arrays.equals(data(0, 2), log.read(0, 0)));
+            log.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testDamagedRecordIsSkipped() throws Exception
+    {
+        final File dir = Files.createTempDirectory("chunklog").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            ChunkLog log = new ChunkLog(file);
+            writeAll(log, 0);
+            final long damagedAt = log.getFileSize();
+            writeAll(log, 1);
+            log.close();
+
+            // corrupt data of first record of second generation (chunk 0,0), records after it must survive
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                raf.seek(damagedAt + 100);
+                raf.write(new byte[]{1, 2, 3, 4});
+            }
+            log = new ChunkLog(file);
+            assertEquals(CHUNKS, log.size());
+            assertTrue("older record of damaged chunk should be used", Arrays.equals(data(0, 0), log.read(0, 0)));
+            for (int i = 1; i < CHUNKS; ++ i)
+            {
+                assertTrue("chunk " + i, Arrays.equals(data(i, 1), log.read(i, 0)));
+            }
+            assertTrue(new File(dir, ChunkLog.FILE_NAME + ".damaged").length() > 0);
+            // damaged record is not truncated, it is removed by compaction
+            assertEquals(file.length(), log.getFileSize());
+            assertTrue(log.compact());
+            assertEquals(0, log.getDeadBytes());
+            log.close();
+
+            log = new ChunkLog(file);
+            assertEquals(CHUNKS, log.size());
+            assertTrue(Arrays.equals(data(0, 0), log.read(0, 0)));
+            assertTrue(Arrays.equals(data(5, 1), log.read(5, 0)));
+            log.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testCompact() throws Exception
+    {
+        final File dir = Files.createTempDirectory("chunklog").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            ChunkLog log = new ChunkLog(file);
+            for (int gen = 0; gen < 5; ++ gen)
+            {
+                writeAll(log, gen);
+            }
+            final long size = log.getFileSize();
+            assertTrue(log.getDeadBytes() > 0);
+            assertTrue(log.compact());
+            assertEquals(1, log.getCompactions());
+            assertEquals(0, log.getDeadBytes());
+            assertTrue(log.getFileSize() < size);
+            assertAll(log, 4);
+            log.write(1, 0, data(1, 9), 1000);
+            log.close();
+
+            log = new ChunkLog(file);
+            assertEquals(CHUNKS, log.size());
+            assertTrue(Arrays.equals(data(1, 9), log.read(1, 0)));
+            assertTrue(Arrays.equals(data(2, 4), log.read(2, 0)));
+            log.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testFailedCompactionKeepsStore() throws Exception
+    {
+        final File dir = Files.createTempDirectory("chunklog").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            final ChunkLog log = new ChunkLog(file);
+            writeAll(log, 0);
+            writeAll(log, 1);
+
+            // non-empty directory can't be replaced by file, so move of compacted file fails
+            assertTrue(file.delete());
+            assertTrue(file.mkdir());
+            assertTrue(new File(file, "block").createNewFile());
+            try
+            {
+                log.compact();
+                fail("compaction should fail");
+            } catch (final IOException expected)
+            {
+                // store must stay usable
+            }
+            assertFalse(new File(dir, ChunkLog.FILE_NAME + ".tmp").exists());
+            assertAll(log, 1);
+            log.write(0, 0, data(0, 2), 1000);
+            assertTrue(Arrays.equals(data(0, 2), log.read(0, 0)));
+            log.close();
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    private static void writeAll(final ChunkLog log, final int gen) throws IOException
+    {
+        for (int i = 0; i < CHUNKS; ++ i)
+        {
+            log.write(i, 0, data(i, gen), 1000);
+        }
+    }
+
+    private static void assertAll(final ChunkLog log, final int gen) throws IOException
+    {
+        for (int i = 0; i < CHUNKS; ++ i)
+        {
+            assertTrue("chunk " + i, Arrays.equals(data(i, gen), log.read(i, 0)));
+        }
+    }
+
+    private static byte[] data(final int chunk, final int gen)
+    {
+        final byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; ++ i)
+        {
+            data[i] = (byte) ((chunk * 31) + (gen * 7) + i);
+        }
+        return data;
+    }
+
+    private static void deleteAll(final File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (final File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+}
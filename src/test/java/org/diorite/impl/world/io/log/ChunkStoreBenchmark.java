@@ -0,0 +1,230 @@
+package org.diorite.impl.world.io.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.impl.utils.ZlibPool;
+import org.diorite.impl.world.io.anvil.RegionFileCache;
+import org.diorite.impl.world.io.anvil.RegionFileCache.RegionHandle;
+
+/**
+ * Compares Anvil region files with {@link ChunkLog}, on save storm (all chunks of 64x64 area written and synced, like big autosave)
+ * and on cold load (store opened and all chunks read, with page cache dropped before every invocation when benchmark can write
+ * to /proc/sys/vm/drop_caches, so it needs root on linux).
+ * <br>
+ * Both stores compress chunks with the same level, so only storage layout is compared. Size of files is printed after each trial,
+ * chunk log is compacted before cold load, and after every save storm when half of file is superseded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("MagicNumber")
+public class ChunkStoreBenchmark
+{
+    private static final int SIZE   = 64;
+    private static final int CHUNKS = SIZE * SIZE;
+
+    @Param({"anvil", "log"})
+    private String store;
+
+    private File     worldDir;
+    private byte[][] chunks;
+    private byte[]   readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        this.worldDir = Files.createTempDirectory("diorite-store").toFile();
+        final Random random = new Random(CHUNKS);
+        this.chunks = new byte[CHUNKS][];
+        int max = 0;
+        for (int i = 0; i < CHUNKS; i++)
+        {
+            // low entropy data, compressed to about 4-12KB like typical chunk
+            final byte[] chunk = new byte[20_000 + random.nextInt(40_000)];
+            for (int j = 0; j < chunk.length; j++)
+            {
+                chunk[j] = (byte) ((random.nextInt(16) == 0) ? random.nextInt(256) : (j >> 8));
+            }
+            this.chunks[i] = chunk;
+            max = Math.max(max, chunk.length);
+        }
+        this.readBuffer = new byte[max];
+        this.saveStorm();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws IOException
+    {
+        if ("log".equals(this.store))
+        {
+            try (final ChunkLog log = new ChunkLog(new File(this.worldDir, ChunkLog.FILE_NAME)))
+            {
+                if (log.getGarbageRatio() >= 0.5)
+                {
+                    log.compact();
+                }
+            }
+        }
+        dropPageCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        long size = new File(this.worldDir, ChunkLog.FILE_NAME).length();
+        final File[] regions = new File(this.worldDir, "region").listFiles();
+        if (regions != null)
+        {
+            for (final File region : regions)
+            {
+                size += region.length();
+                region.delete();
+            }
+        }
+        System.out.println("Size of " + this.store + " store: " + (size >> 10) + " KiB");
+        new File(this.worldDir, "region").delete();
+        new File(this.worldDir, ChunkLog.FILE_NAME).delete();
+        this.worldDir.delete();
+    }
+
+    @Benchmark
+    public int saveStorm() throws IOException
+    {
+        if ("log".equals(this.store))
+        {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(16384);
+            try (final ChunkLog log = new ChunkLog(new File(this.worldDir, ChunkLog.FILE_NAME)))
+            {
+                for (int i = 0; i < CHUNKS; i++)
+                {
+                    buffer.reset();
+                    try (final OutputStream out = ZlibPool.getInstance().deflate(buffer, Deflater.BEST_SPEED))
+                    {
+                        out.write(this.chunks[i]);
+                    }
+                    log.write(i % SIZE, i / SIZE, buffer.toByteArray(), buffer.size());
+                }
+                log.sync();
+            }
+            return CHUNKS;
+        }
+        final RegionFileCache cache = new RegionFileCache(this.worldDir, ".mca");
+        new File(this.worldDir, "region").mkdirs();
+        try
+        {
+            for (int i = 0; i < CHUNKS; i++)
+            {
+                try (final RegionHandle handle = cache.acquire(i % SIZE, i / SIZE);
+                     final DataOutputStream out = handle.getRegion().getChunkDataOutputStream((i % SIZE) & 31, (i / SIZE) & 31))
+                {
+                    out.write(this.chunks[i]);
+                }
+            }
+            cache.sync();
+        } finally
+        {
+            cache.clear();
+        }
+        return CHUNKS;
+    }
+
+    @Benchmark
+    public int coldLoad() throws IOException
+    {
+        int sum = 0;
+        if ("log".equals(this.store))
+        {
+            try (final ChunkLog log = new ChunkLog(new File(this.worldDir, ChunkLog.FILE_NAME)))
+            {
+                for (int i = 0; i < CHUNKS; i++)
+                {
+                    try (final InputStream in = ZlibPool.getInstance().inflate(new ByteArrayInputStream(log.read(i % SIZE, i / SIZE))))
+                    {
+                        sum += this.readFully(in, this.chunks[i].length);
+                    }
+                }
+            }
+            return sum;
+        }
+        final RegionFileCache cache = new RegionFileCache(this.worldDir, ".mca");
+        try
+        {
+            for (int i = 0; i < CHUNKS; i++)
+            {
+                try (final RegionHandle handle = cache.acquire(i % SIZE, i / SIZE);
+                     final DataInputStream in = handle.getRegion().getChunkDataInputStream((i % SIZE) & 31, (i / SIZE) & 31))
+                {
+                    sum += this.readFully(in, this.chunks[i].length);
+                }
+            }
+        } finally
+        {
+            cache.clear();
+        }
+        return sum;
+    }
+
+    private int readFully(final InputStream in, final int length) throws IOException
+    {
+        new DataInputStream(in).readFully(this.readBuffer, 0, length);
+        return this.readBuffer[length - 1];
+    }
+
+    private static void dropPageCache()
+    {
+        final File dropCaches = new File("/proc/sys/vm/drop_caches");
+        if (! dropCaches.canWrite())
+        {
+            return;
+        }
+        try
+        {
+            new ProcessBuilder("sync").start().waitFor();
+            try (final Writer writer = new FileWriter(dropCaches))
+            {
+                writer.write("3");
+            }
+        } catch (final IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(ChunkStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
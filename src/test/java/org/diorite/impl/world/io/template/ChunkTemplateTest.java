@@ -0,0 +1,191 @@
+package org.diorite.impl.world.io.template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.zip.DeflaterOutputStream;
+
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.impl.world.chunk.ChunkPartImpl;
+import org.diorite.impl.world.io.anvil.AnvilChunkCodec;
+import org.diorite.impl.world.io.anvil.RegionFile;
+import org.diorite.impl.world.io.log.ChunkLog;
+import org.diorite.world.chunk.ChunkPos;
+
+import junit.framework.TestCase;
+
+public class ChunkTemplateTest extends TestCase
+{
+    private static final int  SIZE          = 20; // 400 chunks, like small arena
+    private static final long LAST_MODIFIED = 1_000_000_000_000L;
+
+    @org.junit.Test
+    public void testRegionFilesAreNotChanged() throws Exception
+    {
+        final File dir = Files.createTempDirectory("template").toFile();
+        try
+        {
+            writeRegions(dir, SIZE);
+            final File region = new File(dir, "region/r.0.0.mca");
+            try (final RandomAccessFile raf = new RandomAccessFile(region, "rw"))
+            {
+                // not aligned to sectors, region file opened for writing would grow it
+                raf.setLength(raf.length() + 100);
+            }
+            region.setLastModified(LAST_MODIFIED);
+            final long length = region.length();
+
+            final ChunkTemplate template = ChunkTemplate.load(dir);
+            assertEquals(SIZE * SIZE, template.size());
+            assertNotNull(template.getChunk(SIZE - 1, SIZE - 1));
+            assertNull(template.getChunk(SIZE, 0));
+            assertEquals("template must not change region file", length, region.length());
+            assertEquals("template must not change region file", LAST_MODIFIED, region.lastModified());
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testChunkLogIsNotChanged() throws Exception
+    {
+        final File dir = Files.createTempDirectory("template").toFile();
+        try
+        {
+            final File file = new File(dir, ChunkLog.FILE_NAME);
+            try (final ChunkLog log = new ChunkLog(file))
+            {
+                for (int i = 0; i < 4; ++ i)
+                {
+                    final byte[] data = deflate(encode(createChunk(i, 0)));
+                    log.write(i, 0, data, data.length);
+                }
+            }
+            try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+            {
+                // torn record, writable log would move it to separate file and truncate log
+                raf.seek(raf.length());
+                raf.write(new byte[]{0x43, 0x48, 0x4E, 0x4B, 0, 0, 1});
+            }
+            final long length = file.length();
+
+            final ChunkTemplate template = ChunkTemplate.load(dir);
+            assertEquals(4, template.size());
+            assertEquals("template must not change chunk log", length, file.length());
+            assertFalse(new File(file.getPath() + ".damaged").exists());
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    @org.junit.Test
+    public void testInstancesShareAndReleaseSections() throws Exception
+    {
+        final File dir = Files.createTempDirectory("template").toFile();
+        try
+        {
+            writeRegions(dir, 1);
+            final ChunkPartImpl section = ChunkTemplate.load(dir).getChunk(0, 0).getChunkParts()[0];
+            assertFalse(section.getBlocks().isShared());
+
+            final ChunkPartImpl first = section.instance();
+            final ChunkPartImpl second = section.instance();
+            assertTrue("instance must share blocks with template", section.getBlocks().isShared());
+            assertEquals(section.getBlocks().get(123), first.getBlocks().get(123));
+
+            // instance that is changed gets own copy, template stays unchanged
+            first.getBlocks().set(123, (short) (7 << 4));
+            assertEquals((short) (7 << 4), first.getBlocks().get(123));
+            assertEquals(second.getBlocks().get(123), section.getBlocks().get(123));
+
+            // unloaded instances are released, so template isn't shared anymore
+            first.release();
+            assertTrue(section.getBlocks().isShared());
+            second.release();
+            assertFalse(section.getBlocks().isShared());
+        } finally
+        {
+            deleteAll(dir);
+        }
+    }
+
+    /**
+     * Writes square of chunks, starting at 0, 0, to region files of given world folder.
+     *
+     * @param dir  world folder.
+     * @param size size of square.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    static void writeRegions(final File dir, final int size) throws IOException
+    {
+        final File regionDir = new File(dir, "region");
+        regionDir.mkdirs();
+        for (int x = 0; x < size; ++ x)
+        {
+            for (int z = 0; z < size; ++ z)
+            {
+                final RegionFile region = RegionFile.open(new File(regionDir, "r." + (x >> 5) + "." + (z >> 5) + ".mca"), false);
+                try (final DataOutputStream out = region.getChunkDataOutputStream(x & 31, z & 31))
+                {
+                    out.write(encode(createChunk(x, z)));
+                } finally
+                {
+                    region.close();
+                }
+            }
+        }
+    }
+
+    private static ChunkImpl createChunk(final int x, final int z)
+    {
+        final ChunkPartImpl[] parts = new ChunkPartImpl[16];
+        for (int y = 0; y < 4; ++ y)
+        {
+            final ChunkPartImpl part = new ChunkPartImpl((byte) y, true);
+            for (int i = 0; i < 4096; ++ i)
+            {
+                // stone with some ores, like typical underground section
+                part.getBlocks().set(i, (short) ((((i * 31) % 17) == 0) ? (14 + (i % 3)) << 4 : 1 << 4));
+            }
+            part.recalculateBlockCount();
+            parts[y] = part;
+        }
+        return new ChunkImpl(new ChunkPos(x, z, null), new byte[256], parts, new int[256]);
+    }
+
+    private static byte[] encode(final ChunkImpl chunk) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(65536);
+        AnvilChunkCodec.write(new DataOutputStream(buffer), chunk, 0, true);
+        return buffer.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] data) throws IOException
+    {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4);
+        try (final DeflaterOutputStream out = new DeflaterOutputStream(buffer))
+        {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    static void deleteAll(final File file)
+    {
+        final File[] files = file.listFiles();
+        if (files != null)
+        {
+            for (final File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+}
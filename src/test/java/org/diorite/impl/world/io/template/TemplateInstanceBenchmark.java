@@ -0,0 +1,89 @@
+package org.diorite.impl.world.io.template;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.diorite.impl.world.chunk.ChunkImpl;
+import org.diorite.world.chunk.ChunkPos;
+
+/**
+ * Measures loading all chunks of 400-chunk world created from {@link ChunkTemplate} ("instance": chunks are copy-on-write instances
+ * of template chunks, like {@link TemplateChunkIoService} does), compared with reading and decoding all chunks from region files
+ * ("decode": what every world cloned on disk has to do).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@SuppressWarnings("MagicNumber")
+public class TemplateInstanceBenchmark
+{
+    private static final int SIZE = 20;
+
+    @Param({"instance", "decode"})
+    private String mode;
+
+    private File          worldDir;
+    private ChunkTemplate template;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        this.worldDir = Files.createTempDirectory("diorite-template").toFile();
+        ChunkTemplateTest.writeRegions(this.worldDir, SIZE);
+        this.template = ChunkTemplate.load(this.worldDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        ChunkTemplateTest.deleteAll(this.worldDir);
+    }
+
+    @Benchmark
+    public int loadWorld() throws IOException
+    {
+        if ("decode".equals(this.mode))
+        {
+            return ChunkTemplate.load(this.worldDir).size();
+        }
+        int sections = 0;
+        for (int x = 0; x < SIZE; ++ x)
+        {
+            for (int z = 0; z < SIZE; ++ z)
+            {
+                final ChunkImpl chunk = new ChunkImpl(new ChunkPos(x, z, null));
+                chunk.loadFrom(this.template.getChunk(x, z));
+                sections += chunk.getChunkParts().length;
+                chunk.releaseChunkParts(); // like unload of chunk, so template sections aren't shared forever
+            }
+        }
+        return sections;
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(TemplateInstanceBenchmark.class.getSimpleName()).build()).run();
+    }
+}